@@ -5,6 +5,7 @@ import javafx.fxml.FXMLLoader;
 import javafx.scene.Scene;
 import javafx.stage.Stage;
 import it.r2u.animar2u.core.initialization.BrowserInitializer;
+import it.r2u.animar2u.ui.controllers.MainBrowserController;
 
 import java.io.IOException;
 
@@ -14,6 +15,8 @@ import java.io.IOException;
  */
 public class AnimaApplication extends Application {
     
+    private MainBrowserController controller;
+    
     @Override
     public void start(Stage stage) throws IOException {
         try {
@@ -25,6 +28,7 @@ public class AnimaApplication extends Application {
                 AnimaApplication.class.getResource("/fxml/browser-main.fxml")
             );
             Scene scene = new Scene(fxmlLoader.load(), 1200, 800);
+            controller = fxmlLoader.getController();
             
             // Apply CSS styling
             scene.getStylesheets().add(
@@ -50,6 +54,17 @@ public class AnimaApplication extends Application {
         }
     }
     
+    /**
+     * Called however the application ends, including when the window is
+     * closed, so the session and profile are saved on every exit
+     */
+    @Override
+    public void stop() {
+        if (controller != null) {
+            controller.shutdown();
+        }
+    }
+    
     /**
      * Application entry point
      * @param args command line arguments
@@ -1,5 +1,8 @@
 package it.r2u.animar2u.core.config;
 
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
 /**
  * Manages system properties for Anima Browser
  * Centralizes all JavaFX and WebKit configuration properties
@@ -28,6 +31,18 @@ public class SystemPropertyManager {
         System.out.println("System properties initialized for optimal browser performance");
     }
     
+    /**
+     * Get the directory for persistent browser data such as history.
+     * Defaults to ~/.anima-browser and can be overridden with -Danima.profile.dir
+     */
+    public static Path getProfileDirectory() {
+        String configured = System.getProperty("anima.profile.dir");
+        if (configured != null && !configured.isBlank()) {
+            return Paths.get(configured);
+        }
+        return Paths.get(System.getProperty("user.home"), ".anima-browser");
+    }
+    
     /**
      * Initialize core JavaFX properties
      */
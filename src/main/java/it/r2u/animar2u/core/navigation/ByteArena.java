@@ -0,0 +1,78 @@
+package it.r2u.animar2u.core.navigation;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Append-only byte storage for UTF-8 string slices shared by many entries.
+ * Replaced slices become garbage that the owner reclaims by copying live slices
+ * into a fresh arena. Not thread-safe; callers lock.
+ */
+final class ByteArena {
+
+    private byte[] bytes;
+    private int size;
+    private long garbage;
+
+    ByteArena(int initialCapacity) {
+        this.bytes = new byte[Math.max(64, initialCapacity)];
+    }
+
+    /**
+     * Append encoded bytes and return their offset
+     */
+    int append(byte[] data) {
+        ensureCapacity(data.length);
+        System.arraycopy(data, 0, bytes, size, data.length);
+        int offset = size;
+        size += data.length;
+        return offset;
+    }
+
+    /**
+     * Copy a slice from another arena and return its offset here
+     */
+    int copyFrom(ByteArena other, int offset, int length) {
+        ensureCapacity(length);
+        System.arraycopy(other.bytes, offset, bytes, size, length);
+        int copied = size;
+        size += length;
+        return copied;
+    }
+
+    String decode(int offset, int length) {
+        return new String(bytes, offset, length, StandardCharsets.UTF_8);
+    }
+
+    boolean equalsSlice(int offset, int length, byte[] data) {
+        return Arrays.equals(bytes, offset, offset + length, data, 0, data.length);
+    }
+
+    /**
+     * Mark a slice as no longer referenced
+     */
+    void release(int length) {
+        garbage += length;
+    }
+
+    /**
+     * Whether more than half of the arena is garbage worth reclaiming
+     */
+    boolean isMostlyGarbage() {
+        return garbage > (1 << 20) && garbage * 2 > size;
+    }
+
+    int liveBytes() {
+        return (int) (size - garbage);
+    }
+
+    private void ensureCapacity(int extra) {
+        if (size + extra > bytes.length) {
+            long grown = Math.max((long) bytes.length * 2, (long) size + extra);
+            if (grown > Integer.MAX_VALUE - 8) {
+                throw new IllegalStateException("History arena exceeds 2 GB");
+            }
+            bytes = Arrays.copyOf(bytes, (int) grown);
+        }
+    }
+}
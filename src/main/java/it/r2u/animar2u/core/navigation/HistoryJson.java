@@ -0,0 +1,173 @@
+package it.r2u.animar2u.core.navigation;
+
+import it.r2u.animar2u.core.util.JsonReader;
+import it.r2u.animar2u.core.util.JsonWriter;
+import it.r2u.animar2u.core.util.UrlCanonicalizer;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Import and export of browsing history as JSON.
+ *
+ * A dump is an array of visits such as
+ * {@code {"url": "https://x.com/", "title": "X", "visitTime": 1700000000000}},
+ * with times in epoch milliseconds. Imports also take ISO-8601 times, the
+ * {@code lastVisitTime} and {@code time} names used by other tools, a
+ * {@code visitCount} that expands into that many visits, and an object that
+ * wraps the array in one of its fields.
+ *
+ * Both directions stream. Imports parse one visit at a time and hand them to
+ * the history files in sorted batches, then rebuild the in-memory history and
+ * visited links once at the end; exports read the history files a day at a time.
+ */
+public final class HistoryJson {
+
+    private static final int BATCH_SIZE = 16384;
+    // Caps the visits a single aggregate record expands into
+    private static final int MAX_VISITS_PER_RECORD = 1000;
+    private static final ZoneId ZONE = ZoneId.systemDefault();
+
+    private HistoryJson() {
+    }
+
+    /**
+     * Add every visit in a JSON history dump; records without a URL or a
+     * readable time are skipped
+     * @return the number of visits read
+     */
+    public static int importFrom(Reader in, HistoryManager history) throws IOException {
+        UrlCanonicalizer canonicalizer = UrlCanonicalizer.getDefault();
+        JsonReader json = new JsonReader(in);
+        if (json.peek() == JsonReader.Token.BEGIN_OBJECT) {
+            // Unwrap {"history": [...]} and the like: use the first array field
+            json.beginObject();
+            while (json.hasNext()) {
+                json.nextName();
+                if (json.peek() == JsonReader.Token.BEGIN_ARRAY) {
+                    break;
+                }
+                json.skipValue();
+            }
+        }
+
+        List<HistoryWriter.Visit> batch = new ArrayList<>();
+        boolean recent = false;
+        int imported = 0;
+        try {
+            json.beginArray();
+            while (json.hasNext()) {
+                String url = null;
+                String title = null;
+                long millis = Long.MIN_VALUE;
+                long count = 1;
+                json.beginObject();
+                while (json.hasNext()) {
+                    String name = json.nextName();
+                    if (json.peek() == JsonReader.Token.NULL) {
+                        json.nextNull();
+                        continue;
+                    }
+                    switch (name) {
+                        case "url":
+                            url = json.nextString();
+                            break;
+                        case "title":
+                            title = json.nextString();
+                            break;
+                        case "visitTime":
+                        case "lastVisitTime":
+                        case "time":
+                            millis = readTime(json);
+                            break;
+                        case "visitCount":
+                            count = json.nextLong();
+                            break;
+                        default:
+                            json.skipValue();
+                    }
+                }
+                json.endObject();
+                if (url == null || url.trim().isEmpty() || millis == Long.MIN_VALUE) {
+                    continue;
+                }
+
+                url = canonicalizer.canonicalize(url);
+                if (title == null || title.trim().isEmpty()) {
+                    title = url;
+                }
+                long visits = Math.max(1, Math.min(count, MAX_VISITS_PER_RECORD));
+                for (long i = 0; i < visits; i++) {
+                    batch.add(new HistoryWriter.Visit(title, url, millis));
+                }
+                imported += (int) visits;
+                if (batch.size() >= BATCH_SIZE) {
+                    recent |= history.importVisits(batch);
+                    batch = new ArrayList<>();
+                }
+            }
+            if (!batch.isEmpty()) {
+                recent |= history.importVisits(batch);
+            }
+        } finally {
+            // Show what was imported even when the rest of the file is unreadable
+            history.finishImport(recent);
+        }
+        return imported;
+    }
+
+    /**
+     * Write every recorded visit, oldest first
+     * @return the number of records written
+     */
+    public static int exportTo(HistoryManager history, Writer out) throws IOException {
+        JsonWriter json = new JsonWriter(out);
+        int[] exported = new int[1];
+        json.beginArray();
+        history.forEachVisit((title, url, millis, count) -> {
+            json.beginObject();
+            json.name("url").value(url);
+            json.name("title").value(title);
+            json.name("visitTime").value(millis);
+            if (count > 1) {
+                json.name("visitCount").value(count);
+            }
+            json.endObject();
+            exported[0]++;
+        });
+        json.endArray();
+        out.write('\n');
+        json.flush();
+        return exported[0];
+    }
+
+    /**
+     * Read epoch milliseconds, or an ISO-8601 time with or without an offset
+     * @return the time, or Long.MIN_VALUE if it cannot be read
+     */
+    private static long readTime(JsonReader json) throws IOException {
+        if (json.peek() == JsonReader.Token.NUMBER) {
+            return json.nextLong();
+        }
+        String text = json.nextString().trim();
+        try {
+            return Long.parseLong(text);
+        } catch (NumberFormatException notMillis) {
+            try {
+                return Instant.parse(text).toEpochMilli();
+            } catch (DateTimeParseException notInstant) {
+                try {
+                    return LocalDateTime.parse(text).atZone(ZONE).toInstant().toEpochMilli();
+                } catch (DateTimeParseException unreadable) {
+                    return Long.MIN_VALUE;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package it.r2u.animar2u.core.navigation;
+
+import it.r2u.animar2u.core.storage.HistoryEntry;
+
+/**
+ * Receives history changes from HistoryManager.
+ * Callbacks run on the thread that changed history, in the order the changes
+ * were applied, and must not call back into the manager.
+ */
+public interface HistoryListener {
+    
+    /**
+     * A page was visited; the entry already reflects the new visit
+     */
+    void entryVisited(HistoryEntry entry);
+    
+    /**
+     * An entry was removed or evicted
+     */
+    void entryRemoved(HistoryEntry entry);
+    
+    /**
+     * All history was cleared
+     */
+    void historyCleared();
+}
@@ -1,88 +1,238 @@
 package it.r2u.animar2u.core.navigation;
 
+import it.r2u.animar2u.core.search.SubstringIndex;
 import it.r2u.animar2u.core.storage.HistoryEntry;
+import it.r2u.animar2u.core.storage.TopSite;
+import it.r2u.animar2u.core.util.UrlCanonicalizer;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.BooleanSupplier;
 
 /**
- * Manages browser history
+ * Manages browser history.
+ * URLs are canonicalized on entry, so spellings of the same page such as
+ * {@code http://x.com} and {@code https://x.com/?utm_source=feed} share one entry.
+ * Removals and reads of history files apply the visits queued before them
+ * without waiting for the writer, and complete through the returned future.
  */
 public class HistoryManager {
-    private Map<String, HistoryEntry> history;
-    private List<HistoryEntry> chronologicalHistory;
+    private final UrlCanonicalizer canonicalizer = UrlCanonicalizer.getDefault();
+    private HistoryStore history;
+    private HistorySegments segments;
+    private HistoryWriter writer;
+    private VisitedLinks visitedLinks;
     private int maxHistorySize = 10000;
     
+    /**
+     * Create a history kept in memory only
+     */
     public HistoryManager() {
-        this.history = new ConcurrentHashMap<>();
-        this.chronologicalHistory = Collections.synchronizedList(new ArrayList<>());
+        this.history = new HistoryStore(maxHistorySize);
+        this.writer = new HistoryWriter(history, null);
+        this.visitedLinks = new VisitedLinks(history, null, null);
+        history.addListener(visitedLinks);
+    }
+    
+    /**
+     * Create a history persisted in the given directory.
+     * Call {@link #load()} once listeners are registered to bring back recent history.
+     */
+    public HistoryManager(Path directory) {
+        this.history = new HistoryStore(maxHistorySize);
+        try {
+            this.segments = new HistorySegments(directory);
+        } catch (IOException e) {
+            System.err.println("Failed to open history in " + directory + ", keeping it in memory: " + e.getMessage());
+        }
+        this.writer = new HistoryWriter(history, segments);
+        this.visitedLinks = new VisitedLinks(history, segments, segments != null ? directory : null);
+        history.addListener(visitedLinks);
+    }
+    
+    /**
+     * Load the recent window of persisted history in the background.
+     * Older history stays on disk and is read when a date range query needs it;
+     * the visited link filter is loaded from its own file.
+     */
+    public void load() {
+        if (segments == null) {
+            return;
+        }
+        writer.execute(() -> {
+            try {
+                segments.replayRecent(history::recordVisits);
+            } catch (IOException e) {
+                System.err.println("Failed to load history: " + e.getMessage());
+            }
+            visitedLinks.load();
+        });
+    }
+    
+    /**
+     * Receives visits from {@link #forEachVisit}
+     */
+    interface VisitAction {
+        void visit(String title, String url, long millis, int count) throws IOException;
     }
     
     /**
-     * Add a page to history
+     * Pass every recorded visit to {@code action}, oldest day first. History files
+     * are read a day at a time, so visits keep being recorded meanwhile. Without
+     * history files each entry is passed once with its visit count.
+     */
+    void forEachVisit(VisitAction action) throws IOException {
+        writer.flush();
+        if (segments == null) {
+            for (HistoryEntry entry : history.oldestFirst()) {
+                action.visit(entry.getTitle(), entry.getUrl(),
+                    HistoryStore.toMillis(entry.getVisitTime()), entry.getVisitCount());
+            }
+            return;
+        }
+        for (long day : segments.days()) {
+            for (HistoryWriter.Visit visit : segments.visitsOn(day)) {
+                action.visit(visit.title, visit.url, visit.millis, 1);
+            }
+        }
+    }
+    
+    /**
+     * Record a batch of imported visits with canonical URLs, which the caller hands
+     * over. They are sorted and appended straight to the history files, skipping the
+     * writer queue and the in-memory indexes; visits past retention are dropped.
+     * Removals made before the import do not apply to them, and visits already
+     * recorded with the same URL and time are skipped.
+     * Without history files they go through the writer, count as the newest
+     * visits and are not checked for duplicates. Call {@link #finishImport} after
+     * the last batch.
+     * @return true if a visit falls in the window kept in memory
+     */
+    boolean importVisits(List<HistoryWriter.Visit> visits) throws IOException {
+        if (segments == null) {
+            visits.sort(Comparator.comparingLong(visit -> visit.millis));
+            writer.execute(() -> history.recordVisits(visits));
+            return true;
+        }
+        long retained = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(HistorySegments.RETENTION_DAYS);
+        visits.removeIf(visit -> visit.millis < retained);
+        if (visits.isEmpty()) {
+            return false;
+        }
+        visits.sort(Comparator.comparingLong(visit -> visit.millis));
+        segments.appendImported(visits);
+        writer.execute(() -> visitedLinks.addVisits(visits));
+        return visits.get(visits.size() - 1).millis >= segments.recentStart();
+    }
+    
+    /**
+     * Bring the in-memory history up to date after an import, reloading it once
+     * rather than per visit, and save the visited links
+     * @param reloadRecent Whether imported visits fall in the window kept in memory
+     */
+    void finishImport(boolean reloadRecent) {
+        if (segments != null && reloadRecent) {
+            writer.execute(() -> {
+                history.clear();
+                try {
+                    segments.replayRecent(history::recordVisits);
+                } catch (IOException e) {
+                    System.err.println("Failed to reload history: " + e.getMessage());
+                }
+            });
+        }
+        writer.execute(visitedLinks::save);
+        writer.flush();
+    }
+    
+    /**
+     * Register a listener for history changes
+     */
+    public void addHistoryListener(HistoryListener listener) {
+        history.addListener(listener);
+    }
+    
+    /**
+     * Unregister a history listener
+     */
+    public void removeHistoryListener(HistoryListener listener) {
+        history.removeListener(listener);
+    }
+    
+    /**
+     * Add a page to history.
+     * The visit is queued and recorded by the history writer thread, so it may
+     * not be visible to reads until {@link #flush()}.
      */
     public void addToHistory(String title, String url) {
         if (url == null || url.trim().isEmpty()) {
             return;
         }
+        url = canonicalizer.canonicalize(url);
         
         // Clean title
         if (title == null || title.trim().isEmpty()) {
             title = url;
         }
         
-        HistoryEntry existingEntry = history.get(url);
-        if (existingEntry != null) {
-            // Update existing entry
-            existingEntry.setTitle(title);
-            existingEntry.incrementVisitCount();
-            
-            // Move to end of chronological history
-            chronologicalHistory.remove(existingEntry);
-            chronologicalHistory.add(existingEntry);
-        } else {
-            // Create new entry
-            HistoryEntry newEntry = new HistoryEntry(title, url);
-            history.put(url, newEntry);
-            chronologicalHistory.add(newEntry);
-            
-            // Maintain size limit
-            if (chronologicalHistory.size() > maxHistorySize) {
-                HistoryEntry removed = chronologicalHistory.remove(0);
-                history.remove(removed.getUrl());
-            }
-        }
+        // Updates or creates the entry and moves it to the newest end, off the calling thread
+        writer.submit(title, url, System.currentTimeMillis());
+    }
+    
+    /**
+     * Wait until all queued visits and a pending load have been applied
+     */
+    public void flush() {
+        writer.flush();
+    }
+    
+    /**
+     * Record queued visits, stop the history writer and save the visited links
+     */
+    public void close() {
+        writer.close();
+        visitedLinks.save();
     }
     
     /**
      * Get recent history entries
      */
     public List<HistoryEntry> getRecentHistory(int limit) {
-        return chronologicalHistory.stream()
-                .sorted((a, b) -> b.getVisitTime().compareTo(a.getVisitTime()))
-                .limit(limit)
-                .collect(Collectors.toList());
+        // Recency order is visit order, so no sort is needed
+        return history.newest(limit);
     }
     
     /**
      * Get all history entries
      */
     public List<HistoryEntry> getAllHistory() {
-        return new ArrayList<>(chronologicalHistory);
+        return history.oldestFirst();
     }
     
     /**
      * Search history
      */
     public List<HistoryEntry> searchHistory(String query) {
-        String lowerQuery = query.toLowerCase();
-        return chronologicalHistory.stream()
-                .filter(entry -> 
-                    entry.getTitle().toLowerCase().contains(lowerQuery) ||
-                    entry.getUrl().toLowerCase().contains(lowerQuery))
-                .sorted((a, b) -> b.getVisitTime().compareTo(a.getVisitTime()))
-                .collect(Collectors.toList());
+        return searchHistory(query, Integer.MAX_VALUE);
+    }
+    
+    /**
+     * Search history, returning at most {@code limit} newest matches.
+     * An empty query matches every entry.
+     */
+    public List<HistoryEntry> searchHistory(String query, int limit) {
+        if (query == null || query.isEmpty()) {
+            return history.newest(limit);
+        }
+        return history.search(query, limit);
     }
     
     /**
@@ -90,75 +240,307 @@ public class HistoryManager {
      */
     public List<HistoryEntry> getTodayHistory() {
         LocalDateTime today = LocalDateTime.now().withHour(0).withMinute(0).withSecond(0);
-        return chronologicalHistory.stream()
-                .filter(entry -> entry.getVisitTime().isAfter(today))
-                .sorted((a, b) -> b.getVisitTime().compareTo(a.getVisitTime()))
-                .collect(Collectors.toList());
+        return history.between(today, null, Integer.MAX_VALUE);
+    }
+    
+    /**
+     * Get history visited after the given time, newest first
+     */
+    public List<HistoryEntry> getHistorySince(LocalDateTime since) {
+        return withOlderHistory(history.between(since, null, Integer.MAX_VALUE), since, null);
+    }
+    
+    /**
+     * Get history visited within a date range, newest first
+     */
+    public List<HistoryEntry> getHistoryBetween(LocalDateTime from, LocalDateTime to) {
+        return withOlderHistory(history.between(from, to, Integer.MAX_VALUE), from, to);
     }
     
     /**
      * Get most visited pages
      */
     public List<HistoryEntry> getMostVisited(int limit) {
-        return chronologicalHistory.stream()
-                .sorted((a, b) -> Integer.compare(b.getVisitCount(), a.getVisitCount()))
-                .limit(limit)
-                .collect(Collectors.toList());
+        return history.mostVisited(limit);
     }
     
     /**
-     * Remove entry from history
+     * Get most visited sites, with all pages of a host counted together
      */
-    public boolean removeFromHistory(String url) {
-        HistoryEntry entry = history.remove(url);
-        if (entry != null) {
-            chronologicalHistory.remove(entry);
-            return true;
-        }
-        return false;
+    public List<TopSite> getTopSites(int limit) {
+        return history.topSites(limit);
     }
     
     /**
-     * Clear all history
+     * Remove entry from history, after the visits queued before this call.
+     * The removal runs on the history writer thread.
+     * @return a future of whether the page was in the in-memory history
      */
-    public void clearHistory() {
-        history.clear();
-        chronologicalHistory.clear();
+    public CompletableFuture<Boolean> removeFromHistory(String url) {
+        String canonical = canonicalizer.canonicalize(url);
+        return writer.afterQueued(() -> {
+            boolean removed = history.remove(canonical) != null;
+            if (segments != null) {
+                try {
+                    segments.removeUrl(canonical, System.currentTimeMillis());
+                } catch (IOException e) {
+                    System.err.println("Failed to remove history entry from disk: " + e.getMessage());
+                }
+            }
+            visitedLinks.pagesRemoved();
+            return removed;
+        });
     }
     
     /**
-     * Clear history for specific date range
+     * Clear all history, after the visits queued before this call
+     * @return a future completed once history is cleared
      */
-    public void clearHistory(LocalDateTime from, LocalDateTime to) {
-        List<HistoryEntry> toRemove = chronologicalHistory.stream()
-                .filter(entry -> entry.getVisitTime().isAfter(from) && entry.getVisitTime().isBefore(to))
-                .collect(Collectors.toList());
-        
-        for (HistoryEntry entry : toRemove) {
-            history.remove(entry.getUrl());
-            chronologicalHistory.remove(entry);
-        }
+    public CompletableFuture<Void> clearHistory() {
+        return writer.afterQueued(() -> {
+            history.clear();
+            if (segments != null) {
+                try {
+                    segments.clear();
+                } catch (IOException e) {
+                    System.err.println("Failed to clear history on disk: " + e.getMessage());
+                }
+            }
+            visitedLinks.clear();
+            return null;
+        });
+    }
+    
+    /**
+     * Clear history for specific date range, after the visits queued before this call
+     * @return a future completed once the range is cleared
+     */
+    public CompletableFuture<Void> clearHistory(LocalDateTime from, LocalDateTime to) {
+        return writer.afterQueued(() -> {
+            // Seeks the time index and removes only the matching range
+            history.removeBetween(from, to);
+            if (segments != null) {
+                try {
+                    segments.removeRange(lowerMillis(from), upperMillis(to), System.currentTimeMillis());
+                } catch (IOException e) {
+                    System.err.println("Failed to clear history range on disk: " + e.getMessage());
+                }
+            }
+            visitedLinks.pagesRemoved();
+            return null;
+        });
     }
     
     /**
      * Get history count
      */
     public int getHistoryCount() {
-        return chronologicalHistory.size();
+        return history.size();
     }
     
     /**
      * Check if URL is in history
      */
     public boolean isInHistory(String url) {
-        return history.containsKey(url);
+        return url != null && history.contains(canonicalizer.canonicalize(url));
+    }
+    
+    /**
+     * Check whether a link points to a visited page, for link coloring.
+     * Never misses a visited page, but reports up to about 2% of unvisited ones as visited,
+     * and keeps reporting removed pages until its periodic rebuild or a full clear.
+     */
+    public boolean isVisited(String url) {
+        return url != null && visitedLinks.isVisited(canonicalizer.canonicalize(url));
     }
     
     /**
      * Get visit count for URL
      */
     public int getVisitCount(String url) {
-        HistoryEntry entry = history.get(url);
-        return entry != null ? entry.getVisitCount() : 0;
+        return url != null ? history.visitCount(canonicalizer.canonicalize(url)) : 0;
+    }
+    
+    /**
+     * Count visits per local date, newest date first, for browsing all of history.
+     * Only visits up to {@code until} count, and only those whose title or URL
+     * contains {@code query} unless it is empty. Once the visits queued before this
+     * call are applied, history files are read on {@code executor} a day at a time,
+     * and each date goes to {@code sink} once it is complete, so the newest dates
+     * can be shown while older ones are counted. Cancelling the returned future
+     * stops the count between days. Without history files each entry counts once.
+     * @return a future completed when every date has been passed to {@code sink}
+     */
+    public CompletableFuture<Void> countVisitsByDate(String query, LocalDateTime until,
+                                                     BiConsumer<LocalDate, Integer> sink, Executor executor) {
+        String needle = SubstringIndex.normalize(query == null ? "" : query.trim());
+        long untilMillis = until == null ? Long.MAX_VALUE : HistoryStore.toMillis(until);
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        writer.flushAsync().thenRunAsync(() -> {
+            try {
+                countVisitsByDate(needle, untilMillis, sink, done::isCancelled);
+                done.complete(null);
+            } catch (IOException | RuntimeException e) {
+                done.completeExceptionally(e);
+            }
+        }, executor);
+        return done;
+    }
+    
+    private void countVisitsByDate(String needle, long untilMillis, BiConsumer<LocalDate, Integer> sink,
+                                   BooleanSupplier cancelled) throws IOException {
+        TreeMap<LocalDate, Integer> pending = new TreeMap<>(Comparator.reverseOrder());
+        if (segments == null) {
+            for (HistoryEntry entry : history.oldestFirst()) {
+                if (HistoryStore.toMillis(entry.getVisitTime()) <= untilMillis
+                        && matches(needle, entry.getUrl(), entry.getTitle())) {
+                    pending.merge(entry.getVisitTime().toLocalDate(), 1, Integer::sum);
+                }
+            }
+            pending.forEach(sink);
+            return;
+        }
+
+        LocalDates dates = new LocalDates();
+        List<Long> days = segments.days();
+        for (int i = days.size() - 1; i >= 0 && !cancelled.getAsBoolean(); i--) {
+            long dayStart = HistorySegments.startOfDay(days.get(i));
+            if (dayStart > untilMillis) {
+                continue;
+            }
+            segments.forEachVisitOn(days.get(i), (url, title, millis) -> {
+                if (millis <= untilMillis && matches(needle, url, title)) {
+                    pending.merge(dates.of(millis), 1, Integer::sum);
+                }
+            });
+            // Dates starting in or after this day have been read from every file they span
+            while (!pending.isEmpty() && startMillis(pending.firstKey()) >= dayStart) {
+                Map.Entry<LocalDate, Integer> complete = pending.pollFirstEntry();
+                sink.accept(complete.getKey(), complete.getValue());
+            }
+        }
+        if (!cancelled.getAsBoolean()) {
+            pending.forEach(sink);
+        }
+    }
+    
+    /**
+     * Get a page of the visits made on a local date, newest first, filtered like
+     * {@link #countVisitsByDate}. With the same {@code until}, offsets keep pointing
+     * at the same visits while new ones are recorded. The page is read on
+     * {@code executor} once the visits queued before this call are applied.
+     * @return a future of the page
+     */
+    public CompletableFuture<List<HistoryEntry>> getVisitsOn(LocalDate date, String query, LocalDateTime until,
+                                                             int offset, int limit, Executor executor) {
+        String needle = SubstringIndex.normalize(query == null ? "" : query.trim());
+        long untilMillis = until == null ? Long.MAX_VALUE : HistoryStore.toMillis(until);
+        return writer.flushAsync().thenApplyAsync(ignored -> {
+            try {
+                return getVisitsOn(date, needle, untilMillis, offset, limit);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+    
+    private List<HistoryEntry> getVisitsOn(LocalDate date, String needle, long untilMillis, int offset, int limit) throws IOException {
+        long from = startMillis(date);
+        long to = startMillis(date.plusDays(1));
+        List<HistoryEntry> page = new ArrayList<>();
+        if (segments == null) {
+            List<HistoryEntry> matching = new ArrayList<>();
+            for (HistoryEntry entry : history.oldestFirst()) {
+                long millis = HistoryStore.toMillis(entry.getVisitTime());
+                if (millis >= from && millis < to && millis <= untilMillis && matches(needle, entry.getUrl(), entry.getTitle())) {
+                    matching.add(entry);
+                }
+            }
+            // Oldest first, so the page is read backwards
+            for (int i = matching.size() - 1 - offset; i >= 0 && page.size() < limit; i--) {
+                page.add(matching.get(i));
+            }
+            return page;
+        }
+
+        List<HistoryWriter.Visit> visits = new ArrayList<>();
+        for (long day = HistorySegments.dayOf(from); day <= HistorySegments.dayOf(to - 1); day++) {
+            segments.forEachVisitOn(day, (url, title, millis) -> {
+                if (millis >= from && millis < to && millis <= untilMillis && matches(needle, url, title)) {
+                    visits.add(new HistoryWriter.Visit(title, url, millis));
+                }
+            });
+        }
+        // Stable, so visits in the same millisecond keep their order between pages
+        visits.sort(Comparator.comparingLong((HistoryWriter.Visit visit) -> visit.millis).reversed());
+        for (int i = offset; i < visits.size() && page.size() < limit; i++) {
+            HistoryWriter.Visit visit = visits.get(i);
+            page.add(new HistoryEntry(visit.title, visit.url, HistoryStore.toLocalDateTime(visit.millis), 1));
+        }
+        return page;
+    }
+    
+    /**
+     * Add entries from segments older than the loaded window when the range reaches back to them.
+     * Pages already in the recent results keep their newer entry.
+     */
+    private List<HistoryEntry> withOlderHistory(List<HistoryEntry> recent, LocalDateTime from, LocalDateTime to) {
+        long fromMillis = lowerMillis(from);
+        if (segments == null || fromMillis >= segments.recentStart()) {
+            return recent;
+        }
+        List<HistoryEntry> older;
+        try {
+            older = segments.scanOlder(fromMillis, upperMillis(to), Integer.MAX_VALUE);
+        } catch (IOException e) {
+            System.err.println("Failed to read older history: " + e.getMessage());
+            return recent;
+        }
+        Set<String> seen = new HashSet<>();
+        for (HistoryEntry entry : recent) {
+            seen.add(UrlCanonicalizer.identity(entry.getUrl()));
+        }
+        List<HistoryEntry> result = new ArrayList<>(recent);
+        for (HistoryEntry entry : older) {
+            if (seen.add(UrlCanonicalizer.identity(entry.getUrl()))) {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+    
+    private static boolean matches(String needle, String url, String title) {
+        return needle.isEmpty() || SubstringIndex.normalize(url).contains(needle)
+            || SubstringIndex.normalize(title).contains(needle);
+    }
+    
+    private static long startMillis(LocalDate date) {
+        return date.atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+    
+    /**
+     * Local date of a time, remembering the bounds of the last date since visits come in order
+     */
+    private static final class LocalDates {
+        private LocalDate date;
+        private long start = 1;
+        private long end = 0;
+        
+        LocalDate of(long millis) {
+            if (millis < start || millis >= end) {
+                date = HistoryStore.toLocalDateTime(millis).toLocalDate();
+                start = startMillis(date);
+                end = startMillis(date.plusDays(1));
+            }
+            return date;
+        }
+    }
+    
+    private static long lowerMillis(LocalDateTime from) {
+        return from == null ? Long.MIN_VALUE : HistoryStore.toMillis(from);
+    }
+    
+    private static long upperMillis(LocalDateTime to) {
+        return to == null ? Long.MAX_VALUE : HistoryStore.ceilMillis(to);
     }
 }
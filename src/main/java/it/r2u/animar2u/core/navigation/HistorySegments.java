@@ -0,0 +1,621 @@
+package it.r2u.animar2u.core.navigation;
+
+import it.r2u.animar2u.core.storage.HistoryEntry;
+import it.r2u.animar2u.core.util.RecordCodec;
+import it.r2u.animar2u.core.util.UrlCanonicalizer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * On-disk history tier holding every visit, not just per-URL aggregates.
+ *
+ * Visits are appended to one segment file per UTC day. A segment is a header
+ * followed by length-prefixed, CRC-checked records: URL records build a
+ * per-segment dictionary, and visit records hold a varint time delta from the
+ * previous visit, the URL id, and the title only when it changed. A torn or
+ * corrupt tail is cut off at the last valid record when the segment is reopened.
+ * Segments are read into the heap, not mapped, so clearing history or dropping
+ * old segments can delete files that were just read.
+ *
+ * Only the last {@link #RECENT_DAYS} days are replayed at startup; older segments
+ * are scanned when a range query reaches back to them, and dropped whole once
+ * past {@link #RETENTION_DAYS}. Removals are appended to a small tombstone log
+ * that is applied when segments are read.
+ *
+ * Imported visits can be older than visits already in their segment, so a
+ * segment is not always in time order, and an import record ahead of them
+ * holds when they were written: a removal only applies to visits written
+ * before it. An import skips visits its segment already holds, comparing URL
+ * and time.
+ */
+final class HistorySegments {
+
+    static final int RECENT_DAYS = 7;
+    static final int RETENTION_DAYS = 365;
+
+    private static final long DAY_MILLIS = 86_400_000L;
+    private static final int SEGMENT_MAGIC = 0x41485347;
+    private static final int TOMBSTONE_MAGIC = 0x41485442;
+    private static final int VERSION = 1;
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String TOMBSTONE_FILE = "removed.log";
+    private static final int REPLAY_BATCH = 1024;
+
+    private static final byte URL_RECORD = 1;
+    private static final byte VISIT_RECORD = 2;
+    private static final byte URL_REMOVED = 3;
+    private static final byte RANGE_REMOVED = 4;
+    private static final byte IMPORT_RECORD = 5;
+
+    interface VisitSink {
+        void visit(String url, String title, long millis);
+    }
+
+    /**
+     * Decoding state of a segment: its URL dictionary, the last visit time and
+     * when the last import into it was written
+     */
+    private static final class SegmentState {
+        final List<String> urls = new ArrayList<>();
+        final List<String> titles = new ArrayList<>();
+        final Map<String, Integer> urlIds = new HashMap<>();
+        long lastMillis;
+        long importedAt;
+        // Times of the visits to each URL, with the import since opening that wrote
+        // them or 0; only kept once the segment takes an import
+        Map<String, Map<Long, Long>> visitTimes;
+
+        SegmentState(long day) {
+            this.lastMillis = day * DAY_MILLIS;
+        }
+    }
+
+    private static final class RangeRemoval {
+        final long from;
+        final long to;
+        final long at;
+
+        RangeRemoval(long from, long to, long at) {
+            this.from = from;
+            this.to = to;
+            this.at = at;
+        }
+    }
+
+    private static final class Visited {
+        String url;
+        String title;
+        long lastMillis;
+        int count;
+    }
+
+    private final Path directory;
+    private final long recentStart;
+    // Removal times by URL identity; tombstone records store the identity too
+    private final Map<String, Long> removedUrls = new HashMap<>();
+    private final List<RangeRemoval> removedRanges = new ArrayList<>();
+    // Latest removal time, so imports are written strictly after it
+    private long lastRemoval;
+    // Counts imports, so visits written by the current one are told apart from older ones
+    private long imports;
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private FileChannel tombstones;
+    private FileChannel current;
+    private long currentDay = Long.MIN_VALUE;
+    private SegmentState currentState;
+
+    /**
+     * Open the history directory, dropping segments past retention
+     */
+    HistorySegments(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+        long today = Math.floorDiv(System.currentTimeMillis(), DAY_MILLIS);
+        this.recentStart = (today - RECENT_DAYS + 1) * DAY_MILLIS;
+        for (long day : segmentDays()) {
+            if (day < today - RETENTION_DAYS) {
+                Files.deleteIfExists(segmentPath(day));
+            }
+        }
+        openTombstones();
+    }
+
+    /**
+     * Start of the window replayed at startup; older visits live only on disk
+     */
+    long recentStart() {
+        return recentStart;
+    }
+
+    /**
+     * Feed the visits of the recent window to {@code sink} in time order, in batches
+     */
+    synchronized void replayRecent(Consumer<List<HistoryWriter.Visit>> sink) throws IOException {
+        List<HistoryWriter.Visit> batch = new ArrayList<>(REPLAY_BATCH);
+        for (long day : segmentDays()) {
+            if (day * DAY_MILLIS < recentStart) {
+                continue;
+            }
+            for (HistoryWriter.Visit visit : visitsOn(day)) {
+                batch.add(visit);
+                if (batch.size() == REPLAY_BATCH) {
+                    sink.accept(new ArrayList<>(batch));
+                    batch.clear();
+                }
+            }
+        }
+        if (!batch.isEmpty()) {
+            sink.accept(batch);
+        }
+    }
+
+    /**
+     * Days that have a segment, oldest first, as epoch days
+     */
+    synchronized List<Long> days() throws IOException {
+        return segmentDays();
+    }
+
+    /**
+     * Visits of one day that have not been removed, oldest first. Visits made in
+     * the same millisecond keep the order they were written in.
+     */
+    List<HistoryWriter.Visit> visitsOn(long day) throws IOException {
+        List<HistoryWriter.Visit> visits = new ArrayList<>();
+        forEachVisitOn(day, (url, title, millis) -> visits.add(new HistoryWriter.Visit(title, url, millis)));
+        visits.sort(Comparator.comparingLong(visit -> visit.millis));
+        return visits;
+    }
+
+    /**
+     * Pass the visits of one day that have not been removed to {@code sink}, in the
+     * order they were written
+     */
+    synchronized void forEachVisitOn(long day, VisitSink sink) throws IOException {
+        if (!Files.exists(segmentPath(day))) {
+            return;
+        }
+        readSegment(day, sink);
+    }
+
+    /**
+     * The UTC day holding a time, which names its segment
+     */
+    static long dayOf(long millis) {
+        return Math.floorDiv(millis, DAY_MILLIS);
+    }
+
+    static long startOfDay(long day) {
+        return day * DAY_MILLIS;
+    }
+
+    /**
+     * Aggregate visits older than the recent window that fall strictly between
+     * {@code from} and {@code to}, one entry per page, newest first
+     */
+    synchronized List<HistoryEntry> scanOlder(long from, long to, int limit) throws IOException {
+        long end = Math.min(to, recentStart);
+        Map<String, Visited> visited = new HashMap<>();
+        for (long day : segmentDays()) {
+            long dayStart = day * DAY_MILLIS;
+            if (dayStart + DAY_MILLIS <= from || dayStart >= end) {
+                continue;
+            }
+            readSegment(day, (url, title, millis) -> {
+                if (millis > from && millis < end) {
+                    Visited entry = visited.computeIfAbsent(UrlCanonicalizer.identity(url), key -> new Visited());
+                    if (millis >= entry.lastMillis) {
+                        entry.lastMillis = millis;
+                        entry.url = url;
+                        entry.title = title;
+                    }
+                    entry.count++;
+                }
+            });
+        }
+        List<HistoryEntry> result = new ArrayList<>(visited.size());
+        for (Visited value : visited.values()) {
+            result.add(new HistoryEntry(value.title, value.url,
+                HistoryStore.toLocalDateTime(value.lastMillis), value.count));
+        }
+        result.sort(Comparator.comparing(HistoryEntry::getVisitTime).reversed());
+        return result.size() > limit ? new ArrayList<>(result.subList(0, limit)) : result;
+    }
+
+    /**
+     * Append a batch of visits and force it to disk
+     */
+    synchronized void append(List<HistoryWriter.Visit> visits) throws IOException {
+        append(visits, 0);
+    }
+
+    /**
+     * Append a batch of imported visits, which may be older than visits already
+     * written, and force it to disk. Removals made before now do not apply to them.
+     * A visit already in its segment with the same URL and time is skipped, so
+     * importing a dump twice adds nothing; one that was removed is written again.
+     */
+    synchronized void appendImported(List<HistoryWriter.Visit> visits) throws IOException {
+        imports++;
+        append(visits, Math.max(System.currentTimeMillis(), lastRemoval + 1));
+    }
+
+    /**
+     * @param importedAt when imported visits were written, or 0 for visits made now
+     */
+    private void append(List<HistoryWriter.Visit> visits, long importedAt) throws IOException {
+        try {
+            for (HistoryWriter.Visit visit : visits) {
+                long day = Math.floorDiv(visit.millis, DAY_MILLIS);
+                if (day != currentDay || importedAt != 0 && currentState.visitTimes == null) {
+                    writePending(current);
+                    openForAppend(day, importedAt != 0);
+                }
+                if (currentState.visitTimes != null) {
+                    long writer = importedAt != 0 ? imports : 0;
+                    Long writtenBy = currentState.visitTimes.computeIfAbsent(visit.url, url -> new HashMap<>())
+                        .putIfAbsent(visit.millis, writer);
+                    if (importedAt != 0 && writtenBy != null && writtenBy != writer) {
+                        // Already in history, say from importing the same dump before
+                        continue;
+                    }
+                }
+                if (importedAt != 0 && currentState.importedAt != importedAt) {
+                    encodeImport(importedAt);
+                }
+                encodeVisit(visit);
+            }
+            writePending(current);
+            if (current != null) {
+                current.force(false);
+            }
+        } catch (IOException e) {
+            // The dictionary may be ahead of the file; recover it on the next append
+            pending.reset();
+            closeCurrent();
+            throw e;
+        }
+    }
+
+    /**
+     * Remove every visit to a page made up to {@code at}, whatever its spelling
+     */
+    synchronized void removeUrl(String url, long at) throws IOException {
+        String identity = UrlCanonicalizer.identity(url);
+        removedUrls.merge(identity, at, Math::max);
+        lastRemoval = Math.max(lastRemoval, at);
+        body.reset();
+        body.write(URL_REMOVED);
+        RecordCodec.writeVarLong(body, at);
+        RecordCodec.writeString(body, identity);
+        frame();
+        writePending(tombstones);
+        tombstones.force(false);
+    }
+
+    /**
+     * Remove every visit strictly between {@code from} and {@code to} made up to {@code at}
+     */
+    synchronized void removeRange(long from, long to, long at) throws IOException {
+        removedRanges.add(new RangeRemoval(from, to, at));
+        lastRemoval = Math.max(lastRemoval, at);
+        body.reset();
+        body.write(RANGE_REMOVED);
+        RecordCodec.writeVarLong(body, at);
+        RecordCodec.writeVarLong(body, RecordCodec.zigZag(from));
+        RecordCodec.writeVarLong(body, RecordCodec.zigZag(to));
+        frame();
+        writePending(tombstones);
+        tombstones.force(false);
+    }
+
+    /**
+     * Delete all segments and tombstones
+     */
+    synchronized void clear() throws IOException {
+        closeCurrent();
+        for (long day : segmentDays()) {
+            Files.deleteIfExists(segmentPath(day));
+        }
+        tombstones.close();
+        Files.deleteIfExists(directory.resolve(TOMBSTONE_FILE));
+        removedUrls.clear();
+        removedRanges.clear();
+        openTombstones();
+    }
+
+    synchronized void close() throws IOException {
+        closeCurrent();
+        tombstones.close();
+    }
+
+    // Segments
+
+    private List<Long> segmentDays() throws IOException {
+        List<Long> days = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    days.add(LocalDate.parse(name.substring(0, name.length() - SEGMENT_SUFFIX.length())).toEpochDay());
+                } catch (DateTimeParseException e) {
+                    System.err.println("Ignoring unexpected history file: " + file);
+                }
+            }
+        }
+        days.sort(null);
+        return days;
+    }
+
+    private Path segmentPath(long day) {
+        return directory.resolve(LocalDate.ofEpochDay(day) + SEGMENT_SUFFIX);
+    }
+
+    /**
+     * Pass the visits of a segment that have not been removed to {@code sink}
+     */
+    private void readSegment(long day, VisitSink sink) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentPath(day), StandardOpenOption.READ)) {
+            SegmentState state = new SegmentState(day);
+            decodeSegment(channel, state, (url, title, millis) -> {
+                // An imported visit was written at its import, not when it was made
+                if (!isRemoved(url, millis, Math.max(millis, state.importedAt))) {
+                    sink.visit(url, title, millis);
+                }
+            });
+        }
+    }
+
+    /**
+     * Open a day's segment for appending, recovering its dictionary and cutting
+     * off any torn tail
+     * @param withVisitTimes Whether to also collect the times of visits not removed, for an import
+     */
+    private void openForAppend(long day, boolean withVisitTimes) throws IOException {
+        closeCurrent();
+        Path path = segmentPath(day);
+        FileChannel channel = FileChannel.open(path,
+            StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        SegmentState state = new SegmentState(day);
+        VisitSink sink = null;
+        if (withVisitTimes) {
+            state.visitTimes = new HashMap<>();
+            sink = (url, title, millis) -> {
+                if (!isRemoved(url, millis, Math.max(millis, state.importedAt))) {
+                    state.visitTimes.computeIfAbsent(url, key -> new HashMap<>()).putIfAbsent(millis, 0L);
+                }
+            };
+        }
+        long validEnd = channel.size() == 0 ? -1 : decodeSegment(channel, state, sink);
+        if (validEnd < 0) {
+            if (channel.size() > 0) {
+                // Keep unreadable data aside rather than overwrite it
+                channel.close();
+                Files.move(path, path.resolveSibling(path.getFileName() + ".corrupt"),
+                    StandardCopyOption.REPLACE_EXISTING);
+                System.err.println("Moved unreadable history segment aside: " + path);
+                channel = FileChannel.open(path,
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            }
+            RecordCodec.writeHeader(channel, SEGMENT_MAGIC, VERSION, day * DAY_MILLIS);
+            validEnd = RecordCodec.HEADER_SIZE;
+        } else if (validEnd < channel.size()) {
+            System.err.println("Truncating torn history segment " + path + " at " + validEnd);
+            channel.truncate(validEnd);
+        }
+        for (int id = 0; id < state.urls.size(); id++) {
+            state.urlIds.put(state.urls.get(id), id);
+        }
+        channel.position(validEnd);
+        current = channel;
+        currentDay = day;
+        currentState = state;
+    }
+
+    private void closeCurrent() throws IOException {
+        if (current != null) {
+            current.close();
+            current = null;
+            currentDay = Long.MIN_VALUE;
+            currentState = null;
+        }
+    }
+
+    private void encodeImport(long importedAt) {
+        body.reset();
+        body.write(IMPORT_RECORD);
+        RecordCodec.writeVarLong(body, importedAt);
+        frame();
+        currentState.importedAt = importedAt;
+    }
+
+    private void encodeVisit(HistoryWriter.Visit visit) {
+        SegmentState state = currentState;
+        Integer id = state.urlIds.get(visit.url);
+        if (id == null) {
+            id = state.urls.size();
+            state.urls.add(visit.url);
+            state.titles.add(null);
+            state.urlIds.put(visit.url, id);
+            body.reset();
+            body.write(URL_RECORD);
+            RecordCodec.writeVarLong(body, id);
+            RecordCodec.writeString(body, visit.url);
+            frame();
+        }
+        body.reset();
+        body.write(VISIT_RECORD);
+        RecordCodec.writeVarLong(body, RecordCodec.zigZag(visit.millis - state.lastMillis));
+        RecordCodec.writeVarLong(body, id);
+        if (visit.title.equals(state.titles.get(id))) {
+            RecordCodec.writeVarLong(body, 0);
+        } else {
+            byte[] title = visit.title.getBytes(StandardCharsets.UTF_8);
+            RecordCodec.writeVarLong(body, title.length + 1L);
+            body.write(title, 0, title.length);
+            state.titles.set(id, visit.title);
+        }
+        state.lastMillis = visit.millis;
+        frame();
+    }
+
+    /**
+     * Decode the records of a segment into {@code state}, passing visits to {@code sink}
+     * @return the end of the last valid record, or -1 if the header is unreadable
+     */
+    private static long decodeSegment(FileChannel channel, SegmentState state, VisitSink sink) throws IOException {
+        return RecordCodec.decodeRecords(channel, SEGMENT_MAGIC, VERSION, record -> {
+            byte type = record.get();
+            if (type == URL_RECORD) {
+                if (RecordCodec.readVarLong(record) != state.urls.size()) {
+                    return false;
+                }
+                state.urls.add(RecordCodec.readString(record));
+                state.titles.add(null);
+                return true;
+            }
+            if (type == VISIT_RECORD) {
+                long millis = state.lastMillis + RecordCodec.unZigZag(RecordCodec.readVarLong(record));
+                int id = (int) RecordCodec.readVarLong(record);
+                int titleLength = (int) RecordCodec.readVarLong(record);
+                if (titleLength > 0) {
+                    state.titles.set(id, RecordCodec.readString(record, titleLength - 1));
+                }
+                state.lastMillis = millis;
+                if (sink != null) {
+                    String url = state.urls.get(id);
+                    String title = state.titles.get(id);
+                    sink.visit(url, title != null ? title : url, millis);
+                }
+                return true;
+            }
+            if (type == IMPORT_RECORD) {
+                state.importedAt = RecordCodec.readVarLong(record);
+                return true;
+            }
+            return false;
+        });
+    }
+
+    // Tombstones
+
+    private void openTombstones() throws IOException {
+        Path path = directory.resolve(TOMBSTONE_FILE);
+        FileChannel channel = FileChannel.open(path,
+            StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long validEnd = RecordCodec.decodeRecords(channel, TOMBSTONE_MAGIC, VERSION, record -> {
+            byte type = record.get();
+            long at = RecordCodec.readVarLong(record);
+            lastRemoval = Math.max(lastRemoval, at);
+            if (type == URL_REMOVED) {
+                removedUrls.merge(UrlCanonicalizer.identity(RecordCodec.readString(record)), at, Math::max);
+                return true;
+            }
+            if (type == RANGE_REMOVED) {
+                long from = RecordCodec.unZigZag(RecordCodec.readVarLong(record));
+                removedRanges.add(new RangeRemoval(from, RecordCodec.unZigZag(RecordCodec.readVarLong(record)), at));
+                return true;
+            }
+            return false;
+        });
+        if (validEnd < 0) {
+            channel.truncate(0);
+            RecordCodec.writeHeader(channel, TOMBSTONE_MAGIC, VERSION, 0);
+            validEnd = RecordCodec.HEADER_SIZE;
+        } else if (validEnd < channel.size()) {
+            channel.truncate(validEnd);
+        }
+        channel.position(validEnd);
+        tombstones = channel;
+        pruneTombstones();
+    }
+
+    /**
+     * Rewrite the tombstone log without removals older than every remaining segment
+     */
+    private void pruneTombstones() throws IOException {
+        List<Long> days = segmentDays();
+        long oldest = days.isEmpty() ? Long.MAX_VALUE : days.get(0) * DAY_MILLIS;
+        int before = removedUrls.size() + removedRanges.size();
+        removedUrls.values().removeIf(at -> at < oldest);
+        removedRanges.removeIf(range -> range.at < oldest);
+        if (removedUrls.size() + removedRanges.size() == before) {
+            return;
+        }
+
+        Path path = directory.resolve(TOMBSTONE_FILE);
+        Path temp = directory.resolve(TOMBSTONE_FILE + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            RecordCodec.writeHeader(channel, TOMBSTONE_MAGIC, VERSION, 0);
+            for (Map.Entry<String, Long> removed : removedUrls.entrySet()) {
+                body.reset();
+                body.write(URL_REMOVED);
+                RecordCodec.writeVarLong(body, removed.getValue());
+                RecordCodec.writeString(body, removed.getKey());
+                frame();
+            }
+            for (RangeRemoval range : removedRanges) {
+                body.reset();
+                body.write(RANGE_REMOVED);
+                RecordCodec.writeVarLong(body, range.at);
+                RecordCodec.writeVarLong(body, RecordCodec.zigZag(range.from));
+                RecordCodec.writeVarLong(body, RecordCodec.zigZag(range.to));
+                frame();
+            }
+            writePending(channel);
+            channel.force(false);
+        }
+        tombstones.close();
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        tombstones = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        tombstones.position(tombstones.size());
+    }
+
+    /**
+     * Whether a removal made at or after a visit was written applies to it
+     * @param written when the visit was written, which is when it was made unless imported
+     */
+    private boolean isRemoved(String url, long millis, long written) {
+        Long at = removedUrls.isEmpty() ? null : removedUrls.get(UrlCanonicalizer.identity(url));
+        if (at != null && at >= written) {
+            return true;
+        }
+        for (RangeRemoval range : removedRanges) {
+            if (range.at >= written && millis > range.from && millis < range.to) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void frame() {
+        RecordCodec.appendFrame(pending, body.toByteArray());
+    }
+
+    private void writePending(FileChannel channel) throws IOException {
+        if (pending.size() == 0) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(pending.toByteArray());
+        pending.reset();
+        RecordCodec.writeFully(channel, buffer);
+    }
+}
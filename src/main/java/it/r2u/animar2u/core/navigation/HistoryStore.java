@@ -0,0 +1,653 @@
+package it.r2u.animar2u.core.navigation;
+
+import it.r2u.animar2u.core.search.SubstringIndex;
+import it.r2u.animar2u.core.storage.HistoryEntry;
+import it.r2u.animar2u.core.storage.TopSite;
+import it.r2u.animar2u.core.util.Hashing;
+import it.r2u.animar2u.core.util.LongIntHashMap;
+import it.r2u.animar2u.core.util.UrlCanonicalizer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Compact, recency-ordered history index.
+ * Entries live in parallel primitive columns indexed by slot: visit stamp, visit
+ * count, a dictionary id for the URL origin, and the URL path and title as UTF-8
+ * slices of a shared byte arena. URLs arrive in canonical form and are found
+ * through a 64-bit hash of their identity (see UrlCanonicalizer) checked against
+ * the stored URL, so every spelling of a page shares one entry. HistoryEntry
+ * objects are only built on reads.
+ * Every visit appends (stamp, slot) to a visit log sorted by stamp; a record is
+ * live while its slot still carries that stamp, so revisits and removals just
+ * leave dead records behind. The log answers recency and range queries by scan
+ * or binary search, its oldest live record is the eviction victim, and dead
+ * records are compacted away in amortized O(1).
+ * Mutations take the write lock, readers share the read lock. Visit rankings per
+ * page and per host, and a substring index over titles and URLs, are maintained
+ * under the same lock. Listeners are notified under it so they observe changes in order.
+ */
+final class HistoryStore {
+
+    // Visit stamps are epoch millis shifted left, with the low bits ordering visits in the same millisecond
+    private static final int STAMP_SHIFT = 10;
+    private static final int NO_SLOT = -1;
+    private static final int MIN_LOG_GARBAGE = 1024;
+
+    private static final class Site {
+        final String origin;
+        String title;
+
+        Site(String origin) {
+            this.origin = origin;
+        }
+    }
+
+    // Slot columns; a free slot has stamp 0
+    private long[] stamps = new long[16];
+    private long[] urlKeys = new long[16];
+    private int[] visitCounts = new int[16];
+    private int[] originRefs = new int[16];
+    private int[] pathOffsets = new int[16];
+    private int[] pathLengths = new int[16];
+    private int[] titleOffsets = new int[16];
+    private int[] titleLengths = new int[16];
+    private int slotLimit;
+    private int[] freeSlots = new int[16];
+    private int freeCount;
+    private int liveCount;
+
+    // Origin ("scheme://authority") and host dictionaries
+    private final List<String> origins = new ArrayList<>();
+    private final Map<String, Integer> originIds = new HashMap<>();
+    private int[] originHosts = new int[16];
+    private final List<String> hosts = new ArrayList<>();
+    private final Map<String, Integer> hostIds = new HashMap<>();
+
+    private ByteArena arena = new ByteArena(1 << 16);
+    private final LongIntHashMap urlIndex = new LongIntHashMap();
+
+    // Visit log, sorted by stamp
+    private long[] logStamps = new long[16];
+    private int[] logSlots = new int[16];
+    private int logHead;
+    private int logTail;
+    private long lastStamp;
+
+    private final SubstringIndex<Integer> textIndex =
+        new SubstringIndex<>(slot -> new String[] { titleAt(slot), urlAt(slot) });
+    private final Comparator<Integer> newestFirst = (a, b) -> Long.compare(stamps[b], stamps[a]);
+    private final VisitRanking pageRanking = new VisitRanking();
+    private final VisitRanking siteRanking = new VisitRanking();
+    private final Map<Integer, Site> sites = new HashMap<>();
+    private final List<HistoryListener> listeners = new CopyOnWriteArrayList<>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final int capacity;
+
+    HistoryStore(int capacity) {
+        this.capacity = capacity;
+    }
+
+    void addListener(HistoryListener listener) {
+        listeners.add(listener);
+    }
+
+    void removeListener(HistoryListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Record a batch of visits in order under a single write lock
+     */
+    void recordVisits(List<HistoryWriter.Visit> visits) {
+        lock.writeLock().lock();
+        try {
+            for (HistoryWriter.Visit visit : visits) {
+                recordVisit(visit.title, visit.url, visit.millis);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Record a visit, creating the entry or moving it to the newest end
+     */
+    private void recordVisit(String title, String url, long millis) {
+        String identity = UrlCanonicalizer.identity(url);
+        long key = Hashing.hash64(identity);
+        byte[] titleBytes = title.getBytes(StandardCharsets.UTF_8);
+        int slot = find(identity, key);
+        if (slot != NO_SLOT) {
+            visitCounts[slot]++;
+            stampVisit(slot, millis);
+            boolean changed = false;
+            if (!arena.equalsSlice(titleOffsets[slot], titleLengths[slot], titleBytes)) {
+                setTitle(slot, titleBytes);
+                changed = true;
+            }
+            if (!urlAt(slot).equals(url)) {
+                // Another spelling of the page, e.g. after it moved to https; keep the latest
+                arena.release(pathLengths[slot]);
+                setUrl(slot, url);
+                changed = true;
+            }
+            if (changed) {
+                textIndex.put(slot, title, url);
+                compactArenaIfNeeded();
+            }
+            rankVisit(slot);
+            fireVisited(slot);
+            return;
+        }
+
+        slot = allocateSlot();
+        urlKeys[slot] = key;
+        visitCounts[slot] = 1;
+        setUrl(slot, url);
+        setTitle(slot, titleBytes);
+        urlIndex.put(key, slot);
+        liveCount++;
+        stampVisit(slot, millis);
+        textIndex.put(slot, title, url);
+        rankVisit(slot);
+        fireVisited(slot);
+
+        // Maintain size limit
+        if (liveCount > capacity) {
+            discard(oldestSlot());
+            compactArenaIfNeeded();
+        }
+    }
+
+    /**
+     * Remove an entry by URL
+     */
+    HistoryEntry remove(String url) {
+        lock.writeLock().lock();
+        try {
+            int slot = find(url);
+            if (slot == NO_SLOT) {
+                return null;
+            }
+            HistoryEntry removed = entryAt(slot);
+            discard(slot);
+            compactArenaIfNeeded();
+            return removed;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Remove every entry last visited after {@code from} and before {@code to}
+     */
+    void removeBetween(LocalDateTime from, LocalDateTime to) {
+        lock.writeLock().lock();
+        try {
+            int high = upperIndex(to);
+            for (int i = lowerIndex(from); i < high; i++) {
+                if (isLive(i)) {
+                    discard(logSlots[i]);
+                }
+            }
+            compactArenaIfNeeded();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void clear() {
+        lock.writeLock().lock();
+        try {
+            Arrays.fill(stamps, 0, slotLimit, 0L);
+            Arrays.fill(titleLengths, 0, slotLimit, 0);
+            slotLimit = 0;
+            freeCount = 0;
+            liveCount = 0;
+            origins.clear();
+            originIds.clear();
+            hosts.clear();
+            hostIds.clear();
+            arena = new ByteArena(1 << 16);
+            urlIndex.clear();
+            logHead = 0;
+            logTail = 0;
+            lastStamp = 0;
+            textIndex.clear();
+            pageRanking.clear();
+            siteRanking.clear();
+            sites.clear();
+            for (HistoryListener listener : listeners) {
+                listener.historyCleared();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    HistoryEntry get(String url) {
+        lock.readLock().lock();
+        try {
+            int slot = find(url);
+            return slot != NO_SLOT ? entryAt(slot) : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    boolean contains(String url) {
+        lock.readLock().lock();
+        try {
+            return find(url) != NO_SLOT;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    int visitCount(String url) {
+        lock.readLock().lock();
+        try {
+            int slot = find(url);
+            return slot != NO_SLOT ? visitCounts[slot] : 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    int size() {
+        lock.readLock().lock();
+        try {
+            return liveCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * The {@code limit} most recently visited entries, newest first
+     */
+    List<HistoryEntry> newest(int limit) {
+        lock.readLock().lock();
+        try {
+            List<HistoryEntry> result = new ArrayList<>(Math.min(limit, liveCount));
+            for (int i = logTail - 1; i >= logHead && result.size() < limit; i--) {
+                if (isLive(i)) {
+                    result.add(entryAt(logSlots[i]));
+                }
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Entries last visited after {@code from} and before {@code to}, newest first
+     */
+    List<HistoryEntry> between(LocalDateTime from, LocalDateTime to, int limit) {
+        lock.readLock().lock();
+        try {
+            List<HistoryEntry> result = new ArrayList<>();
+            int low = lowerIndex(from);
+            for (int i = upperIndex(to) - 1; i >= low && result.size() < limit; i--) {
+                if (isLive(i)) {
+                    result.add(entryAt(logSlots[i]));
+                }
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * The {@code limit} most visited entries, most visited first
+     */
+    List<HistoryEntry> mostVisited(int limit) {
+        lock.readLock().lock();
+        try {
+            List<HistoryEntry> result = new ArrayList<>();
+            for (int slot : pageRanking.top(limit)) {
+                result.add(entryAt(slot));
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * The {@code limit} most visited sites, counting visits to all pages of a host
+     */
+    List<TopSite> topSites(int limit) {
+        lock.readLock().lock();
+        try {
+            List<TopSite> result = new ArrayList<>();
+            for (int host : siteRanking.top(limit)) {
+                Site site = sites.get(host);
+                result.add(new TopSite(hosts.get(host), site.origin, site.title, siteRanking.count(host)));
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Entries whose title or URL contains the query, newest first
+     */
+    List<HistoryEntry> search(String query, int limit) {
+        lock.readLock().lock();
+        try {
+            List<HistoryEntry> result = new ArrayList<>();
+            for (int slot : textIndex.search(query, limit, newestFirst)) {
+                result.add(entryAt(slot));
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Identity keys of every entry, as produced by UrlCanonicalizer.key
+     */
+    long[] keys() {
+        lock.readLock().lock();
+        try {
+            long[] keys = new long[liveCount];
+            int count = 0;
+            for (int slot = 0; slot < slotLimit; slot++) {
+                if (stamps[slot] != 0) {
+                    keys[count++] = urlKeys[slot];
+                }
+            }
+            return keys;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * All entries from oldest to newest
+     */
+    List<HistoryEntry> oldestFirst() {
+        lock.readLock().lock();
+        try {
+            List<HistoryEntry> result = new ArrayList<>(liveCount);
+            for (int i = logHead; i < logTail; i++) {
+                if (isLive(i)) {
+                    result.add(entryAt(logSlots[i]));
+                }
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private int find(String url) {
+        String identity = UrlCanonicalizer.identity(url);
+        return find(identity, Hashing.hash64(identity));
+    }
+
+    private int find(String identity, long key) {
+        return urlIndex.find(key, slot -> UrlCanonicalizer.identity(urlAt(slot)).equals(identity));
+    }
+
+    private HistoryEntry entryAt(int slot) {
+        return new HistoryEntry(titleAt(slot), urlAt(slot),
+            toLocalDateTime(stamps[slot] >> STAMP_SHIFT), visitCounts[slot]);
+    }
+
+    private String urlAt(int slot) {
+        return origins.get(originRefs[slot]) + arena.decode(pathOffsets[slot], pathLengths[slot]);
+    }
+
+    private String titleAt(int slot) {
+        return arena.decode(titleOffsets[slot], titleLengths[slot]);
+    }
+
+    private int allocateSlot() {
+        if (freeCount > 0) {
+            return freeSlots[--freeCount];
+        }
+        if (slotLimit == stamps.length) {
+            int grown = stamps.length * 2;
+            stamps = Arrays.copyOf(stamps, grown);
+            urlKeys = Arrays.copyOf(urlKeys, grown);
+            visitCounts = Arrays.copyOf(visitCounts, grown);
+            originRefs = Arrays.copyOf(originRefs, grown);
+            pathOffsets = Arrays.copyOf(pathOffsets, grown);
+            pathLengths = Arrays.copyOf(pathLengths, grown);
+            titleOffsets = Arrays.copyOf(titleOffsets, grown);
+            titleLengths = Arrays.copyOf(titleLengths, grown);
+        }
+        return slotLimit++;
+    }
+
+    /**
+     * Store a URL as a dictionary-encoded origin plus a UTF-8 path slice
+     */
+    private void setUrl(int slot, String url) {
+        int scheme = url.indexOf("://");
+        int originEnd = scheme < 0 ? 0 : authorityEnd(url, scheme + 3);
+        byte[] path = url.substring(originEnd).getBytes(StandardCharsets.UTF_8);
+        originRefs[slot] = internOrigin(url.substring(0, originEnd));
+        pathOffsets[slot] = arena.append(path);
+        pathLengths[slot] = path.length;
+    }
+
+    private void setTitle(int slot, byte[] title) {
+        arena.release(titleLengths[slot]);
+        titleOffsets[slot] = arena.append(title);
+        titleLengths[slot] = title.length;
+    }
+
+    private int internOrigin(String origin) {
+        Integer existing = originIds.get(origin);
+        if (existing != null) {
+            return existing;
+        }
+        int id = origins.size();
+        origins.add(origin);
+        originIds.put(origin, id);
+        if (id == originHosts.length) {
+            originHosts = Arrays.copyOf(originHosts, id * 2);
+        }
+        // URLs without an authority (about:, data:) are not ranked as sites
+        String host = origin.isEmpty() ? "" : hostOf(origin);
+        originHosts[id] = hostIds.computeIfAbsent(host, key -> {
+            hosts.add(key);
+            return hosts.size() - 1;
+        });
+        return id;
+    }
+
+    /**
+     * Remove a slot from every structure; its log records become dead
+     */
+    private void discard(int slot) {
+        HistoryEntry removed = listeners.isEmpty() ? null : entryAt(slot);
+        urlIndex.remove(urlKeys[slot], slot);
+        textIndex.remove(slot);
+        pageRanking.remove(slot);
+        int host = originHosts[originRefs[slot]];
+        if (!hosts.get(host).isEmpty()) {
+            siteRanking.add(host, -visitCounts[slot]);
+            if (siteRanking.count(host) == 0) {
+                sites.remove(host);
+            }
+        }
+        arena.release(pathLengths[slot] + titleLengths[slot]);
+        stamps[slot] = 0;
+        pathLengths[slot] = 0;
+        titleLengths[slot] = 0;
+        if (freeCount == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+        }
+        freeSlots[freeCount++] = slot;
+        liveCount--;
+        if (removed != null) {
+            fireRemoved(removed);
+        }
+    }
+
+    /**
+     * Copy live slices into a fresh arena once most of it is garbage
+     */
+    private void compactArenaIfNeeded() {
+        if (!arena.isMostlyGarbage()) {
+            return;
+        }
+        ByteArena compacted = new ByteArena(arena.liveBytes());
+        for (int slot = 0; slot < slotLimit; slot++) {
+            if (stamps[slot] != 0) {
+                pathOffsets[slot] = compacted.copyFrom(arena, pathOffsets[slot], pathLengths[slot]);
+                titleOffsets[slot] = compacted.copyFrom(arena, titleOffsets[slot], titleLengths[slot]);
+            }
+        }
+        arena = compacted;
+    }
+
+    private void rankVisit(int slot) {
+        pageRanking.add(slot, 1);
+        int origin = originRefs[slot];
+        int host = originHosts[origin];
+        if (!hosts.get(host).isEmpty()) {
+            siteRanking.add(host, 1);
+            sites.computeIfAbsent(host, key -> new Site(origins.get(origin) + "/")).title = titleAt(slot);
+        }
+    }
+
+    private void stampVisit(int slot, long millis) {
+        // Unique and monotonic even when several visits share a millisecond
+        lastStamp = Math.max(millis << STAMP_SHIFT, lastStamp + 1);
+        stamps[slot] = lastStamp;
+        if (logTail == logStamps.length) {
+            compactLog();
+        }
+        logStamps[logTail] = lastStamp;
+        logSlots[logTail] = slot;
+        logTail++;
+    }
+
+    private boolean isLive(int record) {
+        return stamps[logSlots[record]] == logStamps[record];
+    }
+
+    private int oldestSlot() {
+        while (!isLive(logHead)) {
+            logHead++;
+        }
+        return logSlots[logHead];
+    }
+
+    /**
+     * Drop dead log records, growing the log only when it is mostly live
+     */
+    private void compactLog() {
+        int dead = logTail - logHead - liveCount;
+        int kept = 0;
+        for (int i = logHead; i < logTail; i++) {
+            if (dead < Math.max(MIN_LOG_GARBAGE, liveCount) || isLive(i)) {
+                logStamps[kept] = logStamps[i];
+                logSlots[kept] = logSlots[i];
+                kept++;
+            }
+        }
+        logHead = 0;
+        logTail = kept;
+        if (logTail == logStamps.length) {
+            logStamps = Arrays.copyOf(logStamps, logStamps.length * 2);
+            logSlots = Arrays.copyOf(logSlots, logSlots.length * 2);
+        }
+    }
+
+    /**
+     * First log record strictly after {@code from}.
+     * Visit times have millisecond precision, so the bounds round to whole milliseconds.
+     */
+    private int lowerIndex(LocalDateTime from) {
+        return from == null ? logHead : search((toMillis(from) + 1) << STAMP_SHIFT);
+    }
+
+    /**
+     * First log record at or after {@code to}
+     */
+    private int upperIndex(LocalDateTime to) {
+        return to == null ? logTail : Math.max(logHead, search(ceilMillis(to) << STAMP_SHIFT));
+    }
+
+    private int search(long stamp) {
+        int index = Arrays.binarySearch(logStamps, logHead, logTail, stamp);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    /**
+     * Lower-cased host of a URL without port, credentials or a leading "www."
+     */
+    static String hostOf(String url) {
+        int start = url.indexOf("://");
+        start = start < 0 ? 0 : start + 3;
+        int end = authorityEnd(url, start);
+        String host = url.substring(start, end).toLowerCase(Locale.ROOT);
+        int at = host.lastIndexOf('@');
+        if (at >= 0) {
+            host = host.substring(at + 1);
+        }
+        int colon = host.lastIndexOf(':');
+        if (colon >= 0 && colon > host.lastIndexOf(']')) {
+            host = host.substring(0, colon);
+        }
+        return host.startsWith("www.") ? host.substring(4) : host;
+    }
+
+    private static int authorityEnd(String url, int start) {
+        int end = start;
+        while (end < url.length() && "/?#".indexOf(url.charAt(end)) < 0) {
+            end++;
+        }
+        return end;
+    }
+
+    static long toMillis(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    static LocalDateTime toLocalDateTime(long millis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+    }
+
+    static long ceilMillis(LocalDateTime time) {
+        long millis = toMillis(time);
+        return time.getNano() % 1_000_000 == 0 ? millis : millis + 1;
+    }
+
+    private void fireVisited(int slot) {
+        if (listeners.isEmpty()) {
+            return;
+        }
+        HistoryEntry entry = entryAt(slot);
+        for (HistoryListener listener : listeners) {
+            listener.entryVisited(entry);
+        }
+    }
+
+    private void fireRemoved(HistoryEntry entry) {
+        for (HistoryListener listener : listeners) {
+            listener.entryRemoved(entry);
+        }
+    }
+}
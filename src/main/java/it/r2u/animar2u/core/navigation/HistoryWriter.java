@@ -0,0 +1,320 @@
+package it.r2u.animar2u.core.navigation;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Background ingestion of history visits.
+ * Callers publish visits into a bounded lock-free ring (many producers, one
+ * consumer) and return immediately. A single writer thread drains the ring in
+ * batches and applies each batch to the store under one write lock, so readers
+ * see either none or all of a batch, then appends it to the on-disk segments
+ * with one forced write (group commit). A full ring makes producers wait for the
+ * writer rather than drop visits. After {@link #close()} visits are applied on
+ * the calling thread. Work that must see every visit queued before it, such as
+ * a removal, runs on the writer through {@link #afterQueued} without the caller
+ * waiting for it.
+ */
+final class HistoryWriter {
+
+    private static final int CAPACITY = 1024;
+    private static final int MAX_BATCH = 256;
+    private static final long FULL_WAIT_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    private static final long CLOSE_TIMEOUT_MILLIS = 5000;
+    // How often a waiting flush checks that the writer is still alive
+    private static final long FLUSH_CHECK_MILLIS = 100;
+
+    /**
+     * A visit waiting to be recorded; the time is taken when it is submitted
+     */
+    static final class Visit {
+        final String title;
+        final String url;
+        final long millis;
+
+        Visit(String title, String url, long millis) {
+            this.title = title;
+            this.url = url;
+            this.millis = millis;
+        }
+    }
+
+    private static final class PendingFlush {
+        final long target;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        PendingFlush(long target) {
+            this.target = target;
+        }
+    }
+
+    private final HistoryStore store;
+    private final HistorySegments segments;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    // Flushes waiting for visits to be applied; touched only by the writer
+    private final List<PendingFlush> flushes = new ArrayList<>();
+    private final AtomicReferenceArray<Visit> ring = new AtomicReferenceArray<>(CAPACITY);
+    // Next position to claim; producers advance it by CAS
+    private final AtomicLong tail = new AtomicLong();
+    // Next position to drain; only the writer advances it
+    private volatile long head;
+    // Visits applied to the store so far, for flush()
+    private volatile long applied;
+    // Producers between checking closed and publishing, so close() can wait for them
+    private final AtomicInteger publishing = new AtomicInteger();
+    private volatile boolean parked;
+    private volatile boolean closed;
+    private final Thread thread;
+
+    /**
+     * @param segments The on-disk tier, or null to keep history in memory only
+     */
+    HistoryWriter(HistoryStore store, HistorySegments segments) {
+        this.store = store;
+        this.segments = segments;
+        this.thread = new Thread(this::run, "anima-history-writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Queue a visit; blocks only while the ring is full
+     */
+    void submit(String title, String url, long millis) {
+        Visit visit = new Visit(title, url, millis);
+        publishing.incrementAndGet();
+        try {
+            while (!closed) {
+                if (offer(visit)) {
+                    if (parked) {
+                        LockSupport.unpark(thread);
+                    }
+                    return;
+                }
+                // Backpressure: let the writer catch up
+                LockSupport.unpark(thread);
+                LockSupport.parkNanos(FULL_WAIT_NANOS);
+            }
+        } finally {
+            publishing.decrementAndGet();
+        }
+        apply(List.of(visit));
+    }
+
+    /**
+     * Run a task on the writer thread before any visits queued after it
+     */
+    void execute(Runnable task) {
+        tasks.add(task);
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * Wait until every visit and task submitted before this call has been applied
+     */
+    void flush() {
+        if (Thread.currentThread() == thread) {
+            return;
+        }
+        CompletableFuture<Void> flush = flushAsync();
+        while (thread.isAlive()) {
+            try {
+                flush.get(FLUSH_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+                return;
+            } catch (TimeoutException e) {
+                // Still working; check the writer has not stopped meanwhile
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * A future completed on the writer thread once every visit and task
+     * submitted before this call has been applied, and no visit after them
+     */
+    CompletableFuture<Void> flushAsync() {
+        // Registered as a task, so the tasks before it have run when it is
+        PendingFlush flush = new PendingFlush(tail.get());
+        execute(() -> flushes.add(flush));
+        if (closed && !thread.isAlive()) {
+            // Nothing runs tasks any more; close() has applied what was queued
+            flush.done.complete(null);
+        }
+        return flush.done;
+    }
+
+    /**
+     * Run {@code action} on the writer thread once every visit and task submitted
+     * before this call has been applied, before any visit submitted after it.
+     * After {@link #close()} it runs on the calling thread.
+     * @return a future of its result, completed exceptionally if it throws
+     */
+    <T> CompletableFuture<T> afterQueued(Callable<T> action) {
+        return flushAsync().thenApply(ignored -> {
+            try {
+                return action.call();
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        });
+    }
+
+    /**
+     * Stop accepting visits, drain what is queued and stop the writer thread
+     */
+    void close() {
+        closed = true;
+        LockSupport.unpark(thread);
+        try {
+            thread.join(CLOSE_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (thread.isAlive()) {
+            System.err.println("History writer did not finish within " + CLOSE_TIMEOUT_MILLIS + " ms");
+            return;
+        }
+        // Pick up visits published while the writer was exiting, once no producer
+        // that saw the writer open is still publishing
+        while (publishing.get() > 0) {
+            Thread.onSpinWait();
+        }
+        List<Visit> rest = new ArrayList<>();
+        for (drain(rest, Long.MAX_VALUE); !rest.isEmpty(); drain(rest, Long.MAX_VALUE)) {
+            apply(rest);
+            rest.clear();
+        }
+        if (segments != null) {
+            try {
+                segments.close();
+            } catch (IOException e) {
+                System.err.println("Failed to close history files: " + e.getMessage());
+            }
+        }
+    }
+
+    private boolean offer(Visit visit) {
+        while (true) {
+            long position = tail.get();
+            if (position - head >= CAPACITY) {
+                return false;
+            }
+            if (tail.compareAndSet(position, position + 1)) {
+                ring.set((int) (position & (CAPACITY - 1)), visit);
+                return true;
+            }
+        }
+    }
+
+    private void run() {
+        List<Visit> batch = new ArrayList<>(MAX_BATCH);
+        while (true) {
+            for (Runnable task = tasks.poll(); task != null; task = tasks.poll()) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    System.err.println("History task failed: " + e.getMessage());
+                }
+            }
+            // A batch stops at the first pending flush, so work queued behind it
+            // runs before any later visit
+            drain(batch, flushes.isEmpty() ? Long.MAX_VALUE : firstFlushTarget());
+            if (!batch.isEmpty()) {
+                apply(batch);
+                applied += batch.size();
+                batch.clear();
+                completeFlushes(false);
+                continue;
+            }
+            completeFlushes(false);
+            if (closed && head == tail.get() && tasks.isEmpty()) {
+                completeFlushes(true);
+                return;
+            }
+            // Re-check after announcing the park so a concurrent submit is not missed
+            parked = true;
+            if (ring.get((int) (head & (CAPACITY - 1))) == null && tasks.isEmpty() && !closed) {
+                LockSupport.park(this);
+            }
+            parked = false;
+        }
+    }
+
+    private long firstFlushTarget() {
+        long first = Long.MAX_VALUE;
+        for (PendingFlush flush : flushes) {
+            first = Math.min(first, flush.target);
+        }
+        return first;
+    }
+
+    /**
+     * Release the flushes whose visits have all been applied, or every one
+     * when the writer stops
+     */
+    private void completeFlushes(boolean all) {
+        flushes.removeIf(flush -> {
+            if (!all && applied < flush.target) {
+                return false;
+            }
+            try {
+                flush.done.complete(null);
+            } catch (RuntimeException e) {
+                // Work chained onto the flush, such as handing off to an executor that was shut down
+                System.err.println("History flush callback failed: " + e.getMessage());
+            }
+            return true;
+        });
+    }
+
+    private void apply(List<Visit> visits) {
+        try {
+            store.recordVisits(visits);
+        } catch (RuntimeException e) {
+            System.err.println("Failed to record history batch: " + e.getMessage());
+        }
+        if (segments != null) {
+            try {
+                segments.append(visits);
+            } catch (IOException e) {
+                System.err.println("Failed to write history to disk: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Move published visits into the batch; stops at a claimed but unpublished
+     * slot or at position {@code end}
+     */
+    private void drain(List<Visit> batch, long end) {
+        long position = head;
+        while (batch.size() < MAX_BATCH && position < end) {
+            int index = (int) (position & (CAPACITY - 1));
+            Visit visit = ring.get(index);
+            if (visit == null) {
+                break;
+            }
+            ring.set(index, null);
+            batch.add(visit);
+            position++;
+            head = position;
+        }
+    }
+}
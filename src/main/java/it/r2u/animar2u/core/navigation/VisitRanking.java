@@ -0,0 +1,219 @@
+package it.r2u.animar2u.core.navigation;
+
+import java.util.Arrays;
+
+/**
+ * Non-negative int keys ordered by visit count, maintained incrementally.
+ * Keys with the same count share a bucket, and buckets form a list sorted by
+ * count. A +1 increment moves a key to the neighbouring bucket in O(1), and the
+ * top K keys are read by walking down from the highest bucket in O(K).
+ * Larger jumps walk the buckets in between. Bucket membership is kept in
+ * intrusive int arrays indexed by key, so nothing is boxed per key.
+ * Not thread-safe; callers lock.
+ */
+final class VisitRanking {
+
+    private static final int NONE = -1;
+
+    // Per key: owning bucket and neighbours within it
+    private int[] bucketOf = new int[0];
+    private int[] previous = new int[0];
+    private int[] next = new int[0];
+    private int size;
+
+    // Per bucket: count, member list ends and neighbours in count order
+    private long[] counts = new long[16];
+    private int[] first = new int[16];
+    private int[] last = new int[16];
+    private int[] lower = new int[16];
+    private int[] higher = new int[16];
+    private int bucketLimit;
+    private int freeBucket = NONE;
+    private int lowest = NONE;
+    private int highest = NONE;
+
+    /**
+     * Change the count of a key; keys whose count drops to zero are removed
+     */
+    void add(int key, long delta) {
+        if (delta == 0) {
+            return;
+        }
+        ensureKey(key);
+        int current = bucketOf[key];
+        long count = (current != NONE ? counts[current] : 0) + delta;
+
+        if (count <= 0) {
+            remove(key);
+            return;
+        }
+
+        // Walk from the current bucket (or an end of the list) to the target position
+        int below;
+        if (current != NONE) {
+            below = delta > 0 ? current : lower[current];
+        } else {
+            below = NONE;
+        }
+        while (below != NONE && counts[below] >= count) {
+            below = lower[below];
+        }
+        int above = below != NONE ? higher[below] : lowest;
+        while (above != NONE && counts[above] < count) {
+            below = above;
+            above = higher[above];
+        }
+
+        int target;
+        if (above != NONE && counts[above] == count) {
+            target = above;
+        } else {
+            target = newBucket(count);
+            link(target, below, above);
+        }
+
+        if (current != NONE) {
+            detach(key, current);
+        } else {
+            size++;
+        }
+        append(key, target);
+    }
+
+    /**
+     * Remove a key from the ranking
+     */
+    void remove(int key) {
+        if (key < bucketOf.length && bucketOf[key] != NONE) {
+            detach(key, bucketOf[key]);
+            size--;
+        }
+    }
+
+    /**
+     * Get the count of a key, or zero if it is not ranked
+     */
+    long count(int key) {
+        return key < bucketOf.length && bucketOf[key] != NONE ? counts[bucketOf[key]] : 0;
+    }
+
+    /**
+     * Get the highest ranked keys; ties are ordered by most recent change first
+     */
+    int[] top(int limit) {
+        int[] result = new int[Math.min(limit, size)];
+        int filled = 0;
+        for (int bucket = highest; bucket != NONE && filled < result.length; bucket = lower[bucket]) {
+            for (int key = last[bucket]; key != NONE && filled < result.length; key = previous[key]) {
+                result[filled++] = key;
+            }
+        }
+        return result;
+    }
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        Arrays.fill(bucketOf, NONE);
+        size = 0;
+        bucketLimit = 0;
+        freeBucket = NONE;
+        lowest = NONE;
+        highest = NONE;
+    }
+
+    private void ensureKey(int key) {
+        if (key >= bucketOf.length) {
+            int grown = Math.max(key + 1, bucketOf.length * 2);
+            int old = bucketOf.length;
+            bucketOf = Arrays.copyOf(bucketOf, grown);
+            Arrays.fill(bucketOf, old, grown, NONE);
+            previous = Arrays.copyOf(previous, grown);
+            next = Arrays.copyOf(next, grown);
+        }
+    }
+
+    private void append(int key, int bucket) {
+        bucketOf[key] = bucket;
+        previous[key] = last[bucket];
+        next[key] = NONE;
+        if (last[bucket] != NONE) {
+            next[last[bucket]] = key;
+        } else {
+            first[bucket] = key;
+        }
+        last[bucket] = key;
+    }
+
+    private void detach(int key, int bucket) {
+        if (previous[key] != NONE) {
+            next[previous[key]] = next[key];
+        } else {
+            first[bucket] = next[key];
+        }
+        if (next[key] != NONE) {
+            previous[next[key]] = previous[key];
+        } else {
+            last[bucket] = previous[key];
+        }
+        bucketOf[key] = NONE;
+        if (first[bucket] == NONE) {
+            unlink(bucket);
+        }
+    }
+
+    private int newBucket(long count) {
+        int bucket;
+        if (freeBucket != NONE) {
+            bucket = freeBucket;
+            freeBucket = higher[bucket];
+        } else {
+            if (bucketLimit == counts.length) {
+                int grown = counts.length * 2;
+                counts = Arrays.copyOf(counts, grown);
+                first = Arrays.copyOf(first, grown);
+                last = Arrays.copyOf(last, grown);
+                lower = Arrays.copyOf(lower, grown);
+                higher = Arrays.copyOf(higher, grown);
+            }
+            bucket = bucketLimit++;
+        }
+        counts[bucket] = count;
+        first[bucket] = NONE;
+        last[bucket] = NONE;
+        return bucket;
+    }
+
+    private void link(int bucket, int below, int above) {
+        lower[bucket] = below;
+        higher[bucket] = above;
+        if (below != NONE) {
+            higher[below] = bucket;
+        } else {
+            lowest = bucket;
+        }
+        if (above != NONE) {
+            lower[above] = bucket;
+        } else {
+            highest = bucket;
+        }
+    }
+
+    private void unlink(int bucket) {
+        if (lower[bucket] != NONE) {
+            higher[lower[bucket]] = higher[bucket];
+        } else {
+            lowest = higher[bucket];
+        }
+        if (higher[bucket] != NONE) {
+            lower[higher[bucket]] = lower[bucket];
+        } else {
+            highest = lower[bucket];
+        }
+        // Freed buckets are chained through their higher link
+        higher[bucket] = freeBucket;
+        freeBucket = bucket;
+    }
+}
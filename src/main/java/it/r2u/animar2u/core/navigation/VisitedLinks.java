@@ -0,0 +1,323 @@
+package it.r2u.animar2u.core.navigation;
+
+import it.r2u.animar2u.core.storage.HistoryEntry;
+import it.r2u.animar2u.core.util.BloomFilter;
+import it.r2u.animar2u.core.util.RecordCodec;
+import it.r2u.animar2u.core.util.UrlCanonicalizer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Probabilistic set of every visited page, for coloring visited links.
+ * Bloom filters over URL identity keys cover the in-memory history and all
+ * visits kept on disk. The first is sized at 10 bits per page with half as many
+ * again of headroom, so 1M pages take 2 MB, and about 1% of unvisited links show
+ * as visited. When a filter fills up, a new one of twice the size and two more
+ * bits per page is added rather than rescanning history, which keeps the sum of
+ * their false positive rates under 2%.
+ *
+ * With history files the filters are saved next to the segments on close and
+ * after imports, and loaded at startup, which then only reads the segments of
+ * the days since the last save. Filters cannot forget, so removed pages keep
+ * showing as visited until the filters are rebuilt from all segments, which
+ * happens at the first startup after {@link #REBUILD_DAYS} days; clearing all
+ * history empties them at once. Without history files a removal rebuilds them
+ * from the in-memory history.
+ *
+ * Visits are added on the history writer thread, which is the only thread
+ * changing the filters; readers on any thread see the current ones.
+ */
+final class VisitedLinks implements HistoryListener {
+
+    static final int REBUILD_DAYS = 30;
+
+    private static final int BITS_PER_ENTRY = 10;
+    private static final int BITS_STEP = 2;
+    private static final int MIN_CAPACITY = 1 << 14;
+    private static final int MAGIC = 0x4148564C;
+    private static final int VERSION = 1;
+    private static final String FILE = "visited.bloom";
+    // Visits stamped shortly before a save may still have been queued behind it
+    private static final long SAVE_MARGIN_MILLIS = 60_000;
+
+    private final HistoryStore store;
+    private final HistorySegments segments;
+    private final Path file;
+    private volatile BloomFilter[] filters = {new BloomFilter(MIN_CAPACITY, BITS_PER_ENTRY)};
+    // When the filters were last rebuilt from all history
+    private long builtAt = System.currentTimeMillis();
+
+    /**
+     * @param segments The on-disk tier, or null when history is kept in memory only
+     * @param directory Where to save the filters next to the segments, or null
+     */
+    VisitedLinks(HistoryStore store, HistorySegments segments, Path directory) {
+        this.store = store;
+        this.segments = segments;
+        this.file = directory != null ? directory.resolve(FILE) : null;
+    }
+
+    /**
+     * @return true if the canonical URL was probably visited, false if it certainly was not
+     */
+    boolean isVisited(String canonicalUrl) {
+        return contains(filters, UrlCanonicalizer.key(canonicalUrl));
+    }
+
+    /**
+     * Load the saved filters and add the visits made since they were saved,
+     * or rebuild them from all segments when they are missing or due for it.
+     * Runs on the writer thread.
+     */
+    void load() {
+        long savedAt = read();
+        if (savedAt == Long.MIN_VALUE || System.currentTimeMillis() - builtAt > TimeUnit.DAYS.toMillis(REBUILD_DAYS)) {
+            rebuild();
+        } else {
+            addVisitsSince(HistorySegments.dayOf(savedAt));
+        }
+        // The next startup only reads from today
+        save();
+    }
+
+    /**
+     * Add imported visits, which skip the in-memory history. Runs on the writer thread.
+     */
+    void addVisits(List<HistoryWriter.Visit> visits) {
+        for (HistoryWriter.Visit visit : visits) {
+            add(UrlCanonicalizer.key(visit.url));
+        }
+    }
+
+    /**
+     * Account for pages removed from history. Runs on the writer thread.
+     */
+    void pagesRemoved() {
+        if (segments == null) {
+            rebuild();
+        }
+        // With history files the removed pages stay until the next periodic rebuild
+    }
+
+    /**
+     * Forget every page once all history has been cleared. Runs on the writer thread.
+     */
+    void clear() {
+        filters = new BloomFilter[] {new BloomFilter(MIN_CAPACITY, BITS_PER_ENTRY)};
+        builtAt = System.currentTimeMillis();
+        save();
+    }
+
+    /**
+     * Save the filters next to the segments, if there are any
+     */
+    void save() {
+        if (file == null) {
+            return;
+        }
+        BloomFilter[] current = filters;
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        RecordCodec.writeVarLong(record, builtAt);
+        RecordCodec.writeVarLong(record, current.length);
+        for (BloomFilter filter : current) {
+            RecordCodec.writeVarLong(record, filter.capacity());
+            RecordCodec.writeVarLong(record, filter.bitsPerEntry());
+            RecordCodec.writeVarLong(record, filter.addedCount());
+            long[] words = filter.words();
+            RecordCodec.writeVarLong(record, words.length);
+            ByteBuffer bits = ByteBuffer.allocate(words.length * Long.BYTES);
+            bits.asLongBuffer().put(words);
+            record.write(bits.array(), 0, bits.capacity());
+        }
+        ByteArrayOutputStream framed = new ByteArrayOutputStream(record.size() + 16);
+        RecordCodec.appendFrame(framed, record.toByteArray());
+
+        Path temp = file.resolveSibling(FILE + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                RecordCodec.writeHeader(channel, MAGIC, VERSION, System.currentTimeMillis() - SAVE_MARGIN_MILLIS);
+                RecordCodec.writeFully(channel, ByteBuffer.wrap(framed.toByteArray()));
+                channel.force(true);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Failed to save visited links: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void entryVisited(HistoryEntry entry) {
+        add(UrlCanonicalizer.key(entry.getUrl()));
+    }
+
+    @Override
+    public void entryRemoved(HistoryEntry entry) {
+        // Evicted entries are still visited on disk; explicit removals call pagesRemoved()
+    }
+
+    @Override
+    public void historyCleared() {
+        // HistoryManager calls clear() once the files are cleared too
+    }
+
+    private static boolean contains(BloomFilter[] current, long key) {
+        for (BloomFilter filter : current) {
+            if (filter.mightContain(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void add(long key) {
+        BloomFilter[] current = filters;
+        if (contains(current, key)) {
+            return;
+        }
+        BloomFilter last = current[current.length - 1];
+        if (last.addedCount() >= last.capacity()) {
+            last = new BloomFilter(last.capacity() * 2, last.bitsPerEntry() + BITS_STEP);
+            BloomFilter[] grown = Arrays.copyOf(current, current.length + 1);
+            grown[current.length] = last;
+            filters = grown;
+        }
+        last.add(key);
+    }
+
+    /**
+     * Add the visits in segments from a day on, reading one day at a time so
+     * other history work can run in between
+     */
+    private void addVisitsSince(long fromDay) {
+        try {
+            for (long day : segments.days()) {
+                if (day >= fromDay) {
+                    segments.forEachVisitOn(day, (url, title, millis) -> add(UrlCanonicalizer.key(url)));
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to read history for visited links: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Replace the filters with one sized for the pages in all history
+     */
+    private void rebuild() {
+        KeyBuffer keys = new KeyBuffer(Math.max(16, store.size()));
+        for (long key : store.keys()) {
+            keys.add(key);
+        }
+        if (segments != null) {
+            try {
+                for (long day : segments.days()) {
+                    // A segment decodes each URL once, so its visits share the String instance
+                    Set<String> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+                    segments.forEachVisitOn(day, (url, title, millis) -> {
+                        if (seen.add(url)) {
+                            keys.add(UrlCanonicalizer.key(url));
+                        }
+                    });
+                }
+            } catch (IOException e) {
+                System.err.println("Failed to read history for visited links: " + e.getMessage());
+            }
+        }
+
+        // Size the filter for distinct pages, with room to grow before the next one is added
+        int distinct = keys.sortDistinct();
+        BloomFilter rebuilt = new BloomFilter(Math.max(MIN_CAPACITY, distinct + distinct / 2), BITS_PER_ENTRY);
+        for (int i = 0; i < distinct; i++) {
+            rebuilt.add(keys.values[i]);
+        }
+        filters = new BloomFilter[] {rebuilt};
+        builtAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Load the saved filters
+     * @return when they were saved, or Long.MIN_VALUE if there are none to load
+     */
+    private long read() {
+        if (file == null || !Files.exists(file)) {
+            return Long.MIN_VALUE;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            List<BloomFilter> restored = new ArrayList<>();
+            long[] built = new long[1];
+            long end = RecordCodec.decodeRecords(channel, MAGIC, VERSION, record -> {
+                built[0] = RecordCodec.readVarLong(record);
+                long count = RecordCodec.readVarLong(record);
+                for (long i = 0; i < count; i++) {
+                    int capacity = (int) RecordCodec.readVarLong(record);
+                    int bits = (int) RecordCodec.readVarLong(record);
+                    int added = (int) RecordCodec.readVarLong(record);
+                    long length = RecordCodec.readVarLong(record);
+                    if (length < 0 || length * Long.BYTES > record.remaining()) {
+                        return false;
+                    }
+                    long[] words = new long[(int) length];
+                    record.asLongBuffer().get(words);
+                    record.position(record.position() + words.length * Long.BYTES);
+                    restored.add(BloomFilter.restore(capacity, bits, added, words));
+                }
+                return true;
+            });
+            if (end != channel.size() || restored.isEmpty()) {
+                System.err.println("Rebuilding unreadable visited links: " + file);
+                return Long.MIN_VALUE;
+            }
+            filters = restored.toArray(new BloomFilter[0]);
+            builtAt = built[0];
+            return RecordCodec.readHeaderBase(channel);
+        } catch (IOException e) {
+            System.err.println("Failed to load visited links, rebuilding them: " + e.getMessage());
+            return Long.MIN_VALUE;
+        }
+    }
+
+    private static final class KeyBuffer {
+        long[] values;
+        int size;
+
+        KeyBuffer(int capacity) {
+            values = new long[capacity];
+        }
+
+        void add(long key) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = key;
+        }
+
+        /**
+         * Sort and move distinct keys to the front
+         * @return the number of distinct keys
+         */
+        int sortDistinct() {
+            Arrays.sort(values, 0, size);
+            int distinct = 0;
+            for (int i = 0; i < size; i++) {
+                if (distinct == 0 || values[i] != values[distinct - 1]) {
+                    values[distinct++] = values[i];
+                }
+            }
+            return distinct;
+        }
+    }
+}
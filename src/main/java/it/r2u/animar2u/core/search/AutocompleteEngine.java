@@ -0,0 +1,549 @@
+package it.r2u.animar2u.core.search;
+
+import it.r2u.animar2u.core.navigation.HistoryListener;
+import it.r2u.animar2u.core.storage.Bookmark;
+import it.r2u.animar2u.core.storage.BookmarkListener;
+import it.r2u.animar2u.core.storage.HistoryEntry;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * Address bar autocomplete backed by a radix trie over normalized URLs.
+ * Each trie node caches the best frecency score in its subtree, so a query walks
+ * to the prefix node and expands best-first until it has enough results, without
+ * touching the rest of the subtree.
+ *
+ * Frecency is kept in log space as {@code ln(visits) + visitTime * ln2 / halfLife}.
+ * Decay shifts every score by the same amount, so the ordering never goes stale
+ * and a score only changes when the page is visited again.
+ */
+public class AutocompleteEngine implements HistoryListener, BookmarkListener {
+
+    private static final double HALF_LIFE_MILLIS = TimeUnit.DAYS.toMillis(7);
+    private static final double BOOKMARK_BONUS = Math.log(4);
+    private static final double NONE = Double.NEGATIVE_INFINITY;
+    private static final Node[] NO_CHILDREN = new Node[0];
+
+    /**
+     * A ranked address bar suggestion
+     */
+    public static final class Suggestion {
+        private final String url;
+        private final String title;
+        private final String key;
+        private final boolean bookmarked;
+
+        Suggestion(String url, String title, String key, boolean bookmarked) {
+            this.url = url;
+            this.title = title;
+            this.key = key;
+            this.bookmarked = bookmarked;
+        }
+
+        public String getUrl() { return url; }
+        public String getTitle() { return title; }
+        public String getKey() { return key; }
+        public boolean isBookmarked() { return bookmarked; }
+
+        @Override
+        public String toString() {
+            return title + " - " + url;
+        }
+    }
+
+    private static final class Entry {
+        String url;
+        String title;
+        String historyUrl;
+        String bookmarkUrl;
+        double historyScore = NONE;
+        double bookmarkScore = NONE;
+
+        double score() {
+            if (bookmarkUrl == null) {
+                return historyScore;
+            }
+            return Math.max(historyScore, bookmarkScore) + BOOKMARK_BONUS;
+        }
+
+        boolean isEmpty() {
+            return historyUrl == null && bookmarkUrl == null;
+        }
+    }
+
+    private static final class Node {
+        String edge;
+        Node[] children = NO_CHILDREN;
+        Entry entry;
+        double best = NONE;
+
+        Node(String edge) {
+            this.edge = edge;
+        }
+    }
+
+    private static final class Candidate {
+        final Node node;
+        final double score;
+        final boolean expand;
+
+        Candidate(Node node, double score, boolean expand) {
+            this.node = node;
+            this.score = score;
+            this.expand = expand;
+        }
+    }
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ExecutorService executor;
+    private final AtomicLong generation = new AtomicLong();
+    private Node root = new Node("");
+    private Future<?> pending;
+
+    public AutocompleteEngine() {
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "anima-autocomplete");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // Queries
+
+    /**
+     * Get the best suggestions for typed text
+     */
+    public List<Suggestion> suggest(String typed, int limit) {
+        String prefix = normalizeKey(typed);
+        List<Suggestion> result = new ArrayList<>();
+        if (prefix.isEmpty() || limit <= 0) {
+            return result;
+        }
+
+        lock.readLock().lock();
+        try {
+            Node start = findPrefix(prefix);
+            if (start == null) {
+                return result;
+            }
+            PriorityQueue<Candidate> frontier = new PriorityQueue<>(
+                (a, b) -> Double.compare(b.score, a.score));
+            frontier.add(new Candidate(start, start.best, true));
+            while (!frontier.isEmpty() && result.size() < limit) {
+                Candidate next = frontier.poll();
+                Node node = next.node;
+                if (!next.expand) {
+                    Entry entry = node.entry;
+                    result.add(new Suggestion(entry.url, entry.title, normalizeKey(entry.url),
+                                              entry.bookmarkUrl != null));
+                    continue;
+                }
+                if (node.entry != null) {
+                    frontier.add(new Candidate(node, node.entry.score(), false));
+                }
+                for (Node child : node.children) {
+                    frontier.add(new Candidate(child, child.best, true));
+                }
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Compute suggestions on the autocomplete thread.
+     * Submitting a new query cancels the previous one; the callback runs on the
+     * autocomplete thread and only for the latest query.
+     */
+    public synchronized void suggestAsync(String typed, int limit, Consumer<List<Suggestion>> callback) {
+        long ticket = generation.incrementAndGet();
+        if (pending != null) {
+            pending.cancel(false);
+        }
+        pending = executor.submit(() -> {
+            if (generation.get() != ticket) {
+                return;
+            }
+            List<Suggestion> suggestions = suggest(typed, limit);
+            if (generation.get() == ticket) {
+                callback.accept(suggestions);
+            }
+        });
+    }
+
+    /**
+     * Drop any query that has not delivered yet
+     */
+    public synchronized void cancelPending() {
+        generation.incrementAndGet();
+        if (pending != null) {
+            pending.cancel(false);
+            pending = null;
+        }
+    }
+
+    /**
+     * Stop the autocomplete thread
+     */
+    public void shutdown() {
+        cancelPending();
+        executor.shutdownNow();
+    }
+
+    /**
+     * Normalize a URL or typed text to the key used for prefix matching
+     */
+    public static String normalizeKey(String url) {
+        if (url == null) {
+            return "";
+        }
+        String key = url.trim().toLowerCase(Locale.ROOT);
+        int scheme = key.indexOf("://");
+        if (scheme > 0) {
+            key = key.substring(scheme + 3);
+        }
+        if (key.startsWith("www.")) {
+            key = key.substring(4);
+        }
+        if (key.endsWith("/")) {
+            key = key.substring(0, key.length() - 1);
+        }
+        return key;
+    }
+
+    // History and bookmark feeds
+
+    @Override
+    public void entryVisited(HistoryEntry historyEntry) {
+        String url = historyEntry.getUrl();
+        double score = frecency(historyEntry.getVisitCount(), historyEntry.getVisitTime());
+        update(url, entry -> {
+            // Several URLs can share a key; the best scoring one represents it
+            if (entry.historyUrl == null || url.equals(entry.historyUrl) || score >= entry.historyScore) {
+                entry.historyUrl = url;
+                entry.historyScore = score;
+                entry.url = url;
+                entry.title = historyEntry.getTitle();
+            }
+        });
+    }
+
+    @Override
+    public void entryRemoved(HistoryEntry historyEntry) {
+        String url = historyEntry.getUrl();
+        update(url, entry -> {
+            if (url.equals(entry.historyUrl)) {
+                entry.historyUrl = null;
+                entry.historyScore = NONE;
+                if (entry.bookmarkUrl != null) {
+                    entry.url = entry.bookmarkUrl;
+                }
+            }
+        });
+    }
+
+    @Override
+    public void historyCleared() {
+        retainOnly(entry -> {
+            entry.historyUrl = null;
+            entry.historyScore = NONE;
+            if (entry.bookmarkUrl != null) {
+                entry.url = entry.bookmarkUrl;
+            }
+        });
+    }
+
+    @Override
+    public void bookmarkChanged(Bookmark bookmark) {
+        update(bookmark.getUrl(), bookmarked(bookmark));
+    }
+
+    /**
+     * Insert a batch without recomputing cached scores per entry: scores that
+     * rise are pushed up the path as they go in, and the rare batch that lowers
+     * one is settled by a single pass over the trie.
+     */
+    @Override
+    public void bookmarksAdded(List<Bookmark> bookmarks) {
+        lock.writeLock().lock();
+        try {
+            List<Node> path = new ArrayList<>();
+            boolean lowered = false;
+            for (Bookmark bookmark : bookmarks) {
+                String key = normalizeKey(bookmark.getUrl());
+                if (key.isEmpty()) {
+                    continue;
+                }
+                path.clear();
+                Node node = insert(key, path);
+                if (node.entry == null) {
+                    node.entry = new Entry();
+                }
+                double before = node.entry.score();
+                bookmarked(bookmark).accept(node.entry);
+                double score = node.entry.score();
+                lowered |= score < before;
+                for (Node step : path) {
+                    step.best = Math.max(step.best, score);
+                }
+            }
+            if (lowered) {
+                recomputeAll(root);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void bookmarkRemoved(Bookmark bookmark) {
+        String url = bookmark.getUrl();
+        update(url, entry -> {
+            if (url.equals(entry.bookmarkUrl)) {
+                entry.bookmarkUrl = null;
+                entry.bookmarkScore = NONE;
+                if (entry.historyUrl != null) {
+                    entry.url = entry.historyUrl;
+                }
+            }
+        });
+    }
+
+    @Override
+    public void bookmarksCleared() {
+        retainOnly(entry -> {
+            entry.bookmarkUrl = null;
+            entry.bookmarkScore = NONE;
+            if (entry.historyUrl != null) {
+                entry.url = entry.historyUrl;
+            }
+        });
+    }
+
+    private static Consumer<Entry> bookmarked(Bookmark bookmark) {
+        String url = bookmark.getUrl();
+        double score = frecency(1, bookmark.getDateAdded());
+        return entry -> {
+            entry.bookmarkUrl = url;
+            entry.bookmarkScore = score;
+            entry.url = url;
+            entry.title = bookmark.getTitle();
+        };
+    }
+
+    // Trie maintenance
+
+    private void update(String url, Consumer<Entry> change) {
+        String key = normalizeKey(url);
+        if (key.isEmpty()) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            List<Node> path = new ArrayList<>();
+            Node node = insert(key, path);
+            if (node.entry == null) {
+                node.entry = new Entry();
+            }
+            change.accept(node.entry);
+            if (node.entry.isEmpty()) {
+                node.entry = null;
+                prune(path);
+            }
+            for (int i = path.size() - 1; i >= 0; i--) {
+                recomputeBest(path.get(i));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Apply a change to every entry and rebuild the trie from the survivors
+     */
+    private void retainOnly(Consumer<Entry> change) {
+        lock.writeLock().lock();
+        try {
+            List<Entry> survivors = new ArrayList<>();
+            collectEntries(root, survivors);
+            root = new Node("");
+            for (Entry entry : survivors) {
+                change.accept(entry);
+                if (entry.isEmpty()) {
+                    continue;
+                }
+                List<Node> path = new ArrayList<>();
+                insert(normalizeKey(entry.url), path).entry = entry;
+                for (int i = path.size() - 1; i >= 0; i--) {
+                    recomputeBest(path.get(i));
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void collectEntries(Node node, List<Entry> out) {
+        if (node.entry != null) {
+            out.add(node.entry);
+        }
+        for (Node child : node.children) {
+            collectEntries(child, out);
+        }
+    }
+
+    /**
+     * Find or create the node for a key, recording the path from the root
+     */
+    private Node insert(String key, List<Node> path) {
+        Node node = root;
+        path.add(node);
+        int i = 0;
+        while (i < key.length()) {
+            int slot = childSlot(node, key.charAt(i));
+            if (slot < 0) {
+                Node leaf = new Node(key.substring(i));
+                addChild(node, -slot - 1, leaf);
+                path.add(leaf);
+                return leaf;
+            }
+            Node child = node.children[slot];
+            int common = commonPrefix(child.edge, key, i);
+            if (common < child.edge.length()) {
+                // Split the edge at the point where the key diverges
+                Node middle = new Node(child.edge.substring(0, common));
+                child.edge = child.edge.substring(common);
+                middle.children = new Node[] { child };
+                middle.best = child.best;
+                node.children[slot] = middle;
+                child = middle;
+            }
+            path.add(child);
+            node = child;
+            i += common;
+        }
+        return node;
+    }
+
+    /**
+     * Drop an empty leaf and merge a parent left with a single child
+     */
+    private void prune(List<Node> path) {
+        int last = path.size() - 1;
+        Node node = path.get(last);
+        if (last == 0) {
+            return;
+        }
+        Node parent = path.get(last - 1);
+        if (node.children.length == 0) {
+            removeChild(parent, node);
+            path.remove(last);
+            node = parent;
+            last--;
+            if (last == 0) {
+                return;
+            }
+            parent = path.get(last - 1);
+        }
+        if (node.entry == null && node.children.length == 1) {
+            Node only = node.children[0];
+            only.edge = node.edge + only.edge;
+            parent.children[childSlot(parent, only.edge.charAt(0))] = only;
+            path.set(last, only);
+        }
+    }
+
+    private Node findPrefix(String prefix) {
+        Node node = root;
+        int i = 0;
+        while (i < prefix.length()) {
+            int slot = childSlot(node, prefix.charAt(i));
+            if (slot < 0) {
+                return null;
+            }
+            Node child = node.children[slot];
+            int common = commonPrefix(child.edge, prefix, i);
+            if (i + common == prefix.length()) {
+                // The prefix ends inside or at the end of this edge
+                return child;
+            }
+            if (common < child.edge.length()) {
+                return null;
+            }
+            node = child;
+            i += common;
+        }
+        return node;
+    }
+
+    private static void recomputeBest(Node node) {
+        double best = node.entry != null ? node.entry.score() : NONE;
+        for (Node child : node.children) {
+            best = Math.max(best, child.best);
+        }
+        node.best = best;
+    }
+
+    private static void recomputeAll(Node node) {
+        for (Node child : node.children) {
+            recomputeAll(child);
+        }
+        recomputeBest(node);
+    }
+
+    private static int childSlot(Node node, char first) {
+        int low = 0;
+        int high = node.children.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            char c = node.children[mid].edge.charAt(0);
+            if (c < first) {
+                low = mid + 1;
+            } else if (c > first) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    private static void addChild(Node node, int at, Node child) {
+        Node[] children = new Node[node.children.length + 1];
+        System.arraycopy(node.children, 0, children, 0, at);
+        children[at] = child;
+        System.arraycopy(node.children, at, children, at + 1, node.children.length - at);
+        node.children = children;
+    }
+
+    private static void removeChild(Node node, Node child) {
+        int at = childSlot(node, child.edge.charAt(0));
+        Node[] children = new Node[node.children.length - 1];
+        System.arraycopy(node.children, 0, children, 0, at);
+        System.arraycopy(node.children, at + 1, children, at, children.length - at);
+        node.children = children;
+    }
+
+    private static int commonPrefix(String edge, String key, int offset) {
+        int max = Math.min(edge.length(), key.length() - offset);
+        int i = 0;
+        while (i < max && edge.charAt(i) == key.charAt(offset + i)) {
+            i++;
+        }
+        return i;
+    }
+
+    private static double frecency(int visitCount, LocalDateTime visitTime) {
+        long millis = visitTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        return Math.log(Math.max(1, visitCount)) + millis / HALF_LIFE_MILLIS * Math.log(2);
+    }
+}
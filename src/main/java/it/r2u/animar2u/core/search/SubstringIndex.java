@@ -0,0 +1,369 @@
+package it.r2u.animar2u.core.search;
+
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+
+/**
+ * Incrementally maintained trigram index for case-insensitive substring search.
+ * Each document is the concatenation of its fields; every position of the text
+ * starts a trigram, so queries of three or more characters intersect posting
+ * lists and shorter queries union the grams that start with them. Results are
+ * ranked with a bounded heap instead of sorting the whole match set.
+ * Removal is lazy: dead ids stay in posting lists until a compaction rebuilds them.
+ *
+ * By default the normalized text of every document is kept for verification.
+ * An index built with a field source keeps no text and asks the source again
+ * instead, for owners that already store their documents compactly.
+ *
+ * @param <T> document type, identified by equals/hashCode
+ */
+public class SubstringIndex<T> {
+
+    private static final int GRAM = 3;
+    // Separates fields and pads the text end; never part of a normalized query
+    private static final char SEPARATOR = '\u0001';
+
+    private final Map<T, Integer> ids = new HashMap<>();
+    private final List<T> docs = new ArrayList<>();
+    private final List<String> texts;
+    private final Function<? super T, String[]> fieldSource;
+    private final TreeMap<Long, IntList> postings = new TreeMap<>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private int liveCount;
+
+    /**
+     * Create an index that keeps the normalized text of each document
+     */
+    public SubstringIndex() {
+        this.texts = new ArrayList<>();
+        this.fieldSource = null;
+    }
+
+    /**
+     * Create an index that reads document fields back from their owner.
+     * The source must return the fields last passed to {@link #put} for a
+     * document, and is called while the index lock is held.
+     */
+    public SubstringIndex(Function<? super T, String[]> fieldSource) {
+        this.texts = null;
+        this.fieldSource = fieldSource;
+    }
+
+    /**
+     * Index a document, replacing any previous text for it
+     */
+    public void put(T doc, String... fields) {
+        String text = normalizeFields(fields);
+        lock.writeLock().lock();
+        try {
+            Integer existing = ids.get(doc);
+            if (existing != null) {
+                if (texts != null && texts.get(existing).equals(text)) {
+                    return;
+                }
+                unindex(existing);
+            }
+            index(doc, text);
+            compactIfSparse();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Remove a document from the index
+     */
+    public boolean remove(T doc) {
+        lock.writeLock().lock();
+        try {
+            Integer id = ids.get(doc);
+            if (id == null) {
+                return false;
+            }
+            unindex(id);
+            compactIfSparse();
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Remove all documents
+     */
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            ids.clear();
+            docs.clear();
+            if (texts != null) {
+                texts.clear();
+            }
+            postings.clear();
+            liveCount = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Get number of indexed documents
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return liveCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Find documents containing the query, best {@code limit} first by {@code order}
+     */
+    public List<T> search(String query, int limit, Comparator<? super T> order) {
+        return search(query, null, limit, order);
+    }
+
+    /**
+     * Find documents containing the query that come after {@code after} by
+     * {@code order}, best {@code limit} first; passing the last result of a page
+     * gets the next page. An empty query finds nothing.
+     */
+    public List<T> search(String query, T after, int limit, Comparator<? super T> order) {
+        String needle = normalize(query);
+        if (needle.isEmpty() || limit <= 0) {
+            return new ArrayList<>();
+        }
+
+        lock.readLock().lock();
+        try {
+            TopN<T> top = new TopN<>(limit, order, after);
+            if (needle.length() < GRAM) {
+                collectShort(needle, top);
+            } else {
+                collectLong(needle, top);
+            }
+            return top.toSortedList();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Normalize text the same way indexed fields are normalized
+     */
+    public static String normalize(String value) {
+        if (value == null) {
+            return "";
+        }
+        return value.toLowerCase(Locale.ROOT).replace(SEPARATOR, ' ');
+    }
+
+    private void collectShort(String needle, TopN<T> top) {
+        // Every occurrence starts a gram, so the union of grams with this prefix is exact
+        long from = prefixKey(needle);
+        long to = from + (needle.length() == 1 ? 1L << 32 : 1L << 16);
+        BitSet seen = new BitSet(docs.size());
+        for (IntList list : postings.subMap(from, true, to, false).values()) {
+            for (int i = 0; i < list.size; i++) {
+                int id = list.values[i];
+                if (!seen.get(id) && docs.get(id) != null) {
+                    seen.set(id);
+                    top.offer(docs.get(id));
+                }
+            }
+        }
+    }
+
+    private void collectLong(String needle, TopN<T> top) {
+        // Distinct grams of the query, rarest first so the intersection shrinks fast
+        Set<Long> keys = new HashSet<>();
+        for (int i = 0; i + GRAM <= needle.length(); i++) {
+            keys.add(gramKey(needle, i));
+        }
+        List<IntList> lists = new ArrayList<>(keys.size());
+        for (long key : keys) {
+            IntList list = postings.get(key);
+            if (list == null) {
+                return;
+            }
+            lists.add(list);
+        }
+        lists.sort(Comparator.comparingInt(list -> list.size));
+
+        IntList candidates = lists.get(0);
+        for (int i = 1; i < lists.size() && candidates.size > 0; i++) {
+            candidates = candidates.intersect(lists.get(i));
+        }
+
+        // Gram intersection admits false positives when grams occur out of order
+        for (int i = 0; i < candidates.size; i++) {
+            int id = candidates.values[i];
+            if (docs.get(id) != null && (needle.length() == GRAM || textOf(id).contains(needle))) {
+                top.offer(docs.get(id));
+            }
+        }
+    }
+
+    private void index(T doc, String text) {
+        int id = docs.size();
+        docs.add(doc);
+        if (texts != null) {
+            texts.add(text);
+        }
+        ids.put(doc, id);
+        liveCount++;
+        // Ids only grow, so appending keeps every posting list sorted
+        for (long key : distinctGrams(text)) {
+            postings.computeIfAbsent(key, k -> new IntList()).append(id);
+        }
+    }
+
+    private void unindex(int id) {
+        // Posting lists keep the dead id until the next compaction; queries skip it
+        ids.remove(docs.get(id));
+        docs.set(id, null);
+        if (texts != null) {
+            texts.set(id, null);
+        }
+        liveCount--;
+    }
+
+    /**
+     * Rebuild with dense ids once removed slots outnumber live documents,
+     * which also purges dead ids from the posting lists
+     */
+    private void compactIfSparse() {
+        int dead = docs.size() - liveCount;
+        if (dead < 1024 || dead < liveCount) {
+            return;
+        }
+        List<T> liveDocs = new ArrayList<>(liveCount);
+        List<String> liveTexts = new ArrayList<>(liveCount);
+        for (int id = 0; id < docs.size(); id++) {
+            if (docs.get(id) != null) {
+                liveDocs.add(docs.get(id));
+                liveTexts.add(textOf(id));
+            }
+        }
+        ids.clear();
+        docs.clear();
+        if (texts != null) {
+            texts.clear();
+        }
+        postings.clear();
+        liveCount = 0;
+        for (int i = 0; i < liveDocs.size(); i++) {
+            index(liveDocs.get(i), liveTexts.get(i));
+        }
+    }
+
+    private String textOf(int id) {
+        return texts != null ? texts.get(id) : normalizeFields(fieldSource.apply(docs.get(id)));
+    }
+
+    private static String normalizeFields(String... fields) {
+        StringBuilder text = new StringBuilder();
+        for (String field : fields) {
+            text.append(normalize(field)).append(SEPARATOR);
+        }
+        // Pad so that every character position starts a full gram
+        text.append(SEPARATOR);
+        return text.toString();
+    }
+
+    private static Set<Long> distinctGrams(String text) {
+        Set<Long> keys = new HashSet<>();
+        for (int i = 0; i + GRAM <= text.length(); i++) {
+            keys.add(gramKey(text, i));
+        }
+        return keys;
+    }
+
+    private static long gramKey(String text, int start) {
+        return ((long) text.charAt(start) << 32)
+             | ((long) text.charAt(start + 1) << 16)
+             | text.charAt(start + 2);
+    }
+
+    private static long prefixKey(String prefix) {
+        long key = 0;
+        for (int i = 0; i < GRAM; i++) {
+            key = (key << 16) | (i < prefix.length() ? prefix.charAt(i) : 0);
+        }
+        return key;
+    }
+
+    /**
+     * Sorted, growable posting list of document ids
+     */
+    private static final class IntList {
+        int[] values = new int[4];
+        int size;
+
+        void append(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        IntList intersect(IntList other) {
+            IntList result = new IntList();
+            int i = 0;
+            int j = 0;
+            while (i < size && j < other.size) {
+                int a = values[i];
+                int b = other.values[j];
+                if (a == b) {
+                    result.append(a);
+                    i++;
+                    j++;
+                } else if (a < b) {
+                    i++;
+                } else {
+                    j++;
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Bounded heap keeping the best {@code limit} documents seen after a cursor
+     */
+    private static final class TopN<T> {
+        private final int limit;
+        private final Comparator<? super T> order;
+        private final T after;
+        private final PriorityQueue<T> heap;
+
+        TopN(int limit, Comparator<? super T> order, T after) {
+            this.limit = limit;
+            this.order = order;
+            this.after = after;
+            // Worst element at the head so it can be replaced cheaply
+            this.heap = new PriorityQueue<>(Math.min(limit, 256), order.reversed());
+        }
+
+        void offer(T doc) {
+            if (after != null && order.compare(doc, after) <= 0) {
+                return;
+            }
+            if (heap.size() < limit) {
+                heap.add(doc);
+            } else if (order.compare(doc, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(doc);
+            }
+        }
+
+        List<T> toSortedList() {
+            List<T> result = new ArrayList<>(heap);
+            result.sort(order);
+            return result;
+        }
+    }
+}
@@ -10,6 +10,8 @@ public class Bookmark {
     private String url;
     private LocalDateTime dateAdded;
     private String folder;
+    // Set while the bookmark is filed in a BookmarkManager folder tree
+    private volatile BookmarkFolder folderNode;
     
     public Bookmark(String title, String url) {
         this.title = title;
@@ -25,6 +27,13 @@ public class Bookmark {
         this.folder = folder;
     }
     
+    public Bookmark(String title, String url, String folder, LocalDateTime dateAdded) {
+        this.title = title;
+        this.url = url;
+        this.dateAdded = dateAdded;
+        this.folder = folder;
+    }
+    
     // Getters and setters
     public String getTitle() { return title; }
     public void setTitle(String title) { this.title = title; }
@@ -35,8 +44,17 @@ public class Bookmark {
     public LocalDateTime getDateAdded() { return dateAdded; }
     public void setDateAdded(LocalDateTime dateAdded) { this.dateAdded = dateAdded; }
     
-    public String getFolder() { return folder; }
-    public void setFolder(String folder) { this.folder = folder; }
+    public String getFolder() {
+        BookmarkFolder node = folderNode;
+        return node != null ? node.getPath() : folder;
+    }
+    public void setFolder(String folder) {
+        this.folder = folder;
+        this.folderNode = null;
+    }
+    
+    BookmarkFolder getFolderNode() { return folderNode; }
+    void setFolderNode(BookmarkFolder folderNode) { this.folderNode = folderNode; }
     
     @Override
     public String toString() {
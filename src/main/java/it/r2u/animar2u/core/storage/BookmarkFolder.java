@@ -0,0 +1,180 @@
+package it.r2u.animar2u.core.storage;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A node in the bookmark folder tree.
+ * Holds its subfolders and the bookmarks filed directly in it, and keeps the number
+ * of bookmarks in its whole subtree. Moving or renaming a folder only touches folder
+ * nodes, never the bookmarks inside, since bookmarks read their folder path from
+ * the node. Nodes are changed by BookmarkManager under its write lock; name, parent
+ * and path are volatile so a bookmark can report its folder without locking.
+ */
+final class BookmarkFolder {
+
+    static final char SEPARATOR = '/';
+
+    private final long id;
+    private volatile String name;
+    private volatile BookmarkFolder parent;
+    private volatile String path;
+    private final Map<String, BookmarkFolder> children = new LinkedHashMap<>();
+    private final Map<String, Bookmark> bookmarks = new LinkedHashMap<>();
+    private int totalCount;
+
+    BookmarkFolder(long id, String name) {
+        this.id = id;
+        this.name = name;
+        this.path = name;
+    }
+
+    long getId() {
+        return id;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    BookmarkFolder getParent() {
+        return parent;
+    }
+
+    /**
+     * Get the path from the top level, e.g. {@code Bookmarks Bar/News}
+     */
+    String getPath() {
+        return path;
+    }
+
+    BookmarkFolder child(String childName) {
+        return children.get(childName);
+    }
+
+    Collection<BookmarkFolder> children() {
+        return children.values();
+    }
+
+    Collection<Bookmark> bookmarks() {
+        return bookmarks.values();
+    }
+
+    /**
+     * Number of bookmarks filed directly in this folder
+     */
+    int bookmarkCount() {
+        return bookmarks.size();
+    }
+
+    /**
+     * Number of bookmarks in this folder and all its subfolders
+     */
+    int totalCount() {
+        return totalCount;
+    }
+
+    /**
+     * Check whether this folder is {@code folder} or one of its ancestors
+     */
+    boolean contains(BookmarkFolder folder) {
+        for (BookmarkFolder current = folder; current != null; current = current.parent) {
+            if (current == this) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    void attach(BookmarkFolder child) {
+        children.put(child.name, child);
+        child.parent = this;
+        child.updatePaths();
+        adjustTotals(child.totalCount);
+    }
+
+    void detach(BookmarkFolder child) {
+        if (children.remove(child.name) == child) {
+            child.parent = null;
+            adjustTotals(-child.totalCount);
+        }
+    }
+
+    void rename(String newName) {
+        BookmarkFolder owner = parent;
+        if (owner != null) {
+            // Rebuild the sibling map so the folder keeps its position
+            Map<String, BookmarkFolder> siblings = new LinkedHashMap<>(owner.children);
+            owner.children.clear();
+            siblings.forEach((siblingName, sibling) -> owner.children.put(sibling == this ? newName : siblingName, sibling));
+        }
+        name = newName;
+        updatePaths();
+    }
+
+    void addBookmark(Bookmark bookmark) {
+        if (bookmarks.put(bookmark.getUrl(), bookmark) == null) {
+            adjustTotals(1);
+        }
+        bookmark.setFolderNode(this);
+    }
+
+    void removeBookmark(Bookmark bookmark) {
+        if (bookmarks.remove(bookmark.getUrl()) != null) {
+            adjustTotals(-1);
+        }
+    }
+
+    /**
+     * Collect the bookmarks of this folder and all its subfolders
+     */
+    void collectBookmarks(List<Bookmark> into) {
+        into.addAll(bookmarks.values());
+        for (BookmarkFolder child : children.values()) {
+            child.collectBookmarks(into);
+        }
+    }
+
+    /**
+     * Collect this folder and all its subfolders, parents first
+     */
+    void collectFolders(List<BookmarkFolder> into) {
+        into.add(this);
+        for (BookmarkFolder child : children.values()) {
+            child.collectFolders(into);
+        }
+    }
+
+    /**
+     * Remove every bookmark from this folder and its subfolders, keeping the folders
+     */
+    void clearBookmarks() {
+        int removed = totalCount;
+        List<BookmarkFolder> subtree = new ArrayList<>();
+        collectFolders(subtree);
+        for (BookmarkFolder folder : subtree) {
+            folder.bookmarks.clear();
+            folder.totalCount = 0;
+        }
+        if (parent != null) {
+            parent.adjustTotals(-removed);
+        }
+    }
+
+    private void adjustTotals(int delta) {
+        for (BookmarkFolder folder = this; folder != null; folder = folder.parent) {
+            folder.totalCount += delta;
+        }
+    }
+
+    private void updatePaths() {
+        String parentPath = parent != null ? parent.path : "";
+        path = parentPath.isEmpty() ? name : parentPath + SEPARATOR + name;
+        for (BookmarkFolder child : children.values()) {
+            child.updatePaths();
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package it.r2u.animar2u.core.storage;
+
+import java.util.List;
+
+/**
+ * Receives bookmark changes from BookmarkManager.
+ * Callbacks run on the thread that changed the bookmarks and must not call
+ * back into the manager.
+ */
+public interface BookmarkListener {
+    
+    /**
+     * A bookmark was added, replaced or retitled
+     */
+    void bookmarkChanged(Bookmark bookmark);
+    
+    /**
+     * Many bookmarks were added or replaced at once, by loading or an import.
+     * Passes each one to {@link #bookmarkChanged} unless overridden.
+     */
+    default void bookmarksAdded(List<Bookmark> bookmarks) {
+        for (Bookmark bookmark : bookmarks) {
+            bookmarkChanged(bookmark);
+        }
+    }
+    
+    /**
+     * A bookmark was removed
+     */
+    void bookmarkRemoved(Bookmark bookmark);
+    
+    /**
+     * All bookmarks were cleared
+     */
+    void bookmarksCleared();
+}
@@ -1,119 +1,766 @@
 package it.r2u.animar2u.core.storage;
 
+import it.r2u.animar2u.core.search.SubstringIndex;
+import it.r2u.animar2u.core.util.RecordCodec;
+import it.r2u.animar2u.core.util.UrlCanonicalizer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
- * Manages browser bookmarks
+ * Manages browser bookmarks.
+ * Bookmarks are filed in a tree of folders addressed by paths such as
+ * {@code Bookmarks Bar/News}. Each folder node indexes its own bookmarks and keeps
+ * a count of its subtree, so listing a folder costs its size and moving or renaming
+ * a folder does not touch the bookmarks inside. Changes to bookmarks and folders
+ * take the write lock and notify listeners under it; folder queries share the read
+ * lock, and URL lookups need no lock at all.
+ * URLs are stored in canonical form and bookmarks are keyed by URL identity, so
+ * {@code http://x.com} and {@code https://x.com/?utm_source=feed} are one bookmark.
  */
 public class BookmarkManager {
-    private Map<String, Bookmark> bookmarks;
-    private Set<String> folders;
-    
+    private static final String BOOKMARKS = "bookmarks";
+    private static final String FOLDERS = "bookmark-folders";
+    private static final String DEFAULT_FOLDER = "Default";
+    private static final long ROOT_ID = 0;
+    // Looked up once; resolving the system zone per bookmark dominates loading
+    private static final ZoneId ZONE = ZoneId.systemDefault();
+    private static final Comparator<Bookmark> BY_TITLE =
+        Comparator.comparing((Bookmark bookmark) -> bookmark.getTitle(), String.CASE_INSENSITIVE_ORDER)
+                  .thenComparing(Bookmark::getUrl);
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final UrlCanonicalizer canonicalizer = UrlCanonicalizer.getDefault();
+    // Keyed by URL identity
+    private volatile Map<String, Bookmark> bookmarks;
+    private BookmarkFolder root;
+    private long nextFolderId = ROOT_ID + 1;
+    private SubstringIndex<Bookmark> searchIndex;
+    private List<BookmarkListener> listeners;
+    private ProfileStore store;
+
+    /**
+     * Create a bookmark manager kept in memory only
+     */
     public BookmarkManager() {
+        this(null);
+    }
+
+    /**
+     * Create a bookmark manager persisted in a profile store.
+     * Call {@link #load()} once listeners are registered to bring back saved bookmarks.
+     */
+    public BookmarkManager(ProfileStore store) {
+        this.store = store;
         this.bookmarks = new ConcurrentHashMap<>();
-        this.folders = new HashSet<>();
-        this.folders.add("Default");
-        this.folders.add("Bookmarks Bar");
-        this.folders.add("Other Bookmarks");
+        this.listeners = new CopyOnWriteArrayList<>();
+        this.root = new BookmarkFolder(ROOT_ID, "");
+        // Saved once load() has merged them with the stored tree
+        for (String name : List.of(DEFAULT_FOLDER, "Bookmarks Bar", "Other Bookmarks")) {
+            root.attach(new BookmarkFolder(nextFolderId++, name));
+        }
+    }
+
+    /**
+     * Register a listener for bookmark changes
+     */
+    public void addBookmarkListener(BookmarkListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Unregister a bookmark listener
+     */
+    public void removeBookmarkListener(BookmarkListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Load saved bookmarks and folders, notifying listeners of them in one batch.
+     * Folders and bookmarks created before loading are kept.
+     * The search index is built on the first search.
+     */
+    public void load() {
+        if (store == null) {
+            return;
+        }
+        Map<String, byte[]> savedFolders = store.load(FOLDERS);
+        Map<String, byte[]> saved = store.load(BOOKMARKS);
+        lock.writeLock().lock();
+        try {
+            BookmarkFolder previous = root;
+            root = new BookmarkFolder(ROOT_ID, "");
+            Map<Long, BookmarkFolder> restored = restoreFolders(savedFolders);
+
+            // Merge what was created before loading; its folder ids were never saved
+            List<BookmarkFolder> earlier = new ArrayList<>();
+            previous.collectFolders(earlier);
+            for (BookmarkFolder folder : earlier) {
+                folder(folder.getPath(), true);
+            }
+            // Size the map up front; rehashing is the main cost of loading many bookmarks
+            Map<String, Bookmark> loaded = new ConcurrentHashMap<>(Math.max(16, (bookmarks.size() + saved.size()) * 4 / 3));
+            for (Bookmark bookmark : bookmarks.values()) {
+                folder(bookmark.getFolder(), true).addBookmark(bookmark);
+                loaded.put(UrlCanonicalizer.identity(bookmark.getUrl()), bookmark);
+                save(bookmark);
+            }
+            bookmarks = loaded;
+
+            List<Bookmark> restoredBookmarks = new ArrayList<>(saved.size());
+            for (Map.Entry<String, byte[]> entry : saved.entrySet()) {
+                String url = canonicalizer.canonicalize(entry.getKey());
+                String key = UrlCanonicalizer.identity(url);
+                Bookmark existing = loaded.get(key);
+                if (existing != null) {
+                    // Another spelling of a URL already loaded
+                    if (!existing.getUrl().equals(entry.getKey())) {
+                        store.remove(BOOKMARKS, entry.getKey());
+                    }
+                    continue;
+                }
+                Bookmark bookmark = decode(url, entry.getValue(), restored);
+                loaded.put(key, bookmark);
+                if (!url.equals(entry.getKey())) {
+                    // Saved before URLs were canonicalized; store it under its canonical URL
+                    store.remove(BOOKMARKS, entry.getKey());
+                    save(bookmark);
+                }
+                restoredBookmarks.add(bookmark);
+            }
+            if (!restoredBookmarks.isEmpty()) {
+                listeners.forEach(listener -> listener.bookmarksAdded(restoredBookmarks));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
-    
+
     /**
      * Add a bookmark
      */
     public boolean addBookmark(String title, String url) {
-        return addBookmark(title, url, "Default");
+        return addBookmark(title, url, DEFAULT_FOLDER);
     }
-    
+
     /**
-     * Add a bookmark to specific folder
+     * Add a bookmark to a folder, creating the folder path if needed.
+     * A bookmark already saved for the same URL identity is replaced.
      */
     public boolean addBookmark(String title, String url, String folder) {
         if (url == null || url.trim().isEmpty()) {
             return false;
         }
-        
-        folders.add(folder);
-        Bookmark bookmark = new Bookmark(title, url, folder);
-        bookmarks.put(url, bookmark);
+
+        Bookmark bookmark = new Bookmark(title, canonicalizer.canonicalize(url), folder);
+        lock.writeLock().lock();
+        try {
+            Bookmark replaced = bookmarks.put(UrlCanonicalizer.identity(bookmark.getUrl()), bookmark);
+            if (replaced != null) {
+                unfile(replaced);
+                unindexBookmark(replaced);
+                if (store != null && !replaced.getUrl().equals(bookmark.getUrl())) {
+                    store.remove(BOOKMARKS, replaced.getUrl());
+                }
+            }
+            folder(orDefault(folder), true).addBookmark(bookmark);
+            save(bookmark);
+            indexBookmark(bookmark);
+            listeners.forEach(listener -> listener.bookmarkChanged(bookmark));
+        } finally {
+            lock.writeLock().unlock();
+        }
         return true;
     }
-    
+
+    /**
+     * Add many bookmarks at once, as an import does. Each is filed in the folder
+     * path it names, creating folders as needed, and replaces a bookmark with the
+     * same URL identity. The batch takes the write lock once, drops the search index
+     * instead of updating it per bookmark (it is rebuilt on the next search) and
+     * reaches listeners in one {@link BookmarkListener#bookmarksAdded} call.
+     * @return the number of bookmarks added or replaced
+     */
+    public int addBookmarks(List<Bookmark> batch) {
+        List<Bookmark> added = new ArrayList<>(batch.size());
+        lock.writeLock().lock();
+        try {
+            for (Bookmark bookmark : batch) {
+                if (bookmark.getUrl() == null || bookmark.getUrl().trim().isEmpty()) {
+                    continue;
+                }
+                String folder = orDefault(bookmark.getFolder());
+                bookmark.setUrl(canonicalizer.canonicalize(bookmark.getUrl()));
+                if (bookmark.getTitle() == null || bookmark.getTitle().trim().isEmpty()) {
+                    bookmark.setTitle(bookmark.getUrl());
+                }
+                Bookmark replaced = bookmarks.put(UrlCanonicalizer.identity(bookmark.getUrl()), bookmark);
+                if (replaced != null) {
+                    unfile(replaced);
+                    if (store != null && !replaced.getUrl().equals(bookmark.getUrl())) {
+                        store.remove(BOOKMARKS, replaced.getUrl());
+                    }
+                }
+                folder(folder, true).addBookmark(bookmark);
+                save(bookmark);
+                added.add(bookmark);
+            }
+            if (!added.isEmpty()) {
+                synchronized (this) {
+                    searchIndex = null;
+                }
+                listeners.forEach(listener -> listener.bookmarksAdded(added));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return added.size();
+    }
+
     /**
      * Remove a bookmark
      */
     public boolean removeBookmark(String url) {
-        return bookmarks.remove(url) != null;
+        lock.writeLock().lock();
+        try {
+            Bookmark removed = bookmarks.remove(keyOf(url));
+            if (removed == null) {
+                return false;
+            }
+            unfile(removed);
+            if (store != null) {
+                store.remove(BOOKMARKS, removed.getUrl());
+            }
+            unindexBookmark(removed);
+            listeners.forEach(listener -> listener.bookmarkRemoved(removed));
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
-    
+
+    /**
+     * Change the title of an existing bookmark
+     */
+    public boolean renameBookmark(String url, String title) {
+        if (title == null || title.trim().isEmpty()) {
+            return false;
+        }
+        lock.writeLock().lock();
+        try {
+            Bookmark bookmark = bookmarks.get(keyOf(url));
+            if (bookmark == null) {
+                return false;
+            }
+            bookmark.setTitle(title);
+            save(bookmark);
+            indexBookmark(bookmark);
+            listeners.forEach(listener -> listener.bookmarkChanged(bookmark));
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Move a bookmark to another folder, creating the folder path if needed
+     */
+    public boolean moveBookmark(String url, String folder) {
+        lock.writeLock().lock();
+        try {
+            Bookmark bookmark = bookmarks.get(keyOf(url));
+            if (bookmark == null) {
+                return false;
+            }
+            unfile(bookmark);
+            folder(orDefault(folder), true).addBookmark(bookmark);
+            save(bookmark);
+            listeners.forEach(listener -> listener.bookmarkChanged(bookmark));
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
     /**
      * Check if URL is bookmarked
      */
     public boolean isBookmarked(String url) {
-        return bookmarks.containsKey(url);
+        return bookmarks.containsKey(keyOf(url));
     }
-    
+
     /**
      * Get bookmark by URL
      */
     public Bookmark getBookmark(String url) {
-        return bookmarks.get(url);
+        return bookmarks.get(keyOf(url));
     }
-    
+
     /**
      * Get all bookmarks
      */
     public List<Bookmark> getAllBookmarks() {
         return new ArrayList<>(bookmarks.values());
     }
-    
+
     /**
-     * Get bookmarks by folder
+     * Get the bookmarks filed directly in a folder
      */
     public List<Bookmark> getBookmarksByFolder(String folder) {
-        return bookmarks.values().stream()
-                .filter(bookmark -> bookmark.getFolder().equals(folder))
-                .collect(Collectors.toList());
+        lock.readLock().lock();
+        try {
+            BookmarkFolder node = folder(folder, false);
+            return node != null ? new ArrayList<>(node.bookmarks()) : new ArrayList<>();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get the number of bookmarks filed directly in a folder
+     */
+    public int getFolderBookmarkCount(String folder) {
+        lock.readLock().lock();
+        try {
+            BookmarkFolder node = folder(folder, false);
+            return node != null ? node.bookmarkCount() : 0;
+        } finally {
+            lock.readLock().unlock();
+        }
     }
-    
+
     /**
-     * Get all folders
+     * Get the number of bookmarks in a folder and all its subfolders
+     */
+    public int getFolderTotalBookmarkCount(String folder) {
+        lock.readLock().lock();
+        try {
+            BookmarkFolder node = folder(folder, false);
+            return node != null ? node.totalCount() : 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get the paths of all folders, parents before their subfolders
      */
     public Set<String> getAllFolders() {
-        return new HashSet<>(folders);
+        lock.readLock().lock();
+        try {
+            List<BookmarkFolder> all = new ArrayList<>();
+            root.collectFolders(all);
+            Set<String> paths = new LinkedHashSet<>();
+            for (BookmarkFolder folder : all.subList(1, all.size())) {
+                paths.add(folder.getPath());
+            }
+            return paths;
+        } finally {
+            lock.readLock().unlock();
+        }
     }
-    
+
     /**
-     * Create new folder
+     * Get the paths of a folder's direct subfolders; an empty path lists the top level
+     */
+    public List<String> getSubfolders(String folder) {
+        lock.readLock().lock();
+        try {
+            BookmarkFolder node = folder(folder, false);
+            List<String> paths = new ArrayList<>();
+            if (node != null) {
+                for (BookmarkFolder child : node.children()) {
+                    paths.add(child.getPath());
+                }
+            }
+            return paths;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Create new folder, including any missing parent folders in its path
      */
     public void createFolder(String folderName) {
-        folders.add(folderName);
+        lock.writeLock().lock();
+        try {
+            folder(orDefault(folderName), true);
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
-    
+
+    /**
+     * Rename a folder; its subfolders and bookmarks move with it
+     * @return false if the folder does not exist or a sibling already has the name
+     */
+    public boolean renameFolder(String folder, String newName) {
+        if (newName == null || newName.trim().isEmpty() || newName.indexOf(BookmarkFolder.SEPARATOR) >= 0) {
+            return false;
+        }
+        String name = newName.trim();
+        lock.writeLock().lock();
+        try {
+            BookmarkFolder node = folder(folder, false);
+            if (node == null || node == root || node.getParent().child(name) != null) {
+                return false;
+            }
+            node.rename(name);
+            saveFolder(node);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Move a folder with its subfolders and bookmarks under another folder;
+     * an empty parent path moves it to the top level
+     * @return false if either folder does not exist, the target is inside the folder
+     *         or already has a subfolder with the same name
+     */
+    public boolean moveFolder(String folder, String newParent) {
+        lock.writeLock().lock();
+        try {
+            BookmarkFolder node = folder(folder, false);
+            BookmarkFolder target = folder(newParent, false);
+            if (node == null || target == null || node == root || node.contains(target)
+                    || target.child(node.getName()) != null) {
+                return false;
+            }
+            node.getParent().detach(node);
+            target.attach(node);
+            saveFolder(node);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Delete a folder together with its subfolders and their bookmarks
+     */
+    public boolean removeFolder(String folder) {
+        lock.writeLock().lock();
+        try {
+            BookmarkFolder node = folder(folder, false);
+            if (node == null || node == root) {
+                return false;
+            }
+            List<Bookmark> removed = new ArrayList<>(node.totalCount());
+            node.collectBookmarks(removed);
+            List<BookmarkFolder> subtree = new ArrayList<>();
+            node.collectFolders(subtree);
+            node.getParent().detach(node);
+            for (Bookmark bookmark : removed) {
+                bookmarks.remove(UrlCanonicalizer.identity(bookmark.getUrl()));
+                if (store != null) {
+                    store.remove(BOOKMARKS, bookmark.getUrl());
+                }
+                unindexBookmark(bookmark);
+            }
+            if (store != null) {
+                for (BookmarkFolder gone : subtree) {
+                    store.remove(FOLDERS, Long.toString(gone.getId()));
+                }
+            }
+            for (Bookmark bookmark : removed) {
+                listeners.forEach(listener -> listener.bookmarkRemoved(bookmark));
+            }
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
     /**
      * Search bookmarks by title or URL
      */
     public List<Bookmark> searchBookmarks(String query) {
-        String lowerQuery = query.toLowerCase();
-        return bookmarks.values().stream()
-                .filter(bookmark -> 
-                    bookmark.getTitle().toLowerCase().contains(lowerQuery) ||
-                    bookmark.getUrl().toLowerCase().contains(lowerQuery))
-                .collect(Collectors.toList());
+        return searchBookmarks(query, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Search bookmarks, returning at most {@code limit} matches ordered by title.
+     * An empty query matches every bookmark.
+     */
+    public List<Bookmark> searchBookmarks(String query, int limit) {
+        if (query == null || query.isEmpty()) {
+            return firstAfter(bookmarks.values(), null, limit);
+        }
+        return searchIndex().search(query, limit, BY_TITLE);
+    }
+
+    /**
+     * Get a page of bookmarks ordered by title: those matching the query that sort
+     * after {@code after}, or from the first one when it is null. An empty query
+     * pages through all bookmarks. Passing the last bookmark of a page gets the next.
+     */
+    public List<Bookmark> searchBookmarks(String query, Bookmark after, int limit) {
+        if (query == null || query.trim().isEmpty()) {
+            return firstAfter(bookmarks.values(), after, limit);
+        }
+        return searchIndex().search(query, after, limit, BY_TITLE);
     }
-    
+
     /**
      * Get bookmark count
      */
     public int getBookmarkCount() {
         return bookmarks.size();
     }
-    
+
     /**
-     * Clear all bookmarks
+     * Clear all bookmarks, keeping the folders
      */
     public void clearAllBookmarks() {
-        bookmarks.clear();
+        lock.writeLock().lock();
+        try {
+            bookmarks.clear();
+            root.clearBookmarks();
+            if (store != null) {
+                store.clear(BOOKMARKS);
+            }
+            synchronized (this) {
+                if (searchIndex != null) {
+                    searchIndex.clear();
+                }
+            }
+            listeners.forEach(BookmarkListener::bookmarksCleared);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Receives the folder tree from {@link #walk}
+     */
+    interface FolderVisitor {
+        /**
+         * A folder starts; its subfolders and then its bookmarks follow until {@link #endFolder}
+         * @param depth 1 for top level folders
+         */
+        void folder(String name, int depth) throws IOException;
+
+        void bookmark(Bookmark bookmark) throws IOException;
+
+        void endFolder() throws IOException;
+    }
+
+    /**
+     * Walk all folders and bookmarks depth first under the read lock, without copying them
+     */
+    void walk(FolderVisitor visitor) throws IOException {
+        lock.readLock().lock();
+        try {
+            for (BookmarkFolder child : root.children()) {
+                walk(child, 1, visitor);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static void walk(BookmarkFolder folder, int depth, FolderVisitor visitor) throws IOException {
+        visitor.folder(folder.getName(), depth);
+        for (BookmarkFolder child : folder.children()) {
+            walk(child, depth + 1, visitor);
+        }
+        for (Bookmark bookmark : folder.bookmarks()) {
+            visitor.bookmark(bookmark);
+        }
+        visitor.endFolder();
+    }
+
+    /**
+     * Resolve a folder path, optionally creating missing folders along it.
+     * Callers hold the write lock when creating and at least the read lock otherwise.
+     * @return the folder, the root for an empty path, or null if it does not exist
+     */
+    private BookmarkFolder folder(String path, boolean create) {
+        BookmarkFolder folder = root;
+        if (path == null) {
+            return folder;
+        }
+        for (String name : path.split(String.valueOf(BookmarkFolder.SEPARATOR))) {
+            name = name.trim();
+            if (name.isEmpty()) {
+                continue;
+            }
+            BookmarkFolder child = folder.child(name);
+            if (child == null) {
+                if (!create) {
+                    return null;
+                }
+                child = new BookmarkFolder(nextFolderId++, name);
+                folder.attach(child);
+                saveFolder(child);
+            }
+            folder = child;
+        }
+        return folder;
+    }
+
+    /**
+     * The first {@code limit} bookmarks by title that sort after {@code after},
+     * kept in a bounded heap rather than sorting them all
+     */
+    private static List<Bookmark> firstAfter(Collection<Bookmark> candidates, Bookmark after, int limit) {
+        if (limit <= 0) {
+            return new ArrayList<>();
+        }
+        PriorityQueue<Bookmark> heap = new PriorityQueue<>(Math.min(limit, 256), BY_TITLE.reversed());
+        for (Bookmark bookmark : candidates) {
+            if (after != null && BY_TITLE.compare(bookmark, after) <= 0) {
+                continue;
+            }
+            if (heap.size() < limit) {
+                heap.add(bookmark);
+            } else if (BY_TITLE.compare(bookmark, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(bookmark);
+            }
+        }
+        List<Bookmark> page = new ArrayList<>(heap);
+        page.sort(BY_TITLE);
+        return page;
+    }
+
+    /**
+     * Map key of any spelling of a URL
+     */
+    private String keyOf(String url) {
+        return url != null ? UrlCanonicalizer.identity(canonicalizer.canonicalize(url)) : "";
+    }
+
+    private static String orDefault(String folder) {
+        return folder == null || folder.replace(String.valueOf(BookmarkFolder.SEPARATOR), "").trim().isEmpty()
+            ? DEFAULT_FOLDER : folder;
+    }
+
+    /**
+     * Take a bookmark out of the folder it is filed in
+     */
+    private static void unfile(Bookmark bookmark) {
+        BookmarkFolder folder = bookmark.getFolderNode();
+        if (folder != null) {
+            folder.removeBookmark(bookmark);
+        }
+    }
+
+    /**
+     * Get the search index, building it from all bookmarks on first use
+     */
+    private synchronized SubstringIndex<Bookmark> searchIndex() {
+        if (searchIndex == null) {
+            searchIndex = new SubstringIndex<>();
+            for (Bookmark bookmark : bookmarks.values()) {
+                searchIndex.put(bookmark, bookmark.getTitle(), bookmark.getUrl());
+            }
+        }
+        return searchIndex;
+    }
+
+    private synchronized void indexBookmark(Bookmark bookmark) {
+        if (searchIndex != null) {
+            searchIndex.put(bookmark, bookmark.getTitle(), bookmark.getUrl());
+        }
+    }
+
+    private synchronized void unindexBookmark(Bookmark bookmark) {
+        if (searchIndex != null) {
+            searchIndex.remove(bookmark);
+        }
+    }
+
+    // Persistence: folders are saved by id with their parent's id, and bookmarks
+    // refer to their folder by id, so moving a folder rewrites a single record
+
+    private void save(Bookmark bookmark) {
+        if (store == null) {
+            return;
+        }
+        ByteArrayOutputStream value = new ByteArrayOutputStream(64);
+        RecordCodec.writeString(value, bookmark.getTitle());
+        RecordCodec.writeVarLong(value, bookmark.getFolderNode().getId());
+        RecordCodec.writeVarLong(value, bookmark.getDateAdded().atZone(ZONE).toInstant().toEpochMilli());
+        store.put(BOOKMARKS, bookmark.getUrl(), value.toByteArray());
+    }
+
+    private void saveFolder(BookmarkFolder folder) {
+        if (store == null) {
+            return;
+        }
+        ByteArrayOutputStream value = new ByteArrayOutputStream(32);
+        RecordCodec.writeVarLong(value, folder.getParent().getId());
+        RecordCodec.writeString(value, folder.getName());
+        store.put(FOLDERS, Long.toString(folder.getId()), value.toByteArray());
+    }
+
+    private Bookmark decode(String url, byte[] value, Map<Long, BookmarkFolder> folders) {
+        ByteBuffer in = ByteBuffer.wrap(value);
+        String title = RecordCodec.readString(in);
+        BookmarkFolder folder = folders.get(RecordCodec.readVarLong(in));
+        LocalDateTime dateAdded = LocalDateTime.ofInstant(Instant.ofEpochMilli(RecordCodec.readVarLong(in)), ZONE);
+        if (folder == null || folder == root) {
+            folder = folder(DEFAULT_FOLDER, true);
+        }
+        Bookmark bookmark = new Bookmark(title, url, folder.getPath(), dateAdded);
+        folder.addBookmark(bookmark);
+        return bookmark;
+    }
+
+    /**
+     * Rebuild the folder tree from saved records, which may come in any order
+     * @return the folders by id
+     */
+    private Map<Long, BookmarkFolder> restoreFolders(Map<String, byte[]> saved) {
+        Map<Long, byte[]> records = new HashMap<>();
+        for (Map.Entry<String, byte[]> entry : saved.entrySet()) {
+            try {
+                long id = Long.parseLong(entry.getKey());
+                records.put(id, entry.getValue());
+                nextFolderId = Math.max(nextFolderId, id + 1);
+            } catch (NumberFormatException e) {
+                System.err.println("Skipping unreadable bookmark folder: " + entry.getKey());
+            }
+        }
+        Map<Long, BookmarkFolder> restored = new HashMap<>();
+        restored.put(ROOT_ID, root);
+        for (Long id : records.keySet()) {
+            restoreFolder(id, records, restored);
+        }
+        return restored;
+    }
+
+    private BookmarkFolder restoreFolder(long id, Map<Long, byte[]> records, Map<Long, BookmarkFolder> restored) {
+        BookmarkFolder folder = restored.get(id);
+        if (folder != null) {
+            return folder;
+        }
+        byte[] record = records.get(id);
+        if (record == null) {
+            return root;
+        }
+        // Stand in for the folder while its parents are restored, so a damaged parent cycle ends at the root
+        restored.put(id, root);
+        ByteBuffer in = ByteBuffer.wrap(record);
+        BookmarkFolder parent = restoreFolder(RecordCodec.readVarLong(in), records, restored);
+        String name = RecordCodec.readString(in);
+        folder = parent.child(name);
+        if (folder == null) {
+            folder = new BookmarkFolder(id, name);
+            parent.attach(folder);
+        }
+        restored.put(id, folder);
+        return folder;
     }
 }
@@ -0,0 +1,195 @@
+package it.r2u.animar2u.core.storage;
+
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Tells files to download apart from content a tab can show.
+ * {@link #byUrl} decides from the file extension alone, so a navigation can be
+ * caught before any response arrives; it answers UNKNOWN for anything it cannot
+ * tell, such as URLs without an extension. Once headers are in,
+ * {@link #isDownload} decides from Content-Disposition and Content-Type.
+ */
+public final class DownloadClassifier {
+
+    /**
+     * What a URL most likely points to
+     */
+    public enum Kind { DOCUMENT, DOWNLOAD, UNKNOWN }
+
+    private static final Set<String> DOWNLOAD_EXTENSIONS = Set.of(
+        "zip", "7z", "rar", "gz", "tgz", "bz2", "xz", "zst", "tar", "cab",
+        "exe", "msi", "msix", "dmg", "pkg", "deb", "rpm", "apk", "appimage", "iso", "img", "jar", "bin",
+        "pdf", "doc", "docx", "xls", "xlsx", "ppt", "pptx", "odt", "ods", "odp", "rtf", "epub",
+        "flac", "wav", "aiff", "mkv", "avi", "wmv", "torrent", "ttf", "otf", "woff2");
+    // Media is included: tabs play it through the media pipeline
+    private static final Set<String> DOCUMENT_EXTENSIONS = Set.of(
+        "html", "htm", "xhtml", "shtml", "php", "asp", "aspx", "jsp", "cgi",
+        "txt", "xml", "json", "svg", "png", "jpg", "jpeg", "gif", "webp", "bmp", "ico",
+        "mp4", "m4v", "m4a", "mp3", "aac", "m3u8");
+    private static final int MAX_FILE_NAME = 200;
+
+    private DownloadClassifier() {
+    }
+
+    /**
+     * Classify a URL by the extension of its path
+     */
+    public static Kind byUrl(String url) {
+        String extension = extension(url);
+        if (extension == null) {
+            return Kind.UNKNOWN;
+        }
+        if (DOWNLOAD_EXTENSIONS.contains(extension)) {
+            return Kind.DOWNLOAD;
+        }
+        return DOCUMENT_EXTENSIONS.contains(extension) ? Kind.DOCUMENT : Kind.UNKNOWN;
+    }
+
+    /**
+     * Whether a response with these headers should be saved rather than shown
+     */
+    public static boolean isDownload(String contentType, String contentDisposition) {
+        if (contentDisposition != null && contentDisposition.trim().toLowerCase(Locale.ROOT).startsWith("attachment")) {
+            return true;
+        }
+        return !isRenderable(contentType);
+    }
+
+    /**
+     * Whether a tab can show content of this type; a missing type is left to the tab
+     */
+    public static boolean isRenderable(String contentType) {
+        if (contentType == null || contentType.isBlank()) {
+            return true;
+        }
+        int parameters = contentType.indexOf(';');
+        String type = (parameters >= 0 ? contentType.substring(0, parameters) : contentType)
+            .trim().toLowerCase(Locale.ROOT);
+        return type.startsWith("text/") || type.startsWith("image/") || type.startsWith("video/")
+            || type.startsWith("audio/") || type.endsWith("+xml") || type.endsWith("+json")
+            || type.equals("application/xml") || type.equals("application/json")
+            || type.equals("application/javascript") || type.equals("application/x-mpegurl")
+            || type.equals("application/vnd.apple.mpegurl");
+    }
+
+    /**
+     * Name to save a response under: the one in Content-Disposition, else the
+     * last part of the URL path, made safe to use as a file name
+     */
+    public static String fileName(String contentDisposition, String url) {
+        String name = null;
+        if (contentDisposition != null) {
+            name = dispositionParameter(contentDisposition, "filename*");
+            if (name != null) {
+                name = decodeExtended(name);
+            }
+            if (name == null) {
+                name = dispositionParameter(contentDisposition, "filename");
+            }
+        }
+        if (name == null || name.isBlank()) {
+            String path = path(url);
+            name = path.substring(path.lastIndexOf('/') + 1);
+            try {
+                name = URLDecoder.decode(name.replace("+", "%2B"), StandardCharsets.UTF_8);
+            } catch (IllegalArgumentException e) {
+                // Keep the name as it was written
+            }
+        }
+        return sanitize(name);
+    }
+
+    private static String extension(String url) {
+        String path = path(url);
+        int slash = path.lastIndexOf('/');
+        int dot = path.lastIndexOf('.');
+        if (dot <= slash + 1 || dot == path.length() - 1) {
+            return null;
+        }
+        return path.substring(dot + 1).toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * The path of a URL, without query or fragment; no full parse, this runs on
+     * every navigation
+     */
+    private static String path(String url) {
+        if (url == null) {
+            return "";
+        }
+        int end = url.length();
+        int query = url.indexOf('?');
+        if (query >= 0) {
+            end = query;
+        }
+        int fragment = url.indexOf('#');
+        if (fragment >= 0 && fragment < end) {
+            end = fragment;
+        }
+        int start = url.indexOf("://");
+        start = start >= 0 ? url.indexOf('/', start + 3) : 0;
+        if (start < 0 || start >= end) {
+            return "";
+        }
+        return url.substring(start, end);
+    }
+
+    /**
+     * The value of a Content-Disposition parameter, unquoted
+     */
+    private static String dispositionParameter(String disposition, String parameter) {
+        for (String part : disposition.split(";")) {
+            int equals = part.indexOf('=');
+            if (equals < 0 || !part.substring(0, equals).trim().equalsIgnoreCase(parameter)) {
+                continue;
+            }
+            String value = part.substring(equals + 1).trim();
+            if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+                value = value.substring(1, value.length() - 1).replace("\\\"", "\"");
+            }
+            return value;
+        }
+        return null;
+    }
+
+    /**
+     * Decode an RFC 5987 value such as {@code UTF-8''na%C3%AFve.txt}
+     */
+    private static String decodeExtended(String value) {
+        int first = value.indexOf('\'');
+        int second = first >= 0 ? value.indexOf('\'', first + 1) : -1;
+        if (second < 0) {
+            return null;
+        }
+        try {
+            Charset charset = Charset.forName(value.substring(0, first));
+            return URLDecoder.decode(value.substring(second + 1).replace("+", "%2B"), charset);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static String sanitize(String name) {
+        StringBuilder safe = new StringBuilder(name.length());
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            // Separators and characters some file systems reject
+            safe.append(c < 0x20 || "/\\:*?\"<>|".indexOf(c) >= 0 ? '_' : c);
+        }
+        String trimmed = safe.toString().strip();
+        while (trimmed.startsWith(".")) {
+            trimmed = trimmed.substring(1);
+        }
+        while (trimmed.endsWith(".") || trimmed.endsWith(" ")) {
+            trimmed = trimmed.substring(0, trimmed.length() - 1);
+        }
+        if (trimmed.isEmpty()) {
+            return "download";
+        }
+        return trimmed.length() > MAX_FILE_NAME ? trimmed.substring(trimmed.length() - MAX_FILE_NAME) : trimmed;
+    }
+}
@@ -0,0 +1,84 @@
+package it.r2u.animar2u.core.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * SHA-256 of a download, computed while it is written.
+ * SHA-256 takes bytes in order, so only bytes written right at the hashed
+ * prefix are taken from the download's buffer. Bytes a later segment wrote
+ * ahead of it are read back with {@link #catchUp} once everything before them
+ * is on disk. They are usually still in the page cache, so the file is never
+ * read a second time from disk. A single-connection download is hashed
+ * entirely from its buffers.
+ */
+final class DownloadDigest {
+
+    private static final int READ_SIZE = 256 * 1024;
+
+    // Guarded by this
+    private final MessageDigest sha256;
+    private ByteBuffer readBuffer;
+    // Written under the lock; read without it so writes elsewhere in the file skip it
+    private volatile long hashed;
+
+    DownloadDigest() {
+        try {
+            sha256 = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Bytes just written at {@code position}; taken only if they continue the hashed prefix
+     */
+    void update(long position, byte[] bytes, int offset, int length) {
+        if (position > hashed || position + length <= hashed) {
+            // Not at the prefix: catchUp reads these bytes back later
+            return;
+        }
+        synchronized (this) {
+            long skip = hashed - position;
+            if (skip >= 0 && skip < length) {
+                sha256.update(bytes, offset + (int) skip, length - (int) skip);
+                hashed = position + length;
+            }
+        }
+    }
+
+    /**
+     * Hash the bytes from the hashed prefix up to {@code end}, all of which are
+     * already written to {@code channel}
+     */
+    synchronized void catchUp(FileChannel channel, long end) throws IOException {
+        if (hashed >= end) {
+            return;
+        }
+        if (readBuffer == null) {
+            readBuffer = ByteBuffer.allocate(READ_SIZE);
+        }
+        while (hashed < end) {
+            readBuffer.clear().limit((int) Math.min(READ_SIZE, end - hashed));
+            int read = channel.read(readBuffer, hashed);
+            if (read < 0) {
+                throw new IOException("Part file ends at byte " + hashed);
+            }
+            sha256.update(readBuffer.array(), 0, read);
+            hashed += read;
+        }
+    }
+
+    /**
+     * Hash whatever is left of a file of {@code length} bytes and return the
+     * digest as lowercase hex
+     */
+    synchronized String finish(FileChannel channel, long length) throws IOException {
+        catchUp(channel, length);
+        return HexFormat.of().formatHex(sha256.digest());
+    }
+}
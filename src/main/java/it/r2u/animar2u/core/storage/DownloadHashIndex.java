@@ -0,0 +1,108 @@
+package it.r2u.animar2u.core.storage;
+
+import it.r2u.animar2u.core.util.RecordCodec;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Completed downloads by the SHA-256 of their content, so a file already on
+ * disk need not be fetched again. An entry remembers the size and modification
+ * time the file had when it was hashed, and is dropped once the file no
+ * longer matches them, rather than hashing it again to check.
+ */
+final class DownloadHashIndex {
+
+    private static final String HASHES = "download-hashes";
+
+    private final ProfileStore store;
+    // Guarded by this
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    DownloadHashIndex(ProfileStore store) {
+        this.store = store;
+    }
+
+    synchronized void load() {
+        if (store == null) {
+            return;
+        }
+        for (Map.Entry<String, byte[]> saved : store.load(HASHES).entrySet()) {
+            ByteBuffer in = ByteBuffer.wrap(saved.getValue());
+            String path = RecordCodec.readString(in);
+            long size = RecordCodec.readVarLong(in);
+            long modified = RecordCodec.readVarLong(in);
+            entries.put(saved.getKey(), new Entry(Paths.get(path), size, modified));
+        }
+    }
+
+    /**
+     * A file with this content, if one is still on disk unchanged
+     */
+    synchronized Path find(String sha256) {
+        Entry entry = entries.get(sha256);
+        if (entry == null) {
+            return null;
+        }
+        if (!entry.matches()) {
+            remove(sha256);
+            return null;
+        }
+        return entry.path;
+    }
+
+    /**
+     * Record a completed download; an older file with the same content stays
+     * indexed while it is unchanged
+     */
+    synchronized void add(String sha256, Path path) {
+        if (find(sha256) != null) {
+            return;
+        }
+        try {
+            Entry entry = new Entry(path, Files.size(path), Files.getLastModifiedTime(path).toMillis());
+            entries.put(sha256, entry);
+            if (store != null) {
+                ByteArrayOutputStream value = new ByteArrayOutputStream(64);
+                RecordCodec.writeString(value, path.toString());
+                RecordCodec.writeVarLong(value, entry.size);
+                RecordCodec.writeVarLong(value, entry.modified);
+                store.put(HASHES, sha256, value.toByteArray());
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to index " + path + ": " + e.getMessage());
+        }
+    }
+
+    private void remove(String sha256) {
+        entries.remove(sha256);
+        if (store != null) {
+            store.remove(HASHES, sha256);
+        }
+    }
+
+    private static final class Entry {
+        final Path path;
+        final long size;
+        final long modified;
+
+        Entry(Path path, long size, long modified) {
+            this.path = path;
+            this.size = size;
+            this.modified = modified;
+        }
+
+        boolean matches() {
+            try {
+                return Files.size(path) == size && Files.getLastModifiedTime(path).toMillis() == modified;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+    }
+}
@@ -1,22 +1,30 @@
 package it.r2u.animar2u.core.storage;
 
 import java.time.LocalDateTime;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Represents a download item
+ * Represents a download item.
+ * Download threads write the size, progress and status while other threads
+ * read them, so those fields are volatile or atomic and never need a lock.
  */
 public class DownloadItem {
     private String fileName;
     private String url;
     private String filePath;
-    private long fileSize;
-    private long downloadedSize;
+    private volatile long fileSize;
+    // Added to by every connection of a download
+    private final AtomicLong downloadedSize = new AtomicLong();
     private LocalDateTime startTime;
-    private LocalDateTime endTime;
-    private DownloadStatus status;
+    private volatile LocalDateTime endTime;
+    private volatile DownloadStatus status;
+    // Lowercase hex SHA-256 values, or null
+    private volatile String sha256;
+    private volatile String expectedSha256;
+    private volatile String duplicateOf;
     
     public enum DownloadStatus {
-        PENDING, IN_PROGRESS, COMPLETED, FAILED, CANCELLED
+        PENDING, IN_PROGRESS, PAUSED, COMPLETED, FAILED, CANCELLED
     }
     
     public DownloadItem(String fileName, String url, String filePath) {
@@ -25,27 +33,62 @@ public class DownloadItem {
         this.filePath = filePath;
         this.startTime = LocalDateTime.now();
         this.status = DownloadStatus.PENDING;
-        this.downloadedSize = 0;
         this.fileSize = 0;
     }
     
+    /**
+     * Restore a download saved in an earlier session
+     */
+    public DownloadItem(String fileName, String url, String filePath, long fileSize, long downloadedSize,
+                        LocalDateTime startTime, LocalDateTime endTime, DownloadStatus status) {
+        this.fileName = fileName;
+        this.url = url;
+        this.filePath = filePath;
+        this.fileSize = fileSize;
+        this.downloadedSize.set(downloadedSize);
+        this.startTime = startTime;
+        this.endTime = endTime;
+        this.status = status;
+    }
+    
     // Getters and setters
     public String getFileName() { return fileName; }
     public String getUrl() { return url; }
     public String getFilePath() { return filePath; }
     public long getFileSize() { return fileSize; }
     public void setFileSize(long fileSize) { this.fileSize = fileSize; }
-    public long getDownloadedSize() { return downloadedSize; }
-    public void setDownloadedSize(long downloadedSize) { this.downloadedSize = downloadedSize; }
+    public long getDownloadedSize() { return downloadedSize.get(); }
+    public void setDownloadedSize(long downloadedSize) { this.downloadedSize.set(downloadedSize); }
+    public void addDownloadedSize(long bytes) { downloadedSize.addAndGet(bytes); }
     public LocalDateTime getStartTime() { return startTime; }
     public LocalDateTime getEndTime() { return endTime; }
     public void setEndTime(LocalDateTime endTime) { this.endTime = endTime; }
     public DownloadStatus getStatus() { return status; }
     public void setStatus(DownloadStatus status) { this.status = status; }
     
+    /**
+     * SHA-256 of the completed file, or null until it completes
+     */
+    public String getSha256() { return sha256; }
+    public void setSha256(String sha256) { this.sha256 = sha256; }
+    
+    /**
+     * SHA-256 the file must have, given by the user or a checksum file on the
+     * server, or null when it is not checked
+     */
+    public String getExpectedSha256() { return expectedSha256; }
+    public void setExpectedSha256(String expectedSha256) { this.expectedSha256 = expectedSha256; }
+    
+    /**
+     * Path of an earlier download with the same content, or null
+     */
+    public String getDuplicateOf() { return duplicateOf; }
+    public void setDuplicateOf(String duplicateOf) { this.duplicateOf = duplicateOf; }
+    
     public double getProgress() {
-        if (fileSize == 0) return 0;
-        return (double) downloadedSize / fileSize;
+        long size = fileSize;
+        if (size == 0) return 0;
+        return (double) downloadedSize.get() / size;
     }
     
     @Override
@@ -1,19 +1,80 @@
 package it.r2u.animar2u.core.storage;
 
+import it.r2u.animar2u.core.util.RecordCodec;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.CookieHandler;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 /**
- * Manages browser downloads
+ * Manages browser downloads.
+ * Downloads are queued in a {@link DownloadScheduler}, which limits how many run
+ * and how many connections they open per host, and shapes their bandwidth.
  */
 public class DownloadManager {
+    private static final String DOWNLOADS = "downloads";
+    private static final long SHUTDOWN_WAIT_SECONDS = 5;
+    
+    /**
+     * Order in which queued downloads start
+     */
+    public enum Priority {
+        // Started by the user, ahead of everything else
+        USER,
+        // Resumed after a restart or started by a page
+        BACKGROUND
+    }
+    
     private Map<String, DownloadItem> downloads;
+    private final DownloadProgressSampler progressSampler;
+    private final Map<String, HttpDownload> running = new ConcurrentHashMap<>();
+    private final HttpClient client = HttpClient.newBuilder()
+            .followRedirects(HttpClient.Redirect.NORMAL)
+            .cookieHandler(new BrowserCookies())
+            .connectTimeout(Duration.ofSeconds(30))
+            .build();
+    // One virtual thread per download: a blocked read costs no platform thread
+    private final ExecutorService workers = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("anima-download-", 0).factory());
+    private final DownloadScheduler scheduler = new DownloadScheduler(workers);
+    private final DownloadHashIndex hashes;
+    private volatile boolean checksumFiles;
     private String defaultDownloadPath;
+    private ProfileStore store;
     
+    /**
+     * Create a download manager kept in memory only
+     */
     public DownloadManager() {
+        this(null);
+    }
+    
+    /**
+     * Create a download manager that saves the download list in a profile store
+     */
+    public DownloadManager(ProfileStore store) {
+        this.store = store;
+        this.hashes = new DownloadHashIndex(store);
         this.downloads = new ConcurrentHashMap<>();
+        this.progressSampler = new DownloadProgressSampler(downloads);
         this.defaultDownloadPath = System.getProperty("user.home") + File.separator + "Downloads";
         
         // Create downloads directory if it doesn't exist
@@ -23,6 +84,26 @@ public class DownloadManager {
         }
     }
     
+    /**
+     * Load downloads saved in earlier sessions.
+     * Downloads that were still running when the browser closed are resumed
+     * in the background.
+     */
+    public void load() {
+        if (store == null) {
+            return;
+        }
+        hashes.load();
+        for (Map.Entry<String, byte[]> saved : store.load(DOWNLOADS).entrySet()) {
+            DownloadItem item = decode(saved.getValue());
+            downloads.put(saved.getKey(), item);
+            if (item.getStatus() == DownloadItem.DownloadStatus.PENDING ||
+                item.getStatus() == DownloadItem.DownloadStatus.IN_PROGRESS) {
+                start(saved.getKey(), item, Priority.BACKGROUND);
+            }
+        }
+    }
+    
     /**
      * Start a download
      */
@@ -34,66 +115,220 @@ public class DownloadManager {
      * Start a download to specific path
      */
     public String startDownload(String url, String fileName, String downloadPath) {
+        return startDownload(url, fileName, downloadPath, Priority.USER);
+    }
+    
+    /**
+     * Queue a download to specific path; it starts when the scheduler has room
+     */
+    public String startDownload(String url, String fileName, String downloadPath, Priority priority) {
+        return startDownload(url, fileName, downloadPath, priority, null);
+    }
+    
+    /**
+     * Queue a download whose content must have the given SHA-256. A completed
+     * download with that content is hard linked instead of fetched again.
+     * @param expectedSha256 64 hex digits, or null to not check
+     */
+    public String startDownload(String url, String fileName, String downloadPath, Priority priority,
+                                String expectedSha256) {
+        if (expectedSha256 != null && !HttpDownload.isSha256(expectedSha256)) {
+            throw new IllegalArgumentException("Not a SHA-256 hash: " + expectedSha256);
+        }
         String downloadId = UUID.randomUUID().toString();
         String fullPath = downloadPath + File.separator + fileName;
         
         DownloadItem item = new DownloadItem(fileName, url, fullPath);
-        item.setStatus(DownloadItem.DownloadStatus.PENDING);
+        if (expectedSha256 != null) {
+            item.setExpectedSha256(expectedSha256.toLowerCase(Locale.ROOT));
+        }
         
         downloads.put(downloadId, item);
-        
-        // Start download simulation (placeholder implementation)
-        simulateDownload(downloadId);
+        start(downloadId, item, priority);
         
         return downloadId;
     }
     
     /**
-     * Simulate download for demo purposes
-     */
-    private void simulateDownload(String downloadId) {
-        new Thread(() -> {
-            DownloadItem item = downloads.get(downloadId);
-            if (item != null) {
-                item.setStatus(DownloadItem.DownloadStatus.IN_PROGRESS);
-                item.setFileSize(1024 * 1024); // 1MB fake size
-                
-                // Simulate progress
-                for (int i = 0; i <= 100; i += 10) {
-                    try {
-                        Thread.sleep(100); // Simulate download time
-                        item.setDownloadedSize((long) (item.getFileSize() * i / 100.0));
-                        
-                        if (i == 100) {
-                            item.setStatus(DownloadItem.DownloadStatus.COMPLETED);
-                            item.setEndTime(LocalDateTime.now());
-                        }
-                    } catch (InterruptedException e) {
-                        item.setStatus(DownloadItem.DownloadStatus.FAILED);
-                        break;
-                    }
-                }
+     * Download a URL if a HEAD request shows it is a file, for loads a tab
+     * gave up on without saying why. Only a file is requested in full, so a
+     * page that merely failed to load costs a HEAD rather than a second GET.
+     * Servers that do not answer HEAD are asked with a GET as in
+     * {@link #downloadIfNotRenderable}.
+     * @return a future with the download id, or null when the URL is not a file
+     */
+    public CompletableFuture<String> downloadIfFile(String url) {
+        HttpRequest request;
+        try {
+            request = HttpRequest.newBuilder(URI.create(url))
+                .method("HEAD", HttpRequest.BodyPublishers.noBody()).build();
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return client.sendAsync(request, HttpResponse.BodyHandlers.discarding()).thenCompose(response -> {
+            int status = response.statusCode();
+            boolean unsupported = status == 405 || status == 501;
+            if (!unsupported && (status != 200 || !DownloadClassifier.isDownload(
+                    response.headers().firstValue("Content-Type").orElse(null),
+                    response.headers().firstValue("Content-Disposition").orElse(null)))) {
+                return CompletableFuture.completedFuture(null);
             }
-        }).start();
+            return downloadIfNotRenderable(url);
+        });
     }
     
     /**
-     * Cancel a download
+     * Request a URL a tab navigated to, and download it if the response is a
+     * file rather than something the tab can show. The download takes over the
+     * open response, so the file is fetched only once; otherwise the response
+     * is dropped. The file is saved under the name the server suggests, in the
+     * default download path, without replacing an existing file.
+     * @return a future with the download id, or null when the tab should show the response
      */
-    public boolean cancelDownload(String downloadId) {
+    public CompletableFuture<String> downloadIfNotRenderable(String url) {
+        HttpRequest request;
+        try {
+            request = HttpRequest.newBuilder(URI.create(url)).GET().build();
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return client.sendAsync(request, HttpResponse.BodyHandlers.ofInputStream()).thenApply(response -> {
+            String disposition = response.headers().firstValue("Content-Disposition").orElse(null);
+            if (response.statusCode() != 200 ||
+                !DownloadClassifier.isDownload(response.headers().firstValue("Content-Type").orElse(null), disposition)) {
+                closeQuietly(response.body());
+                return null;
+            }
+            // Named after where redirects ended, which usually has the real file name
+            String finalUrl = response.uri().toString();
+            String fileName = DownloadClassifier.fileName(disposition, finalUrl);
+            String downloadId = UUID.randomUUID().toString();
+            DownloadItem item;
+            synchronized (this) {
+                String path = uniquePath(defaultDownloadPath, fileName);
+                item = new DownloadItem(Paths.get(path).getFileName().toString(), finalUrl, path);
+                downloads.put(downloadId, item);
+            }
+            start(downloadId, item, Priority.USER, response);
+            return downloadId;
+        });
+    }
+    
+    /**
+     * Continue a paused, failed or cancelled download from the data already on
+     * disk, or from the start when the server cannot send the rest
+     */
+    public boolean resumeDownload(String downloadId) {
         DownloadItem item = downloads.get(downloadId);
-        if (item != null && item.getStatus() == DownloadItem.DownloadStatus.IN_PROGRESS) {
-            item.setStatus(DownloadItem.DownloadStatus.CANCELLED);
-            return true;
+        if (item == null || running.containsKey(downloadId) ||
+            (item.getStatus() != DownloadItem.DownloadStatus.PAUSED &&
+             item.getStatus() != DownloadItem.DownloadStatus.FAILED &&
+             item.getStatus() != DownloadItem.DownloadStatus.CANCELLED)) {
+            return false;
         }
-        return false;
+        start(downloadId, item, Priority.USER);
+        return true;
+    }
+    
+    /**
+     * Pause a download that is queued or running, keeping its data for
+     * {@link #resumeDownload}
+     */
+    public boolean pauseDownload(String downloadId) {
+        return stop(downloadId, DownloadItem.DownloadStatus.PAUSED);
+    }
+    
+    /**
+     * Cancel a download that is queued or running; its partial data is kept
+     * so it can be resumed
+     */
+    public boolean cancelDownload(String downloadId) {
+        return stop(downloadId, DownloadItem.DownloadStatus.CANCELLED);
+    }
+    
+    /**
+     * Progress of all downloads, for views that show it live
+     */
+    public DownloadProgressSampler getProgressSampler() {
+        return progressSampler;
+    }
+    
+    /**
+     * Check downloads without a given checksum against {@code <file>.sha256}
+     * on the server when there is one; costs a small request per download
+     */
+    public void setUseChecksumFiles(boolean useChecksumFiles) {
+        this.checksumFiles = useChecksumFiles;
+    }
+    
+    public boolean isUseChecksumFiles() {
+        return checksumFiles;
+    }
+    
+    /**
+     * Limit the bandwidth of all downloads together, in bytes per second; 0 removes the limit
+     */
+    public void setBandwidthLimit(long bytesPerSecond) {
+        scheduler.getBandwidth().setRate(bytesPerSecond);
+    }
+    
+    public long getBandwidthLimit() {
+        return scheduler.getBandwidth().getRate();
+    }
+    
+    /**
+     * Limit the bandwidth of one running or queued download; 0 removes the limit
+     */
+    public boolean setBandwidthLimit(String downloadId, long bytesPerSecond) {
+        HttpDownload download = running.get(downloadId);
+        if (download == null) {
+            return false;
+        }
+        download.getBandwidth().setRate(bytesPerSecond);
+        return true;
+    }
+    
+    /**
+     * Stop all downloads for browser exit.
+     * Queued and running downloads are saved as pending so the next session
+     * resumes them, and running ones get a moment to confirm their data on disk.
+     */
+    public void shutdown() {
+        for (HttpDownload queued : scheduler.close()) {
+            queued.stop(DownloadItem.DownloadStatus.PENDING);
+            finished(queued);
+        }
+        for (HttpDownload download : running.values()) {
+            download.stop(DownloadItem.DownloadStatus.PENDING);
+        }
+        workers.shutdown();
+        try {
+            if (!workers.awaitTermination(SHUTDOWN_WAIT_SECONDS, TimeUnit.SECONDS)) {
+                System.err.println("Downloads did not stop in time");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        client.shutdownNow();
     }
     
     /**
      * Remove a download from list
      */
     public boolean removeDownload(String downloadId) {
-        return downloads.remove(downloadId) != null;
+        DownloadItem item = downloads.remove(downloadId);
+        if (item == null) {
+            return false;
+        }
+        // A running download deletes its partial data when it stops
+        if (!stop(downloadId, DownloadItem.DownloadStatus.CANCELLED) &&
+            item.getStatus() != DownloadItem.DownloadStatus.COMPLETED) {
+            new PartFile(Paths.get(item.getFilePath()), item.getUrl()).delete();
+        }
+        if (store != null) {
+            store.remove(DOWNLOADS, downloadId);
+        }
+        return true;
     }
     
     /**
@@ -133,8 +368,15 @@ public class DownloadManager {
      * Clear completed downloads
      */
     public void clearCompletedDownloads() {
-        downloads.entrySet().removeIf(entry -> 
-            entry.getValue().getStatus() == DownloadItem.DownloadStatus.COMPLETED);
+        downloads.entrySet().removeIf(entry -> {
+            if (entry.getValue().getStatus() != DownloadItem.DownloadStatus.COMPLETED) {
+                return false;
+            }
+            if (store != null) {
+                store.remove(DOWNLOADS, entry.getKey());
+            }
+            return true;
+        });
     }
     
     /**
@@ -173,4 +415,163 @@ public class DownloadManager {
                                item.getStatus() == DownloadItem.DownloadStatus.PENDING)
                 .count();
     }
+    
+    private void start(String downloadId, DownloadItem item, Priority priority) {
+        start(downloadId, item, priority, null);
+    }
+    
+    private void start(String downloadId, DownloadItem item, Priority priority, HttpResponse<InputStream> response) {
+        item.setStatus(DownloadItem.DownloadStatus.PENDING);
+        save(downloadId, item);
+        HttpDownload download = new HttpDownload(downloadId, item, client, scheduler, hashes, this::finished);
+        if (checksumFiles) {
+            download.useChecksumFile();
+        }
+        if (response != null) {
+            download.handOver(response);
+        }
+        running.put(downloadId, download);
+        scheduler.submit(download, priority);
+    }
+    
+    /**
+     * Stop a queued or running download, leaving it in {@code status}
+     */
+    private boolean stop(String downloadId, DownloadItem.DownloadStatus status) {
+        HttpDownload download = running.get(downloadId);
+        if (download == null) {
+            return false;
+        }
+        if (scheduler.remove(download)) {
+            // Never started, so no worker will report it finished
+            download.stop(status);
+            finished(download);
+            return true;
+        }
+        if (!download.stop(status)) {
+            return false;
+        }
+        save(downloadId, download.getItem());
+        return true;
+    }
+    
+    private void finished(HttpDownload download) {
+        scheduler.finished(download);
+        running.remove(download.getDownloadId());
+        DownloadItem item = download.getItem();
+        if (downloads.containsKey(download.getDownloadId())) {
+            save(download.getDownloadId(), item);
+        } else if (item.getStatus() != DownloadItem.DownloadStatus.COMPLETED) {
+            // Removed while running
+            new PartFile(Paths.get(item.getFilePath()), item.getUrl()).delete();
+        }
+    }
+    
+    /**
+     * A path for {@code fileName} in {@code directory} that neither an existing
+     * file nor another download uses, numbering the name if needed
+     */
+    private String uniquePath(String directory, String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        String base = dot > 0 ? fileName.substring(0, dot) : fileName;
+        String extension = dot > 0 ? fileName.substring(dot) : "";
+        Set<String> taken = new HashSet<>();
+        for (DownloadItem item : downloads.values()) {
+            taken.add(item.getFilePath());
+        }
+        for (int n = 1; ; n++) {
+            String name = n == 1 ? fileName : base + " (" + n + ")" + extension;
+            String path = directory + File.separator + name;
+            if (!taken.contains(path) && !Files.exists(Paths.get(path)) &&
+                !Files.exists(PartFile.partPath(Paths.get(path)))) {
+                return path;
+            }
+        }
+    }
+    
+    private static void closeQuietly(InputStream in) {
+        try {
+            in.close();
+        } catch (IOException e) {
+            // Only dropping the connection
+        }
+    }
+    
+    private void save(String downloadId, DownloadItem item) {
+        // Also skips downloads removed while their worker was still saving them
+        if (store == null || !downloads.containsKey(downloadId)) {
+            return;
+        }
+        ByteArrayOutputStream value = new ByteArrayOutputStream(128);
+        RecordCodec.writeString(value, item.getFileName());
+        RecordCodec.writeString(value, item.getUrl());
+        RecordCodec.writeString(value, item.getFilePath());
+        RecordCodec.writeVarLong(value, item.getFileSize());
+        RecordCodec.writeVarLong(value, item.getDownloadedSize());
+        RecordCodec.writeVarLong(value, toMillis(item.getStartTime()));
+        RecordCodec.writeVarLong(value, item.getEndTime() != null ? toMillis(item.getEndTime()) + 1 : 0);
+        RecordCodec.writeString(value, item.getStatus().name());
+        RecordCodec.writeString(value, emptyIfNull(item.getSha256()));
+        RecordCodec.writeString(value, emptyIfNull(item.getExpectedSha256()));
+        RecordCodec.writeString(value, emptyIfNull(item.getDuplicateOf()));
+        store.put(DOWNLOADS, downloadId, value.toByteArray());
+    }
+    
+    private static DownloadItem decode(byte[] value) {
+        ByteBuffer in = ByteBuffer.wrap(value);
+        String fileName = RecordCodec.readString(in);
+        String url = RecordCodec.readString(in);
+        String filePath = RecordCodec.readString(in);
+        long fileSize = RecordCodec.readVarLong(in);
+        long downloadedSize = RecordCodec.readVarLong(in);
+        LocalDateTime startTime = toLocalDateTime(RecordCodec.readVarLong(in));
+        long end = RecordCodec.readVarLong(in);
+        DownloadItem.DownloadStatus status = DownloadItem.DownloadStatus.valueOf(RecordCodec.readString(in));
+        DownloadItem item = new DownloadItem(fileName, url, filePath, fileSize, downloadedSize, startTime,
+            end > 0 ? toLocalDateTime(end - 1) : null, status);
+        // Saved before checksums were kept
+        if (in.hasRemaining()) {
+            item.setSha256(nullIfEmpty(RecordCodec.readString(in)));
+            item.setExpectedSha256(nullIfEmpty(RecordCodec.readString(in)));
+            item.setDuplicateOf(nullIfEmpty(RecordCodec.readString(in)));
+        }
+        return item;
+    }
+    
+    private static String emptyIfNull(String value) {
+        return value == null ? "" : value;
+    }
+    
+    private static String nullIfEmpty(String value) {
+        return value.isEmpty() ? null : value;
+    }
+    
+    /**
+     * Sends and keeps the cookies the tabs use, so downloads behind a login work.
+     * Looked up on each request because the web engine installs its cookie
+     * store only when the first tab is created.
+     */
+    private static final class BrowserCookies extends CookieHandler {
+        @Override
+        public Map<String, List<String>> get(URI uri, Map<String, List<String>> requestHeaders) throws IOException {
+            CookieHandler cookies = CookieHandler.getDefault();
+            return cookies != null ? cookies.get(uri, requestHeaders) : Collections.emptyMap();
+        }
+        
+        @Override
+        public void put(URI uri, Map<String, List<String>> responseHeaders) throws IOException {
+            CookieHandler cookies = CookieHandler.getDefault();
+            if (cookies != null) {
+                cookies.put(uri, responseHeaders);
+            }
+        }
+    }
+    
+    private static long toMillis(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+    
+    private static LocalDateTime toLocalDateTime(long millis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+    }
 }
@@ -0,0 +1,75 @@
+package it.r2u.animar2u.core.storage;
+
+import java.time.LocalDateTime;
+
+/**
+ * Snapshot of a download at one moment, as published by
+ * {@link DownloadProgressSampler}. Never changes once taken.
+ */
+public final class DownloadProgress {
+    private final String downloadId;
+    private final String fileName;
+    private final String url;
+    private final LocalDateTime startTime;
+    private final DownloadItem.DownloadStatus status;
+    private final long downloadedSize;
+    private final long fileSize;
+    private final double bytesPerSecond;
+    private final long secondsRemaining;
+    private final String duplicateOf;
+
+    DownloadProgress(String downloadId, DownloadItem item, DownloadItem.DownloadStatus status,
+                     long downloadedSize, long fileSize, double bytesPerSecond, long secondsRemaining) {
+        this.downloadId = downloadId;
+        this.fileName = item.getFileName();
+        this.url = item.getUrl();
+        this.startTime = item.getStartTime();
+        this.status = status;
+        this.downloadedSize = downloadedSize;
+        this.fileSize = fileSize;
+        this.bytesPerSecond = bytesPerSecond;
+        this.secondsRemaining = secondsRemaining;
+        this.duplicateOf = item.getDuplicateOf();
+    }
+
+    public String getDownloadId() { return downloadId; }
+    public String getFileName() { return fileName; }
+    public String getUrl() { return url; }
+    public LocalDateTime getStartTime() { return startTime; }
+    public DownloadItem.DownloadStatus getStatus() { return status; }
+    public long getDownloadedSize() { return downloadedSize; }
+
+    /**
+     * Total size, or 0 while unknown
+     */
+    public long getFileSize() { return fileSize; }
+
+    /**
+     * Smoothed download rate; 0 when the download is not running
+     */
+    public double getBytesPerSecond() { return bytesPerSecond; }
+
+    /**
+     * Estimated time left at the smoothed rate, or -1 when it cannot be told
+     */
+    public long getSecondsRemaining() { return secondsRemaining; }
+
+    /**
+     * Path of an earlier download with the same content, or null
+     */
+    public String getDuplicateOf() { return duplicateOf; }
+
+    /**
+     * Fraction done, or -1 while the total size is unknown
+     */
+    public double getProgress() {
+        if (status == DownloadItem.DownloadStatus.COMPLETED) return 1;
+        if (fileSize <= 0) return -1;
+        return Math.min(1, (double) downloadedSize / fileSize);
+    }
+
+    @Override
+    public String toString() {
+        return fileName + " - " + status + " (" + downloadedSize + "/" + fileSize + ")";
+    }
+}
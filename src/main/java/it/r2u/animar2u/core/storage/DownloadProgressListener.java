@@ -0,0 +1,21 @@
+package it.r2u.animar2u.core.storage;
+
+import java.util.List;
+
+/**
+ * Receives download progress from a DownloadProgressSampler.
+ * Callbacks run on the thread that calls {@link DownloadProgressSampler#sample},
+ * at most once per sample each.
+ */
+public interface DownloadProgressListener {
+
+    /**
+     * Downloads that were added or changed since the last sample
+     */
+    void progressChanged(List<DownloadProgress> changed);
+
+    /**
+     * A download was removed from the list
+     */
+    void downloadRemoved(String downloadId);
+}
@@ -0,0 +1,159 @@
+package it.r2u.animar2u.core.storage;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Turns the counters download threads update into progress snapshots.
+ * Download threads never publish anything themselves: they only add to the
+ * atomic byte count of their item. A viewer calls {@link #sample} from a single
+ * thread, typically once per frame on the UI thread; each call reads every
+ * download once and hands the ones that changed to the listeners in one batch,
+ * however many bytes arrived in between. Calls closer together than a frame are
+ * ignored. Rates are averaged over a quarter second and then smoothed with an
+ * exponentially weighted moving average, which also gives the time remaining.
+ * Nothing is sampled while there are no listeners.
+ */
+public final class DownloadProgressSampler {
+
+    private static final long FRAME_NANOS = 1_000_000_000L / 60;
+    // Bytes arrive in bursts; measure over windows long enough to even them out
+    private static final long RATE_WINDOW_NANOS = 250_000_000L;
+    // Time constant of the moving average: older windows fade out over a few seconds
+    private static final double SMOOTHING_SECONDS = 3;
+
+    private final Map<String, DownloadItem> downloads;
+    private final List<DownloadProgressListener> listeners = new CopyOnWriteArrayList<>();
+    // Set by new listeners, which need every download once
+    private volatile boolean publishAll;
+    // Only touched by the sampling thread
+    private final Map<String, State> states = new HashMap<>();
+    private long sampledAt;
+
+    DownloadProgressSampler(Map<String, DownloadItem> downloads) {
+        this.downloads = downloads;
+    }
+
+    /**
+     * Listen for progress; the next sample sends every download
+     */
+    public void addListener(DownloadProgressListener listener) {
+        listeners.add(listener);
+        publishAll = true;
+    }
+
+    public void removeListener(DownloadProgressListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Read all downloads and publish the changes since the last sample
+     * @param nanoTime the current {@link System#nanoTime()}, or the frame time
+     */
+    public void sample(long nanoTime) {
+        if (listeners.isEmpty()) {
+            // Rates measured across a pause in sampling would be meaningless
+            states.clear();
+            return;
+        }
+        if (!states.isEmpty() && nanoTime - sampledAt < FRAME_NANOS) {
+            return;
+        }
+        sampledAt = nanoTime;
+        boolean all = publishAll;
+        publishAll = false;
+
+        List<DownloadProgress> changed = new ArrayList<>();
+        for (Map.Entry<String, DownloadItem> entry : downloads.entrySet()) {
+            State state = states.get(entry.getKey());
+            if (state == null) {
+                state = new State();
+                states.put(entry.getKey(), state);
+                all = true;
+            }
+            DownloadProgress progress = state.update(entry.getKey(), entry.getValue(), nanoTime, all);
+            if (progress != null) {
+                changed.add(progress);
+            }
+        }
+        List<String> removed = new ArrayList<>();
+        for (Iterator<String> ids = states.keySet().iterator(); ids.hasNext(); ) {
+            String id = ids.next();
+            if (!downloads.containsKey(id)) {
+                ids.remove();
+                removed.add(id);
+            }
+        }
+
+        for (DownloadProgressListener listener : listeners) {
+            for (String id : removed) {
+                listener.downloadRemoved(id);
+            }
+            if (!changed.isEmpty()) {
+                listener.progressChanged(changed);
+            }
+        }
+    }
+
+    /**
+     * What was last published for a download, and its rate measurement
+     */
+    private static final class State {
+        DownloadItem.DownloadStatus status;
+        long downloaded = -1;
+        long size = -1;
+        double published = -1;
+        // NaN until the first window completes
+        double rate = Double.NaN;
+        long windowStart = -1;
+        long windowBytes;
+
+        /**
+         * @return a snapshot if anything shown changed or {@code force} is set, else null
+         */
+        DownloadProgress update(String id, DownloadItem item, long now, boolean force) {
+            DownloadItem.DownloadStatus currentStatus = item.getStatus();
+            long currentDownloaded = item.getDownloadedSize();
+            long currentSize = item.getFileSize();
+
+            if (currentStatus != DownloadItem.DownloadStatus.IN_PROGRESS) {
+                rate = Double.NaN;
+                windowStart = -1;
+            } else if (windowStart < 0 || currentDownloaded < windowBytes) {
+                // Started, or restarted from scratch because the file changed
+                rate = Double.NaN;
+                windowStart = now;
+                windowBytes = currentDownloaded;
+            } else if (Double.isNaN(rate) && currentDownloaded == windowBytes) {
+                // Still connecting; a first window of nothing would drag the average down for seconds
+                windowStart = now;
+            } else if (now - windowStart >= RATE_WINDOW_NANOS) {
+                double seconds = (now - windowStart) / 1e9;
+                double measured = (currentDownloaded - windowBytes) / seconds;
+                rate = Double.isNaN(rate) ? measured
+                    : rate + (1 - Math.exp(-seconds / SMOOTHING_SECONDS)) * (measured - rate);
+                windowStart = now;
+                windowBytes = currentDownloaded;
+            }
+            double shownRate = Double.isNaN(rate) ? 0 : rate;
+
+            if (!force && currentStatus == status && currentDownloaded == downloaded &&
+                currentSize == size && shownRate == published) {
+                return null;
+            }
+            status = currentStatus;
+            downloaded = currentDownloaded;
+            size = currentSize;
+            published = shownRate;
+            long remaining = -1;
+            if (shownRate > 0 && currentSize > 0) {
+                remaining = (long) Math.ceil(Math.max(0, currentSize - currentDownloaded) / shownRate);
+            }
+            return new DownloadProgress(id, item, currentStatus, currentDownloaded, currentSize, shownRate, remaining);
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package it.r2u.animar2u.core.storage;
+
+import it.r2u.animar2u.core.util.TokenBucket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * Decides when queued downloads start and how many connections they may open.
+ * A few downloads run at once; their connections, including the extra ones of
+ * segmented downloads, are capped per host and overall, so downloads leave room
+ * for page loads. Queued downloads start by priority, and in the order they were
+ * queued within a priority. Also holds the bandwidth limit shared by all
+ * downloads.
+ */
+final class DownloadScheduler {
+
+    private static final int MAX_ACTIVE = 4;
+    private static final int MAX_CONNECTIONS = 8;
+    private static final int MAX_CONNECTIONS_PER_HOST = 4;
+
+    private final Executor workers;
+    private final TokenBucket bandwidth = new TokenBucket(0);
+    // Guarded by this
+    private final PriorityQueue<Queued> queue = new PriorityQueue<>();
+    private final Set<HttpDownload> active = new HashSet<>();
+    private final Map<String, Integer> hostConnections = new HashMap<>();
+    private int connections;
+    private long sequence;
+    private boolean closed;
+
+    DownloadScheduler(Executor workers) {
+        this.workers = workers;
+    }
+
+    /**
+     * The limit every download's bytes count against
+     */
+    TokenBucket getBandwidth() {
+        return bandwidth;
+    }
+
+    /**
+     * Queue a download; it starts as soon as a slot for its host is free
+     */
+    synchronized void submit(HttpDownload download, DownloadManager.Priority priority) {
+        if (closed) {
+            return;
+        }
+        queue.add(new Queued(download, priority, sequence++));
+        dispatch();
+    }
+
+    /**
+     * Take a download out of the queue before it starts
+     * @return false if it is not queued, because it already started
+     */
+    synchronized boolean remove(HttpDownload download) {
+        return queue.removeIf(queued -> queued.download == download);
+    }
+
+    /**
+     * Claim a connection for another segment of a running download; refused
+     * when the caps are reached or a queued download is waiting for the host
+     */
+    synchronized boolean tryAcquireConnection(String host) {
+        if (closed || connections >= MAX_CONNECTIONS || hostConnections.getOrDefault(host, 0) >= MAX_CONNECTIONS_PER_HOST) {
+            return false;
+        }
+        for (Queued queued : queue) {
+            if (queued.download.getHost().equals(host)) {
+                return false;
+            }
+        }
+        acquire(host);
+        return true;
+    }
+
+    synchronized void releaseConnection(String host) {
+        connections--;
+        hostConnections.merge(host, -1, (count, delta) -> count + delta == 0 ? null : count + delta);
+        dispatch();
+    }
+
+    /**
+     * A started download ended and gives back its first connection
+     */
+    synchronized void finished(HttpDownload download) {
+        if (active.remove(download)) {
+            releaseConnection(download.getHost());
+        }
+    }
+
+    /**
+     * Stop starting downloads
+     * @return the downloads that were still queued
+     */
+    synchronized List<HttpDownload> close() {
+        closed = true;
+        List<HttpDownload> queued = new ArrayList<>();
+        for (Queued entry : queue) {
+            queued.add(entry.download);
+        }
+        queue.clear();
+        return queued;
+    }
+
+    private void dispatch() {
+        if (closed || active.size() >= MAX_ACTIVE || connections >= MAX_CONNECTIONS) {
+            return;
+        }
+        // Downloads waiting for a busy host do not hold up those behind them
+        List<Queued> waiting = new ArrayList<>();
+        while (!queue.isEmpty() && active.size() < MAX_ACTIVE && connections < MAX_CONNECTIONS) {
+            Queued next = queue.poll();
+            String host = next.download.getHost();
+            if (hostConnections.getOrDefault(host, 0) >= MAX_CONNECTIONS_PER_HOST) {
+                waiting.add(next);
+                continue;
+            }
+            acquire(host);
+            active.add(next.download);
+            workers.execute(next.download);
+        }
+        queue.addAll(waiting);
+    }
+
+    private void acquire(String host) {
+        connections++;
+        hostConnections.merge(host, 1, Integer::sum);
+    }
+
+    private static final class Queued implements Comparable<Queued> {
+        final HttpDownload download;
+        final DownloadManager.Priority priority;
+        final long sequence;
+
+        Queued(HttpDownload download, DownloadManager.Priority priority, long sequence) {
+            this.download = download;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Queued other) {
+            int byPriority = priority.compareTo(other.priority);
+            return byPriority != 0 ? byPriority : Long.compare(sequence, other.sequence);
+        }
+    }
+}
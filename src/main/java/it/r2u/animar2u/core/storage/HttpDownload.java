@@ -0,0 +1,809 @@
+package it.r2u.animar2u.core.storage;
+
+import it.r2u.animar2u.core.util.TokenBucket;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * A running download: streams HTTP response bodies into its file.
+ * Bodies are copied through reused buffers straight into a FileChannel, so
+ * memory use does not depend on the file size. The size comes from
+ * Content-Length when the server sends one; chunked responses report the bytes
+ * received so far. Cancelling closes the response streams and interrupts the
+ * threads, which ends any read or request that is blocked.
+ *
+ * Data goes to a {@link PartFile} that is renamed into place when complete.
+ * When an earlier attempt left a part file with a validator, the download asks
+ * for the missing ranges with Range and If-Range, and starts over if the server
+ * sends the whole file because it changed.
+ *
+ * Large files from servers that accept ranges are fetched over several
+ * connections. The missing bytes are split into segments, each written at its
+ * own position in the preallocated part file. A connection that finishes its
+ * segment takes an unowned one or splits the largest remaining one in half, so
+ * fast connections take over work from slow ones until everything is fetched.
+ * Extra connections are only opened when the {@link DownloadScheduler} has
+ * room for them, and every byte counts against the shared and the
+ * download's own bandwidth limit.
+ *
+ * The SHA-256 of the file is computed while it is written (see
+ * {@link DownloadDigest}) and checked against the expected one, if any. When
+ * the expected hash is known before fetching and the {@link DownloadHashIndex}
+ * has a file with that content, the download is a hard link to it instead.
+ */
+final class HttpDownload implements Runnable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // How often the part file is forced to disk and its ranges confirmed
+    private static final long CHECKPOINT_BYTES = 4 * 1024 * 1024;
+    private static final long CHECKPOINT_NANOS = TimeUnit.SECONDS.toNanos(2);
+    // Smaller files are not worth more connections
+    private static final long SEGMENTED_MIN_SIZE = 16 * 1024 * 1024;
+    private static final int MAX_CONNECTIONS = 4;
+    // Smallest piece split off a segment, so no connection is opened for a few bytes
+    private static final long MIN_SEGMENT_SIZE = 256 * 1024;
+    // Checksum files are a line or two; anything larger is not one
+    private static final int MAX_CHECKSUM_FILE = 4096;
+    private static final Duration CHECKSUM_TIMEOUT = Duration.ofSeconds(10);
+
+    private final String downloadId;
+    private final DownloadItem item;
+    private final HttpClient client;
+    private final DownloadScheduler scheduler;
+    private final Consumer<HttpDownload> onDone;
+    private final DownloadHashIndex hashes;
+    private final String host;
+    private final TokenBucket bandwidth = new TokenBucket(0);
+    // Guarded by this
+    private final Set<Thread> runners = new HashSet<>();
+    private final Set<InputStream> bodies = new HashSet<>();
+    private boolean cancelled;
+    private boolean finished;
+    // Set up before any segment thread starts
+    private PartFile part;
+    private FileChannel out;
+    private List<long[]> resumedRanges;
+    // A response opened elsewhere that this download takes over, or null
+    private HttpResponse<InputStream> handedOver;
+    private boolean checksumFile;
+    private final DownloadDigest digest = new DownloadDigest();
+    // Guarded by themselves
+    private final List<Segment> segments = new ArrayList<>();
+    private final ReentrantLock checkpointLock = new ReentrantLock();
+    private final AtomicLong unconfirmedBytes = new AtomicLong();
+    private final AtomicReference<Exception> failure = new AtomicReference<>();
+    private volatile long confirmedAt;
+    private volatile boolean changed;
+
+    HttpDownload(String downloadId, DownloadItem item, HttpClient client, DownloadScheduler scheduler,
+                 DownloadHashIndex hashes, Consumer<HttpDownload> onDone) {
+        this.downloadId = downloadId;
+        this.item = item;
+        this.client = client;
+        this.scheduler = scheduler;
+        this.hashes = hashes;
+        this.onDone = onDone;
+        String uriHost = null;
+        try {
+            uriHost = URI.create(item.getUrl()).getHost();
+        } catch (IllegalArgumentException e) {
+            // Fails when the download starts
+        }
+        this.host = uriHost == null ? "" : uriHost.toLowerCase(Locale.ROOT);
+    }
+
+    String getDownloadId() {
+        return downloadId;
+    }
+
+    DownloadItem getItem() {
+        return item;
+    }
+
+    String getHost() {
+        return host;
+    }
+
+    /**
+     * Take over a response already received for the file, so its body serves
+     * the start of the download instead of a new request. Call before the
+     * download is queued; until it runs, stopping it closes the response.
+     */
+    synchronized void handOver(HttpResponse<InputStream> response) {
+        handedOver = response;
+        bodies.add(response.body());
+    }
+
+    /**
+     * Look for {@code <file>.sha256} next to the file on the server when no
+     * checksum was given; call before the download is queued
+     */
+    synchronized void useChecksumFile() {
+        checksumFile = true;
+    }
+
+    /**
+     * This download's own limit, on top of the shared one
+     */
+    TokenBucket getBandwidth() {
+        return bandwidth;
+    }
+
+    @Override
+    public void run() {
+        Path target = Paths.get(item.getFilePath());
+        try {
+            if (!started()) {
+                return;
+            }
+            HttpResponse<InputStream> response;
+            long resumeAt;
+            boolean lookUpChecksum;
+            synchronized (this) {
+                response = handedOver;
+                handedOver = null;
+                lookUpChecksum = checksumFile;
+            }
+            if (item.getExpectedSha256() == null && lookUpChecksum) {
+                item.setExpectedSha256(fetchChecksum());
+            }
+            if (linkExisting(target)) {
+                if (response != null) {
+                    closed(response.body());
+                }
+                finish(DownloadItem.DownloadStatus.COMPLETED);
+                return;
+            }
+            if (response != null) {
+                // Saved to a fresh file, so there is nothing to resume
+                part = new PartFile(target, item.getUrl());
+                resumeAt = 0;
+            } else {
+                part = resumableState(target);
+                if (part.getGaps().isEmpty()) {
+                    // Every byte was confirmed before the part file could be renamed
+                    completeFromDisk(target);
+                    return;
+                }
+                resumeAt = part.getGaps().get(0)[0];
+                response = send(resumeAt, -1);
+            }
+            if (!part.isEmpty() && response.statusCode() != 200 && !continues(response, resumeAt)) {
+                // The server refused or misread the range: fetch the whole file instead
+                response.body().close();
+                part = new PartFile(target, item.getUrl());
+                resumeAt = 0;
+                response = send(0, -1);
+            }
+            InputStream in = response.body();
+            if (!opened(in)) {
+                return;
+            }
+            int status = response.statusCode();
+            if (part.isEmpty() || status != 206) {
+                // A 200 to a Range request means the file changed since the part was written
+                if (status / 100 != 2 || status == 206) {
+                    closed(in);
+                    throw new IOException("Server answered " + status);
+                }
+                part.reset(response.headers().firstValue("ETag").orElse(null),
+                    response.headers().firstValue("Last-Modified").orElse(null),
+                    response.headers().firstValueAsLong("Content-Length").orElse(-1));
+                resumeAt = 0;
+            }
+            long length = part.getLength();
+            item.setFileSize(Math.max(length, 0));
+            item.setDownloadedSize(part.getConfirmedSize());
+            // Save the validator before any data, so every byte on disk can be resumed
+            part.save();
+            resumedRanges = part.getConfirmed();
+
+            String sha256;
+            boolean ranges = length >= 0 && part.getValidator() != null && (status == 206
+                || "bytes".equalsIgnoreCase(response.headers().firstValue("Accept-Ranges").orElse("")));
+            try (FileChannel channel = FileChannel.open(part.getPartPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                out = channel;
+                fetchAll(in, resumeAt, ranges);
+                if (length < 0) {
+                    length = segments.get(0).end;
+                }
+                if (channel.size() > length) {
+                    channel.truncate(length);
+                }
+                sha256 = digest.finish(channel, length);
+                channel.force(false);
+            }
+            completed(target, sha256, length);
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            // Ends of streams closed by cancel() land here too
+            if (finish(DownloadItem.DownloadStatus.FAILED)) {
+                System.err.println("Download of " + item.getUrl() + " failed: " + e.getMessage());
+            }
+            closeBodies();
+            if (part != null && (changed || part.isEmpty() || part.getValidator() == null)) {
+                // Nothing that a later request could continue from
+                part.delete();
+            }
+        } finally {
+            // Clear an interrupt from cancel() that arrived after the last blocking call
+            Thread.interrupted();
+            onDone.accept(this);
+        }
+    }
+
+    /**
+     * Verify a file whose bytes are all in the part file, then move it into place
+     */
+    private void completed(Path target, String sha256, long length) throws IOException {
+        item.setFileSize(length);
+        String expected = item.getExpectedSha256();
+        if (expected != null && !expected.equals(sha256)) {
+            // Nothing of it can be trusted, so a retry starts over
+            part.delete();
+            throw new IOException("Checksum mismatch: expected " + expected + ", got " + sha256);
+        }
+        item.setSha256(sha256);
+        part.complete();
+        Path same = hashes.find(sha256);
+        if (same != null && !same.equals(target)) {
+            item.setDuplicateOf(same.toString());
+        }
+        hashes.add(sha256, target);
+        finish(DownloadItem.DownloadStatus.COMPLETED);
+    }
+
+    /**
+     * Finish a download whose sidecar already confirms every byte, hashing the
+     * part file instead of requesting an empty range
+     */
+    private void completeFromDisk(Path target) throws IOException {
+        long length = part.getLength();
+        item.setFileSize(length);
+        item.setDownloadedSize(length);
+        String sha256;
+        try (FileChannel channel = FileChannel.open(part.getPartPath(), StandardOpenOption.READ)) {
+            sha256 = digest.finish(channel, length);
+        }
+        completed(target, sha256, length);
+    }
+
+    /**
+     * Stop the download and leave it in {@code status}: cancelled, paused, or
+     * pending to start again later; data on disk is kept for resuming
+     * @return whether the download was still running
+     */
+    synchronized boolean stop(DownloadItem.DownloadStatus status) {
+        if (finished) {
+            return false;
+        }
+        cancelled = true;
+        finished = true;
+        item.setStatus(status);
+        if (status == DownloadItem.DownloadStatus.CANCELLED) {
+            item.setEndTime(LocalDateTime.now());
+        }
+        closeBodies();
+        for (Thread runner : runners) {
+            runner.interrupt();
+        }
+        return true;
+    }
+
+    private synchronized boolean started() {
+        if (cancelled) {
+            return false;
+        }
+        runners.add(Thread.currentThread());
+        item.setStatus(DownloadItem.DownloadStatus.IN_PROGRESS);
+        return true;
+    }
+
+    /**
+     * Register a response body so cancel() can close it
+     * @return false, with the body closed, if the download was cancelled
+     */
+    private synchronized boolean opened(InputStream in) throws IOException {
+        if (cancelled) {
+            in.close();
+            return false;
+        }
+        bodies.add(in);
+        return true;
+    }
+
+    private void closed(InputStream in) throws IOException {
+        synchronized (this) {
+            bodies.remove(in);
+        }
+        in.close();
+    }
+
+    private synchronized void closeBodies() {
+        for (InputStream body : bodies) {
+            try {
+                body.close();
+            } catch (IOException e) {
+                // The stream is being abandoned anyway
+            }
+        }
+        bodies.clear();
+    }
+
+    /**
+     * Record how the download ended, unless it was cancelled first
+     */
+    private synchronized boolean finish(DownloadItem.DownloadStatus status) {
+        runners.clear();
+        if (finished) {
+            return false;
+        }
+        finished = true;
+        item.setStatus(status);
+        item.setEndTime(LocalDateTime.now());
+        return true;
+    }
+
+    /**
+     * The saved state of an earlier attempt at this download, or a fresh one
+     * when there is nothing on disk that a range request could continue
+     */
+    private PartFile resumableState(Path target) {
+        PartFile saved = PartFile.read(target);
+        if (saved != null && saved.getUrl().equals(item.getUrl()) && saved.getValidator() != null
+                && !saved.isEmpty() && saved.getConfirmedEnd() <= sizeOf(saved.getPartPath())) {
+            return saved;
+        }
+        return new PartFile(target, item.getUrl());
+    }
+
+    /**
+     * Hard link the target to a completed download with the expected content
+     * @return false if there is none or the file system cannot link it, so the
+     * file has to be fetched
+     */
+    private boolean linkExisting(Path target) {
+        String expected = item.getExpectedSha256();
+        Path existing = expected != null ? hashes.find(expected) : null;
+        if (existing == null || existing.equals(target)) {
+            return false;
+        }
+        try {
+            Files.createLink(target, existing);
+        } catch (IOException | UnsupportedOperationException e) {
+            System.err.println("Failed to link " + target + " to " + existing + ": " + e.getMessage());
+            return false;
+        }
+        new PartFile(target, item.getUrl()).delete();
+        long size = sizeOf(target);
+        item.setFileSize(size);
+        item.setDownloadedSize(size);
+        item.setSha256(expected);
+        item.setDuplicateOf(existing.toString());
+        return true;
+    }
+
+    /**
+     * The SHA-256 in {@code <file>.sha256} next to the file, in the usual
+     * {@code <hash>  <name>} format
+     * @return the hash in lowercase, or null if there is no such file
+     */
+    private String fetchChecksum() throws InterruptedException {
+        String url = item.getUrl();
+        int query = url.indexOf('?');
+        int fragment = url.indexOf('#');
+        int end = query >= 0 ? query : fragment >= 0 ? fragment : url.length();
+        try {
+            URI checksumUri = URI.create(url.substring(0, end) + ".sha256" + url.substring(end));
+            HttpRequest request = HttpRequest.newBuilder(checksumUri).timeout(CHECKSUM_TIMEOUT).GET().build();
+            HttpResponse<InputStream> response = client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+            try (InputStream in = response.body()) {
+                if (response.statusCode() != 200) {
+                    return null;
+                }
+                String text = new String(in.readNBytes(MAX_CHECKSUM_FILE), StandardCharsets.US_ASCII);
+                for (String token : text.split("[\\s*]+")) {
+                    if (isSha256(token)) {
+                        return token.toLowerCase(Locale.ROOT);
+                    }
+                }
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            // No checksum to verify against
+        }
+        return null;
+    }
+
+    static boolean isSha256(String text) {
+        if (text == null || text.length() != 64) {
+            return false;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            if (Character.digit(text.charAt(i), 16) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Request the file from {@code from} up to {@code to} (exclusive, or -1 for
+     * the rest); a range is asked for whenever there is data to continue
+     */
+    private HttpResponse<InputStream> send(long from, long to) throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(item.getUrl())).GET();
+        if (!part.isEmpty() || from > 0 || to >= 0) {
+            // If-Range makes the server send the whole file when it no longer matches the part
+            request.header("Range", "bytes=" + from + "-" + (to >= 0 ? String.valueOf(to - 1) : ""))
+                .header("If-Range", part.getValidator());
+        }
+        return client.send(request.build(), HttpResponse.BodyHandlers.ofInputStream());
+    }
+
+    private boolean continues(HttpResponse<?> response, long from) {
+        return response.statusCode() == 206 && contentRange(response, 0) == from
+            && contentRange(response, 1) == part.getLength();
+    }
+
+    /**
+     * Fetch every missing range: the open response serves the first, and with
+     * {@code ranges} more connections split the rest between them
+     */
+    private void fetchAll(InputStream first, long from, boolean ranges) throws IOException, InterruptedException {
+        long remaining = 0;
+        for (long[] gap : part.getGaps()) {
+            Segment segment = new Segment(gap[0], gap[1]);
+            segment.owned = gap[0] == from;
+            segments.add(segment);
+            remaining += gap[1] - gap[0];
+        }
+        if (part.getLength() >= 0 && out.size() < part.getLength()) {
+            // Preallocate, so segments can be written at their positions in any order
+            out.write(ByteBuffer.allocate(1), part.getLength() - 1);
+        }
+
+        confirmedAt = System.nanoTime();
+        int connections = 1;
+        if (ranges && remaining >= SEGMENTED_MIN_SIZE) {
+            connections = MAX_CONNECTIONS;
+            synchronized (segments) {
+                while (segments.size() < connections && split() != null) {
+                    // Split the largest segment until there is one per connection
+                }
+            }
+        }
+        List<Thread> helpers = new ArrayList<>();
+        synchronized (this) {
+            for (int i = 1; i < connections && !cancelled && scheduler.tryAcquireConnection(host); i++) {
+                Thread helper = Thread.ofVirtual().name("anima-download-segment").unstarted(() -> {
+                    try {
+                        work(null, null);
+                    } finally {
+                        scheduler.releaseConnection(host);
+                    }
+                });
+                runners.add(helper);
+                helpers.add(helper);
+                helper.start();
+            }
+        }
+
+        work(segments.get(0), first);
+        for (Thread helper : helpers) {
+            joinUninterruptibly(helper);
+        }
+        long missingAt = -1;
+        synchronized (segments) {
+            for (Segment segment : segments) {
+                if (segment.written < segment.end) {
+                    missingAt = segment.written;
+                    break;
+                }
+            }
+        }
+        if (missingAt >= 0) {
+            if (!changed) {
+                // Keep what arrived since the last checkpoint, e.g. when pausing
+                confirmWritten();
+            }
+            Exception cause = failure.get();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Download stopped at byte " + missingAt, cause);
+        }
+    }
+
+    /**
+     * Fetch segments until there is none left to take over; {@code segment} and
+     * {@code in} are one already opened, or null. A connection that fails gives
+     * its segment back for the others to finish.
+     */
+    private void work(Segment segment, InputStream in) {
+        byte[] bytes = new byte[BUFFER_SIZE];
+        try {
+            if (segment == null) {
+                segment = next();
+            }
+            while (segment != null) {
+                if (in == null) {
+                    in = open(segment);
+                }
+                if (in == null) {
+                    return;
+                }
+                try {
+                    fill(segment, in, bytes);
+                } finally {
+                    closed(in);
+                    in = null;
+                }
+                segment = next();
+            }
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            failure.compareAndSet(null, e);
+            if (segment != null) {
+                synchronized (segments) {
+                    segment.owned = false;
+                }
+            }
+        }
+    }
+
+    /**
+     * Request the part of the file a segment still needs
+     * @return the body, or null if the download was cancelled
+     */
+    private InputStream open(Segment segment) throws IOException, InterruptedException {
+        long from;
+        long to;
+        synchronized (segments) {
+            from = segment.written;
+            to = segment.end;
+        }
+        HttpResponse<InputStream> response = send(from, to);
+        if (response.statusCode() == 200) {
+            response.body().close();
+            // Whatever is on disk belongs to the old file
+            changed = true;
+            throw new IOException("File changed on the server during the download");
+        }
+        if (response.statusCode() != 206 || contentRange(response, 0) != from) {
+            response.body().close();
+            throw new IOException("Server answered " + response.statusCode() + " to a range request");
+        }
+        return opened(response.body()) ? response.body() : null;
+    }
+
+    /**
+     * Copy a body into the part file at its segment's position until the
+     * segment is done; it may end early when another connection takes part of it
+     */
+    private void fill(Segment segment, InputStream in, byte[] bytes) throws IOException, InterruptedException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (true) {
+            long position;
+            int wanted;
+            synchronized (segments) {
+                position = segment.written;
+                wanted = (int) Math.min(bytes.length, segment.end - position);
+                // Bytes being read cannot be split off
+                segment.claimed = position + wanted;
+            }
+            if (wanted == 0) {
+                return;
+            }
+            int read = in.read(bytes, 0, wanted);
+            if (read == -1) {
+                synchronized (segments) {
+                    if (segment.end == Long.MAX_VALUE) {
+                        // Length unknown: the body ends the file
+                        segment.end = segment.written;
+                        return;
+                    }
+                }
+                throw new IOException("Connection closed at byte " + position + " of " + part.getLength());
+            }
+            buffer.clear().limit(read);
+            long writtenAt = position;
+            while (buffer.hasRemaining()) {
+                position += out.write(buffer, position);
+            }
+            digest.update(writtenAt, bytes, 0, read);
+            synchronized (segments) {
+                segment.written = position;
+            }
+            item.addDownloadedSize(read);
+            scheduler.getBandwidth().acquire(read);
+            bandwidth.acquire(read);
+            if (unconfirmedBytes.addAndGet(read) >= CHECKPOINT_BYTES || System.nanoTime() - confirmedAt >= CHECKPOINT_NANOS) {
+                checkpoint(out, true);
+            }
+        }
+    }
+
+    /**
+     * Take a segment nobody is fetching, or split the largest one
+     * @return the segment, or null when there is nothing left worth taking
+     */
+    private Segment next() {
+        synchronized (segments) {
+            for (Segment segment : segments) {
+                if (!segment.owned && segment.written < segment.end) {
+                    segment.owned = true;
+                    return segment;
+                }
+            }
+            Segment taken = split();
+            if (taken != null) {
+                taken.owned = true;
+            }
+            return taken;
+        }
+    }
+
+    /**
+     * Cut the segment with the most bytes left in half; the caller holds the lock
+     * @return the new second half, or null if no segment is large enough
+     */
+    private Segment split() {
+        Segment largest = null;
+        for (Segment segment : segments) {
+            if (segment.end != Long.MAX_VALUE && (largest == null
+                    || segment.end - segment.claimed > largest.end - largest.claimed)) {
+                largest = segment;
+            }
+        }
+        if (largest == null || largest.end - largest.claimed < 2 * MIN_SEGMENT_SIZE) {
+            return null;
+        }
+        long middle = largest.claimed + (largest.end - largest.claimed) / 2;
+        Segment half = new Segment(middle, largest.end);
+        largest.end = middle;
+        segments.add(half);
+        return half;
+    }
+
+    /**
+     * Force written data to disk and confirm it in the sidecar, unless another
+     * connection is already doing so
+     */
+    private void checkpoint(FileChannel channel, boolean hash) throws IOException {
+        if (!checkpointLock.tryLock()) {
+            return;
+        }
+        try {
+            unconfirmedBytes.set(0);
+            List<long[]> done = new ArrayList<>(resumedRanges);
+            synchronized (segments) {
+                for (Segment segment : segments) {
+                    done.add(new long[] {segment.start, segment.written});
+                }
+            }
+            // Everything in the snapshot was written before this force
+            channel.force(false);
+            part.confirm(done);
+            confirmedAt = System.nanoTime();
+            List<long[]> confirmed = part.getConfirmed();
+            if (hash && !confirmed.isEmpty() && confirmed.get(0)[0] == 0) {
+                // Bytes other connections wrote ahead of the hashed prefix, now joined to it
+                digest.catchUp(channel, confirmed.get(0)[1]);
+            }
+        } finally {
+            checkpointLock.unlock();
+        }
+    }
+
+    /**
+     * Confirm everything written once all connections have stopped; failures
+     * are ignored, since the download is ending anyway
+     */
+    private void confirmWritten() {
+        // A pending interrupt from stop() would close the channel on the next call
+        Thread.interrupted();
+        if (out.isOpen()) {
+            try {
+                checkpoint(out, false);
+            } catch (IOException e) {
+                // The last checkpoint stays in place
+            }
+            return;
+        }
+        // An interrupt during a write closed the shared channel; forcing any channel flushes the file
+        try (FileChannel channel = FileChannel.open(part.getPartPath(), StandardOpenOption.WRITE)) {
+            checkpoint(channel, false);
+        } catch (IOException e) {
+            // The last checkpoint stays in place
+        }
+    }
+
+    /**
+     * Wait for a segment thread; it is stopping too when this thread is interrupted
+     */
+    private static void joinUninterruptibly(Thread thread) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                thread.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Read the first byte position (field 0) or the total length (field 1) of
+     * a Content-Range header such as {@code bytes 100-199/1000}
+     * @return the value, or -1 if the header is missing or the length unknown
+     */
+    private static long contentRange(HttpResponse<?> response, int field) {
+        String range = response.headers().firstValue("Content-Range").orElse("");
+        int space = range.indexOf(' ');
+        int dash = range.indexOf('-', space + 1);
+        int slash = range.indexOf('/', dash + 1);
+        if (!range.startsWith("bytes ") || dash < 0 || slash < 0) {
+            return -1;
+        }
+        try {
+            return field == 0 ? Long.parseLong(range.substring(space + 1, dash).trim())
+                : Long.parseLong(range.substring(slash + 1).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static long sizeOf(Path path) {
+        try {
+            return Files.size(path);
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Bytes from start to end (exclusive) fetched by one connection at a time.
+     * All fields are guarded by the segments list.
+     */
+    private static final class Segment {
+        final long start;
+        long written;
+        // Up to where the bytes being read will go
+        long claimed;
+        long end;
+        boolean owned;
+
+        Segment(long start, long end) {
+            this.start = start;
+            this.written = start;
+            this.claimed = start;
+            this.end = end;
+        }
+    }
+}
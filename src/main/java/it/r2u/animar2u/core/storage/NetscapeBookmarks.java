@@ -0,0 +1,435 @@
+package it.r2u.animar2u.core.storage;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Import and export of bookmarks in the Netscape bookmark file format, the HTML
+ * that every major browser reads and writes.
+ *
+ * Imports scan the file tag by tag without building a document: an {@code H3}
+ * names the folder opened by the next {@code DL}, and each {@code A} is a bookmark
+ * in the innermost open folder. Bookmarks reach the manager in batches through
+ * {@link BookmarkManager#addBookmarks}, so memory stays bounded by the batch size
+ * and indexes are updated once per batch. Exports write the folder tree straight
+ * to the output while walking it.
+ */
+public final class NetscapeBookmarks {
+
+    private static final int BATCH_SIZE = 1000;
+    private static final String TOOLBAR_FOLDER = "Bookmarks Bar";
+    private static final String OTHER_FOLDER = "Other Bookmarks";
+    // Folder names cannot contain the path separator; this looks the same
+    private static final char SLASH_LOOKALIKE = '∕';
+    private static final ZoneId ZONE = ZoneId.systemDefault();
+
+    private NetscapeBookmarks() {
+    }
+
+    /**
+     * Add every bookmark in a bookmark file. Folders keep their nesting; bookmarks
+     * outside any folder go to the default folder, and the toolbar folder of other
+     * browsers maps to "Bookmarks Bar".
+     * @return the number of bookmarks imported
+     */
+    public static int importFrom(Reader in, BookmarkManager manager) throws IOException {
+        TagScanner scanner = new TagScanner(in);
+        Deque<String> open = new ArrayDeque<>();
+        List<Bookmark> batch = new ArrayList<>(BATCH_SIZE);
+        String folderPath = null;
+        String pendingFolder = null;
+        int imported = 0;
+
+        for (String tag = scanner.next(); tag != null; tag = scanner.next()) {
+            switch (tag) {
+                case "H3":
+                    pendingFolder = folderName(scanner, open.size());
+                    break;
+                case "DL":
+                    // A list without a heading, such as the outermost one, adds no level
+                    open.push(pendingFolder != null ? pendingFolder : "");
+                    folderPath = pathOf(open);
+                    pendingFolder = null;
+                    break;
+                case "/DL":
+                    if (!open.isEmpty()) {
+                        open.pop();
+                        folderPath = pathOf(open);
+                    }
+                    break;
+                case "A":
+                    Bookmark bookmark = bookmark(scanner, folderPath);
+                    if (bookmark != null) {
+                        batch.add(bookmark);
+                        if (batch.size() == BATCH_SIZE) {
+                            imported += manager.addBookmarks(batch);
+                            batch = new ArrayList<>(BATCH_SIZE);
+                        }
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        if (!batch.isEmpty()) {
+            imported += manager.addBookmarks(batch);
+        }
+        return imported;
+    }
+
+    /**
+     * Write all bookmarks as a bookmark file
+     * @return the number of bookmarks exported
+     */
+    public static int exportTo(BookmarkManager manager, Writer out) throws IOException {
+        out.write("<!DOCTYPE NETSCAPE-Bookmark-file-1>\n");
+        out.write("<!-- This is an automatically generated file.\n");
+        out.write("     It will be read and overwritten.\n");
+        out.write("     DO NOT EDIT! -->\n");
+        out.write("<META HTTP-EQUIV=\"Content-Type\" CONTENT=\"text/html; charset=UTF-8\">\n");
+        out.write("<TITLE>Bookmarks</TITLE>\n");
+        out.write("<H1>Bookmarks</H1>\n");
+        out.write("<DL><p>\n");
+        int[] exported = new int[1];
+        manager.walk(new BookmarkManager.FolderVisitor() {
+            private int depth = 1;
+
+            @Override
+            public void folder(String name, int folderDepth) throws IOException {
+                indent();
+                out.write("<DT><H3");
+                if (folderDepth == 1 && name.equals(TOOLBAR_FOLDER)) {
+                    out.write(" PERSONAL_TOOLBAR_FOLDER=\"true\"");
+                } else if (folderDepth == 1 && name.equals(OTHER_FOLDER)) {
+                    out.write(" UNFILED_BOOKMARKS_FOLDER=\"true\"");
+                }
+                out.write('>');
+                writeEscaped(out, name);
+                out.write("</H3>\n");
+                indent();
+                out.write("<DL><p>\n");
+                depth++;
+            }
+
+            @Override
+            public void bookmark(Bookmark bookmark) throws IOException {
+                indent();
+                out.write("<DT><A HREF=\"");
+                writeEscaped(out, bookmark.getUrl());
+                out.write("\" ADD_DATE=\"");
+                out.write(Long.toString(bookmark.getDateAdded().atZone(ZONE).toEpochSecond()));
+                out.write("\">");
+                writeEscaped(out, bookmark.getTitle());
+                out.write("</A>\n");
+                exported[0]++;
+            }
+
+            @Override
+            public void endFolder() throws IOException {
+                depth--;
+                indent();
+                out.write("</DL><p>\n");
+            }
+
+            private void indent() throws IOException {
+                for (int i = 0; i < depth; i++) {
+                    out.write("    ");
+                }
+            }
+        });
+        out.write("</DL><p>\n");
+        out.flush();
+        return exported[0];
+    }
+
+    private static String folderName(TagScanner scanner, int depth) throws IOException {
+        Map<String, String> attributes = scanner.attributes();
+        String name = decode(scanner.text()).replace('/', SLASH_LOOKALIKE);
+        // Depth 1 is inside the outermost list, where browsers put their special folders
+        if (depth == 1 && "true".equalsIgnoreCase(attributes.get("PERSONAL_TOOLBAR_FOLDER"))) {
+            return TOOLBAR_FOLDER;
+        }
+        if (depth == 1 && "true".equalsIgnoreCase(attributes.get("UNFILED_BOOKMARKS_FOLDER"))) {
+            return OTHER_FOLDER;
+        }
+        return name.isEmpty() ? "Untitled" : name;
+    }
+
+    private static Bookmark bookmark(TagScanner scanner, String folderPath) throws IOException {
+        Map<String, String> attributes = scanner.attributes();
+        String title = decode(scanner.text());
+        String url = decode(attributes.getOrDefault("HREF", "")).trim();
+        // Firefox exports saved queries as place: links; they are not pages
+        if (url.isEmpty() || url.regionMatches(true, 0, "place:", 0, 6)) {
+            return null;
+        }
+        LocalDateTime dateAdded = LocalDateTime.now();
+        String added = attributes.get("ADD_DATE");
+        if (added != null) {
+            try {
+                dateAdded = LocalDateTime.ofInstant(Instant.ofEpochSecond(Long.parseLong(added.trim())), ZONE);
+            } catch (NumberFormatException | DateTimeException e) {
+                // Keep the import time
+            }
+        }
+        return new Bookmark(title.isEmpty() ? url : title, url, folderPath, dateAdded);
+    }
+
+    private static String pathOf(Deque<String> open) {
+        StringBuilder path = new StringBuilder();
+        for (Iterator<String> names = open.descendingIterator(); names.hasNext(); ) {
+            String name = names.next();
+            if (!name.isEmpty()) {
+                if (path.length() > 0) {
+                    path.append(BookmarkFolder.SEPARATOR);
+                }
+                path.append(name);
+            }
+        }
+        return path.length() > 0 ? path.toString() : null;
+    }
+
+    /**
+     * Decode character references and collapse whitespace
+     */
+    static String decode(String text) {
+        StringBuilder out = new StringBuilder(text.length());
+        boolean space = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = out.length() > 0;
+                continue;
+            }
+            if (space) {
+                out.append(' ');
+                space = false;
+            }
+            int end = c == '&' ? text.indexOf(';', i) : -1;
+            String decoded = end > i && end - i <= 10 ? entity(text.substring(i + 1, end)) : null;
+            if (decoded != null) {
+                out.append(decoded);
+                i = end;
+            } else {
+                out.append(c);
+            }
+        }
+        return out.toString();
+    }
+
+    private static String entity(String name) {
+        switch (name) {
+            case "amp": return "&";
+            case "lt": return "<";
+            case "gt": return ">";
+            case "quot": return "\"";
+            case "apos": return "'";
+            case "nbsp": return " ";
+            default:
+                break;
+        }
+        if (name.length() > 1 && name.charAt(0) == '#') {
+            try {
+                boolean hex = name.charAt(1) == 'x' || name.charAt(1) == 'X';
+                int code = Integer.parseInt(name.substring(hex ? 2 : 1), hex ? 16 : 10);
+                return Character.isValidCodePoint(code) ? new String(Character.toChars(code)) : null;
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private static void writeEscaped(Writer out, String text) throws IOException {
+        int start = 0;
+        for (int i = 0; i < text.length(); i++) {
+            String escape;
+            switch (text.charAt(i)) {
+                case '&': escape = "&amp;"; break;
+                case '<': escape = "&lt;"; break;
+                case '>': escape = "&gt;"; break;
+                case '"': escape = "&quot;"; break;
+                default: continue;
+            }
+            out.write(text, start, i - start);
+            out.write(escape);
+            start = i + 1;
+        }
+        out.write(text, start, text.length() - start);
+    }
+
+    /**
+     * Reads tags from HTML one at a time. Comments and declarations are skipped,
+     * and text is only kept when asked for, up to the next tag.
+     */
+    private static final class TagScanner {
+        private final Reader in;
+        private final char[] buffer = new char[8192];
+        private final StringBuilder name = new StringBuilder();
+        private final StringBuilder text = new StringBuilder();
+        private final Map<String, String> attributes = new HashMap<>();
+        private int position;
+        private int limit;
+        // A character read past the end of a tag name, or -1
+        private int pushedBack = -1;
+
+        TagScanner(Reader in) {
+            this.in = in;
+        }
+
+        /**
+         * Advance to the next tag
+         * @return its upper-cased name, with a leading '/' for end tags, or null at the end
+         */
+        String next() throws IOException {
+            while (true) {
+                int c = read();
+                while (c != '<') {
+                    if (c < 0) {
+                        return null;
+                    }
+                    c = read();
+                }
+                String tag = readTag();
+                if (tag != null) {
+                    return tag;
+                }
+            }
+        }
+
+        /**
+         * Attributes of the last start tag, keyed by upper-cased name; valid until the next tag
+         */
+        Map<String, String> attributes() {
+            return attributes;
+        }
+
+        /**
+         * Raw text from the last tag up to the next one, which is left unread
+         */
+        String text() throws IOException {
+            text.setLength(0);
+            for (int c = read(); c >= 0; c = read()) {
+                if (c == '<') {
+                    pushedBack = c;
+                    break;
+                }
+                text.append((char) c);
+            }
+            return text.toString();
+        }
+
+        private String readTag() throws IOException {
+            attributes.clear();
+            int c = read();
+            if (c == '!' || c == '?') {
+                skipDeclaration();
+                return null;
+            }
+            boolean end = c == '/';
+            if (end) {
+                c = read();
+            }
+            name.setLength(0);
+            while (Character.isLetterOrDigit(c)) {
+                name.append(Character.toUpperCase((char) c));
+                c = read();
+            }
+            if (name.length() == 0) {
+                // A stray '<' in text
+                if (c >= 0) {
+                    pushedBack = c;
+                }
+                return null;
+            }
+            readAttributes(c);
+            return end ? "/" + name : name.toString();
+        }
+
+        private void readAttributes(int c) throws IOException {
+            StringBuilder key = new StringBuilder();
+            StringBuilder value = new StringBuilder();
+            while (c >= 0 && c != '>') {
+                if (Character.isWhitespace(c) || c == '/') {
+                    c = read();
+                    continue;
+                }
+                key.setLength(0);
+                while (c >= 0 && c != '=' && c != '>' && !Character.isWhitespace(c)) {
+                    key.append(Character.toUpperCase((char) c));
+                    c = read();
+                }
+                while (c >= 0 && Character.isWhitespace(c)) {
+                    c = read();
+                }
+                value.setLength(0);
+                if (c == '=') {
+                    c = read();
+                    while (c >= 0 && Character.isWhitespace(c)) {
+                        c = read();
+                    }
+                    if (c == '"' || c == '\'') {
+                        int quote = c;
+                        for (c = read(); c >= 0 && c != quote; c = read()) {
+                            value.append((char) c);
+                        }
+                        c = read();
+                    } else {
+                        while (c >= 0 && c != '>' && !Character.isWhitespace(c)) {
+                            value.append((char) c);
+                            c = read();
+                        }
+                    }
+                }
+                attributes.put(key.toString(), value.toString());
+            }
+        }
+
+        private void skipDeclaration() throws IOException {
+            int c = read();
+            if (c == '-' && (c = read()) == '-') {
+                // Comment: ends at "-->"
+                int dashes = 0;
+                for (c = read(); c >= 0; c = read()) {
+                    if (c == '>' && dashes >= 2) {
+                        return;
+                    }
+                    dashes = c == '-' ? dashes + 1 : 0;
+                }
+                return;
+            }
+            while (c >= 0 && c != '>') {
+                c = read();
+            }
+        }
+
+        private int read() throws IOException {
+            if (pushedBack >= 0) {
+                int c = pushedBack;
+                pushedBack = -1;
+                return c;
+            }
+            if (position == limit) {
+                limit = in.read(buffer, 0, buffer.length);
+                position = 0;
+                if (limit <= 0) {
+                    limit = 0;
+                    return -1;
+                }
+            }
+            return buffer[position++];
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package it.r2u.animar2u.core.storage;
+
+import it.r2u.animar2u.core.util.RecordCodec;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The unfinished data of a download and the sidecar that makes it resumable.
+ * Bytes go to {@code name.part} next to the target file. The sidecar
+ * {@code name.part.meta} is a one-record file holding the URL, the validator the
+ * server sent (ETag or Last-Modified), the total length and the byte ranges of
+ * the part file that have been forced to disk. Downloads over several
+ * connections fill the file out of order, so there can be more than one range.
+ * The sidecar is replaced atomically, so after a crash it never claims more than
+ * what is on disk.
+ */
+final class PartFile {
+
+    private static final int MAGIC = 0x41445053;
+    private static final int VERSION = 2;
+
+    private final Path target;
+    private String url;
+    private String etag;
+    private String lastModified;
+    private long length = -1;
+    // Sorted, disjoint and not touching: {start, end} with end exclusive
+    private List<long[]> confirmed = new ArrayList<>();
+
+    PartFile(Path target, String url) {
+        this.target = target;
+        this.url = url;
+    }
+
+    /**
+     * Read the sidecar of a download to {@code target}
+     * @return the saved state, or null if there is none or it is unreadable
+     */
+    static PartFile read(Path target) {
+        PartFile part = new PartFile(target, null);
+        try (FileChannel channel = FileChannel.open(sidecarPath(target), StandardOpenOption.READ)) {
+            RecordCodec.decodeRecords(channel, MAGIC, VERSION, record -> {
+                part.url = RecordCodec.readString(record);
+                part.etag = emptyToNull(RecordCodec.readString(record));
+                part.lastModified = emptyToNull(RecordCodec.readString(record));
+                part.length = RecordCodec.readVarLong(record) - 1;
+                long count = RecordCodec.readVarLong(record);
+                long end = 0;
+                for (long i = 0; i < count; i++) {
+                    long start = end + RecordCodec.readVarLong(record);
+                    end = start + RecordCodec.readVarLong(record);
+                    part.confirmed.add(new long[] {start, end});
+                }
+                return false;
+            });
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            System.err.println("Failed to read " + sidecarPath(target) + ": " + e.getMessage());
+            return null;
+        }
+        return part.url == null ? null : part;
+    }
+
+    static Path partPath(Path target) {
+        return target.resolveSibling(target.getFileName() + ".part");
+    }
+
+    static Path sidecarPath(Path target) {
+        return target.resolveSibling(target.getFileName() + ".part.meta");
+    }
+
+    Path getPartPath() {
+        return partPath(target);
+    }
+
+    String getUrl() {
+        return url;
+    }
+
+    long getLength() {
+        return length;
+    }
+
+    /**
+     * Whether no data has been confirmed yet
+     */
+    boolean isEmpty() {
+        return confirmed.isEmpty();
+    }
+
+    /**
+     * Bytes confirmed on disk
+     */
+    long getConfirmedSize() {
+        long size = 0;
+        for (long[] range : confirmed) {
+            size += range[1] - range[0];
+        }
+        return size;
+    }
+
+    /**
+     * End of the last confirmed byte range, or 0 when nothing is confirmed
+     */
+    long getConfirmedEnd() {
+        return confirmed.isEmpty() ? 0 : confirmed.get(confirmed.size() - 1)[1];
+    }
+
+    /**
+     * The confirmed byte ranges as {start, end} pairs
+     */
+    List<long[]> getConfirmed() {
+        return new ArrayList<>(confirmed);
+    }
+
+    /**
+     * The byte ranges still missing, in order; the last one ends at
+     * Long.MAX_VALUE when the length is unknown
+     */
+    List<long[]> getGaps() {
+        long end = length >= 0 ? length : Long.MAX_VALUE;
+        List<long[]> gaps = new ArrayList<>();
+        long at = 0;
+        for (long[] range : confirmed) {
+            if (range[0] > at) {
+                gaps.add(new long[] {at, range[0]});
+            }
+            at = range[1];
+        }
+        if (at < end) {
+            gaps.add(new long[] {at, end});
+        }
+        return gaps;
+    }
+
+    /**
+     * The value for If-Range: a strong ETag, else Last-Modified, else null when
+     * the server gave nothing that can tell whether the file changed
+     */
+    String getValidator() {
+        if (etag != null && !etag.startsWith("W/")) {
+            return etag;
+        }
+        return lastModified;
+    }
+
+    /**
+     * Start over with the validators and length of a fresh response
+     */
+    void reset(String etag, String lastModified, long length) {
+        this.etag = etag;
+        this.lastModified = lastModified;
+        this.length = length;
+        this.confirmed = new ArrayList<>();
+    }
+
+    /**
+     * Save the sidecar as it is, before any data is written
+     */
+    void save() throws IOException {
+        write();
+    }
+
+    /**
+     * Record that the given {start, end} ranges are on disk, replacing the
+     * ranges confirmed before
+     */
+    void confirm(List<long[]> ranges) throws IOException {
+        List<long[]> merged = new ArrayList<>();
+        List<long[]> sorted = new ArrayList<>(ranges);
+        sorted.sort(Comparator.comparingLong(range -> range[0]));
+        for (long[] range : sorted) {
+            long[] last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+            if (range[1] <= range[0]) {
+                continue;
+            }
+            if (last != null && range[0] <= last[1]) {
+                last[1] = Math.max(last[1], range[1]);
+            } else {
+                merged.add(new long[] {range[0], range[1]});
+            }
+        }
+        confirmed = merged;
+        write();
+    }
+
+    /**
+     * Delete the part file and its sidecar
+     */
+    void delete() {
+        deleteQuietly(sidecarPath(target));
+        deleteQuietly(partPath(target));
+    }
+
+    /**
+     * Move the finished part file to the target and drop the sidecar
+     */
+    void complete() throws IOException {
+        Files.move(partPath(target), target, StandardCopyOption.REPLACE_EXISTING);
+        deleteQuietly(sidecarPath(target));
+    }
+
+    private void write() throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(128);
+        RecordCodec.writeString(body, url);
+        RecordCodec.writeString(body, etag == null ? "" : etag);
+        RecordCodec.writeString(body, lastModified == null ? "" : lastModified);
+        RecordCodec.writeVarLong(body, length + 1);
+        // Each range as its distance from the previous end and its size
+        RecordCodec.writeVarLong(body, confirmed.size());
+        long end = 0;
+        for (long[] range : confirmed) {
+            RecordCodec.writeVarLong(body, range[0] - end);
+            RecordCodec.writeVarLong(body, range[1] - range[0]);
+            end = range[1];
+        }
+        ByteArrayOutputStream frame = new ByteArrayOutputStream(body.size() + 8);
+        RecordCodec.appendFrame(frame, body.toByteArray());
+
+        Path sidecar = sidecarPath(target);
+        Path temp = sidecar.resolveSibling(sidecar.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            RecordCodec.writeHeader(channel, MAGIC, VERSION, 0);
+            RecordCodec.writeFully(channel, ByteBuffer.wrap(frame.toByteArray()));
+            channel.force(false);
+        }
+        Files.move(temp, sidecar, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String emptyToNull(String value) {
+        return value.isEmpty() ? null : value;
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            System.err.println("Failed to delete " + path + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,434 @@
+package it.r2u.animar2u.core.storage;
+
+import it.r2u.animar2u.core.util.RecordCodec;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Small embedded key/value store for profile data such as bookmarks and downloads.
+ *
+ * Values are opaque byte arrays grouped in named collections. The durable state
+ * is a snapshot file plus a write-ahead log of changes made since it was taken.
+ * Changes are applied in memory and queued; a committer thread appends everything
+ * queued with one write and one fsync, so a burst of edits costs a single sync
+ * (group commit). Once the log outgrows the snapshot, a new snapshot is written
+ * to a temporary file, fsynced and renamed over the old one, and the log starts
+ * over. Recovery loads the snapshot and replays the log up to its last intact
+ * record, so a torn final record is dropped.
+ *
+ * A commit that fails is retried with growing delays: the log is reopened and
+ * cut back to the end of the last good commit before the batch is written
+ * again, so a partly written batch never stays in the log. Until a retry
+ * succeeds, {@link #flush()} throws the last failure.
+ */
+public class ProfileStore implements AutoCloseable {
+
+    private static final int SNAPSHOT_MAGIC = 0x4150534E;
+    private static final int LOG_MAGIC = 0x4150574C;
+    private static final int VERSION = 1;
+    private static final String SNAPSHOT_FILE = "profile.snapshot";
+    private static final long COMMIT_DELAY_MILLIS = 5;
+    private static final long MIN_COMPACT_BYTES = 4L << 20;
+    private static final long MIN_RETRY_MILLIS = 100;
+    private static final long MAX_RETRY_MILLIS = 30_000;
+
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+    private static final byte CLEAR = 3;
+
+    private final Path directory;
+    private final Map<String, Map<String, byte[]>> collections = new HashMap<>();
+    private final Thread committer;
+    private ByteArrayOutputStream queued = new ByteArrayOutputStream();
+    private long queuedCount;
+    private long committedCount;
+    private long snapshotBytes;
+    private long generation;
+    private FileChannel log;
+    private long logEnd;
+    private boolean closed;
+    private IOException failure;
+
+    private ProfileStore(Path directory) {
+        this.directory = directory;
+        this.committer = new Thread(this::commitLoop, "anima-profile-store");
+        committer.setDaemon(true);
+    }
+
+    /**
+     * Open or create a store in the given directory, recovering its contents
+     */
+    public static ProfileStore open(Path directory) throws IOException {
+        ProfileStore store = new ProfileStore(directory);
+        store.recover();
+        store.committer.start();
+        return store;
+    }
+
+    /**
+     * Get a copy of a collection's current contents
+     */
+    public synchronized Map<String, byte[]> load(String collection) {
+        Map<String, byte[]> values = collections.get(collection);
+        return values != null ? new LinkedHashMap<>(values) : new LinkedHashMap<>();
+    }
+
+    /**
+     * Store a value; it becomes durable with the next group commit
+     */
+    public synchronized void put(String collection, String key, byte[] value) {
+        collections.computeIfAbsent(collection, name -> new LinkedHashMap<>()).put(key, value);
+        enqueue(encode(PUT, collection, key, value));
+    }
+
+    /**
+     * Remove a value; it becomes durable with the next group commit
+     */
+    public synchronized void remove(String collection, String key) {
+        Map<String, byte[]> values = collections.get(collection);
+        if (values != null && values.remove(key) != null) {
+            enqueue(encode(REMOVE, collection, key, null));
+        }
+    }
+
+    /**
+     * Remove every value in a collection
+     */
+    public synchronized void clear(String collection) {
+        if (collections.remove(collection) != null) {
+            enqueue(encode(CLEAR, collection, null, null));
+        }
+    }
+
+    /**
+     * Wait until every change made before this call is on disk
+     * @throws IOException if the last commit failed and has not been retried successfully yet
+     */
+    public synchronized void flush() throws IOException {
+        long target = queuedCount;
+        while (committedCount < target && failure == null && !closed) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while flushing profile store", e);
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Commit pending changes and close the store. A failing commit gets one
+     * more attempt; if that fails too, the changes it held are lost.
+     * @throws IOException if pending changes could not be committed
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        try {
+            committer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (log != null) {
+            log.close();
+        }
+        synchronized (this) {
+            if (committedCount < queuedCount) {
+                throw failure != null ? failure : new IOException("Profile store closed before committing");
+            }
+        }
+    }
+
+    private void enqueue(byte[] record) {
+        if (closed) {
+            System.err.println("Profile store is closed, dropping change");
+            return;
+        }
+        RecordCodec.appendFrame(queued, record);
+        queuedCount++;
+        notifyAll();
+    }
+
+    // Group commit
+
+    private void commitLoop() {
+        long retryMillis = MIN_RETRY_MILLIS;
+        while (true) {
+            ByteArrayOutputStream batch;
+            long batchEnd;
+            boolean retrying;
+            synchronized (this) {
+                while (queued.size() == 0 && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (queued.size() == 0) {
+                    return;
+                }
+                retrying = failure != null;
+            }
+            // Let the rest of a burst of edits join this commit
+            if (!retrying) {
+                try {
+                    Thread.sleep(COMMIT_DELAY_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            synchronized (this) {
+                batch = queued;
+                batchEnd = queuedCount;
+                queued = new ByteArrayOutputStream();
+            }
+            try {
+                if (log == null) {
+                    log = reopenLog();
+                }
+                RecordCodec.writeFully(log, ByteBuffer.wrap(batch.toByteArray()));
+                log.force(false);
+                logEnd = log.position();
+            } catch (IOException e) {
+                System.err.println("Failed to commit profile changes, retrying in " + retryMillis + " ms: "
+                    + e.getMessage());
+                closeLog();
+                synchronized (this) {
+                    // Put the batch back ahead of anything queued since
+                    batch.writeBytes(queued.toByteArray());
+                    queued = batch;
+                    failure = e;
+                    notifyAll();
+                    if (closed || !awaitRetry(retryMillis)) {
+                        return;
+                    }
+                }
+                retryMillis = Math.min(retryMillis * 2, MAX_RETRY_MILLIS);
+                continue;
+            }
+            retryMillis = MIN_RETRY_MILLIS;
+            synchronized (this) {
+                committedCount = batchEnd;
+                failure = null;
+                notifyAll();
+            }
+            if (logEnd > Math.max(MIN_COMPACT_BYTES, snapshotBytes)) {
+                try {
+                    compact();
+                } catch (IOException e) {
+                    // The log still holds everything, so the next commit just tries again
+                    System.err.println("Failed to compact profile store: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Wait before retrying a failed commit; closing the store cuts the wait short
+     * @return false if the committer was interrupted
+     */
+    private boolean awaitRetry(long millis) {
+        long deadline = System.nanoTime() + millis * 1_000_000;
+        long remaining;
+        while (!closed && (remaining = deadline - System.nanoTime()) > 0) {
+            try {
+                wait(Math.max(1, remaining / 1_000_000));
+            } catch (InterruptedException e) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Replace the snapshot with the current state and start a new log.
+     * Runs on the committer thread right after a commit, so the log holds
+     * exactly the changes the snapshot is taken from.
+     */
+    private void compact() throws IOException {
+        ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+        synchronized (this) {
+            for (Map.Entry<String, Map<String, byte[]>> collection : collections.entrySet()) {
+                for (Map.Entry<String, byte[]> entry : collection.getValue().entrySet()) {
+                    RecordCodec.appendFrame(snapshot, encode(PUT, collection.getKey(), entry.getKey(), entry.getValue()));
+                }
+            }
+            // Changes queued since the last commit are in this snapshot and will also go to the
+            // new log; replaying them again is harmless since every record overwrites its target
+        }
+
+        long nextGeneration = generation + 1;
+        Path temp = directory.resolve(SNAPSHOT_FILE + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            RecordCodec.writeHeader(channel, SNAPSHOT_MAGIC, VERSION, nextGeneration);
+            RecordCodec.writeFully(channel, ByteBuffer.wrap(snapshot.toByteArray()));
+            channel.force(true);
+        }
+        Files.move(temp, directory.resolve(SNAPSHOT_FILE),
+            StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        // The renamed snapshot names the new log, so the old one is no longer needed
+        long previous = generation;
+        generation = nextGeneration;
+        snapshotBytes = RecordCodec.HEADER_SIZE + snapshot.size();
+        logEnd = RecordCodec.HEADER_SIZE;
+        closeLog();
+        log = reopenLog();
+        Files.deleteIfExists(logPath(previous));
+    }
+
+    /**
+     * Open the current log for appending after a failure, dropping anything past the last commit
+     */
+    private FileChannel reopenLog() throws IOException {
+        FileChannel channel = FileChannel.open(logPath(generation),
+            StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            if (channel.size() < RecordCodec.HEADER_SIZE) {
+                channel.truncate(0);
+                RecordCodec.writeHeader(channel, LOG_MAGIC, VERSION, generation);
+                channel.force(true);
+                logEnd = RecordCodec.HEADER_SIZE;
+            }
+            logEnd = Math.min(logEnd, channel.size());
+            channel.truncate(logEnd);
+            channel.position(logEnd);
+            return channel;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private void closeLog() {
+        if (log == null) {
+            return;
+        }
+        try {
+            log.close();
+        } catch (IOException e) {
+            System.err.println("Failed to close profile log: " + e.getMessage());
+        }
+        log = null;
+    }
+
+    // Recovery
+
+    private void recover() throws IOException {
+        Files.createDirectories(directory);
+        Path snapshot = directory.resolve(SNAPSHOT_FILE);
+        if (Files.exists(snapshot)) {
+            try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+                long end = RecordCodec.decodeRecords(channel, SNAPSHOT_MAGIC, VERSION, this::apply);
+                if (end < 0) {
+                    throw new IOException("Unreadable profile snapshot: " + snapshot);
+                }
+                if (end < channel.size()) {
+                    // Snapshots are renamed into place complete, so this is damage rather than a torn write
+                    System.err.println("Profile snapshot is damaged after byte " + end + ", keeping what was readable");
+                }
+                generation = RecordCodec.readHeaderBase(channel);
+                snapshotBytes = channel.size();
+            }
+        }
+        Files.deleteIfExists(directory.resolve(SNAPSHOT_FILE + ".tmp"));
+        deleteStaleLogs();
+        log = openLog(generation);
+        logEnd = log.position();
+    }
+
+    /**
+     * Open the log for a generation, replaying its records and cutting off a torn tail
+     */
+    private FileChannel openLog(long logGeneration) throws IOException {
+        Path path = logPath(logGeneration);
+        FileChannel channel = FileChannel.open(path,
+            StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long end = channel.size() == 0 ? -1 : RecordCodec.decodeRecords(channel, LOG_MAGIC, VERSION, this::apply);
+        if (end < 0) {
+            channel.truncate(0);
+            RecordCodec.writeHeader(channel, LOG_MAGIC, VERSION, logGeneration);
+            channel.force(true);
+            end = RecordCodec.HEADER_SIZE;
+        } else if (end < channel.size()) {
+            System.err.println("Dropping torn profile log tail at byte " + end + " of " + path);
+            channel.truncate(end);
+        }
+        channel.position(end);
+        return channel;
+    }
+
+    private void deleteStaleLogs() throws IOException {
+        try (DirectoryStream<Path> logs = Files.newDirectoryStream(directory, "profile-*.log")) {
+            for (Path path : logs) {
+                if (!path.equals(logPath(generation))) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+
+    private Path logPath(long logGeneration) {
+        return directory.resolve("profile-" + logGeneration + ".log");
+    }
+
+    private boolean apply(ByteBuffer record) {
+        byte type = record.get();
+        String collection = RecordCodec.readString(record);
+        if (type == CLEAR) {
+            collections.remove(collection);
+            return true;
+        }
+        String key = RecordCodec.readString(record);
+        if (type == REMOVE) {
+            Map<String, byte[]> values = collections.get(collection);
+            if (values != null) {
+                values.remove(key);
+            }
+            return true;
+        }
+        if (type == PUT) {
+            long length = RecordCodec.readVarLong(record);
+            if (length < 0 || length > record.remaining()) {
+                return false;
+            }
+            byte[] value = new byte[(int) length];
+            record.get(value);
+            collections.computeIfAbsent(collection, name -> new LinkedHashMap<>()).put(key, value);
+            return true;
+        }
+        return false;
+    }
+
+    private static byte[] encode(byte type, String collection, String key, byte[] value) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(32 + (value != null ? value.length : 0));
+        body.write(type);
+        RecordCodec.writeString(body, collection);
+        if (key != null) {
+            RecordCodec.writeString(body, key);
+        }
+        if (value != null) {
+            RecordCodec.writeVarLong(body, value.length);
+            body.write(value, 0, value.length);
+        }
+        return body.toByteArray();
+    }
+}
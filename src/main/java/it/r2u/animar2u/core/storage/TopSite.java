@@ -0,0 +1,29 @@
+package it.r2u.animar2u.core.storage;
+
+/**
+ * Represents a site ranked by visits aggregated over all of its pages
+ */
+public class TopSite {
+    private final String host;
+    private final String url;
+    private final String title;
+    private final long visitCount;
+    
+    public TopSite(String host, String url, String title, long visitCount) {
+        this.host = host;
+        this.url = url;
+        this.title = title;
+        this.visitCount = visitCount;
+    }
+    
+    // Getters
+    public String getHost() { return host; }
+    public String getUrl() { return url; }
+    public String getTitle() { return title; }
+    public long getVisitCount() { return visitCount; }
+    
+    @Override
+    public String toString() {
+        return title + " - " + host + " (" + visitCount + " visits)";
+    }
+}
@@ -1,116 +1,235 @@
 package it.r2u.animar2u.core.tab_management;
 
+import javafx.application.Platform;
 import javafx.beans.value.ChangeListener;
 import javafx.beans.value.ObservableValue;
 import javafx.concurrent.Worker;
 import javafx.scene.Node;
+import javafx.scene.SnapshotParameters;
+import javafx.scene.control.Label;
+import javafx.scene.image.ImageView;
+import javafx.scene.image.WritableImage;
+import javafx.scene.layout.StackPane;
+import javafx.scene.transform.Transform;
 import javafx.scene.web.WebEngine;
+import javafx.scene.web.WebHistory;
 import javafx.scene.web.WebView;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import it.r2u.animar2u.core.storage.DownloadClassifier;
 import it.r2u.animar2u.ui.controllers.MainBrowserController;
-import it.r2u.animar2u.media.MediaCodecManager;
 import it.r2u.animar2u.media.VideoStreamingOptimizer;
 
 /**
- * Represents a browser tab with WebView functionality
+ * Represents a browser tab with WebView functionality.
+ * The web engine cannot save files, so navigations to them are handed to the
+ * download manager: links whose extension marks a file are caught as soon as the
+ * location changes, and loads the engine abandons because it cannot show the
+ * response are checked and downloaded afterwards. Only loads the engine gave
+ * up on by itself are checked, not failed connections or loads stopped by the
+ * user, and not form posts, whose request cannot be sent again.
+ *
+ * A background tab can hibernate: its WebView and engine are dropped and the
+ * tab keeps only its URL, title, scroll position and a small thumbnail taken
+ * as it hibernates. The thumbnail stands in for the page while it loads again
+ * on {@link #restore}.
+ *
+ * A tab restored from a saved session starts out the same way, with only a
+ * placeholder. The web engine's history cannot be filled in, so back and
+ * forward entries from a saved session or from before hibernation are kept on
+ * the tab, and stepping onto one loads it in a fresh engine.
  */
 public class BrowserTab {
     
+    private static final double THUMBNAIL_WIDTH = 320;
+    // Notes the target of a form posted from the page, which a check for a file must not send again
+    private static final String POST_SCRIPT =
+        "(function () {" +
+        "  if (window.__animaPosts) { return; }" +
+        "  window.__animaPosts = true;" +
+        "  function note(form) {" +
+        "    if (String(form.method).toLowerCase() === 'post') { window.__animaPosted = form.action; }" +
+        "  }" +
+        "  document.addEventListener('submit', function (event) { note(event.target); }, true);" +
+        "  var submit = HTMLFormElement.prototype.submit;" +
+        "  HTMLFormElement.prototype.submit = function () { note(this); return submit.apply(this, arguments); };" +
+        "})()";
+    // What the engine reports for failures other than a network error
+    private static final String UNKNOWN_ERROR = "Unknown error";
+    
+    // Both null while hibernating
     private WebView webView;
     private WebEngine webEngine;
+    // Holds the WebView, or the placeholder while hibernating, so the tab's content node never changes
+    private final StackPane container = new StackPane();
+    private Node placeholder;
+    private WritableImage thumbnail;
+    private double scrollX;
+    private double scrollY;
+    private long lastActive = System.currentTimeMillis();
+    // Whether the tab is the one shown; only that one reports status and progress
+    private boolean shown;
+    private final String id;
+    // Entries the engine does not hold: savedBack ends just before its first
+    // entry and savedForward follows its last
+    private final List<TabState.Entry> savedBack = new ArrayList<>();
+    private final List<TabState.Entry> savedForward = new ArrayList<>();
+    private Runnable changeListener;
+    private Runnable loadListener;
     private String title;
     private String currentUrl;
     private MainBrowserController controller;
+    // Where WebViews come from, or null to create them here
+    private final WebViewPool pool;
+    // Whether the tab or the user cancelled the current load, so that is not taken for a file
+    private boolean stoppedByTab;
+    // A URL that looked like a file but turned out to be a page, let through once
+    private String allowedUrl;
     
     /**
      * Creates a new browser tab
      * @param controller The main browser controller
      */
     public BrowserTab(MainBrowserController controller) {
+        this(controller, (WebViewPool) null);
+    }
+    
+    /**
+     * Creates a new browser tab with a WebView from a pool
+     * @param controller The main browser controller
+     * @param pool Ready WebViews, or null to create one
+     */
+    public BrowserTab(MainBrowserController controller, WebViewPool pool) {
         this.controller = controller;
+        this.pool = pool;
+        this.id = UUID.randomUUID().toString();
         this.title = "New Tab";
         this.currentUrl = "";
         
-        // Initialize WebView and WebEngine
-        webView = new WebView();
-        webEngine = webView.getEngine();
-        
-        // Configure web engine
-        configureWebEngine();
-        
-        // Setup event handlers
-        setupEventHandlers();
+        createWebView();
+        container.getChildren().add(webView);
     }
     
     /**
-     * Configure the WebEngine with optimal settings
+     * Creates a tab from a saved session, showing a placeholder until it is restored
+     * @param controller The main browser controller
+     * @param state The saved tab
+     * @param pool Ready WebViews for when it is restored, or null to create one
      */
-    private void configureWebEngine() {
-        // Configure WebView for optimal media playback
-        MediaCodecManager.configureWebViewForMedia(webView);
-        
-        // Apply video streaming optimizations
-        VideoStreamingOptimizer.optimizeForVideoStreaming(webView);
-        
-        // Enable JavaScript (already done in MediaCodecManager, but keeping for clarity)
-        webEngine.setJavaScriptEnabled(true);
+    public BrowserTab(MainBrowserController controller, TabState state, WebViewPool pool) {
+        this.controller = controller;
+        this.pool = pool;
+        this.id = state.getId();
+        this.title = state.getTitle() != null && !state.getTitle().isEmpty() ? state.getTitle() : "New Tab";
+        applyState(state, state.getIndex());
+        placeholder = createPlaceholder();
+        container.getChildren().add(placeholder);
+    }
+    
+    private void createWebView() {
+        // Initialize WebView and WebEngine, already configured for media
+        webView = pool != null ? pool.take() : WebViewPool.newWebView();
+        webEngine = webView.getEngine();
         
-        // User agent is set by VideoStreamingOptimizer for optimal compatibility
+        // Setup event handlers
+        setupEventHandlers(webEngine);
     }
     
     /**
-     * Setup event handlers for tab functionality
+     * Setup event handlers for tab functionality; events of an engine the tab
+     * has since dropped are ignored
      */
-    private void setupEventHandlers() {
+    private void setupEventHandlers(WebEngine engine) {
         // Location change listener
-        webEngine.locationProperty().addListener(new ChangeListener<String>() {
+        engine.locationProperty().addListener(new ChangeListener<String>() {
             @Override
             public void changed(ObservableValue<? extends String> observable, 
                               String oldValue, String newValue) {
+                if (engine != webEngine) {
+                    return;
+                }
+                if (newValue != null && newValue.equals(allowedUrl)) {
+                    allowedUrl = null;
+                } else if (isWebUrl(newValue) &&
+                           DownloadClassifier.byUrl(newValue) == DownloadClassifier.Kind.DOWNLOAD) {
+                    // Stop the engine before it fetches the file and stay on the page
+                    Platform.runLater(() -> {
+                        if (engine != webEngine || !newValue.equals(engine.getLocation())) {
+                            // Already navigated somewhere else
+                            return;
+                        }
+                        cancelLoad();
+                        currentUrl = pageUrl();
+                        controller.updateUIForTab(BrowserTab.this);
+                        controller.downloadFromTab(BrowserTab.this, newValue, true);
+                    });
+                    return;
+                }
                 currentUrl = newValue != null ? newValue : "";
+                if (engine.getHistory().getEntries().size() > 1) {
+                    // Navigated on from the first page, which replaces what was forward of it
+                    savedForward.clear();
+                }
                 controller.updateUIForTab(BrowserTab.this);
+                stateChanged();
             }
         });
         
         // Title change listener
-        webEngine.titleProperty().addListener(new ChangeListener<String>() {
+        engine.titleProperty().addListener(new ChangeListener<String>() {
             @Override
             public void changed(ObservableValue<? extends String> observable,
                               String oldValue, String newValue) {
+                if (engine != webEngine) {
+                    return;
+                }
                 title = newValue != null && !newValue.isEmpty() ? newValue : "Untitled";
                 controller.updateUIForTab(BrowserTab.this);
+                stateChanged();
             }
         });
         
         // Loading progress listener
-        webEngine.getLoadWorker().progressProperty().addListener(
+        engine.getLoadWorker().progressProperty().addListener(
             new ChangeListener<Number>() {
                 @Override
                 public void changed(ObservableValue<? extends Number> observable,
                                   Number oldValue, Number newValue) {
+                    if (engine != webEngine || !shown) {
+                        return;
+                    }
                     controller.updateProgress(newValue.doubleValue());
                 }
             }
         );
         
         // Loading state listener
-        webEngine.getLoadWorker().stateProperty().addListener(
+        engine.getLoadWorker().stateProperty().addListener(
             new ChangeListener<Worker.State>() {
                 @Override
                 public void changed(ObservableValue<? extends Worker.State> observable,
                                   Worker.State oldState, Worker.State newState) {
+                    if (engine != webEngine) {
+                        return;
+                    }
                     switch (newState) {
                         case READY:
-                            controller.updateStatus("Ready");
+                            showStatus("Ready");
                             break;
                         case SCHEDULED:
-                            controller.updateStatus("Scheduled");
+                            stoppedByTab = false;
+                            showStatus("Scheduled");
                             break;
                         case RUNNING:
-                            controller.updateStatus("Loading...");
+                            showStatus("Loading...");
                             break;
                         case SUCCEEDED:
-                            controller.updateStatus("Ready");
-                            controller.updateProgress(-1); // Hide progress bar
+                            showStatus("Ready");
+                            executeScript(POST_SCRIPT);
+                            controller.markVisitedLinks(BrowserTab.this);
+                            revealRestored(true);
+                            loaded();
                             
                             // Apply additional optimizations for video platforms
                             if (VideoStreamingOptimizer.isVideoStreamingPlatform(currentUrl)) {
@@ -119,12 +238,22 @@ public class BrowserTab {
                             }
                             break;
                         case FAILED:
-                            controller.updateStatus("Failed to load page");
-                            controller.updateProgress(-1); // Hide progress bar
+                            showStatus("Failed to load page");
+                            revealRestored(false);
+                            loaded();
+                            // Unknown errors include responses the engine could not show
+                            Throwable error = engine.getLoadWorker().getException();
+                            if (error == null || UNKNOWN_ERROR.equals(error.getMessage())) {
+                                checkForFile(engine, newState);
+                            }
                             break;
                         case CANCELLED:
-                            controller.updateStatus("Loading cancelled");
-                            controller.updateProgress(-1); // Hide progress bar
+                            showStatus("Loading cancelled");
+                            revealRestored(false);
+                            loaded();
+                            if (!stoppedByTab) {
+                                checkForFile(engine, newState);
+                            }
                             break;
                     }
                 }
@@ -132,27 +261,122 @@ public class BrowserTab {
         );
         
         // Alert handler (JavaScript alerts)
-        webEngine.setOnAlert(event -> {
+        engine.setOnAlert(event -> {
             // Show JavaScript alert in console (placeholder implementation)
             System.out.println("JavaScript Alert: " + event.getData());
         });
         
         // Confirm handler (JavaScript confirms)
-        webEngine.setConfirmHandler(message -> {
+        engine.setConfirmHandler(message -> {
             // Show JavaScript confirm in console and return true (placeholder implementation)
             System.out.println("JavaScript Confirm: " + message);
             return true; // Default to OK
         });
         
         // Error handler
-        webEngine.setOnError(event -> {
+        engine.setOnError(event -> {
             System.err.println("WebEngine Error: " + event.getMessage());
             controller.updateStatus("Error loading content");
         });
     }
     
+    /**
+     * Report a load state in the status bar if this tab is shown; the progress
+     * bar hides once the load has ended
+     */
+    private void showStatus(String message) {
+        if (!shown) {
+            return;
+        }
+        controller.updateStatus(message);
+        Worker.State state = webEngine.getLoadWorker().getState();
+        if (state == Worker.State.SUCCEEDED || state == Worker.State.FAILED ||
+            state == Worker.State.CANCELLED) {
+            controller.updateProgress(-1); // Hide progress bar
+        }
+    }
+    
+    private void stateChanged() {
+        if (changeListener != null) {
+            changeListener.run();
+        }
+    }
+    
+    private void loaded() {
+        if (loadListener != null) {
+            loadListener.run();
+        }
+    }
+    
+    /**
+     * Listen for changes worth saving and for loads that end
+     */
+    void setListeners(Runnable changeListener, Runnable loadListener) {
+        this.changeListener = changeListener;
+        this.loadListener = loadListener;
+    }
+    
+    /**
+     * The engine gives up on responses it cannot show; ask the download
+     * manager whether the URL is a file. Runs once the state change is over, so
+     * a load the engine abandoned for a new navigation is not checked.
+     */
+    private void checkForFile(WebEngine engine, Worker.State endedIn) {
+        String location = engine.getLocation();
+        if (!isWebUrl(location)) {
+            return;
+        }
+        Platform.runLater(() -> {
+            if (engine != webEngine || engine.getLoadWorker().getState() != endedIn ||
+                !location.equals(engine.getLocation())) {
+                return;
+            }
+            Object posted = executeScript(
+                "(function () { var posted = window.__animaPosted; delete window.__animaPosted; return posted; })()");
+            // File links were already caught when the location changed
+            if (location.equals(posted) ||
+                DownloadClassifier.byUrl(location) == DownloadClassifier.Kind.DOWNLOAD) {
+                return;
+            }
+            currentUrl = pageUrl();
+            controller.updateUIForTab(this);
+            controller.downloadFromTab(this, location, false);
+        });
+    }
+    
+    private void cancelLoad() {
+        stoppedByTab = true;
+        webEngine.getLoadWorker().cancel();
+    }
+    
+    /**
+     * URL of the page shown, which stays when a load is abandoned
+     */
+    private String pageUrl() {
+        WebHistory history = webEngine.getHistory();
+        int index = history.getCurrentIndex();
+        if (index >= 0 && index < history.getEntries().size()) {
+            return history.getEntries().get(index).getUrl();
+        }
+        return "";
+    }
+    
+    private static boolean isWebUrl(String url) {
+        return url != null && (url.startsWith("http://") || url.startsWith("https://"));
+    }
+    
     // Navigation methods
     
+    /**
+     * Load a URL that looked like a file but is a page, without handing it to
+     * the download manager again
+     * @param url The URL to load
+     */
+    public void showPage(String url) {
+        allowedUrl = url;
+        load(url);
+    }
+    
     /**
      * Navigate to a URL
      * @param url The URL to navigate to
@@ -163,7 +387,7 @@ public class BrowserTab {
             if (!url.contains("://")) {
                 url = "https://" + url;
             }
-            webEngine.load(url);
+            load(url);
         }
     }
     
@@ -171,10 +395,11 @@ public class BrowserTab {
      * Go back in history
      */
     public void goBack() {
-        try {
+        if (webEngine != null && webEngine.getHistory().getCurrentIndex() > 0) {
             webEngine.getHistory().go(-1);
-        } catch (IndexOutOfBoundsException e) {
-            // No history to go back to
+        } else {
+            // Into the entries kept on the tab
+            step(-1);
         }
     }
     
@@ -182,32 +407,59 @@ public class BrowserTab {
      * Go forward in history
      */
     public void goForward() {
-        try {
+        if (webEngine != null && webEngine.getHistory().getCurrentIndex() <
+            webEngine.getHistory().getEntries().size() - 1) {
             webEngine.getHistory().go(1);
-        } catch (IndexOutOfBoundsException e) {
-            // No history to go forward to
+        } else {
+            step(1);
         }
     }
     
+    /**
+     * Move to an entry kept on the tab rather than in the engine: it is loaded
+     * in a fresh engine, with the rest kept on the tab again
+     */
+    private void step(int offset) {
+        TabState state = getState();
+        int index = state.getIndex() + offset;
+        if (state.getIndex() < 0 || index < 0 || index >= state.getEntries().size()) {
+            return;
+        }
+        dropEngine();
+        container.getChildren().clear();
+        placeholder = null;
+        scrollX = 0;
+        scrollY = 0;
+        applyState(state, index);
+        load(currentUrl);
+        stateChanged();
+    }
+    
     /**
      * Refresh the current page
      */
     public void refresh() {
-        webEngine.reload();
+        if (webEngine == null) {
+            restore();
+        } else {
+            webEngine.reload();
+        }
     }
     
     /**
      * Stop loading the current page
      */
     public void stop() {
-        webEngine.getLoadWorker().cancel();
+        if (webEngine != null) {
+            cancelLoad();
+        }
     }
     
     // Getters
     
     /**
      * Get the WebView node for this tab
-     * @return The WebView node
+     * @return The WebView node, or null while hibernating
      */
     public Node getWebView() {
         return webView;
@@ -231,7 +483,7 @@ public class BrowserTab {
     
     /**
      * Get the WebEngine for this tab
-     * @return The WebEngine instance
+     * @return The WebEngine instance, or null while hibernating
      */
     public WebEngine getWebEngine() {
         return webEngine;
@@ -242,7 +494,7 @@ public class BrowserTab {
      * @return true if can go back
      */
     public boolean canGoBack() {
-        return webEngine.getHistory().getCurrentIndex() > 0;
+        return !savedBack.isEmpty() || (webEngine != null && webEngine.getHistory().getCurrentIndex() > 0);
     }
     
     /**
@@ -250,8 +502,11 @@ public class BrowserTab {
      * @return true if can go forward
      */
     public boolean canGoForward() {
-        return webEngine.getHistory().getCurrentIndex() < 
-               webEngine.getHistory().getEntries().size() - 1;
+        if (webEngine == null) {
+            return !savedForward.isEmpty();
+        }
+        int last = webEngine.getHistory().getEntries().size() - 1;
+        return webEngine.getHistory().getCurrentIndex() < last || (last <= 0 && !savedForward.isEmpty());
     }
     
     /**
@@ -259,7 +514,7 @@ public class BrowserTab {
      * @return true if loading
      */
     public boolean isLoading() {
-        return webEngine.getLoadWorker().getState() == Worker.State.RUNNING;
+        return webEngine != null && webEngine.getLoadWorker().getState() == Worker.State.RUNNING;
     }
     
     /**
@@ -268,6 +523,9 @@ public class BrowserTab {
      * @return The result of the JavaScript execution
      */
     public Object executeScript(String script) {
+        if (webEngine == null) {
+            return null;
+        }
         try {
             return webEngine.executeScript(script);
         } catch (Exception e) {
@@ -277,11 +535,64 @@ public class BrowserTab {
     }
     
     /**
-     * Get the content (WebView node) for this tab
-     * @return The WebView node
+     * Identifies this tab in the saved session
+     * @return The tab id
+     */
+    public String getId() {
+        return id;
+    }
+    
+    /**
+     * What to save of this tab: its title and back/forward entries, both those
+     * in the engine and those kept on the tab
+     * @return The tab's state
+     */
+    public TabState getState() {
+        List<TabState.Entry> entries = new ArrayList<>(savedBack);
+        int index = savedBack.size();
+        WebHistory history = webEngine != null ? webEngine.getHistory() : null;
+        if (history != null && !history.getEntries().isEmpty()) {
+            for (WebHistory.Entry entry : history.getEntries()) {
+                entries.add(new TabState.Entry(entry.getUrl(), entry.getTitle()));
+            }
+            index += history.getCurrentIndex();
+        } else if (!currentUrl.isEmpty()) {
+            // Not loaded, or its first page still loading
+            entries.add(new TabState.Entry(currentUrl, title));
+        } else {
+            index--;
+        }
+        entries.addAll(savedForward);
+        return new TabState(id, title, entries, index);
+    }
+    
+    /**
+     * Keep a saved tab's entries around the one at {@code index}, which becomes
+     * the current page
+     */
+    private void applyState(TabState state, int index) {
+        List<TabState.Entry> entries = state.getEntries();
+        savedBack.clear();
+        savedForward.clear();
+        if (index < 0) {
+            currentUrl = "";
+            return;
+        }
+        savedBack.addAll(entries.subList(0, index));
+        savedForward.addAll(entries.subList(index + 1, entries.size()));
+        TabState.Entry current = entries.get(index);
+        currentUrl = current.getUrl();
+        if (current.getTitle() != null && !current.getTitle().isEmpty()) {
+            title = current.getTitle();
+        }
+    }
+    
+    /**
+     * Get the content for this tab: the page, or its placeholder while hibernating
+     * @return The content node
      */
     public Node getContent() {
-        return webView;
+        return container;
     }
     
     /**
@@ -292,15 +603,189 @@ public class BrowserTab {
         navigateTo(url);
     }
     
+    // Hibernation
+    
+    /**
+     * Whether the page is dropped until the tab is shown again
+     */
+    public boolean isHibernating() {
+        return webEngine == null;
+    }
+    
+    /**
+     * When the tab was last shown, in epoch milliseconds
+     */
+    public long getLastActive() {
+        return lastActive;
+    }
+    
+    /**
+     * The tab is about to be hidden: remember when
+     */
+    void deactivated() {
+        lastActive = System.currentTimeMillis();
+        shown = false;
+    }
+    
+    /**
+     * The tab is shown: bring its page back if it was hibernating
+     */
+    void activated() {
+        lastActive = System.currentTimeMillis();
+        shown = true;
+        restore();
+    }
+    
+    /**
+     * Whether the page of a hibernating or saved tab is loading behind its placeholder
+     */
+    boolean isRestoring() {
+        return webEngine != null && placeholder != null;
+    }
+    
+    /**
+     * Whether dropping the page now would lose something the user would notice:
+     * a load in progress or media playing
+     */
+    boolean isBusy() {
+        if (webEngine == null) {
+            return false;
+        }
+        if (isLoading()) {
+            return true;
+        }
+        Object playing = executeScript(
+            "Array.prototype.some.call(document.querySelectorAll('video,audio'), function (m) { return !m.paused; })");
+        return Boolean.TRUE.equals(playing);
+    }
+    
+    /**
+     * Drop the WebView and its engine, keeping what is needed to load the page again
+     */
+    void hibernate() {
+        if (webEngine == null) {
+            return;
+        }
+        Object scroll = executeScript("window.scrollX + ',' + window.scrollY");
+        if (scroll instanceof String) {
+            String[] position = ((String) scroll).split(",");
+            try {
+                scrollX = Double.parseDouble(position[0]);
+                scrollY = Double.parseDouble(position[1]);
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                scrollX = 0;
+                scrollY = 0;
+            }
+        }
+        thumbnail = takeThumbnail();
+        // The engine's history goes with it, so keep its entries on the tab
+        TabState state = getState();
+        dropEngine();
+        applyState(state, state.getIndex());
+        placeholder = createPlaceholder();
+        container.getChildren().setAll(placeholder);
+    }
+    
+    private void dropEngine() {
+        if (webEngine == null) {
+            return;
+        }
+        WebEngine engine = webEngine;
+        // Listeners ignore the engine from here on
+        webEngine = null;
+        webView = null;
+        engine.getLoadWorker().cancel();
+        engine.load(null);
+    }
+    
+    /**
+     * Load the page of a hibernating tab again; the placeholder stays on top
+     * until the page has loaded
+     */
+    public void restore() {
+        if (webEngine == null) {
+            load(currentUrl);
+        }
+    }
+    
+    /**
+     * Load a URL, first creating the WebView if the tab is hibernating
+     */
+    private void load(String url) {
+        if (webEngine == null) {
+            createWebView();
+            if (placeholder != null) {
+                webView.setVisible(false);
+            }
+            container.getChildren().add(webView);
+            if (url == null || url.isEmpty()) {
+                revealRestored(false);
+                return;
+            }
+        }
+        webEngine.load(url);
+    }
+    
+    /**
+     * Swap the placeholder for the page once it has loaded, back where it was scrolled to
+     */
+    private void revealRestored(boolean loaded) {
+        if (placeholder == null) {
+            return;
+        }
+        container.getChildren().remove(placeholder);
+        placeholder = null;
+        webView.setVisible(true);
+        if (loaded && (scrollX != 0 || scrollY != 0)) {
+            executeScript("window.scrollTo(" + scrollX + ", " + scrollY + ")");
+        }
+        scrollX = 0;
+        scrollY = 0;
+    }
+    
+    /**
+     * The page scaled down to the thumbnail width, or null if it has no size
+     */
+    private WritableImage takeThumbnail() {
+        if (webView.getWidth() <= 0 || webView.getHeight() <= 0) {
+            return null;
+        }
+        double scale = Math.min(1, THUMBNAIL_WIDTH / webView.getWidth());
+        SnapshotParameters parameters = new SnapshotParameters();
+        parameters.setTransform(Transform.scale(scale, scale));
+        return webView.snapshot(parameters, null);
+    }
+    
+    private Node createPlaceholder() {
+        Label label = new Label(title + "\n" + currentUrl);
+        label.setStyle("-fx-font-size: 14px; -fx-text-fill: #666666;");
+        if (thumbnail == null) {
+            StackPane pane = new StackPane(label);
+            pane.setStyle("-fx-background-color: #f8f8f8;");
+            return pane;
+        }
+        ImageView image = new ImageView(thumbnail);
+        // Shown stretched to the page size until the page has loaded again
+        image.fitWidthProperty().bind(container.widthProperty());
+        image.fitHeightProperty().bind(container.heightProperty());
+        image.setSmooth(true);
+        return new StackPane(image);
+    }
+    
     /**
      * Dispose of this tab and clean up resources
      */
     public void dispose() {
         try {
             if (webEngine != null) {
-                webEngine.getLoadWorker().cancel();
-                webEngine.load(null);
+                WebEngine engine = webEngine;
+                cancelLoad();
+                webEngine = null;
+                webView = null;
+                engine.load(null);
             }
+            container.getChildren().clear();
+            thumbnail = null;
         } catch (Exception e) {
             System.err.println("Error disposing tab: " + e.getMessage());
         }
@@ -0,0 +1,198 @@
+package it.r2u.animar2u.core.tab_management;
+
+import it.r2u.animar2u.core.storage.ProfileStore;
+import it.r2u.animar2u.core.util.RecordCodec;
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The open tabs, saved in the profile store so they come back after a restart
+ * or a crash.
+ *
+ * Each tab is one record keyed by its id, holding its title and back/forward
+ * entries; two more hold the tab order and the id of the selected tab. A save
+ * writes only the records that differ from what was last written, so loading a
+ * page rewrites one tab's record and selecting a tab only the selection, rather
+ * than the whole session. The store's log makes every save durable within its
+ * commit delay.
+ */
+public class SessionStore {
+
+    private static final String TABS = "session-tabs";
+    private static final String WINDOW = "session";
+    private static final String ORDER = "order";
+    private static final String SELECTED = "selected";
+    // Back/forward entries kept per tab, centred on the current page
+    static final int MAX_ENTRIES = 50;
+
+    private final ProfileStore store;
+    // Records as last written, so unchanged ones are skipped
+    private final Map<String, byte[]> written = new HashMap<>();
+    private byte[] writtenOrder;
+    private String writtenSelected;
+    private int selectedIndex = -1;
+
+    public SessionStore(ProfileStore store) {
+        this.store = store;
+    }
+
+    /**
+     * Read the saved session. Without a readable order record the tabs come
+     * back in the order the store holds them, and nothing is pruned.
+     * @return the saved tabs in order, empty if there is none
+     */
+    public List<TabState> load() {
+        List<TabState> tabs = new ArrayList<>();
+        Map<String, byte[]> records = store.load(TABS);
+        Map<String, byte[]> window = store.load(WINDOW);
+        byte[] selected = window.get(SELECTED);
+        writtenSelected = selected != null ? new String(selected, StandardCharsets.UTF_8) : null;
+        List<String> ids = readOrder(window.get(ORDER));
+        boolean ordered = ids != null;
+        if (!ordered) {
+            ids = new ArrayList<>(records.keySet());
+        }
+        Set<String> listed = new HashSet<>();
+        for (String id : ids) {
+            byte[] record = records.get(id);
+            if (record == null || listed.contains(id)) {
+                continue;
+            }
+            TabState tab;
+            try {
+                tab = decode(id, record);
+            } catch (BufferUnderflowException | IllegalArgumentException e) {
+                System.err.println("Skipping damaged saved tab: " + e);
+                continue;
+            }
+            listed.add(id);
+            if (id.equals(writtenSelected)) {
+                selectedIndex = tabs.size();
+            }
+            tabs.add(tab);
+            written.put(id, record);
+        }
+        if (ordered) {
+            writtenOrder = window.get(ORDER);
+            // Tabs saved just before a crash that the order never listed
+            for (String id : records.keySet()) {
+                if (!listed.contains(id)) {
+                    store.remove(TABS, id);
+                }
+            }
+        }
+        return tabs;
+    }
+
+    /**
+     * The tab ids of an order record
+     * @return the ids, or null if there is no record or it is unreadable
+     */
+    private static List<String> readOrder(byte[] order) {
+        if (order == null) {
+            return null;
+        }
+        try {
+            ByteBuffer in = ByteBuffer.wrap(order);
+            int count = (int) RecordCodec.readVarLong(in);
+            List<String> ids = new ArrayList<>(Math.min(count, 1024));
+            for (int i = 0; i < count; i++) {
+                ids.add(RecordCodec.readString(in));
+            }
+            return ids;
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            System.err.println("Ignoring damaged tab order: " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Index of the tab selected when the loaded session was saved, or -1
+     */
+    public int getSelectedIndex() {
+        return selectedIndex;
+    }
+
+    /**
+     * Save the session, writing only what changed since the last save
+     * @param tabs the open tabs in order
+     * @param selected index of the selected tab, or -1
+     */
+    public void save(List<TabState> tabs, int selected) {
+        Set<String> open = new HashSet<>();
+        ByteArrayOutputStream order = new ByteArrayOutputStream(8 + tabs.size() * 40);
+        RecordCodec.writeVarLong(order, tabs.size());
+        for (TabState tab : tabs) {
+            open.add(tab.getId());
+            RecordCodec.writeString(order, tab.getId());
+            byte[] record = encode(tab);
+            if (!Arrays.equals(record, written.get(tab.getId()))) {
+                store.put(TABS, tab.getId(), record);
+                written.put(tab.getId(), record);
+            }
+        }
+        // Tab records before the order that lists them, so a crash in between loses nothing
+        byte[] orderRecord = order.toByteArray();
+        if (!Arrays.equals(orderRecord, writtenOrder)) {
+            store.put(WINDOW, ORDER, orderRecord);
+            writtenOrder = orderRecord;
+        }
+        String selectedId = selected >= 0 && selected < tabs.size() ? tabs.get(selected).getId() : null;
+        if (selectedId != null && !selectedId.equals(writtenSelected)) {
+            store.put(WINDOW, SELECTED, selectedId.getBytes(StandardCharsets.UTF_8));
+            writtenSelected = selectedId;
+        }
+        written.keySet().removeIf(id -> {
+            if (open.contains(id)) {
+                return false;
+            }
+            store.remove(TABS, id);
+            return true;
+        });
+    }
+
+    static byte[] encode(TabState tab) {
+        List<TabState.Entry> entries = tab.getEntries();
+        int index = tab.getIndex();
+        int start = 0;
+        int end = entries.size();
+        if (end > MAX_ENTRIES) {
+            start = Math.max(0, Math.min(index - MAX_ENTRIES / 2, end - MAX_ENTRIES));
+            end = start + MAX_ENTRIES;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64 + (end - start) * 80);
+        RecordCodec.writeString(out, tab.getTitle() != null ? tab.getTitle() : "");
+        // Plus one so a tab without a page is 0
+        RecordCodec.writeVarLong(out, index - start + 1);
+        RecordCodec.writeVarLong(out, end - start);
+        for (TabState.Entry entry : entries.subList(start, end)) {
+            RecordCodec.writeString(out, entry.getUrl());
+            RecordCodec.writeString(out, entry.getTitle() != null ? entry.getTitle() : "");
+        }
+        return out.toByteArray();
+    }
+
+    static TabState decode(String id, byte[] record) {
+        ByteBuffer in = ByteBuffer.wrap(record);
+        String title = RecordCodec.readString(in);
+        int index = (int) RecordCodec.readVarLong(in) - 1;
+        int count = (int) RecordCodec.readVarLong(in);
+        if (count < 0 || count > in.remaining()) {
+            throw new IllegalArgumentException("Malformed entry count " + count);
+        }
+        List<TabState.Entry> entries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            entries.add(new TabState.Entry(RecordCodec.readString(in), RecordCodec.readString(in)));
+        }
+        return new TabState(id, title, entries, index);
+    }
+}
@@ -1,17 +1,60 @@
 package it.r2u.animar2u.core.tab_management;
 
 import it.r2u.animar2u.ui.controllers.MainBrowserController;
+import javafx.animation.Animation;
+import javafx.animation.KeyFrame;
+import javafx.animation.PauseTransition;
+import javafx.animation.Timeline;
+import javafx.util.Duration;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
 import java.util.List;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
 
 /**
  * Manages browser tabs lifecycle and operations.
  * Handles creation, closure, and coordination of BrowserTab instances.
+ *
+ * Background tabs hibernate so memory grows with the tabs in use rather than
+ * the tabs open. A periodic sweep hibernates tabs not shown for the idle time,
+ * then the least recently shown ones while more pages are live than the budget
+ * allows, or one per sweep while the heap is nearly full. The selected tab and
+ * tabs loading or playing media are left alone. Selecting a hibernating tab
+ * loads its page again; selecting a tab does not sweep, so switching tabs
+ * stays cheap.
+ *
+ * With a {@link SessionStore} set, the open tabs are saved at most once per
+ * save delay after something changes, and restored at startup as placeholders.
+ * The selected tab loads first; once it has, the tabs nearest to it load in the
+ * background, a few at a time and no more than the live-tab budget, while the
+ * rest wait until they are selected.
+ *
+ * Tabs take their WebViews from a {@link WebViewPool}, so a new tab does not
+ * wait for one to be created.
  */
-public class TabManager {
+public final class TabManager {
+    
+    private static final Duration SWEEP_INTERVAL = Duration.seconds(15);
+    private static final Duration SAVE_DELAY = Duration.seconds(1);
+    private static final int POOL_SIZE = 2;
     
     private MainBrowserController controller;
     private List<BrowserTab> tabs;
+    private BrowserTab selected;
+    private final Timeline sweeper;
+    private long idleMillis = 30 * 60 * 1000L;
+    private int maxLiveTabs = 10;
+    private double heapBudget = 0.85;
+    private SessionStore session;
+    private final PauseTransition saveTimer = new PauseTransition(SAVE_DELAY);
+    // Restored tabs waiting to load in the background, and those loading
+    private final Deque<BrowserTab> restoreQueue = new ArrayDeque<>();
+    private final List<BrowserTab> restoring = new ArrayList<>();
+    private int maxRestoring = 2;
+    private final WebViewPool webViewPool;
     
     /**
      * Creates a new TabManager
@@ -20,6 +63,11 @@ public class TabManager {
     public TabManager(MainBrowserController controller) {
         this.controller = controller;
         this.tabs = new ArrayList<>();
+        this.sweeper = new Timeline(new KeyFrame(SWEEP_INTERVAL, event -> hibernateIdleTabs()));
+        sweeper.setCycleCount(Animation.INDEFINITE);
+        sweeper.play();
+        saveTimer.setOnFinished(event -> saveSession());
+        this.webViewPool = new WebViewPool(POOL_SIZE, () -> selected != null && selected.isLoading());
     }
     
     /**
@@ -27,12 +75,106 @@ public class TabManager {
      * @return newly created BrowserTab
      */
     public BrowserTab createNewTab() {
-        BrowserTab newTab = new BrowserTab(controller);
-        tabs.add(newTab);
+        long started = System.nanoTime();
+        BrowserTab newTab = new BrowserTab(controller, webViewPool);
+        addTab(newTab);
+        webViewPool.newTabCreated(started);
         
         return newTab;
     }
     
+    private void addTab(BrowserTab tab) {
+        tab.setListeners(this::sessionChanged, () -> loadFinished(tab));
+        tabs.add(tab);
+        sessionChanged();
+    }
+    
+    /**
+     * Save the session in this store as tabs change
+     * @param session The session store, or null to stop saving
+     */
+    public void setSessionStore(SessionStore session) {
+        this.session = session;
+    }
+    
+    /**
+     * Create the tabs of the saved session, none of them loaded. Once the
+     * caller has selected one, the tabs nearest to the saved selection load in
+     * the background.
+     * @return the restored tabs in order, empty if there is no saved session
+     */
+    public List<BrowserTab> restoreSession() {
+        List<BrowserTab> restored = new ArrayList<>();
+        if (session == null) {
+            return restored;
+        }
+        for (TabState state : session.load()) {
+            BrowserTab tab = new BrowserTab(controller, state, webViewPool);
+            addTab(tab);
+            restored.add(tab);
+        }
+        int center = Math.max(0, session.getSelectedIndex());
+        for (int distance = 1; restoreQueue.size() < maxLiveTabs && distance < restored.size(); distance++) {
+            if (center - distance >= 0) {
+                restoreQueue.add(restored.get(center - distance));
+            }
+            if (center + distance < restored.size() && restoreQueue.size() < maxLiveTabs) {
+                restoreQueue.add(restored.get(center + distance));
+            }
+        }
+        return restored;
+    }
+    
+    /**
+     * Something worth saving changed; save once the delay has passed, taking
+     * in whatever else changes meanwhile
+     */
+    void sessionChanged() {
+        if (session != null && saveTimer.getStatus() != Animation.Status.RUNNING) {
+            saveTimer.playFromStart();
+        }
+    }
+    
+    /**
+     * Save the session now, for instance before the profile store closes
+     */
+    public void saveSession() {
+        saveTimer.stop();
+        if (session == null) {
+            return;
+        }
+        List<TabState> states = new ArrayList<>(tabs.size());
+        for (BrowserTab tab : tabs) {
+            states.add(tab.getState());
+        }
+        session.save(states, tabs.indexOf(selected));
+    }
+    
+    /**
+     * A tab's load ended: let the next restored tab load in its place
+     */
+    private void loadFinished(BrowserTab tab) {
+        restoring.remove(tab);
+        restoreNext();
+    }
+    
+    /**
+     * Start background loads of restored tabs up to the concurrency limit, but
+     * not while the selected tab is still restoring
+     */
+    private void restoreNext() {
+        if (selected != null && selected.isRestoring()) {
+            return;
+        }
+        while (restoring.size() < maxRestoring && !restoreQueue.isEmpty()) {
+            BrowserTab tab = restoreQueue.poll();
+            if (tab.isHibernating()) {
+                restoring.add(tab);
+                tab.restore();
+            }
+        }
+    }
+    
     /**
      * Close a specific tab
      * @param tab The tab to close
@@ -41,6 +183,13 @@ public class TabManager {
         if (tab != null && tabs.contains(tab)) {
             tab.dispose();
             tabs.remove(tab);
+            restoreQueue.remove(tab);
+            restoring.remove(tab);
+            if (selected == tab) {
+                selected = null;
+            }
+            sessionChanged();
+            restoreNext();
         }
     }
     
@@ -48,10 +197,153 @@ public class TabManager {
      * Close all tabs
      */
     public void closeAllTabs() {
+        sweeper.stop();
+        saveTimer.stop();
+        webViewPool.shutdown();
+        restoreQueue.clear();
+        restoring.clear();
         for (BrowserTab tab : tabs) {
             tab.dispose();
         }
         tabs.clear();
+        selected = null;
+    }
+    
+    /**
+     * A tab was selected: wake it if it hibernates and note that the previous
+     * one went to the background
+     * @param tab The selected tab
+     */
+    public void selectTab(BrowserTab tab) {
+        if (tab == selected) {
+            return;
+        }
+        if (selected != null) {
+            selected.deactivated();
+        }
+        selected = tab;
+        if (tab != null) {
+            restoreQueue.remove(tab);
+            tab.activated();
+        }
+        sessionChanged();
+        restoreNext();
+    }
+    
+    /**
+     * Hibernate background tabs that are idle or over the budgets
+     */
+    public void hibernateIdleTabs() {
+        List<BrowserTab> live = new ArrayList<>();
+        for (BrowserTab tab : tabs) {
+            if (tab != selected && !tab.isHibernating()) {
+                live.add(tab);
+            }
+        }
+        for (BrowserTab tab : pickToHibernate(live, BrowserTab::getLastActive, BrowserTab::isBusy,
+                System.currentTimeMillis() - idleMillis, maxLiveTabs, heapUsed() > heapBudget)) {
+            tab.hibernate();
+        }
+    }
+    
+    /**
+     * Choose which live background tabs to hibernate: those shown last before
+     * {@code idleSince}, then the least recently shown while more than
+     * {@code maxLive} stay live, or one when the heap is full. Busy tabs are
+     * skipped but still count as live.
+     * @param live The background tabs with their page loaded
+     * @return the tabs to hibernate, least recently shown first
+     */
+    static <T> List<T> pickToHibernate(List<T> live, ToLongFunction<T> lastActive, Predicate<T> busy,
+                                       long idleSince, int maxLive, boolean heapFull) {
+        List<T> byAge = new ArrayList<>(live);
+        // Least recently shown first
+        byAge.sort(Comparator.comparingLong(lastActive));
+        int over = byAge.size() - maxLive;
+        List<T> picked = new ArrayList<>();
+        for (T tab : byAge) {
+            boolean idle = lastActive.applyAsLong(tab) < idleSince;
+            if (!idle && over <= 0 && !heapFull) {
+                break;
+            }
+            if (busy.test(tab)) {
+                continue;
+            }
+            picked.add(tab);
+            over--;
+            // Freed memory only shows after a collection, so take one per sweep
+            heapFull = false;
+        }
+        return picked;
+    }
+    
+    /**
+     * Hibernate background tabs not shown for this long
+     */
+    public void setIdleTimeout(long millis) {
+        this.idleMillis = millis;
+    }
+    
+    public long getIdleTimeout() {
+        return idleMillis;
+    }
+    
+    /**
+     * Keep at most this many background tabs with their pages loaded
+     */
+    public void setMaxLiveTabs(int maxLiveTabs) {
+        this.maxLiveTabs = Math.max(0, maxLiveTabs);
+    }
+    
+    public int getMaxLiveTabs() {
+        return maxLiveTabs;
+    }
+    
+    /**
+     * Hibernate a background tab each sweep while the heap is fuller than this fraction
+     */
+    public void setHeapBudget(double heapBudget) {
+        this.heapBudget = heapBudget;
+    }
+    
+    public double getHeapBudget() {
+        return heapBudget;
+    }
+    
+    /**
+     * Load at most this many restored tabs at once in the background
+     */
+    public void setMaxRestoring(int maxRestoring) {
+        this.maxRestoring = Math.max(1, maxRestoring);
+    }
+    
+    public int getMaxRestoring() {
+        return maxRestoring;
+    }
+    
+    /**
+     * Number of tabs with their page loaded, the selected one included
+     */
+    public int getLiveTabCount() {
+        int live = 0;
+        for (BrowserTab tab : tabs) {
+            if (!tab.isHibernating()) {
+                live++;
+            }
+        }
+        return live;
+    }
+    
+    private static double heapUsed() {
+        Runtime runtime = Runtime.getRuntime();
+        return (double) (runtime.totalMemory() - runtime.freeMemory()) / runtime.maxMemory();
+    }
+    
+    /**
+     * Ready WebViews for new and restored tabs, with their hit rate and new-tab timings
+     */
+    public WebViewPool getWebViewPool() {
+        return webViewPool;
     }
     
     /**
@@ -0,0 +1,62 @@
+package it.r2u.animar2u.core.tab_management;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * What a tab shows and where it can go back and forward to: enough to bring
+ * it back after a restart or hibernation without its page loaded.
+ */
+public final class TabState {
+
+    /**
+     * One page in a tab's back/forward list
+     */
+    public static final class Entry {
+        private final String url;
+        private final String title;
+
+        public Entry(String url, String title) {
+            this.url = url;
+            this.title = title;
+        }
+
+        public String getUrl() { return url; }
+        public String getTitle() { return title; }
+    }
+
+    private final String id;
+    private final String title;
+    private final List<Entry> entries;
+    private final int index;
+
+    /**
+     * @param index position of the current page in {@code entries}
+     */
+    public TabState(String id, String title, List<Entry> entries, int index) {
+        this.id = id;
+        this.title = title;
+        this.entries = Collections.unmodifiableList(new ArrayList<>(entries));
+        this.index = entries.isEmpty() ? -1 : Math.max(0, Math.min(index, entries.size() - 1));
+    }
+
+    /**
+     * Identifies the tab across saves
+     */
+    public String getId() { return id; }
+    public String getTitle() { return title; }
+    public List<Entry> getEntries() { return entries; }
+
+    /**
+     * Position of the current page, or -1 for a tab that never loaded one
+     */
+    public int getIndex() { return index; }
+
+    /**
+     * URL of the current page, or an empty string
+     */
+    public String getUrl() {
+        return index >= 0 ? entries.get(index).getUrl() : "";
+    }
+}
@@ -0,0 +1,245 @@
+package it.r2u.animar2u.core.tab_management;
+
+import it.r2u.animar2u.media.MediaCodecManager;
+import it.r2u.animar2u.media.VideoStreamingOptimizer;
+import javafx.animation.AnimationTimer;
+import javafx.scene.web.WebView;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Blank WebViews configured ahead of time, so opening a tab does not wait for
+ * one to be created and set up for media.
+ *
+ * Taking a WebView starts a refill that creates at most one per frame, and
+ * only when the browser looks idle: the previous frame was on time and the
+ * shown tab is not loading. If it never looks idle, the pool refills anyway
+ * after a while. The pool also counts how often a WebView was ready and how
+ * long new tabs took to reach their first frame.
+ */
+public class WebViewPool {
+
+    private static final long REFILL_DELAY_NANOS = 300_000_000L;
+    private static final long MAX_WAIT_NANOS = 3_000_000_000L;
+    // A pulse later than this after the previous one means frames are being dropped
+    private static final long SLOW_FRAME_NANOS = 25_000_000L;
+
+    private final ReadyQueue<WebView> ready;
+    private final AnimationTimer refiller;
+
+    /**
+     * Creates a pool and starts filling it
+     * @param capacity Number of WebViews kept ready
+     * @param busy Whether the browser is doing something refills should not slow down
+     */
+    public WebViewPool(int capacity, BooleanSupplier busy) {
+        this.ready = new ReadyQueue<>(capacity, busy, WebViewPool::newWebView,
+            webView -> webView.getEngine().load(null), System.nanoTime());
+        this.refiller = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                if (!ready.pulse(now)) {
+                    stop();
+                }
+            }
+        };
+        refiller.start();
+    }
+
+    /**
+     * Create a blank WebView configured the way every tab needs it
+     */
+    static WebView newWebView() {
+        WebView webView = new WebView();
+
+        // Configure WebView for optimal media playback
+        MediaCodecManager.configureWebViewForMedia(webView);
+
+        // Apply video streaming optimizations
+        VideoStreamingOptimizer.optimizeForVideoStreaming(webView);
+
+        // Enable JavaScript (already done in MediaCodecManager, but keeping for clarity)
+        webView.getEngine().setJavaScriptEnabled(true);
+
+        // User agent is set by VideoStreamingOptimizer for optimal compatibility
+        return webView;
+    }
+
+    /**
+     * Take a ready WebView, or create one if none is ready
+     * @return A blank, configured WebView
+     */
+    public WebView take() {
+        WebView webView = ready.take(System.nanoTime());
+        refiller.start();
+        return webView;
+    }
+
+    /**
+     * A new tab was just created: time it until its first frame
+     * @param startedNanos {@link System#nanoTime} when creating it began
+     */
+    void newTabCreated(long startedNanos) {
+        ready.newTabCreated(startedNanos);
+        refiller.start();
+    }
+
+    /**
+     * Keep this many WebViews ready; extra ones are dropped
+     */
+    public void setCapacity(int capacity) {
+        ready.setCapacity(capacity);
+        refiller.start();
+    }
+
+    public int getCapacity() {
+        return ready.capacity;
+    }
+
+    /**
+     * Number of WebViews ready now
+     */
+    public int getReadyCount() {
+        return ready.items.size();
+    }
+
+    /**
+     * Drop the ready WebViews and stop refilling
+     */
+    public void shutdown() {
+        refiller.stop();
+        ready.setCapacity(0);
+    }
+
+    // Metrics
+
+    public long getHits() {
+        return ready.hits;
+    }
+
+    public long getMisses() {
+        return ready.misses;
+    }
+
+    /**
+     * Fraction of takes served from the pool, or 0 before the first
+     */
+    public double getHitRate() {
+        long takes = ready.hits + ready.misses;
+        return takes == 0 ? 0 : (double) ready.hits / takes;
+    }
+
+    /**
+     * Number of new tabs timed to their first frame
+     */
+    public long getNewTabCount() {
+        return ready.newTabs;
+    }
+
+    /**
+     * Mean time from starting to create a new tab to its first frame, in milliseconds
+     */
+    public double getMeanTimeToInteractiveMillis() {
+        return ready.newTabs == 0 ? 0 : ready.totalNewTabNanos / 1e6 / ready.newTabs;
+    }
+
+    public double getMaxTimeToInteractiveMillis() {
+        return ready.maxNewTabNanos / 1e6;
+    }
+
+    public double getLastTimeToInteractiveMillis() {
+        return ready.lastNewTabNanos / 1e6;
+    }
+
+    /**
+     * The ready items and the pacing of refills, driven by frame pulses.
+     * Kept apart from the WebViews and the timer so it runs without the FX toolkit.
+     */
+    static final class ReadyQueue<T> {
+        final Deque<T> items = new ArrayDeque<>();
+        private final BooleanSupplier busy;
+        private final Supplier<T> factory;
+        private final Consumer<T> drop;
+        int capacity;
+        private long lastTake;
+        private long lastPulse;
+
+        // Metrics
+        long hits;
+        long misses;
+        private long newTabStarted;
+        long newTabs;
+        long totalNewTabNanos;
+        long maxNewTabNanos;
+        long lastNewTabNanos;
+
+        /**
+         * @param drop Releases an item that is no longer kept
+         * @param now The current time; the first fill waits for the browser to look idle, like any refill
+         */
+        ReadyQueue(int capacity, BooleanSupplier busy, Supplier<T> factory, Consumer<T> drop, long now) {
+            this.capacity = Math.max(0, capacity);
+            this.busy = busy;
+            this.factory = factory;
+            this.drop = drop;
+            this.lastTake = now;
+        }
+
+        T take(long now) {
+            lastTake = now;
+            T item = items.poll();
+            if (item != null) {
+                hits++;
+            } else {
+                misses++;
+                item = factory.get();
+            }
+            return item;
+        }
+
+        void newTabCreated(long startedNanos) {
+            newTabStarted = startedNanos;
+        }
+
+        /**
+         * A frame: time a new tab that reached it, and create an item if the browser looks idle
+         * @return false once the queue is full and pulses can stop
+         */
+        boolean pulse(long now) {
+            if (newTabStarted != 0) {
+                long elapsed = now - newTabStarted;
+                newTabStarted = 0;
+                newTabs++;
+                totalNewTabNanos += elapsed;
+                maxNewTabNanos = Math.max(maxNewTabNanos, elapsed);
+                lastNewTabNanos = elapsed;
+            }
+            long previous = lastPulse;
+            lastPulse = now;
+            if (items.size() >= capacity) {
+                lastPulse = 0;
+                return false;
+            }
+            if (now - lastTake < REFILL_DELAY_NANOS) {
+                // Leave the frames right after a new tab to it
+                return true;
+            }
+            boolean slow = previous != 0 && now - previous > SLOW_FRAME_NANOS;
+            if ((slow || busy.getAsBoolean()) && now - lastTake < MAX_WAIT_NANOS) {
+                return true;
+            }
+            items.add(factory.get());
+            return true;
+        }
+
+        void setCapacity(int capacity) {
+            this.capacity = Math.max(0, capacity);
+            while (items.size() > this.capacity) {
+                drop.accept(items.poll());
+            }
+        }
+    }
+}
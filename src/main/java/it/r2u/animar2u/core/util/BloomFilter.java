@@ -0,0 +1,122 @@
+package it.r2u.animar2u.core.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bloom filter over 64-bit hash keys.
+ * Answers "maybe present" or "definitely absent" in a fixed number of bits per
+ * entry; at 10 bits and 7 probes about 1% of absent keys are reported present.
+ * Probe positions are derived from the key by double hashing, so keys must
+ * already be well-mixed hashes. Entries cannot be removed; rebuild instead.
+ * Safe for one writer and any number of concurrent readers.
+ */
+public final class BloomFilter {
+
+    private final AtomicLongArray words;
+    private final long mask;
+    private final int probes;
+    private final int bitsPerEntry;
+    private final int capacity;
+    private final AtomicInteger added = new AtomicInteger();
+
+    /**
+     * @param expectedEntries Number of entries the false positive rate is sized for
+     * @param bitsPerEntry Bits of filter per expected entry
+     */
+    public BloomFilter(int expectedEntries, int bitsPerEntry) {
+        long bits = Math.max(64, (long) expectedEntries * bitsPerEntry);
+        // Round up to a power of two so a probe is a mask, not a division
+        bits = Long.highestOneBit(bits - 1) << 1;
+        if (bits > (long) Integer.MAX_VALUE * Long.SIZE) {
+            throw new IllegalArgumentException("Bloom filter too large: " + expectedEntries + " entries");
+        }
+        this.words = new AtomicLongArray((int) (bits / Long.SIZE));
+        this.mask = bits - 1;
+        // k = ln 2 * m / n is optimal; use the requested density, not the rounded size
+        this.probes = Math.max(1, (int) Math.round(bitsPerEntry * Math.log(2)));
+        this.bitsPerEntry = bitsPerEntry;
+        this.capacity = expectedEntries;
+    }
+
+    /**
+     * Recreate a filter from the parameters and bits of a saved one
+     * @throws IllegalArgumentException if the bits do not fit the parameters
+     */
+    public static BloomFilter restore(int expectedEntries, int bitsPerEntry, int addedCount, long[] words) {
+        BloomFilter filter = new BloomFilter(expectedEntries, bitsPerEntry);
+        if (words.length != filter.words.length()) {
+            throw new IllegalArgumentException("Expected " + filter.words.length() + " words, got " + words.length);
+        }
+        for (int i = 0; i < words.length; i++) {
+            filter.words.set(i, words[i]);
+        }
+        filter.added.set(addedCount);
+        return filter;
+    }
+
+    public void add(long key) {
+        long position = key;
+        long step = Hashing.mix64(key) | 1;
+        for (int i = 0; i < probes; i++) {
+            long bit = position & mask;
+            int word = (int) (bit >>> 6);
+            long flag = 1L << bit;
+            long current = words.get(word);
+            if ((current & flag) == 0) {
+                words.set(word, current | flag);
+            }
+            position += step;
+        }
+        added.incrementAndGet();
+    }
+
+    /**
+     * @return false if the key was never added, true if it probably was
+     */
+    public boolean mightContain(long key) {
+        long position = key;
+        long step = Hashing.mix64(key) | 1;
+        for (int i = 0; i < probes; i++) {
+            long bit = position & mask;
+            if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+            position += step;
+        }
+        return true;
+    }
+
+    /**
+     * Number of add calls, counting repeated keys each time
+     */
+    public int addedCount() {
+        return added.get();
+    }
+
+    /**
+     * Number of entries the filter was sized for
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    public int bitsPerEntry() {
+        return bitsPerEntry;
+    }
+
+    /**
+     * Copy of the filter's bits, for saving it
+     */
+    public long[] words() {
+        long[] copy = new long[words.length()];
+        for (int i = 0; i < copy.length; i++) {
+            copy[i] = words.get(i);
+        }
+        return copy;
+    }
+
+    public long sizeInBytes() {
+        return (long) words.length() * Long.BYTES;
+    }
+}
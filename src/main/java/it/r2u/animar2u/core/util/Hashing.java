@@ -0,0 +1,34 @@
+package it.r2u.animar2u.core.util;
+
+/**
+ * Fast non-cryptographic hashing for primitive-keyed indexes
+ */
+public final class Hashing {
+    
+    private Hashing() {
+    }
+    
+    /**
+     * 64-bit hash of a string: FNV-1a over the UTF-16 chars with a final avalanche mix
+     */
+    public static long hash64(CharSequence value) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return mix64(hash);
+    }
+    
+    /**
+     * Murmur3 finalizer, spreads every input bit over the whole word
+     */
+    public static long mix64(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+}
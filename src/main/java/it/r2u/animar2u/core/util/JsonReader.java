@@ -0,0 +1,291 @@
+package it.r2u.animar2u.core.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Streaming pull parser for JSON.
+ * Reads tokens one at a time from a buffered Reader, so a dump of any size is
+ * parsed in constant memory apart from the current string. Separators are
+ * checked loosely: commas and colons are skipped, and a string followed by a
+ * colon is a name.
+ */
+public final class JsonReader implements Closeable {
+
+    public enum Token { BEGIN_ARRAY, END_ARRAY, BEGIN_OBJECT, END_OBJECT, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT }
+
+    private final Reader in;
+    private final char[] buffer = new char[8192];
+    private final StringBuilder text = new StringBuilder();
+    private int position;
+    private int limit;
+    private long consumed;
+    private Token peeked;
+    private String value;
+
+    public JsonReader(Reader in) {
+        this.in = in;
+    }
+
+    /**
+     * Get the type of the next token without consuming it
+     */
+    public Token peek() throws IOException {
+        if (peeked == null) {
+            peeked = readToken();
+        }
+        return peeked;
+    }
+
+    /**
+     * Check whether the current array or object has more elements
+     */
+    public boolean hasNext() throws IOException {
+        Token next = peek();
+        return next != Token.END_ARRAY && next != Token.END_OBJECT && next != Token.END_DOCUMENT;
+    }
+
+    public void beginArray() throws IOException {
+        expect(Token.BEGIN_ARRAY);
+    }
+
+    public void endArray() throws IOException {
+        expect(Token.END_ARRAY);
+    }
+
+    public void beginObject() throws IOException {
+        expect(Token.BEGIN_OBJECT);
+    }
+
+    public void endObject() throws IOException {
+        expect(Token.END_OBJECT);
+    }
+
+    public String nextName() throws IOException {
+        expect(Token.NAME);
+        return value;
+    }
+
+    /**
+     * Read a string, or the text of a number or boolean
+     */
+    public String nextString() throws IOException {
+        Token token = peek();
+        if (token != Token.STRING && token != Token.NUMBER && token != Token.BOOLEAN) {
+            throw error("Expected a string but found " + token);
+        }
+        peeked = null;
+        return value;
+    }
+
+    /**
+     * Read a number, or a string holding one, as a long; fractions are truncated
+     */
+    public long nextLong() throws IOException {
+        String number = nextString();
+        try {
+            return Long.parseLong(number);
+        } catch (NumberFormatException e) {
+            try {
+                return (long) Double.parseDouble(number);
+            } catch (NumberFormatException notNumber) {
+                throw error("Expected a number but found \"" + number + "\"");
+            }
+        }
+    }
+
+    public boolean nextBoolean() throws IOException {
+        expect(Token.BOOLEAN);
+        return Boolean.parseBoolean(value);
+    }
+
+    public void nextNull() throws IOException {
+        expect(Token.NULL);
+    }
+
+    /**
+     * Skip the next value, including everything nested in it
+     */
+    public void skipValue() throws IOException {
+        int depth = 0;
+        do {
+            Token token = peek();
+            if (token == Token.END_DOCUMENT) {
+                throw error("Unexpected end of document");
+            }
+            peeked = null;
+            if (token == Token.BEGIN_ARRAY || token == Token.BEGIN_OBJECT) {
+                depth++;
+            } else if (token == Token.END_ARRAY || token == Token.END_OBJECT) {
+                depth--;
+            }
+        } while (depth > 0);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private void expect(Token expected) throws IOException {
+        Token token = peek();
+        if (token != expected) {
+            throw error("Expected " + expected + " but found " + token);
+        }
+        peeked = null;
+    }
+
+    private Token readToken() throws IOException {
+        int c = nextSignificant();
+        switch (c) {
+            case -1:
+                return Token.END_DOCUMENT;
+            case '[':
+                return Token.BEGIN_ARRAY;
+            case ']':
+                return Token.END_ARRAY;
+            case '{':
+                return Token.BEGIN_OBJECT;
+            case '}':
+                return Token.END_OBJECT;
+            case '"':
+                value = readString();
+                if (nextSignificantIs(':')) {
+                    return Token.NAME;
+                }
+                return Token.STRING;
+            default:
+                value = readLiteral((char) c);
+                switch (value) {
+                    case "true":
+                    case "false":
+                        return Token.BOOLEAN;
+                    case "null":
+                        return Token.NULL;
+                    default:
+                        return Token.NUMBER;
+                }
+        }
+    }
+
+    /**
+     * Next character that is not whitespace or a separator, or -1 at the end
+     */
+    private int nextSignificant() throws IOException {
+        while (true) {
+            int c = read();
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t' && c != ',' && c != ':') {
+                return c;
+            }
+        }
+    }
+
+    /**
+     * Consume whitespace and the given character if it comes next
+     */
+    private boolean nextSignificantIs(char expected) throws IOException {
+        while (true) {
+            if (position == limit && !fill()) {
+                return false;
+            }
+            char c = buffer[position];
+            if (c == expected) {
+                position++;
+                return true;
+            }
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                return false;
+            }
+            position++;
+        }
+    }
+
+    private String readString() throws IOException {
+        text.setLength(0);
+        while (true) {
+            // Copy runs without escapes in one go
+            int start = position;
+            while (position < limit && buffer[position] != '"' && buffer[position] != '\\') {
+                position++;
+            }
+            text.append(buffer, start, position - start);
+            if (position == limit) {
+                if (!fill()) {
+                    throw error("Unterminated string");
+                }
+                continue;
+            }
+            char c = buffer[position++];
+            if (c == '"') {
+                return text.toString();
+            }
+            int escaped = read();
+            switch (escaped) {
+                case 'n': text.append('\n'); break;
+                case 't': text.append('\t'); break;
+                case 'r': text.append('\r'); break;
+                case 'b': text.append('\b'); break;
+                case 'f': text.append('\f'); break;
+                case 'u': text.append(readUnicodeEscape()); break;
+                case -1: throw error("Unterminated string");
+                default: text.append((char) escaped);
+            }
+        }
+    }
+
+    private char readUnicodeEscape() throws IOException {
+        int code = 0;
+        for (int i = 0; i < 4; i++) {
+            int digit = Character.digit(read(), 16);
+            if (digit < 0) {
+                throw error("Malformed unicode escape");
+            }
+            code = (code << 4) | digit;
+        }
+        return (char) code;
+    }
+
+    private String readLiteral(char first) throws IOException {
+        text.setLength(0);
+        text.append(first);
+        while (position < limit || fill()) {
+            char c = buffer[position];
+            if (c == ',' || c == ']' || c == '}' || c == ':' || c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+                break;
+            }
+            text.append(c);
+            position++;
+        }
+        String literal = text.toString();
+        char start = literal.charAt(0);
+        if (!literal.equals("true") && !literal.equals("false") && !literal.equals("null")
+                && start != '-' && (start < '0' || start > '9')) {
+            throw error("Unexpected \"" + literal + "\"");
+        }
+        return literal;
+    }
+
+    private int read() throws IOException {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        return buffer[position++];
+    }
+
+    private boolean fill() throws IOException {
+        consumed += limit;
+        position = 0;
+        limit = 0;
+        int count = in.read(buffer, 0, buffer.length);
+        if (count <= 0) {
+            return false;
+        }
+        limit = count;
+        return true;
+    }
+
+    private IOException error(String message) {
+        return new IOException(message + " at offset " + (consumed + position));
+    }
+}
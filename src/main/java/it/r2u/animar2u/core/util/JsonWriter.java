@@ -0,0 +1,167 @@
+package it.r2u.animar2u.core.util;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.BitSet;
+
+/**
+ * Streaming writer for JSON.
+ * Values go straight to the underlying Writer as they are written, so a dump
+ * of any size needs no document in memory. Array elements are put on their own
+ * lines to keep large dumps readable and diffable.
+ */
+public final class JsonWriter implements Closeable, Flushable {
+
+    private final Writer out;
+    // Per nesting level: whether a value was already written, and whether it is an array
+    private final BitSet hasValue = new BitSet();
+    private final BitSet isArray = new BitSet();
+    private int depth;
+    private boolean afterName;
+
+    public JsonWriter(Writer out) {
+        this.out = out;
+    }
+
+    public JsonWriter beginArray() throws IOException {
+        return open('[', true);
+    }
+
+    public JsonWriter endArray() throws IOException {
+        return close(']', true);
+    }
+
+    public JsonWriter beginObject() throws IOException {
+        return open('{', false);
+    }
+
+    public JsonWriter endObject() throws IOException {
+        return close('}', false);
+    }
+
+    public JsonWriter name(String name) throws IOException {
+        if (depth == 0 || isArray.get(depth) || afterName) {
+            throw new IllegalStateException("Names are only allowed inside objects");
+        }
+        separate();
+        writeString(name);
+        out.write(':');
+        afterName = true;
+        return this;
+    }
+
+    /**
+     * Write a string, or null if it is null
+     */
+    public JsonWriter value(String value) throws IOException {
+        if (value == null) {
+            return nullValue();
+        }
+        separate();
+        writeString(value);
+        return this;
+    }
+
+    public JsonWriter value(long value) throws IOException {
+        separate();
+        out.write(Long.toString(value));
+        return this;
+    }
+
+    public JsonWriter value(boolean value) throws IOException {
+        separate();
+        out.write(value ? "true" : "false");
+        return this;
+    }
+
+    public JsonWriter nullValue() throws IOException {
+        separate();
+        out.write("null");
+        return this;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    private JsonWriter open(char bracket, boolean array) throws IOException {
+        separate();
+        out.write(bracket);
+        depth++;
+        hasValue.clear(depth);
+        isArray.set(depth, array);
+        return this;
+    }
+
+    private JsonWriter close(char bracket, boolean array) throws IOException {
+        if (depth == 0 || isArray.get(depth) != array || afterName) {
+            throw new IllegalStateException("Unbalanced " + bracket);
+        }
+        boolean empty = !hasValue.get(depth);
+        boolean newline = array && !empty;
+        depth--;
+        if (newline) {
+            out.write('\n');
+        }
+        out.write(bracket);
+        return this;
+    }
+
+    /**
+     * Write the separator before a value or name at the current level
+     */
+    private void separate() throws IOException {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        if (depth == 0) {
+            return;
+        }
+        if (hasValue.get(depth)) {
+            out.write(',');
+        }
+        hasValue.set(depth);
+        if (isArray.get(depth)) {
+            out.write('\n');
+        }
+    }
+
+    private void writeString(String value) throws IOException {
+        out.write('"');
+        int start = 0;
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            String escape;
+            if (c == '"') {
+                escape = "\\\"";
+            } else if (c == '\\') {
+                escape = "\\\\";
+            } else if (c == '\n') {
+                escape = "\\n";
+            } else if (c == '\r') {
+                escape = "\\r";
+            } else if (c == '\t') {
+                escape = "\\t";
+            } else if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+                escape = String.format("\\u%04x", (int) c);
+            } else {
+                continue;
+            }
+            out.write(value, start, i - start);
+            out.write(escape);
+            start = i + 1;
+        }
+        out.write(value, start, length - start);
+        out.write('"');
+    }
+}
@@ -0,0 +1,135 @@
+package it.r2u.animar2u.core.util;
+
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+/**
+ * Open-addressing multimap from 64-bit hash keys to int values.
+ * Keys are hashes rather than identities, so one key may map to several values;
+ * lookups probe every value stored under the key and let the caller verify it.
+ * Uses linear probing with backward-shift deletion and no boxing.
+ * Not thread-safe; callers lock.
+ */
+public final class LongIntHashMap {
+
+    private static final int EMPTY = -1;
+    private static final float LOAD_FACTOR = 0.6f;
+
+    private long[] keys;
+    private int[] values;
+    private int mask;
+    private int size;
+    private int resizeAt;
+
+    public LongIntHashMap() {
+        this(16);
+    }
+
+    public LongIntHashMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(16, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+        allocate(capacity);
+    }
+
+    /**
+     * Add a key/value pair; values must be non-negative
+     */
+    public void put(long key, int value) {
+        if (size >= resizeAt) {
+            rehash(keys.length << 1);
+        }
+        int index = indexOf(key);
+        while (values[index] != EMPTY) {
+            index = (index + 1) & mask;
+        }
+        keys[index] = key;
+        values[index] = value;
+        size++;
+    }
+
+    /**
+     * Find the first value under the key accepted by {@code matches}
+     * @return the value, or -1 if none matches
+     */
+    public int find(long key, IntPredicate matches) {
+        for (int index = indexOf(key); values[index] != EMPTY; index = (index + 1) & mask) {
+            if (keys[index] == key && matches.test(values[index])) {
+                return values[index];
+            }
+        }
+        return EMPTY;
+    }
+
+    /**
+     * Remove one key/value pair
+     */
+    public boolean remove(long key, int value) {
+        for (int index = indexOf(key); values[index] != EMPTY; index = (index + 1) & mask) {
+            if (keys[index] == key && values[index] == value) {
+                shiftBack(index);
+                size--;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        Arrays.fill(values, EMPTY);
+        size = 0;
+    }
+
+    /**
+     * Close the gap left at {@code gap} by moving later entries of the probe run back
+     */
+    private void shiftBack(int gap) {
+        int index = gap;
+        while (true) {
+            index = (index + 1) & mask;
+            if (values[index] == EMPTY) {
+                break;
+            }
+            int home = indexOf(keys[index]);
+            // Move the entry if its home position is not cyclically within (gap, index]
+            boolean movable = gap <= index ? (home <= gap || home > index) : (home <= gap && home > index);
+            if (movable) {
+                keys[gap] = keys[index];
+                values[gap] = values[index];
+                gap = index;
+            }
+        }
+        values[gap] = EMPTY;
+    }
+
+    private int indexOf(long key) {
+        // Keys are already well-mixed hashes; fold the high bits in anyway
+        return (int) (key ^ (key >>> 32)) & mask;
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new int[capacity];
+        Arrays.fill(values, EMPTY);
+        mask = capacity - 1;
+        resizeAt = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(capacity);
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] != EMPTY) {
+                int index = indexOf(oldKeys[i]);
+                while (values[index] != EMPTY) {
+                    index = (index + 1) & mask;
+                }
+                keys[index] = oldKeys[i];
+                values[index] = oldValues[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package it.r2u.animar2u.core.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Predicate;
+import java.util.zip.CRC32;
+
+/**
+ * Binary record files: a 16-byte header (magic, version, a long chosen by the
+ * owner) followed by frames of varint body length, body and CRC32 of the body.
+ * A reader stops at the first torn or corrupt frame, so a crash mid-append costs
+ * at most the record being written. Also holds the varint and string helpers
+ * record bodies are built from.
+ */
+public final class RecordCodec {
+
+    public static final int HEADER_SIZE = 16;
+
+    private RecordCodec() {
+    }
+
+    /**
+     * Write a file header at the start of the channel
+     */
+    public static void writeHeader(FileChannel channel, int magic, int version, long base) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(magic).putInt(version).putLong(base);
+        header.flip();
+        channel.position(0);
+        writeFully(channel, header);
+    }
+
+    /**
+     * Read the owner's long from a file header
+     */
+    public static long readHeaderBase(FileChannel channel) throws IOException {
+        ByteBuffer base = ByteBuffer.allocate(Long.BYTES);
+        channel.read(base, 8);
+        base.flip();
+        return base.getLong();
+    }
+
+    /**
+     * Append a framed record to {@code out}
+     */
+    public static void appendFrame(ByteArrayOutputStream out, byte[] body) {
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        int checksum = (int) crc.getValue();
+        writeVarLong(out, body.length);
+        out.write(body, 0, body.length);
+        out.write(checksum >>> 24);
+        out.write(checksum >>> 16);
+        out.write(checksum >>> 8);
+        out.write(checksum);
+    }
+
+    public static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Read a record file and pass each valid record body to {@code handler} until
+     * it returns false or a frame is torn or corrupt. The file is read into the
+     * heap rather than mapped: a mapping lives until it is garbage collected, and
+     * on Windows a live mapping makes deleting, replacing or truncating the file fail.
+     * @return the end of the last accepted record, or -1 if the header does not match
+     */
+    public static long decodeRecords(FileChannel channel, int magic, int version,
+                                     Predicate<ByteBuffer> handler) throws IOException {
+        long size = channel.size();
+        if (size < HEADER_SIZE) {
+            return -1;
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Record file too large: " + size + " bytes");
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) size);
+        while (buffer.hasRemaining() && channel.read(buffer, buffer.position()) >= 0) {
+            // Read the whole file
+        }
+        buffer.flip();
+        if (buffer.getInt() != magic || buffer.getInt() != version) {
+            return -1;
+        }
+        buffer.getLong();
+        long validEnd = HEADER_SIZE;
+        CRC32 crc = new CRC32();
+        while (buffer.hasRemaining()) {
+            try {
+                long length = readVarLong(buffer);
+                if (length < 1 || length > buffer.remaining() - 4) {
+                    break;
+                }
+                ByteBuffer record = buffer.slice(buffer.position(), (int) length);
+                buffer.position(buffer.position() + (int) length);
+                int checksum = buffer.getInt();
+                crc.reset();
+                crc.update(record.duplicate());
+                if ((int) crc.getValue() != checksum || !handler.test(record)) {
+                    break;
+                }
+            } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+                break;
+            }
+            validEnd = buffer.position();
+        }
+        return validEnd;
+    }
+
+    public static void writeVarLong(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    public static long readVarLong(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    /**
+     * Write a varint length followed by UTF-8 bytes
+     */
+    public static void writeString(ByteArrayOutputStream out, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Read a string written by {@link #writeString}
+     */
+    public static String readString(ByteBuffer in) {
+        return readString(in, (int) readVarLong(in));
+    }
+
+    /**
+     * Read {@code length} UTF-8 bytes
+     */
+    public static String readString(ByteBuffer in, int length) {
+        if (length < 0 || length > in.remaining()) {
+            throw new IllegalArgumentException("Malformed string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    public static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
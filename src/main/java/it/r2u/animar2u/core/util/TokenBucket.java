@@ -0,0 +1,68 @@
+package it.r2u.animar2u.core.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket limiting the rate of a byte stream.
+ * Tokens refill at the set rate, up to a burst of a quarter second's worth. A
+ * caller takes tokens for the bytes it has moved and, if that leaves the bucket
+ * in debt, sleeps until the debt is paid off. Concurrent callers wait behind
+ * each other's debt, so together they stay within the rate. A rate of 0 means
+ * unlimited.
+ */
+public final class TokenBucket {
+
+    private static final long MIN_BURST = 64 * 1024;
+
+    // Guarded by this
+    private long rate;
+    private double tokens;
+    private long refilledAt = System.nanoTime();
+
+    public TokenBucket(long bytesPerSecond) {
+        setRate(bytesPerSecond);
+    }
+
+    /**
+     * Change the rate in bytes per second; 0 removes the limit
+     */
+    public synchronized void setRate(long bytesPerSecond) {
+        refill();
+        rate = Math.max(0, bytesPerSecond);
+        tokens = Math.min(tokens, burst());
+    }
+
+    public synchronized long getRate() {
+        return rate;
+    }
+
+    /**
+     * Take tokens for {@code bytes}, sleeping as long as the rate requires
+     */
+    public void acquire(long bytes) throws InterruptedException {
+        long waitNanos;
+        synchronized (this) {
+            if (rate == 0) {
+                return;
+            }
+            refill();
+            tokens -= bytes;
+            waitNanos = tokens >= 0 ? 0 : (long) (-tokens * 1e9 / rate);
+        }
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        if (rate > 0) {
+            tokens = Math.min(burst(), tokens + (now - refilledAt) * (double) rate / 1e9);
+        }
+        refilledAt = now;
+    }
+
+    private long burst() {
+        return Math.max(MIN_BURST, rate / 4);
+    }
+}
@@ -0,0 +1,230 @@
+package it.r2u.animar2u.core.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Canonical URL forms used to key bookmarks and history.
+ *
+ * {@link #canonicalize} rewrites a URL into the form that is stored and shown:
+ * scheme and host lower-cased, a default port dropped, an empty path written as
+ * "/", and tracking parameters removed from the query. {@link #identity} reduces a
+ * canonical URL to the resource it names, treating http and https alike and
+ * ignoring the fragment and a trailing slash; URLs with the same identity are one
+ * bookmark or history entry. {@link #key} hashes the identity to 64 bits for
+ * primitive-keyed indexes, which confirm a match by comparing identities.
+ */
+public final class UrlCanonicalizer {
+
+    /**
+     * Query parameters stripped by default; a trailing '*' matches a name prefix
+     */
+    public static final List<String> DEFAULT_TRACKING_PARAMETERS = List.of(
+        "utm_*", "fbclid", "gclid", "dclid", "gbraid", "wbraid", "msclkid", "yclid",
+        "mc_cid", "mc_eid", "igshid", "_hsenc", "_hsmi", "mkt_tok");
+
+    private static final String TRACKING_PARAMETERS_PROPERTY = "anima.url.trackingParameters";
+    // Web identities start with "//" so they cannot collide with a scheme-less string
+    private static final String WEB_IDENTITY_PREFIX = "//";
+    private static volatile UrlCanonicalizer defaultInstance;
+
+    private final Set<String> names = new HashSet<>();
+    private final List<String> prefixes = new ArrayList<>();
+
+    /**
+     * @param trackingParameters Query parameter names to strip, compared ignoring case;
+     *                           a trailing '*' matches every name with that prefix
+     */
+    public UrlCanonicalizer(Collection<String> trackingParameters) {
+        for (String parameter : trackingParameters) {
+            String name = parameter.trim().toLowerCase(Locale.ROOT);
+            if (name.endsWith("*")) {
+                prefixes.add(name.substring(0, name.length() - 1));
+            } else if (!name.isEmpty()) {
+                names.add(name);
+            }
+        }
+    }
+
+    /**
+     * Get the shared canonicalizer. Its strip list is {@link #DEFAULT_TRACKING_PARAMETERS}
+     * unless -Danima.url.trackingParameters gives a comma-separated replacement.
+     */
+    public static UrlCanonicalizer getDefault() {
+        UrlCanonicalizer instance = defaultInstance;
+        if (instance == null) {
+            String configured = System.getProperty(TRACKING_PARAMETERS_PROPERTY);
+            instance = new UrlCanonicalizer(configured != null
+                ? Arrays.asList(configured.split(",")) : DEFAULT_TRACKING_PARAMETERS);
+            defaultInstance = instance;
+        }
+        return instance;
+    }
+
+    /**
+     * Rewrite a URL into canonical form; returns the same instance when it already is.
+     * Strings without a scheme are only trimmed.
+     */
+    public String canonicalize(String url) {
+        if (url == null) {
+            return null;
+        }
+        String trimmed = url.trim();
+        int colon = schemeEnd(trimmed);
+        if (colon < 0) {
+            return trimmed;
+        }
+        String scheme = trimmed.substring(0, colon).toLowerCase(Locale.ROOT);
+        StringBuilder out = new StringBuilder(trimmed.length() + 1).append(scheme);
+        int fragment = indexOf(trimmed, '#', colon);
+        int rest = colon;
+
+        if (trimmed.startsWith("//", colon + 1)) {
+            int authorityStart = colon + 3;
+            int authorityEnd = authorityStart;
+            while (authorityEnd < fragment && "/?".indexOf(trimmed.charAt(authorityEnd)) < 0) {
+                authorityEnd++;
+            }
+            out.append("://");
+            appendAuthority(out, scheme, trimmed.substring(authorityStart, authorityEnd));
+            int query = indexOf(trimmed, '?', authorityEnd);
+            int pathEnd = Math.min(query, fragment);
+            if (pathEnd == authorityEnd && authorityEnd > authorityStart) {
+                out.append('/');
+            }
+            out.append(trimmed, authorityEnd, pathEnd);
+            rest = pathEnd;
+            if (query < fragment) {
+                appendQuery(out, trimmed, query + 1, fragment);
+                rest = fragment;
+            }
+        }
+        out.append(trimmed, rest, trimmed.length());
+        return out.length() == trimmed.length() && trimmed.contentEquals(out) ? trimmed : out.toString();
+    }
+
+    /**
+     * Reduce a canonical URL to the resource it names: http and https fold
+     * together, and the fragment and a trailing path slash are dropped.
+     * Applying it to an identity returns the same identity.
+     */
+    public static String identity(String canonicalUrl) {
+        String rest;
+        String prefix = "";
+        if (canonicalUrl.startsWith("https://")) {
+            rest = canonicalUrl.substring(8);
+            prefix = WEB_IDENTITY_PREFIX;
+        } else if (canonicalUrl.startsWith("http://")) {
+            rest = canonicalUrl.substring(7);
+            prefix = WEB_IDENTITY_PREFIX;
+        } else {
+            rest = canonicalUrl;
+        }
+        int fragment = rest.indexOf('#');
+        int end = fragment >= 0 ? fragment : rest.length();
+        int query = rest.indexOf('?');
+        int pathEnd = query >= 0 && query < end ? query : end;
+        if (pathEnd > 0 && rest.charAt(pathEnd - 1) == '/') {
+            return prefix + rest.substring(0, pathEnd - 1) + rest.substring(pathEnd, end);
+        }
+        return prefix.isEmpty() && end == rest.length() ? rest : prefix + rest.substring(0, end);
+    }
+
+    /**
+     * 64-bit key of a canonical URL's identity
+     */
+    public static long key(String canonicalUrl) {
+        return Hashing.hash64(identity(canonicalUrl));
+    }
+
+    private void appendAuthority(StringBuilder out, String scheme, String authority) {
+        // Credentials keep their case; the host is case-insensitive
+        int at = authority.lastIndexOf('@');
+        out.append(authority, 0, at + 1);
+        String host = authority.substring(at + 1).toLowerCase(Locale.ROOT);
+        int portColon = host.lastIndexOf(':');
+        if (portColon >= 0 && portColon > host.lastIndexOf(']')) {
+            String port = host.substring(portColon + 1);
+            if (port.isEmpty() || port.equals(defaultPort(scheme))) {
+                host = host.substring(0, portColon);
+            }
+        }
+        if (host.endsWith(".")) {
+            host = host.substring(0, host.length() - 1);
+        }
+        out.append(host);
+    }
+
+    /**
+     * Append the query from {@code start} to {@code end} without tracking parameters or empty pairs
+     */
+    private void appendQuery(StringBuilder out, String url, int start, int end) {
+        boolean first = true;
+        for (int pair = start; pair < end; ) {
+            int pairEnd = indexOf(url, '&', pair);
+            pairEnd = Math.min(pairEnd, end);
+            int nameEnd = Math.min(indexOf(url, '=', pair), pairEnd);
+            if (pairEnd > pair && !isTracking(url.substring(pair, nameEnd))) {
+                out.append(first ? '?' : '&').append(url, pair, pairEnd);
+                first = false;
+            }
+            pair = pairEnd + 1;
+        }
+    }
+
+    private boolean isTracking(String name) {
+        String lower = name.toLowerCase(Locale.ROOT);
+        if (names.contains(lower)) {
+            return true;
+        }
+        for (String prefix : prefixes) {
+            if (lower.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String defaultPort(String scheme) {
+        switch (scheme) {
+            case "http":
+            case "ws":
+                return "80";
+            case "https":
+            case "wss":
+                return "443";
+            case "ftp":
+                return "21";
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Index of the ':' ending a valid scheme, or -1
+     */
+    private static int schemeEnd(String url) {
+        for (int i = 0; i < url.length(); i++) {
+            char c = url.charAt(i);
+            if (c == ':') {
+                return i > 0 ? i : -1;
+            }
+            boolean valid = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')
+                || (i > 0 && ((c >= '0' && c <= '9') || c == '+' || c == '-' || c == '.'));
+            if (!valid) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    private static int indexOf(String value, char c, int from) {
+        int index = value.indexOf(c, from);
+        return index >= 0 ? index : value.length();
+    }
+}
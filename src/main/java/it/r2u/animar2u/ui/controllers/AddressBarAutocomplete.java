@@ -0,0 +1,155 @@
+package it.r2u.animar2u.ui.controllers;
+
+import it.r2u.animar2u.core.search.AutocompleteEngine;
+import it.r2u.animar2u.core.search.AutocompleteEngine.Suggestion;
+import javafx.application.Platform;
+import javafx.event.ActionEvent;
+import javafx.geometry.Side;
+import javafx.scene.control.ContextMenu;
+import javafx.scene.control.CustomMenuItem;
+import javafx.scene.control.Label;
+import javafx.scene.control.TextField;
+import javafx.scene.input.KeyCode;
+import javafx.scene.input.KeyEvent;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Consumer;
+
+/**
+ * Suggestion dropdown and inline completion for the address bar.
+ * Only user edits trigger queries; they run on the autocomplete thread and the
+ * results are applied on the FX thread only if the text is still the one queried.
+ */
+public final class AddressBarAutocomplete {
+
+    private static final int MAX_SUGGESTIONS = 8;
+
+    private final TextField addressBar;
+    private final AutocompleteEngine engine;
+    private final Consumer<String> navigator;
+    private final ContextMenu popup;
+    private boolean userEdit;
+    private boolean deletion;
+    private boolean applyingCompletion;
+
+    /**
+     * Attach autocomplete to an address bar
+     * @param addressBar The address bar text field
+     * @param engine The suggestion source
+     * @param navigator Called with the URL of a chosen suggestion
+     */
+    public AddressBarAutocomplete(TextField addressBar, AutocompleteEngine engine, Consumer<String> navigator) {
+        this.addressBar = addressBar;
+        this.engine = engine;
+        this.navigator = navigator;
+        this.popup = new ContextMenu();
+        setupEventHandlers();
+    }
+
+    private void setupEventHandlers() {
+        // Mark edits made by the user so programmatic setText calls are ignored
+        addressBar.addEventFilter(KeyEvent.KEY_TYPED, event -> {
+            userEdit = true;
+            deletion = false;
+        });
+        addressBar.addEventFilter(KeyEvent.KEY_PRESSED, event -> {
+            if (event.getCode() == KeyCode.BACK_SPACE || event.getCode() == KeyCode.DELETE) {
+                userEdit = true;
+                deletion = true;
+            } else if (event.getCode() == KeyCode.ESCAPE) {
+                hide();
+            }
+        });
+
+        addressBar.textProperty().addListener((observable, oldText, newText) -> {
+            if (applyingCompletion || !userEdit) {
+                return;
+            }
+            userEdit = false;
+            requestSuggestions(newText, !deletion);
+        });
+
+        addressBar.addEventHandler(ActionEvent.ACTION, event -> hide());
+        addressBar.focusedProperty().addListener((observable, wasFocused, isFocused) -> {
+            if (!isFocused) {
+                hide();
+            }
+        });
+    }
+
+    private void requestSuggestions(String typed, boolean allowInline) {
+        if (typed == null || typed.trim().isEmpty()) {
+            hide();
+            return;
+        }
+        engine.suggestAsync(typed, MAX_SUGGESTIONS, suggestions ->
+            Platform.runLater(() -> applySuggestions(typed, allowInline, suggestions)));
+    }
+
+    private void applySuggestions(String typed, boolean allowInline, List<Suggestion> suggestions) {
+        // Drop results for text the user has already changed
+        if (!typed.equals(addressBar.getText()) || !addressBar.isFocused()) {
+            return;
+        }
+        if (suggestions.isEmpty()) {
+            popup.hide();
+            return;
+        }
+
+        popup.getItems().clear();
+        for (Suggestion suggestion : suggestions) {
+            Label label = new Label((suggestion.isBookmarked() ? "★ " : "") +
+                suggestion.getTitle() + " — " + suggestion.getUrl());
+            label.setPrefWidth(addressBar.getWidth() - 20);
+            CustomMenuItem item = new CustomMenuItem(label, true);
+            item.setOnAction(event -> {
+                hide();
+                navigator.accept(suggestion.getUrl());
+            });
+            popup.getItems().add(item);
+        }
+        if (!popup.isShowing()) {
+            popup.show(addressBar, Side.BOTTOM, 0, 0);
+        }
+
+        if (allowInline && addressBar.getCaretPosition() == typed.length()) {
+            String completion = inlineCompletion(typed, suggestions.get(0));
+            if (completion != null) {
+                applyingCompletion = true;
+                addressBar.setText(completion);
+                addressBar.selectRange(completion.length(), typed.length());
+                applyingCompletion = false;
+            }
+        }
+    }
+
+    /**
+     * Complete typed text to the suggested host, or to the full URL once the
+     * user has typed past the host
+     */
+    private static String inlineCompletion(String typed, Suggestion top) {
+        String lowerTyped = typed.toLowerCase(Locale.ROOT);
+        String key = top.getKey();
+        if (lowerTyped.startsWith("www.")) {
+            key = "www." + key;
+        }
+        if (lowerTyped.contains("://") || !key.startsWith(lowerTyped) || key.length() == typed.length()) {
+            return null;
+        }
+        int hostEnd = key.indexOf('/');
+        String target = hostEnd < 0 || typed.length() > hostEnd ? key : key.substring(0, hostEnd);
+        if (target.length() <= typed.length()) {
+            return null;
+        }
+        return typed + target.substring(typed.length());
+    }
+
+    /**
+     * Hide the dropdown and drop pending queries
+     */
+    public void hide() {
+        engine.cancelPending();
+        popup.hide();
+    }
+}
@@ -0,0 +1,217 @@
+package it.r2u.animar2u.ui.controllers;
+
+import it.r2u.animar2u.core.storage.Bookmark;
+import it.r2u.animar2u.core.storage.BookmarkManager;
+import javafx.application.Platform;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListCell;
+import javafx.scene.layout.VBox;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Search results of the bookmarks dialog, loaded off the FX thread.
+ * Typing restarts a short debounce, after which the query runs on a background
+ * thread. A newer query supersedes an older one: its task is cancelled and a
+ * result that still arrives is dropped. Results are applied to {@link #getItems()}
+ * as a diff, so rows that stay keep their cells and selection. Results come in
+ * pages ordered by title, each fetched after the last loaded bookmark; cells ask
+ * for the next page when they show a row near the end of the list.
+ */
+public class BookmarkSearchModel {
+
+    private static final int PAGE_SIZE = 100;
+    private static final long DEBOUNCE_MILLIS = 150;
+
+    private final BookmarkManager manager;
+    private final ScheduledExecutorService executor;
+    private final ObservableList<Bookmark> items = FXCollections.observableArrayList();
+    // Only touched on the FX thread
+    private String query = "";
+    private long generation;
+    private Future<?> pending;
+    private boolean busy;
+    private boolean exhausted;
+
+    public BookmarkSearchModel(BookmarkManager manager) {
+        this.manager = manager;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "anima-bookmark-search");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * The loaded results, ordered by title
+     */
+    public ObservableList<Bookmark> getItems() {
+        return items;
+    }
+
+    /**
+     * Search once typing pauses; empty text lists all bookmarks
+     */
+    public void search(String text) {
+        query = text == null ? "" : text.trim();
+        reload(PAGE_SIZE, DEBOUNCE_MILLIS);
+    }
+
+    /**
+     * Run the current query again now, keeping as many rows loaded as before
+     */
+    public void refresh() {
+        reload(Math.max(PAGE_SIZE, items.size()), 0);
+    }
+
+    /**
+     * Fetch the next page, unless one is on its way or all results are loaded
+     */
+    public void loadMore() {
+        if (busy || exhausted || items.isEmpty()) {
+            return;
+        }
+        Bookmark last = items.get(items.size() - 1);
+        // A copy, so renaming the bookmark meanwhile cannot move the cursor
+        Bookmark cursor = new Bookmark(last.getTitle(), last.getUrl());
+        fetch(cursor, PAGE_SIZE, 0, generation);
+    }
+
+    /**
+     * Drop pending queries and stop the search thread
+     */
+    public void close() {
+        generation++;
+        cancelPending();
+        executor.shutdownNow();
+    }
+
+    /**
+     * Create a list cell showing a bookmark's title above its folder and URL
+     */
+    public ListCell<Bookmark> newCell() {
+        return new BookmarkCell();
+    }
+
+    private void reload(int limit, long delayMillis) {
+        generation++;
+        cancelPending();
+        fetch(null, limit, delayMillis, generation);
+    }
+
+    private void fetch(Bookmark after, int limit, long delayMillis, long ticket) {
+        String text = query;
+        busy = true;
+        pending = executor.schedule(() -> {
+            List<Bookmark> page;
+            try {
+                page = manager.searchBookmarks(text, after, limit);
+            } catch (RuntimeException e) {
+                System.err.println("Bookmark search failed: " + e.getMessage());
+                page = new ArrayList<>();
+            }
+            List<Bookmark> result = page;
+            Platform.runLater(() -> {
+                if (ticket != generation) {
+                    return;
+                }
+                busy = false;
+                exhausted = result.size() < limit;
+                if (after == null) {
+                    applyDiff(items, result);
+                } else {
+                    items.addAll(result);
+                }
+            });
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void cancelPending() {
+        if (pending != null) {
+            pending.cancel(false);
+            pending = null;
+        }
+        busy = false;
+    }
+
+    /**
+     * Make {@code items} match {@code fresh} with few change events: rows that are
+     * gone are removed in one batch and new rows inserted in contiguous runs
+     */
+    static void applyDiff(ObservableList<Bookmark> items, List<Bookmark> fresh) {
+        Set<Bookmark> wanted = Collections.newSetFromMap(new IdentityHashMap<>());
+        wanted.addAll(fresh);
+        List<Bookmark> gone = new ArrayList<>();
+        for (Bookmark bookmark : items) {
+            if (!wanted.contains(bookmark)) {
+                gone.add(bookmark);
+            }
+        }
+        if (gone.size() == items.size()) {
+            items.setAll(fresh);
+            return;
+        }
+        items.removeAll(gone);
+
+        int at = 0;
+        int i = 0;
+        while (i < fresh.size()) {
+            if (at < items.size() && items.get(at) == fresh.get(i)) {
+                at++;
+                i++;
+                continue;
+            }
+            // Insert everything up to the next row already shown
+            Bookmark next = at < items.size() ? items.get(at) : null;
+            int runStart = i;
+            while (i < fresh.size() && fresh.get(i) != next) {
+                i++;
+            }
+            items.addAll(at, fresh.subList(runStart, i));
+            at += i - runStart;
+        }
+        if (at < items.size()) {
+            // Rows that moved were inserted again at their new place
+            items.remove(at, items.size());
+        }
+    }
+
+    /**
+     * Reused row: the nodes are built once and only their text changes
+     */
+    private class BookmarkCell extends ListCell<Bookmark> {
+        private final Label title = new Label();
+        private final Label detail = new Label();
+        private final VBox content = new VBox(2, title, detail);
+
+        BookmarkCell() {
+            title.setStyle("-fx-font-weight: bold;");
+            detail.setStyle("-fx-text-fill: #666666; -fx-font-size: 11px;");
+        }
+
+        @Override
+        protected void updateItem(Bookmark bookmark, boolean empty) {
+            super.updateItem(bookmark, empty);
+            if (empty || bookmark == null) {
+                setGraphic(null);
+                return;
+            }
+            title.setText(bookmark.getTitle());
+            detail.setText(bookmark.getFolder() + " — " + bookmark.getUrl());
+            setGraphic(content);
+            if (getIndex() >= items.size() - PAGE_SIZE / 2) {
+                loadMore();
+            }
+        }
+    }
+}
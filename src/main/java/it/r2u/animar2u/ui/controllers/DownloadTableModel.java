@@ -0,0 +1,231 @@
+package it.r2u.animar2u.ui.controllers;
+
+import it.r2u.animar2u.core.storage.DownloadItem;
+import it.r2u.animar2u.core.storage.DownloadManager;
+import it.r2u.animar2u.core.storage.DownloadProgress;
+import it.r2u.animar2u.core.storage.DownloadProgressListener;
+import javafx.animation.AnimationTimer;
+import javafx.beans.binding.Bindings;
+import javafx.beans.property.ReadOnlyObjectWrapper;
+import javafx.beans.property.ReadOnlyStringWrapper;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import javafx.collections.transformation.SortedList;
+import javafx.scene.control.ContextMenu;
+import javafx.scene.control.Label;
+import javafx.scene.control.MenuItem;
+import javafx.scene.control.TableColumn;
+import javafx.scene.control.TableRow;
+import javafx.scene.control.TableView;
+import javafx.scene.control.cell.ProgressBarTableCell;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Rows of the downloads window, kept live while it is open.
+ * An AnimationTimer samples the download manager once per frame on the FX
+ * thread, so however fast bytes arrive the table is updated at most once per
+ * frame, only for the downloads that changed, and download threads never post
+ * anything to the FX thread. Newest downloads are listed first.
+ */
+public class DownloadTableModel implements DownloadProgressListener {
+
+    private final DownloadManager manager;
+    private final ObservableList<DownloadProgress> rows = FXCollections.observableArrayList();
+    // Position of each download in rows
+    private final Map<String, Integer> positions = new HashMap<>();
+    private final AnimationTimer timer = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            manager.getProgressSampler().sample(now);
+        }
+    };
+
+    public DownloadTableModel(DownloadManager manager) {
+        this.manager = manager;
+    }
+
+    /**
+     * Start following the downloads
+     */
+    public void start() {
+        manager.getProgressSampler().addListener(this);
+        timer.start();
+    }
+
+    /**
+     * Stop following the downloads
+     */
+    public void close() {
+        timer.stop();
+        manager.getProgressSampler().removeListener(this);
+    }
+
+    @Override
+    public void progressChanged(List<DownloadProgress> changed) {
+        List<DownloadProgress> added = new ArrayList<>();
+        for (DownloadProgress progress : changed) {
+            Integer position = positions.get(progress.getDownloadId());
+            if (position != null) {
+                rows.set(position, progress);
+            } else {
+                added.add(progress);
+            }
+        }
+        if (!added.isEmpty()) {
+            added.sort(Comparator.comparing(DownloadProgress::getStartTime).reversed());
+            rows.addAll(0, added);
+            reindex();
+        }
+    }
+
+    @Override
+    public void downloadRemoved(String downloadId) {
+        Integer position = positions.get(downloadId);
+        if (position != null) {
+            rows.remove((int) position);
+            reindex();
+        }
+    }
+
+    /**
+     * Create a table showing the downloads, with a menu to pause, resume,
+     * cancel or remove them
+     */
+    public TableView<DownloadProgress> createTable() {
+        TableView<DownloadProgress> table = new TableView<>();
+        // Sorting by a column reorders this view only, so positions stay valid
+        SortedList<DownloadProgress> sorted = new SortedList<>(rows);
+        sorted.comparatorProperty().bind(table.comparatorProperty());
+        table.setItems(sorted);
+        table.setPlaceholder(new Label("No downloads yet."));
+        table.setColumnResizePolicy(TableView.CONSTRAINED_RESIZE_POLICY_FLEX_LAST_COLUMN);
+
+        TableColumn<DownloadProgress, Double> progress = new TableColumn<>("Progress");
+        progress.setCellValueFactory(cell -> new ReadOnlyObjectWrapper<>(shownProgress(cell.getValue())));
+        progress.setCellFactory(ProgressBarTableCell.forTableColumn());
+        progress.setPrefWidth(110);
+        table.getColumns().add(textColumn("Name", 200, DownloadProgress::getFileName));
+        table.getColumns().add(progress);
+        table.getColumns().add(textColumn("Size", 140, DownloadTableModel::size));
+        table.getColumns().add(textColumn("Speed", 90, DownloadTableModel::speed));
+        table.getColumns().add(textColumn("Time left", 80, DownloadTableModel::timeLeft));
+        table.getColumns().add(textColumn("Status", 90, DownloadTableModel::status));
+
+        table.setRowFactory(view -> {
+            TableRow<DownloadProgress> row = new TableRow<>();
+            MenuItem pause = new MenuItem("Pause");
+            MenuItem resume = new MenuItem("Resume");
+            MenuItem cancel = new MenuItem("Cancel");
+            MenuItem remove = new MenuItem("Remove from list");
+            pause.setOnAction(e -> manager.pauseDownload(row.getItem().getDownloadId()));
+            resume.setOnAction(e -> manager.resumeDownload(row.getItem().getDownloadId()));
+            cancel.setOnAction(e -> manager.cancelDownload(row.getItem().getDownloadId()));
+            remove.setOnAction(e -> manager.removeDownload(row.getItem().getDownloadId()));
+            ContextMenu menu = new ContextMenu(pause, resume, cancel, remove);
+            menu.setOnShowing(e -> {
+                DownloadItem.DownloadStatus status = row.getItem().getStatus();
+                boolean active = status == DownloadItem.DownloadStatus.PENDING ||
+                                 status == DownloadItem.DownloadStatus.IN_PROGRESS;
+                pause.setDisable(!active);
+                cancel.setDisable(!active);
+                resume.setDisable(active || status == DownloadItem.DownloadStatus.COMPLETED);
+            });
+            row.contextMenuProperty().bind(Bindings.when(row.emptyProperty())
+                .then((ContextMenu) null).otherwise(menu));
+            return row;
+        });
+        return table;
+    }
+
+    private void reindex() {
+        positions.clear();
+        for (int i = 0; i < rows.size(); i++) {
+            positions.put(rows.get(i).getDownloadId(), i);
+        }
+    }
+
+    private static TableColumn<DownloadProgress, String> textColumn(String title, double width,
+                                                                    Function<DownloadProgress, String> text) {
+        TableColumn<DownloadProgress, String> column = new TableColumn<>(title);
+        column.setCellValueFactory(cell -> new ReadOnlyStringWrapper(text.apply(cell.getValue())));
+        column.setPrefWidth(width);
+        return column;
+    }
+
+    /**
+     * Progress for the bar: moving only while a download of unknown size runs
+     */
+    private static double shownProgress(DownloadProgress row) {
+        double progress = row.getProgress();
+        if (progress < 0 && row.getStatus() != DownloadItem.DownloadStatus.IN_PROGRESS) {
+            return 0;
+        }
+        return progress;
+    }
+
+    private static String size(DownloadProgress row) {
+        if (row.getFileSize() <= 0) {
+            return bytes(row.getDownloadedSize());
+        }
+        if (row.getStatus() == DownloadItem.DownloadStatus.COMPLETED) {
+            return bytes(row.getFileSize());
+        }
+        return bytes(row.getDownloadedSize()) + " of " + bytes(row.getFileSize());
+    }
+
+    private static String speed(DownloadProgress row) {
+        if (row.getStatus() != DownloadItem.DownloadStatus.IN_PROGRESS || row.getBytesPerSecond() <= 0) {
+            return "";
+        }
+        return bytes((long) row.getBytesPerSecond()) + "/s";
+    }
+
+    private static String timeLeft(DownloadProgress row) {
+        long seconds = row.getSecondsRemaining();
+        if (row.getStatus() != DownloadItem.DownloadStatus.IN_PROGRESS || seconds < 0) {
+            return "";
+        }
+        if (seconds < 60) {
+            return seconds + " s";
+        }
+        if (seconds < 3600) {
+            return seconds / 60 + " min " + seconds % 60 + " s";
+        }
+        return seconds / 3600 + " h " + seconds % 3600 / 60 + " min";
+    }
+
+    private static String status(DownloadProgress row) {
+        if (row.getStatus() == DownloadItem.DownloadStatus.COMPLETED && row.getDuplicateOf() != null) {
+            // The same content was already on disk
+            return "Done, same as " + Paths.get(row.getDuplicateOf()).getFileName();
+        }
+        switch (row.getStatus()) {
+            case PENDING: return "Queued";
+            case IN_PROGRESS: return "Downloading";
+            case PAUSED: return "Paused";
+            case COMPLETED: return "Done";
+            case FAILED: return "Failed";
+            default: return "Cancelled";
+        }
+    }
+
+    private static String bytes(long bytes) {
+        if (bytes < 1024) {
+            return bytes + " B";
+        }
+        if (bytes < 1024 * 1024) {
+            return String.format("%.1f KB", bytes / 1024.0);
+        }
+        if (bytes < 1024L * 1024 * 1024) {
+            return String.format("%.1f MB", bytes / (1024.0 * 1024));
+        }
+        return String.format("%.2f GB", bytes / (1024.0 * 1024 * 1024));
+    }
+}
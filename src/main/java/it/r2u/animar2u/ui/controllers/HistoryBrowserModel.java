@@ -0,0 +1,434 @@
+package it.r2u.animar2u.ui.controllers;
+
+import it.r2u.animar2u.core.navigation.HistoryManager;
+import it.r2u.animar2u.core.storage.HistoryEntry;
+import javafx.application.Platform;
+import javafx.beans.property.ReadOnlyIntegerProperty;
+import javafx.beans.property.ReadOnlyIntegerWrapper;
+import javafx.collections.ObservableList;
+import javafx.collections.ObservableListBase;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListCell;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.Priority;
+import javafx.scene.layout.VBox;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rows of the history dialog: every visit, newest first, under a heading per day.
+ * Only the number of visits per day is loaded up front, counted on a background
+ * thread with the newest days shown first. Visits are fetched a page at a time
+ * when their rows come into view, and only a few pages are kept, so the list can
+ * scroll through millions of visits. Rows of a page not loaded yet show a
+ * placeholder until it arrives. A search counts again from scratch; results are
+ * pinned to the moment the search started, so new visits cannot shift the pages.
+ */
+public class HistoryBrowserModel {
+
+    private static final int PAGE_SIZE = 200;
+    private static final int MAX_CACHED_PAGES = 8;
+    private static final long DEBOUNCE_MILLIS = 200;
+    private static final DateTimeFormatter DAY_FORMAT = DateTimeFormatter.ofPattern("EEEE d MMMM yyyy");
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm");
+
+    /**
+     * A day heading, a visit, or a placeholder for a visit still loading
+     */
+    public static final class Row {
+        private final LocalDate date;
+        private final HistoryEntry entry;
+        private final boolean loading;
+
+        private Row(LocalDate date, HistoryEntry entry, boolean loading) {
+            this.date = date;
+            this.entry = entry;
+            this.loading = loading;
+        }
+
+        public LocalDate getDate() {
+            return date;
+        }
+
+        /**
+         * The visit, or null for headings and placeholders
+         */
+        public HistoryEntry getEntry() {
+            return entry;
+        }
+
+        public boolean isHeader() {
+            return entry == null && !loading;
+        }
+
+        public boolean isLoading() {
+            return loading;
+        }
+    }
+
+    private static final Row LOADING = new Row(null, null, true);
+
+    private final HistoryManager manager;
+    private final Executor fxThread;
+    private final ScheduledExecutorService counter;
+    private final ExecutorService loader;
+    private final Rows rows = new Rows();
+    private final ReadOnlyIntegerWrapper visitCount = new ReadOnlyIntegerWrapper();
+    // Only touched on the FX thread
+    private String query = "";
+    private LocalDateTime until;
+    private CompletableFuture<Void> counting;
+    private final List<Row> headers = new ArrayList<>();
+    private final List<Integer> counts = new ArrayList<>();
+    private int[] sectionStarts = new int[16];
+    private int size;
+    private final Map<PageKey, List<Row>> pages = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<PageKey, List<Row>> eldest) {
+            return size() > MAX_CACHED_PAGES;
+        }
+    };
+    private final Set<PageKey> requested = new HashSet<>();
+    // Read by the loader to drop pages scrolled out of reach before fetching them
+    private volatile long generation;
+    private volatile int lastShownRow;
+
+    public HistoryBrowserModel(HistoryManager manager) {
+        this(manager, Platform::runLater);
+    }
+
+    /**
+     * @param fxThread Runs the updates of the rows, which must not run concurrently
+     */
+    HistoryBrowserModel(HistoryManager manager, Executor fxThread) {
+        this.manager = manager;
+        this.fxThread = fxThread;
+        this.counter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "anima-history-count");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.loader = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "anima-history-pages");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * The rows to show; loads visits as rows are read
+     */
+    public ObservableList<Row> getRows() {
+        return rows;
+    }
+
+    /**
+     * Visits counted so far for the current search
+     */
+    public ReadOnlyIntegerProperty visitCountProperty() {
+        return visitCount.getReadOnlyProperty();
+    }
+
+    /**
+     * Search once typing pauses; empty text shows all visits
+     */
+    public void search(String text) {
+        query = text == null ? "" : text.trim();
+        restart(DEBOUNCE_MILLIS);
+    }
+
+    /**
+     * Show the current search again from now, including visits made since
+     */
+    public void refresh() {
+        restart(0);
+    }
+
+    /**
+     * Drop pending work and stop the background threads
+     */
+    public void close() {
+        generation++;
+        if (counting != null) {
+            counting.cancel(true);
+        }
+        counter.shutdownNow();
+        loader.shutdownNow();
+    }
+
+    /**
+     * Create a list cell that shows headings, visits and placeholders
+     */
+    public ListCell<Row> newCell() {
+        return new HistoryCell();
+    }
+
+    private void restart(long delayMillis) {
+        long ticket = ++generation;
+        if (counting != null) {
+            // Stops a count in progress between days
+            counting.cancel(false);
+        }
+        pages.clear();
+        requested.clear();
+        headers.clear();
+        counts.clear();
+        visitCount.set(0);
+        if (size > 0) {
+            int removed = size;
+            size = 0;
+            rows.removeAll(removed);
+        }
+
+        String text = query;
+        LocalDateTime now = LocalDateTime.now();
+        counting = manager.countVisitsByDate(text, now, (date, count) -> fxThread.execute(() -> {
+            if (ticket == generation) {
+                until = now;
+                addSection(date, count);
+            }
+        }), CompletableFuture.delayedExecutor(delayMillis, TimeUnit.MILLISECONDS, counter));
+        counting.whenComplete((ignored, error) -> {
+            if (error != null && !(error instanceof CancellationException)) {
+                Throwable cause = error.getCause() != null ? error.getCause() : error;
+                System.err.println("Failed to count history: " + cause.getMessage());
+            }
+        });
+    }
+
+    private void addSection(LocalDate date, int count) {
+        int section = headers.size();
+        if (section == sectionStarts.length) {
+            sectionStarts = Arrays.copyOf(sectionStarts, section * 2);
+        }
+        sectionStarts[section] = size;
+        headers.add(new Row(date, null, false));
+        counts.add(count);
+        int from = size;
+        size += 1 + count;
+        visitCount.set(visitCount.get() + count);
+        rows.added(from, size);
+    }
+
+    /**
+     * Section holding a row: the last one starting at or before it
+     */
+    private int sectionOf(int row) {
+        int index = Arrays.binarySearch(sectionStarts, 0, headers.size(), row);
+        return index >= 0 ? index : -index - 2;
+    }
+
+    private Row rowAt(int row) {
+        int section = sectionOf(row);
+        int offset = row - sectionStarts[section] - 1;
+        if (offset < 0) {
+            return headers.get(section);
+        }
+        lastShownRow = row;
+        List<Row> page = pages.get(new PageKey(section, offset / PAGE_SIZE));
+        // Fetch this page and the ones the list is about to scroll into
+        prefetch(row);
+        prefetch(row - PAGE_SIZE / 2);
+        prefetch(row + PAGE_SIZE / 2);
+        if (page == null || offset % PAGE_SIZE >= page.size()) {
+            return LOADING;
+        }
+        return page.get(offset % PAGE_SIZE);
+    }
+
+    private void prefetch(int row) {
+        if (row < 0 || row >= size) {
+            return;
+        }
+        int section = sectionOf(row);
+        int offset = row - sectionStarts[section] - 1;
+        if (offset < 0) {
+            return;
+        }
+        PageKey key = new PageKey(section, offset / PAGE_SIZE);
+        if (pages.containsKey(key) || !requested.add(key)) {
+            return;
+        }
+
+        long ticket = generation;
+        LocalDate date = headers.get(section).getDate();
+        String text = query;
+        LocalDateTime pinned = until;
+        int firstRow = sectionStarts[section] + 1 + key.page * PAGE_SIZE;
+        int pageRows = Math.min(PAGE_SIZE, counts.get(section) - key.page * PAGE_SIZE);
+        loader.execute(() -> {
+            if (ticket != generation || Math.abs(lastShownRow - firstRow) > MAX_CACHED_PAGES / 2 * PAGE_SIZE) {
+                // Scrolled out of reach while queued; requested again if its rows are shown
+                fxThread.execute(() -> showPage(ticket, key, firstRow, pageRows, null));
+                return;
+            }
+            manager.getVisitsOn(date, text, pinned, key.page * PAGE_SIZE, PAGE_SIZE, loader)
+                .whenComplete((entries, error) -> {
+                    List<Row> page = null;
+                    if (error != null) {
+                        Throwable cause = error.getCause() != null ? error.getCause() : error;
+                        System.err.println("Failed to load history: " + cause.getMessage());
+                    } else {
+                        page = new ArrayList<>(pageRows);
+                        for (HistoryEntry entry : entries) {
+                            page.add(new Row(date, entry, false));
+                        }
+                    }
+                    List<Row> loaded = page;
+                    fxThread.execute(() -> showPage(ticket, key, firstRow, pageRows, loaded));
+                });
+        });
+    }
+
+    /**
+     * Show a page that was fetched, or forget the request for one that was not
+     */
+    private void showPage(long ticket, PageKey key, int firstRow, int pageRows, List<Row> loaded) {
+        if (ticket != generation) {
+            return;
+        }
+        // A page skipped or failed is requested again when its rows are shown
+        requested.remove(key);
+        if (loaded != null) {
+            pages.put(key, loaded);
+            rows.replaced(firstRow, firstRow + pageRows);
+        }
+    }
+
+    private static String heading(LocalDate date) {
+        LocalDate today = LocalDate.now();
+        if (date.equals(today)) {
+            return "Today";
+        }
+        if (date.equals(today.minusDays(1))) {
+            return "Yesterday";
+        }
+        return DAY_FORMAT.format(date);
+    }
+
+    private static final class PageKey {
+        final int section;
+        final int page;
+
+        PageKey(int section, int page) {
+            this.section = section;
+            this.page = page;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof PageKey)) return false;
+            PageKey other = (PageKey) o;
+            return section == other.section && page == other.page;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(section, page);
+        }
+    }
+
+    /**
+     * The list the ListView sees: rows are computed on demand from the counts
+     * and the cached pages
+     */
+    private class Rows extends ObservableListBase<Row> {
+
+        @Override
+        public Row get(int index) {
+            Objects.checkIndex(index, size);
+            return rowAt(index);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        void added(int from, int to) {
+            beginChange();
+            nextAdd(from, to);
+            endChange();
+        }
+
+        void removeAll(int count) {
+            beginChange();
+            nextRemove(0, Collections.nCopies(count, LOADING));
+            endChange();
+        }
+
+        /**
+         * Rows that were placeholders now have their visits
+         */
+        void replaced(int from, int to) {
+            beginChange();
+            nextReplace(from, to, Collections.nCopies(to - from, LOADING));
+            endChange();
+        }
+    }
+
+    /**
+     * Reused row: the nodes are built once and only their text changes
+     */
+    private static class HistoryCell extends ListCell<Row> {
+        private final Label time = new Label();
+        private final Label title = new Label();
+        private final Label url = new Label();
+        private final VBox text = new VBox(2, title, url);
+        private final HBox content = new HBox(10, time, text);
+
+        HistoryCell() {
+            time.setMinWidth(40);
+            time.setStyle("-fx-text-fill: #666666;");
+            url.setStyle("-fx-text-fill: #666666; -fx-font-size: 11px;");
+            HBox.setHgrow(text, Priority.ALWAYS);
+        }
+
+        @Override
+        protected void updateItem(Row row, boolean empty) {
+            super.updateItem(row, empty);
+            if (empty || row == null) {
+                setText(null);
+                setGraphic(null);
+                setStyle("");
+                return;
+            }
+            if (row.isHeader()) {
+                setText(heading(row.getDate()));
+                setGraphic(null);
+                setStyle("-fx-font-weight: bold;");
+            } else if (row.isLoading()) {
+                setText("Loading…");
+                setGraphic(null);
+                setStyle("-fx-text-fill: #999999;");
+            } else {
+                HistoryEntry entry = row.getEntry();
+                time.setText(TIME_FORMAT.format(entry.getVisitTime()));
+                title.setText(entry.getTitle());
+                url.setText(entry.getUrl());
+                setText(null);
+                setGraphic(content);
+                setStyle("");
+            }
+        }
+    }
+}
@@ -2,10 +2,18 @@ package it.r2u.animar2u.ui.controllers;
 
 import it.r2u.animar2u.core.tab_management.TabManager;
 import it.r2u.animar2u.core.tab_management.BrowserTab;
+import it.r2u.animar2u.core.tab_management.SessionStore;
+import it.r2u.animar2u.core.tab_management.WebViewPool;
 import it.r2u.animar2u.core.storage.BookmarkManager;
 import it.r2u.animar2u.core.storage.Bookmark;
 import it.r2u.animar2u.core.storage.DownloadManager;
+import it.r2u.animar2u.core.storage.DownloadProgress;
+import it.r2u.animar2u.core.storage.NetscapeBookmarks;
+import it.r2u.animar2u.core.storage.ProfileStore;
+import it.r2u.animar2u.core.navigation.HistoryJson;
 import it.r2u.animar2u.core.navigation.HistoryManager;
+import it.r2u.animar2u.core.search.AutocompleteEngine;
+import it.r2u.animar2u.core.config.SystemPropertyManager;
 import javafx.application.Platform;
 import javafx.fxml.FXML;
 import javafx.fxml.Initializable;
@@ -13,9 +21,20 @@ import javafx.scene.control.*;
 import javafx.scene.layout.GridPane;
 import javafx.scene.input.Clipboard;
 import javafx.scene.input.ClipboardContent;
+import javafx.stage.FileChooser;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
 import java.util.ResourceBundle;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Main controller for the Anima Browser interface.
@@ -42,8 +61,13 @@ public class MainBrowserController implements Initializable {
     private BookmarkManager bookmarkManager;
     private HistoryManager historyManager;
     private DownloadManager downloadManager;
+    private AutocompleteEngine autocompleteEngine;
+    private VisitedLinkMarker visitedLinkMarker;
+    private ProfileStore profileStore;
+    private SessionStore sessionStore;
     private String homeUrl = "https://www.google.com";
     private Tab newTabPlusTab; // Special "+" tab
+    private boolean shutDown;
     
     @Override
     public void initialize(URL location, ResourceBundle resources) {
@@ -57,9 +81,29 @@ public class MainBrowserController implements Initializable {
      */
     private void initializeComponents() {
         tabManager = new TabManager(this);
-        bookmarkManager = new BookmarkManager();
-        historyManager = new HistoryManager();
-        downloadManager = new DownloadManager();
+        Path profileDirectory = SystemPropertyManager.getProfileDirectory();
+        try {
+            profileStore = ProfileStore.open(profileDirectory.resolve("profile"));
+        } catch (IOException e) {
+            // Bookmarks and downloads still work, they just are not saved
+            System.err.println("Failed to open profile store: " + e.getMessage());
+        }
+        bookmarkManager = new BookmarkManager(profileStore);
+        if (profileStore != null) {
+            sessionStore = new SessionStore(profileStore);
+            tabManager.setSessionStore(sessionStore);
+        }
+        historyManager = new HistoryManager(profileDirectory.resolve("history"));
+        visitedLinkMarker = new VisitedLinkMarker(historyManager::isVisited);
+        downloadManager = new DownloadManager(profileStore);
+        downloadManager.load();
+        
+        // Feed address bar suggestions from history and bookmarks
+        autocompleteEngine = new AutocompleteEngine();
+        historyManager.addHistoryListener(autocompleteEngine);
+        bookmarkManager.addBookmarkListener(autocompleteEngine);
+        bookmarkManager.load();
+        historyManager.load();
         
         // Set initial button states
         backButton.setDisable(true);
@@ -79,6 +123,7 @@ public class MainBrowserController implements Initializable {
     private void setupEventHandlers() {
         // Address bar handler
         addressBar.setOnAction(e -> onNavigate());
+        new AddressBarAutocomplete(addressBar, autocompleteEngine, this::navigateToUrl);
         
         // Tab selection change handler
         tabPane.getSelectionModel().selectedItemProperty().addListener(
@@ -107,11 +152,25 @@ public class MainBrowserController implements Initializable {
     }
     
     /**
-     * Create the initial tab when browser starts
+     * Bring back the tabs of the last session when browser starts, or open the
+     * home page; restored tabs load only when selected or their turn comes
      */
     private void createInitialTab() {
-        onNewTab();
-        navigateToUrl(homeUrl);
+        List<BrowserTab> restored = tabManager.restoreSession();
+        if (restored.isEmpty()) {
+            onNewTab();
+            navigateToUrl(homeUrl);
+            return;
+        }
+        Tab selectedTab = null;
+        int selectedIndex = Math.max(0, sessionStore.getSelectedIndex());
+        for (int i = 0; i < restored.size(); i++) {
+            Tab tab = addTab(restored.get(i));
+            if (i == selectedIndex) {
+                selectedTab = tab;
+            }
+        }
+        tabPane.getSelectionModel().select(selectedTab);
     }
     
     // Navigation Actions
@@ -158,9 +217,17 @@ public class MainBrowserController implements Initializable {
     @FXML
     private void onNewTab() {
         BrowserTab newBrowserTab = tabManager.createNewTab();
-        Tab tab = new Tab("New Tab");
-        tab.setContent(newBrowserTab.getContent());
-        tab.setUserData(newBrowserTab);
+        Tab tab = addTab(newBrowserTab);
+        tabPane.getSelectionModel().select(tab);
+        
+        // Focus address bar for new tab
+        Platform.runLater(() -> addressBar.requestFocus());
+    }
+    
+    private Tab addTab(BrowserTab browserTab) {
+        Tab tab = new Tab(browserTab.getTitle());
+        tab.setContent(browserTab.getContent());
+        tab.setUserData(browserTab);
         
         // Add close handler for this specific tab
         tab.setOnCloseRequest(event -> {
@@ -170,10 +237,7 @@ public class MainBrowserController implements Initializable {
         // Insert the new tab before the "+" tab
         int insertIndex = tabPane.getTabs().size() - 1; // Before the "+" tab
         tabPane.getTabs().add(insertIndex, tab);
-        tabPane.getSelectionModel().select(tab);
-        
-        // Focus address bar for new tab
-        Platform.runLater(() -> addressBar.requestFocus());
+        return tab;
     }
     
     private void onCloseTab(Tab tab) {
@@ -209,8 +273,13 @@ public class MainBrowserController implements Initializable {
             }
             
             BrowserTab browserTab = (BrowserTab) newTab.getUserData();
+            // Wakes the tab if it hibernated
+            tabManager.selectTab(browserTab);
             if (browserTab != null) {
                 updateUIForTab(browserTab);
+                if (!browserTab.isLoading()) {
+                    updateProgress(-1);
+                }
             }
         }
     }
@@ -225,11 +294,35 @@ public class MainBrowserController implements Initializable {
     
     @FXML
     private void onExit() {
-        // Clean shutdown
-        tabManager.closeAllTabs();
+        shutdown();
         Platform.exit();
     }
     
+    /**
+     * Save the session and close everything that writes to the profile. Runs
+     * however the browser is closed, from the Exit menu or the window, and
+     * only once.
+     */
+    public void shutdown() {
+        if (shutDown) {
+            return;
+        }
+        shutDown = true;
+        historyManager.close();
+        // Before the profile closes, so downloads can save where they stopped
+        downloadManager.shutdown();
+        tabManager.saveSession();
+        if (profileStore != null) {
+            try {
+                profileStore.close();
+            } catch (IOException e) {
+                System.err.println("Failed to save profile: " + e.getMessage());
+            }
+        }
+        autocompleteEngine.shutdown();
+        tabManager.closeAllTabs();
+    }
+    
     @FXML
     private void onCopy() {
         BrowserTab currentTab = getCurrentBrowserTab();
@@ -379,8 +472,10 @@ public class MainBrowserController implements Initializable {
         searchField.setPromptText("Search bookmarks...");
         searchField.setPrefWidth(500);
         
-        // Bookmarks list
-        ListView<Bookmark> bookmarkList = new ListView<>();
+        // Bookmarks list, filled in pages by a background search
+        BookmarkSearchModel searchModel = new BookmarkSearchModel(bookmarkManager);
+        ListView<Bookmark> bookmarkList = new ListView<>(searchModel.getItems());
+        bookmarkList.setCellFactory(list -> searchModel.newCell());
         bookmarkList.setPrefSize(500, 300);
         
         // Buttons
@@ -397,20 +492,12 @@ public class MainBrowserController implements Initializable {
         buttonBox.getChildren().addAll(navigateBtn, editBtn, deleteBtn, closeBtn);
         
         // Load bookmarks
-        Runnable loadBookmarks = () -> {
-            bookmarkList.getItems().clear();
-            String searchText = searchField.getText().trim();
-            if (searchText.isEmpty()) {
-                bookmarkList.getItems().addAll(bookmarkManager.getAllBookmarks());
-            } else {
-                bookmarkList.getItems().addAll(bookmarkManager.searchBookmarks(searchText));
-            }
-        };
+        Runnable loadBookmarks = searchModel::refresh;
         
         loadBookmarks.run();
         
-        // Search handler
-        searchField.textProperty().addListener((obs, old, newVal) -> loadBookmarks.run());
+        // Search handler, debounced by the model
+        searchField.textProperty().addListener((obs, old, newVal) -> searchModel.search(newVal));
         
         // Selection handler
         bookmarkList.getSelectionModel().selectedItemProperty().addListener((obs, old, newVal) -> {
@@ -474,6 +561,7 @@ public class MainBrowserController implements Initializable {
         dialog.getDialogPane().setContent(mainBox);
         dialog.getDialogPane().getButtonTypes().add(ButtonType.CLOSE);
         dialog.showAndWait();
+        searchModel.close();
     }
     
     /**
@@ -560,58 +648,144 @@ public class MainBrowserController implements Initializable {
     @FXML
     private void onShowHistory() {
         // Create history window
-        Alert alert = new Alert(Alert.AlertType.INFORMATION);
-        alert.setTitle("History");
-        alert.setHeaderText("Browsing History (" + historyManager.getHistoryCount() + " entries)");
-        
-        ListView<String> historyList = new ListView<>();
-        historyManager.getRecentHistory(50).forEach(entry -> 
-            historyList.getItems().add(entry.getTitle() + " - " + entry.getUrl() + 
-                " (visited " + entry.getVisitCount() + " times)"));
+        Dialog<ButtonType> dialog = new Dialog<>();
+        dialog.setTitle("History");
+        dialog.setHeaderText("Browsing History");
         
-        if (historyList.getItems().isEmpty()) {
-            historyList.getItems().add("No history yet. Start browsing!");
-        }
+        javafx.scene.layout.VBox mainBox = new javafx.scene.layout.VBox(10);
+        mainBox.setPadding(new javafx.geometry.Insets(10));
         
+        TextField searchField = new TextField();
+        searchField.setPromptText("Search history...");
+        
+        // Every visit grouped by day, loaded in pages as it scrolls into view
+        HistoryBrowserModel historyModel = new HistoryBrowserModel(historyManager);
+        ListView<HistoryBrowserModel.Row> historyList = new ListView<>(historyModel.getRows());
+        historyList.setCellFactory(list -> historyModel.newCell());
+        // Fixed height rows let the list place millions of rows without measuring them
+        historyList.setFixedCellSize(40);
         historyList.setPrefSize(600, 400);
+        historyList.setPlaceholder(new Label("No history yet. Start browsing!"));
+        
+        historyModel.visitCountProperty().addListener((obs, old, newVal) ->
+            dialog.setHeaderText("Browsing History (" + newVal + " visits)"));
+        searchField.textProperty().addListener((obs, old, newVal) -> historyModel.search(newVal));
+        historyModel.refresh();
         
         // Handle double-click to navigate
         historyList.setOnMouseClicked(event -> {
             if (event.getClickCount() == 2) {
-                String selected = historyList.getSelectionModel().getSelectedItem();
-                if (selected != null && !selected.startsWith("No history")) {
-                    String url = selected.split(" - ")[1].split(" \\(visited")[0];
-                    navigateToUrl(url);
-                    alert.close();
+                HistoryBrowserModel.Row selected = historyList.getSelectionModel().getSelectedItem();
+                if (selected != null && selected.getEntry() != null) {
+                    navigateToUrl(selected.getEntry().getUrl());
+                    dialog.close();
                 }
             }
         });
         
-        alert.getDialogPane().setContent(historyList);
-        alert.showAndWait();
+        mainBox.getChildren().addAll(searchField, historyList);
+        dialog.getDialogPane().setContent(mainBox);
+        dialog.getDialogPane().getButtonTypes().add(ButtonType.CLOSE);
+        dialog.showAndWait();
+        historyModel.close();
+    }
+    
+    @FXML
+    private void onImportBookmarks() {
+        File file = chooseFile("Import Bookmarks", "Bookmark files", "*.html", "*.htm", false);
+        if (file != null) {
+            runTransfer("Importing bookmarks", () -> {
+                try (Reader in = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+                    return NetscapeBookmarks.importFrom(in, bookmarkManager) + " bookmarks imported";
+                }
+            });
+        }
+    }
+    
+    @FXML
+    private void onExportBookmarks() {
+        File file = chooseFile("Export Bookmarks", "Bookmark files", "*.html", "*.htm", true);
+        if (file != null) {
+            runTransfer("Exporting bookmarks", () -> {
+                try (Writer out = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+                    return NetscapeBookmarks.exportTo(bookmarkManager, out) + " bookmarks exported";
+                }
+            });
+        }
+    }
+    
+    @FXML
+    private void onImportHistory() {
+        File file = chooseFile("Import History", "JSON files", "*.json", null, false);
+        if (file != null) {
+            runTransfer("Importing history", () -> {
+                try (Reader in = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+                    return HistoryJson.importFrom(in, historyManager) + " visits imported";
+                }
+            });
+        }
+    }
+    
+    @FXML
+    private void onExportHistory() {
+        File file = chooseFile("Export History", "JSON files", "*.json", null, true);
+        if (file != null) {
+            runTransfer("Exporting history", () -> {
+                try (Writer out = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+                    return HistoryJson.exportTo(historyManager, out) + " visits exported";
+                }
+            });
+        }
+    }
+    
+    private File chooseFile(String title, String description, String extension, String otherExtension, boolean save) {
+        FileChooser chooser = new FileChooser();
+        chooser.setTitle(title);
+        chooser.getExtensionFilters().add(otherExtension != null
+            ? new FileChooser.ExtensionFilter(description, extension, otherExtension)
+            : new FileChooser.ExtensionFilter(description, extension));
+        if (save) {
+            return chooser.showSaveDialog(tabPane.getScene().getWindow());
+        }
+        return chooser.showOpenDialog(tabPane.getScene().getWindow());
+    }
+    
+    /**
+     * Run a large import or export off the FX thread, reporting the outcome in the status bar
+     */
+    private void runTransfer(String description, Callable<String> transfer) {
+        updateStatus(description + "...");
+        Thread thread = new Thread(() -> {
+            try {
+                updateStatus(transfer.call());
+                Platform.runLater(this::updateBookmarkButton);
+            } catch (Exception e) {
+                System.err.println(description + " failed: " + e.getMessage());
+                updateStatus(description + " failed: " + e.getMessage());
+            }
+        }, "anima-transfer");
+        thread.setDaemon(true);
+        thread.start();
     }
     
     @FXML
     private void onShowDownloads() {
         // Create downloads window
-        Alert alert = new Alert(Alert.AlertType.INFORMATION);
-        alert.setTitle("Downloads");
-        alert.setHeaderText("Download Manager (" + downloadManager.getDownloadCount() + " downloads)");
-        
-        ListView<String> downloadList = new ListView<>();
-        downloadManager.getAllDownloads().forEach(download -> 
-            downloadList.getItems().add(download.toString()));
-        
-        if (downloadList.getItems().isEmpty()) {
-            downloadList.getItems().add("No downloads yet.");
-            // Add a sample download for demonstration
-            String sampleId = downloadManager.startDownload("https://example.com/sample.pdf", "sample.pdf");
-            downloadList.getItems().add("Sample download added: " + downloadManager.getDownload(sampleId).toString());
-        }
+        Dialog<ButtonType> dialog = new Dialog<>();
+        dialog.setTitle("Downloads");
+        dialog.setHeaderText("Download Manager");
         
-        downloadList.setPrefSize(500, 300);
-        alert.getDialogPane().setContent(downloadList);
-        alert.showAndWait();
+        // Updated every frame while the window is open
+        DownloadTableModel downloadModel = new DownloadTableModel(downloadManager);
+        TableView<DownloadProgress> downloadTable = downloadModel.createTable();
+        downloadTable.setPrefSize(760, 320);
+        downloadModel.start();
+        
+        dialog.getDialogPane().setContent(downloadTable);
+        dialog.getDialogPane().getButtonTypes().add(ButtonType.CLOSE);
+        dialog.setResizable(true);
+        dialog.showAndWait();
+        downloadModel.close();
     }
     
     @FXML
@@ -640,20 +814,27 @@ public class MainBrowserController implements Initializable {
         grid.add(downloadPathField, 1, 1);
         
         // Statistics
+        WebViewPool webViewPool = tabManager.getWebViewPool();
         Label statsLabel = new Label(String.format(
-            "Statistics:\n• History entries: %d\n• Bookmarks: %d\n• Downloads: %d\n• Active tabs: %d",
+            "Statistics:\n• History entries: %d\n• Bookmarks: %d\n• Downloads: %d\n• Active tabs: %d" +
+            "\n• Tab pool hit rate: %.0f%% (%d of %d)\n• New tab ready in: %.1f ms (max %.1f ms)",
             historyManager.getHistoryCount(),
             bookmarkManager.getBookmarkCount(),
             downloadManager.getDownloadCount(),
-            tabManager.getTabCount()
+            tabManager.getTabCount(),
+            webViewPool.getHitRate() * 100,
+            webViewPool.getHits(),
+            webViewPool.getHits() + webViewPool.getMisses(),
+            webViewPool.getMeanTimeToInteractiveMillis(),
+            webViewPool.getMaxTimeToInteractiveMillis()
         ));
         grid.add(statsLabel, 0, 2, 2, 1);
         
         // Clear data buttons
         Button clearHistoryBtn = new Button("Clear History");
         clearHistoryBtn.setOnAction(e -> {
-            historyManager.clearHistory();
-            updateStatus("History cleared");
+            updateStatus("Clearing history...");
+            historyManager.clearHistory().whenComplete((ignored, error) -> updateStatus("History cleared"));
         });
         
         Button clearBookmarksBtn = new Button("Clear Bookmarks");
@@ -708,7 +889,7 @@ public class MainBrowserController implements Initializable {
             currentTab.navigate(url);
             addressBar.setText(url);
             
-            // Add to history
+            // Add to history (queued for the history writer thread)
             historyManager.addToHistory(currentTab.getTitle(), url);
         }
     }
@@ -745,7 +926,13 @@ public class MainBrowserController implements Initializable {
      * Update UI elements based on current tab state
      */
     public void updateUIForTab(BrowserTab browserTab) {
-        if (browserTab != null) {
+        if (browserTab != null && browserTab != getCurrentBrowserTab()) {
+            // A background tab only shows in its title
+            Tab tab = getTabForBrowserTab(browserTab);
+            if (tab != null && browserTab.getTitle() != null && !browserTab.getTitle().isEmpty()) {
+                tab.setText(browserTab.getTitle());
+            }
+        } else if (browserTab != null) {
             // Update navigation buttons
             backButton.setDisable(!browserTab.canGoBack());
             forwardButton.setDisable(!browserTab.canGoForward());
@@ -780,6 +967,37 @@ public class MainBrowserController implements Initializable {
         return null;
     }
     
+    /**
+     * Download a file a tab navigated to. When the response turns out to be a
+     * page after all, the tab shows it if {@code showIfPage} is set; otherwise
+     * the tab's load already failed, and the URL is only fetched if a HEAD
+     * request shows a file.
+     */
+    public void downloadFromTab(BrowserTab browserTab, String url, boolean showIfPage) {
+        updateStatus("Checking " + url);
+        CompletableFuture<String> download = showIfPage ? downloadManager.downloadIfNotRenderable(url)
+            : downloadManager.downloadIfFile(url);
+        download.whenComplete((downloadId, error) -> Platform.runLater(() -> {
+            if (error != null) {
+                Throwable cause = error.getCause() != null ? error.getCause() : error;
+                statusLabel.setText("Download failed: " + cause.getMessage());
+            } else if (downloadId != null) {
+                statusLabel.setText("Downloading " + downloadManager.getDownload(downloadId).getFileName());
+            } else if (showIfPage) {
+                browserTab.showPage(url);
+            } else {
+                statusLabel.setText("Failed to load page");
+            }
+        }));
+    }
+    
+    /**
+     * Mark links to visited pages once a page has loaded
+     */
+    public void markVisitedLinks(BrowserTab browserTab) {
+        visitedLinkMarker.mark(browserTab.getWebEngine());
+    }
+    
     /**
      * Update loading progress
      */
@@ -0,0 +1,100 @@
+package it.r2u.animar2u.ui.controllers;
+
+import javafx.scene.web.WebEngine;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Colors links to visited pages after a page loads.
+ * WebView has no :visited state backed by our history, so the page's link
+ * targets are read in one script call as a newline-joined string, checked
+ * against history on the Java side, and the matches flagged in a second call
+ * that sets a data attribute styled like a visited link. Two bridge crossings
+ * per page keep pages with thousands of anchors cheap; repeated targets are
+ * only checked once.
+ */
+public class VisitedLinkMarker {
+
+    private static final String COLLECT_SCRIPT =
+        "(function () {" +
+        "  var links = Array.prototype.slice.call(document.links);" +
+        "  window.__animaVisitedLinks = links;" +
+        "  var hrefs = new Array(links.length);" +
+        "  for (var i = 0; i < links.length; i++) { hrefs[i] = links[i].href; }" +
+        "  return hrefs.join('\\n');" +
+        "})()";
+
+    // Applied to the links collected above; skipped if the flags no longer line up
+    private static final String APPLY_SCRIPT =
+        "(function (flags) {" +
+        "  var links = window.__animaVisitedLinks;" +
+        "  delete window.__animaVisitedLinks;" +
+        "  if (!links || links.length !== flags.length) { return; }" +
+        "  if (!document.getElementById('anima-visited-links')) {" +
+        "    var style = document.createElement('style');" +
+        "    style.id = 'anima-visited-links';" +
+        "    style.textContent = 'a[data-anima-visited] { color: #551a8b; }';" +
+        "    (document.head || document.documentElement).appendChild(style);" +
+        "  }" +
+        "  for (var i = 0; i < links.length; i++) {" +
+        "    if (flags.charCodeAt(i) === 49) { links[i].setAttribute('data-anima-visited', ''); }" +
+        "  }" +
+        "})";
+
+    private final Predicate<String> visited;
+
+    /**
+     * @param visited Tells whether a URL was visited
+     */
+    public VisitedLinkMarker(Predicate<String> visited) {
+        this.visited = visited;
+    }
+
+    /**
+     * Mark the visited links of the page loaded in the engine; call on the FX thread
+     */
+    public void mark(WebEngine engine) {
+        Object hrefs;
+        try {
+            hrefs = engine.executeScript(COLLECT_SCRIPT);
+        } catch (RuntimeException e) {
+            System.err.println("Failed to read page links: " + e.getMessage());
+            return;
+        }
+        if (!(hrefs instanceof String) || ((String) hrefs).isEmpty()) {
+            return;
+        }
+        String flags = visitedFlags((String) hrefs);
+        try {
+            if (flags.indexOf('1') >= 0) {
+                engine.executeScript(APPLY_SCRIPT + "('" + flags + "')");
+            } else {
+                engine.executeScript("delete window.__animaVisitedLinks");
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Failed to mark visited links: " + e.getMessage());
+        }
+    }
+
+    /**
+     * One '1' or '0' per newline-separated link target
+     */
+    String visitedFlags(String hrefs) {
+        StringBuilder flags = new StringBuilder(hrefs.length() / 32 + 1);
+        Map<String, Boolean> checked = new HashMap<>();
+        int start = 0;
+        while (true) {
+            int end = hrefs.indexOf('\n', start);
+            String href = hrefs.substring(start, end < 0 ? hrefs.length() : end);
+            // Only web links can be in history; skip javascript:, mailto: and the like
+            boolean web = href.startsWith("http://") || href.startsWith("https://");
+            flags.append(web && checked.computeIfAbsent(href, visited::test) ? '1' : '0');
+            if (end < 0) {
+                return flags.toString();
+            }
+            start = end + 1;
+        }
+    }
+}
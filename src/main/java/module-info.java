@@ -4,6 +4,7 @@ module it.r2u.animar2u {
     requires transitive javafx.web;
     requires transitive javafx.graphics;
     requires transitive javafx.base;
+    requires java.net.http;
 
     // External libraries - могут вызывать проблемы с модулями
     // requires org.controlsfx.controls;
@@ -17,6 +18,8 @@ module it.r2u.animar2u {
     exports it.r2u.animar2u.core.tab_management;
     exports it.r2u.animar2u.core.storage;
     exports it.r2u.animar2u.core.navigation;
+    exports it.r2u.animar2u.core.search;
+    exports it.r2u.animar2u.core.util;
     exports it.r2u.animar2u.core.config;
     exports it.r2u.animar2u.core.initialization;
     exports it.r2u.animar2u.media;
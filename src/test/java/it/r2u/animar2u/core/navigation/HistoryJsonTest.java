@@ -0,0 +1,94 @@
+package it.r2u.animar2u.core.navigation;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class HistoryJsonTest {
+
+    private static final String QUOTED = "Say \"hi\" \\ ☺\ttab";
+    private static final String QUERY_URL = "https://a.example/search?q=%22x%22&lang=it";
+
+    @TempDir
+    Path directory;
+
+    private HistoryManager open(String name) {
+        HistoryManager history = new HistoryManager(directory.resolve(name));
+        history.load();
+        history.flush();
+        return history;
+    }
+
+    private static List<String> visits(HistoryManager history) throws IOException {
+        List<String> visits = new ArrayList<>();
+        history.forEachVisit((title, url, millis, count) -> visits.add(millis + " " + url + " " + title));
+        return visits;
+    }
+
+    private static String export(HistoryManager history) throws IOException {
+        StringWriter out = new StringWriter();
+        HistoryJson.exportTo(history, out);
+        return out.toString();
+    }
+
+    @Test
+    void exportedHistoryImportsUnchanged() throws IOException {
+        HistoryManager source = open("source");
+        source.addToHistory(QUOTED, QUERY_URL);
+        source.addToHistory("Plain", "https://b.example/");
+        source.addToHistory("Again", QUERY_URL);
+        String dump = export(source);
+        assertTrue(dump.contains("Say \\\"hi\\\" \\\\"), dump);
+
+        HistoryManager target = open("target");
+        assertEquals(3, HistoryJson.importFrom(new StringReader(dump), target));
+        assertEquals(visits(source), visits(target));
+        assertEquals("Again", target.getRecentHistory(1).get(0).getTitle());
+        source.close();
+        target.close();
+    }
+
+    @Test
+    void importingTheSameDumpTwiceAddsNothing() throws IOException {
+        HistoryManager source = open("source");
+        source.addToHistory("A", "https://a.example/");
+        source.addToHistory("B", "https://b.example/");
+        String dump = export(source);
+
+        HistoryManager target = open("target");
+        HistoryJson.importFrom(new StringReader(dump), target);
+        HistoryJson.importFrom(new StringReader(dump), target);
+        assertEquals(visits(source), visits(target));
+        assertEquals(1, target.getRecentHistory(10).get(0).getVisitCount());
+        source.close();
+        target.close();
+    }
+
+    @Test
+    void otherToolsFormatsAreRead() throws IOException {
+        HistoryManager target = open("target");
+        long time = System.currentTimeMillis() - 3_600_000;
+        String dump = "{\"version\": 1, \"history\": ["
+            + "{\"url\": \"https://a.example/\", \"title\": null, \"lastVisitTime\": " + time + ", \"visitCount\": 3},"
+            + "{\"url\": \"https://b.example/\", \"time\": \"" + Instant.ofEpochMilli(time) + "\"},"
+            + "{\"url\": \"\", \"visitTime\": " + time + "},"
+            + "{\"title\": \"No URL\", \"visitTime\": " + time + "}"
+            + "]}";
+
+        assertEquals(4, HistoryJson.importFrom(new StringReader(dump), target));
+        assertEquals(List.of(time + " https://a.example/ https://a.example/",
+            time + " https://a.example/ https://a.example/",
+            time + " https://a.example/ https://a.example/",
+            time + " https://b.example/ https://b.example/"), visits(target));
+        target.close();
+    }
+}
@@ -0,0 +1,122 @@
+package it.r2u.animar2u.core.navigation;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import it.r2u.animar2u.core.storage.HistoryEntry;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class HistoryManagerTest {
+
+    @TempDir
+    Path directory;
+
+    private static List<String> urls(List<HistoryEntry> entries) {
+        List<String> urls = new ArrayList<>();
+        for (HistoryEntry entry : entries) {
+            urls.add(entry.getUrl());
+        }
+        return urls;
+    }
+
+    private static LocalDateTime pause() throws InterruptedException {
+        Thread.sleep(5);
+        LocalDateTime now = LocalDateTime.now();
+        Thread.sleep(5);
+        return now;
+    }
+
+    private HistoryManager open() {
+        HistoryManager history = new HistoryManager(directory);
+        history.load();
+        history.flush();
+        return history;
+    }
+
+    @Test
+    void clearedRangeStaysClearedAfterReopening() throws InterruptedException {
+        HistoryManager history = open();
+        history.addToHistory("A", "https://a.example/");
+        history.flush();
+        LocalDateTime from = pause();
+        history.addToHistory("B", "https://b.example/");
+        history.addToHistory("C", "https://c.example/");
+        history.flush();
+        LocalDateTime to = pause();
+        history.addToHistory("D", "https://d.example/");
+        history.flush();
+
+        history.clearHistory(from, to).join();
+        assertEquals(List.of("https://d.example/", "https://a.example/"), urls(history.getRecentHistory(10)));
+        history.close();
+
+        history = open();
+        assertEquals(List.of("https://d.example/", "https://a.example/"), urls(history.getRecentHistory(10)));
+        history.close();
+    }
+
+    @Test
+    void visitsAfterAClearedRangeAreKept() throws InterruptedException {
+        HistoryManager history = open();
+        LocalDateTime from = pause();
+        history.addToHistory("B", "https://b.example/");
+        history.flush();
+        LocalDateTime to = pause();
+        history.clearHistory(from, to).join();
+        history.addToHistory("B again", "https://b.example/");
+        history.flush();
+        history.close();
+
+        history = open();
+        List<HistoryEntry> recent = history.getRecentHistory(10);
+        assertEquals(List.of("https://b.example/"), urls(recent));
+        assertEquals("B again", recent.get(0).getTitle());
+        assertEquals(1, recent.get(0).getVisitCount());
+        history.close();
+    }
+
+    @Test
+    void emptyQueryMatchesEveryEntry() {
+        HistoryManager history = new HistoryManager();
+        history.addToHistory("A", "https://a.example/");
+        history.addToHistory("B", "https://b.example/");
+        history.addToHistory("C", "https://c.example/");
+        history.flush();
+
+        assertEquals(List.of("https://c.example/", "https://b.example/", "https://a.example/"),
+            urls(history.searchHistory("")));
+        assertEquals(List.of("https://c.example/", "https://b.example/"), urls(history.searchHistory("", 2)));
+        assertEquals(List.of("https://b.example/"), urls(history.searchHistory("b.ex")));
+        history.close();
+    }
+
+    @Test
+    void readsAndRemovalsSeeVisitsQueuedBeforeThem() {
+        HistoryManager history = open();
+        history.addToHistory("A", "https://a.example/");
+        history.addToHistory("B", "https://b.example/");
+        history.addToHistory("C", "https://c.example/");
+        CompletableFuture<Boolean> removed = history.removeFromHistory("https://b.example/");
+        Map<LocalDate, Integer> counts = new TreeMap<>();
+        CompletableFuture<Void> counted = history.countVisitsByDate("", null, counts::put, Runnable::run);
+        CompletableFuture<List<HistoryEntry>> page = history.getVisitsOn(LocalDate.now(), "", null, 0, 10, Runnable::run);
+
+        assertEquals(true, removed.join());
+        counted.join();
+        assertEquals(Map.of(LocalDate.now(), 2), counts);
+        // Visits in the same millisecond can come in either order
+        assertEquals(Set.of("https://c.example/", "https://a.example/"), new HashSet<>(urls(page.join())));
+        assertEquals(false, history.removeFromHistory("https://b.example/").join());
+        history.close();
+    }
+}
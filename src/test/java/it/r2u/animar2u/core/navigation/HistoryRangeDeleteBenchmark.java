@@ -0,0 +1,77 @@
+package it.r2u.animar2u.core.navigation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of clearing a time range of {@code removed} entries from a history store
+ * of {@code entries}. Each operation removes the oldest range, and the removed
+ * entries are then visited again as the newest, so the store keeps its size.
+ * Removal seeks the visit log, so the cost should follow the range, not the store.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+public class HistoryRangeDeleteBenchmark {
+
+    private static final long START = 1_700_000_000_000L;
+
+    @Param({"10000", "100000", "1000000"})
+    public int entries;
+
+    @Param({"100", "1000"})
+    public int removed;
+
+    private HistoryStore store;
+    private int next;
+    private long oldest;
+    private long millis;
+
+    @Setup
+    public void fill() {
+        store = new HistoryStore(entries + removed);
+        oldest = START;
+        millis = START;
+        for (next = 0; next < entries; next++) {
+            visitNext();
+        }
+    }
+
+    private void visitNext() {
+        store.recordVisits(List.of(new HistoryWriter.Visit("Article " + next,
+            HistoryStoreBenchmark.url(next), millis++)));
+    }
+
+    @Setup(Level.Invocation)
+    public void refill() {
+        List<HistoryWriter.Visit> visits = new ArrayList<>(removed);
+        while (store.size() + visits.size() < entries) {
+            visits.add(new HistoryWriter.Visit("Article " + next, HistoryStoreBenchmark.url(next), millis++));
+            next++;
+        }
+        store.recordVisits(visits);
+    }
+
+    @Benchmark
+    public HistoryStore removeOldestRange() {
+        store.removeBetween(HistoryStore.toLocalDateTime(oldest - 1), HistoryStore.toLocalDateTime(oldest + removed));
+        oldest += removed;
+        return store;
+    }
+}
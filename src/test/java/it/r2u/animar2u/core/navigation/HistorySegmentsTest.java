@@ -0,0 +1,215 @@
+package it.r2u.animar2u.core.navigation;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class HistorySegmentsTest {
+
+    @TempDir
+    Path directory;
+
+    private long day;
+    private long start;
+
+    @BeforeEach
+    void setUp() {
+        // Yesterday, so every visit of a test lands in one segment
+        day = HistorySegments.dayOf(System.currentTimeMillis()) - 1;
+        start = HistorySegments.startOfDay(day) + 3_600_000;
+    }
+
+    private static List<HistoryWriter.Visit> visits(long start, int count) {
+        List<HistoryWriter.Visit> visits = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            visits.add(new HistoryWriter.Visit("Page " + i, "https://example.com/" + (i % 3), start + i * 1000L));
+        }
+        return visits;
+    }
+
+    private static List<String> titles(List<HistoryWriter.Visit> visits) {
+        List<String> titles = new ArrayList<>();
+        for (HistoryWriter.Visit visit : visits) {
+            titles.add(visit.title);
+        }
+        return titles;
+    }
+
+    private Path segment() {
+        return directory.resolve(LocalDate.ofEpochDay(day) + ".seg");
+    }
+
+    private void cutTail(int bytes) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(segment().toFile(), "rw")) {
+            file.setLength(file.length() - bytes);
+        }
+    }
+
+    private void flipLastByte() throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(segment().toFile(), "rw")) {
+            file.seek(file.length() - 1);
+            int last = file.read();
+            file.seek(file.length() - 1);
+            file.write(last ^ 0xff);
+        }
+    }
+
+    @Test
+    void visitsRoundTrip() throws IOException {
+        HistorySegments segments = new HistorySegments(directory);
+        segments.append(visits(start, 5));
+        segments.close();
+
+        List<HistoryWriter.Visit> read = new HistorySegments(directory).visitsOn(day);
+        assertEquals(List.of("Page 0", "Page 1", "Page 2", "Page 3", "Page 4"), titles(read));
+        assertEquals("https://example.com/1", read.get(4).url);
+        assertEquals(start + 4000, read.get(4).millis);
+    }
+
+    @Test
+    void tornTailIsCutAtTheLastValidRecord() throws IOException {
+        HistorySegments segments = new HistorySegments(directory);
+        segments.append(visits(start, 5));
+        segments.close();
+        cutTail(2);
+
+        segments = new HistorySegments(directory);
+        assertEquals(List.of("Page 0", "Page 1", "Page 2", "Page 3"), titles(segments.visitsOn(day)));
+
+        // Appending cuts the torn bytes off before writing after them
+        segments.append(List.of(new HistoryWriter.Visit("Later", "https://example.com/later", start + 10_000)));
+        segments.close();
+        assertEquals(List.of("Page 0", "Page 1", "Page 2", "Page 3", "Later"),
+            titles(new HistorySegments(directory).visitsOn(day)));
+    }
+
+    @Test
+    void recordWithABadChecksumEndsTheSegment() throws IOException {
+        HistorySegments segments = new HistorySegments(directory);
+        segments.append(visits(start, 5));
+        segments.close();
+        flipLastByte();
+
+        segments = new HistorySegments(directory);
+        assertEquals(List.of("Page 0", "Page 1", "Page 2", "Page 3"), titles(segments.visitsOn(day)));
+        segments.append(List.of(new HistoryWriter.Visit("Later", "https://example.com/1", start + 10_000)));
+        segments.close();
+
+        List<HistoryWriter.Visit> read = new HistorySegments(directory).visitsOn(day);
+        assertEquals(List.of("Page 0", "Page 1", "Page 2", "Page 3", "Later"), titles(read));
+        assertEquals(start + 10_000, read.get(4).millis);
+    }
+
+    @Test
+    void unreadableSegmentIsMovedAside() throws IOException {
+        Files.write(segment(), new byte[] {9, 9, 9, 9});
+
+        HistorySegments segments = new HistorySegments(directory);
+        segments.append(visits(start, 2));
+        segments.close();
+
+        assertTrue(Files.exists(directory.resolve(segment().getFileName() + ".corrupt")));
+        assertEquals(List.of("Page 0", "Page 1"), titles(new HistorySegments(directory).visitsOn(day)));
+    }
+
+    @Test
+    void removalsApplyToEarlierVisits() throws IOException {
+        HistorySegments segments = new HistorySegments(directory);
+        segments.append(visits(start, 6));
+        segments.removeUrl("http://example.com/0", start + 3500);
+        segments.removeRange(start + 500, start + 2500, start + 10_000);
+        segments.close();
+
+        // Page 0 and 3 are visits to /0; 1 and 2 fall in the range
+        assertEquals(List.of("Page 4", "Page 5"), titles(new HistorySegments(directory).visitsOn(day)));
+    }
+
+    @Test
+    void importedVisitsReadInTimeOrderAndSurviveEarlierRemovals() throws IOException {
+        HistorySegments segments = new HistorySegments(directory);
+        segments.append(List.of(new HistoryWriter.Visit("Live", "https://example.com/live", start + 60_000)));
+        segments.removeUrl("https://example.com/old", System.currentTimeMillis());
+        segments.appendImported(List.of(new HistoryWriter.Visit("Old", "https://example.com/old", start)));
+        segments.close();
+
+        segments = new HistorySegments(directory);
+        List<HistoryWriter.Visit> read = segments.visitsOn(day);
+        assertEquals(List.of("Old", "Live"), titles(read));
+        assertEquals(start, read.get(0).millis);
+
+        segments.removeUrl("https://example.com/old", System.currentTimeMillis() + 1);
+        assertEquals(List.of("Live"), titles(segments.visitsOn(day)));
+        segments.close();
+    }
+
+    @Test
+    void clearDeletesSegmentsThatWereJustRead() throws IOException {
+        HistorySegments segments = new HistorySegments(directory);
+        segments.append(visits(start, 5));
+        segments.append(visits(start + 86_400_000L, 5));
+        assertEquals(5, segments.visitsOn(day).size());
+        segments.scanOlder(Long.MIN_VALUE, Long.MAX_VALUE, 10);
+
+        segments.clear();
+        assertEquals(List.of(), segments.days());
+        try (var files = Files.list(directory)) {
+            assertTrue(files.noneMatch(file -> file.toString().endsWith(".seg")));
+        }
+        segments.close();
+    }
+
+    @Test
+    void importingTheSameVisitsAgainSkipsThem() throws IOException {
+        HistorySegments segments = new HistorySegments(directory);
+        segments.append(visits(start, 3));
+        segments.appendImported(visits(start, 6));
+        assertEquals(6, segments.visitsOn(day).size());
+
+        segments.appendImported(visits(start, 6));
+        assertEquals(6, segments.visitsOn(day).size());
+        segments.close();
+
+        segments = new HistorySegments(directory);
+        segments.appendImported(visits(start, 6));
+        assertEquals(titles(visits(start, 6)), titles(segments.visitsOn(day)));
+        segments.close();
+    }
+
+    @Test
+    void repeatedVisitsWithinOneImportAreKept() throws IOException {
+        HistorySegments segments = new HistorySegments(directory);
+        // A visit count in a dump expands into visits at the same time
+        List<HistoryWriter.Visit> repeated = new ArrayList<>(visits(start, 1));
+        repeated.addAll(visits(start, 1));
+        segments.appendImported(repeated);
+        assertEquals(2, segments.visitsOn(day).size());
+
+        segments.appendImported(repeated);
+        assertEquals(2, segments.visitsOn(day).size());
+        segments.close();
+    }
+
+    @Test
+    void importBringsBackARemovedVisitOnce() throws IOException {
+        HistorySegments segments = new HistorySegments(directory);
+        segments.append(visits(start, 3));
+        segments.removeUrl("https://example.com/0", System.currentTimeMillis());
+        assertEquals(2, segments.visitsOn(day).size());
+
+        segments.appendImported(visits(start, 3));
+        assertEquals(List.of("Page 0", "Page 1", "Page 2"), titles(segments.visitsOn(day)));
+        segments.appendImported(visits(start, 3));
+        assertEquals(3, segments.visitsOn(day).size());
+        segments.close();
+    }
+}
@@ -0,0 +1,68 @@
+package it.r2u.animar2u.core.navigation;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of recording a visit in a full history store, from 10k to 1M entries.
+ * A new page evicts the oldest entry; a revisit moves a random existing entry
+ * to the newest end.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 3, jvmArgs = "-Xmx4g")
+public class HistoryStoreBenchmark {
+
+    private static final long START = 1_700_000_000_000L;
+
+    @Param({"10000", "100000", "1000000"})
+    public int entries;
+
+    private HistoryStore store;
+    private int next;
+    private long millis;
+    private long random = 42;
+
+    static String url(int page) {
+        return "https://site" + (page % 1000) + ".example/articles/" + page;
+    }
+
+    @Setup
+    public void fill() {
+        store = new HistoryStore(entries);
+        millis = START;
+        for (next = 0; next < entries; next++) {
+            store.recordVisits(List.of(new HistoryWriter.Visit("Article " + next, url(next), millis++)));
+        }
+    }
+
+    @Benchmark
+    public HistoryStore add() {
+        int page = next++;
+        store.recordVisits(List.of(new HistoryWriter.Visit("Article " + page, url(page), millis++)));
+        return store;
+    }
+
+    @Benchmark
+    public HistoryStore revisit() {
+        // The store keeps the newest entries; pick one of them at random
+        random = random * 6364136223846793005L + 1442695040888963407L;
+        int page = next - 1 - (int) ((random >>> 33) % entries);
+        store.recordVisits(List.of(new HistoryWriter.Visit("Article " + page, url(page), millis++)));
+        return store;
+    }
+}
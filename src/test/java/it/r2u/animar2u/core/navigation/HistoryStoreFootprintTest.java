@@ -0,0 +1,73 @@
+package it.r2u.animar2u.core.navigation;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.openjdk.jol.info.GraphLayout;
+
+/**
+ * Heap footprint of a full history store, measured with JOL. The columns cost
+ * a fixed overhead per entry on top of the UTF-8 bytes of the URL path and
+ * title; the substring index is measured separately. Tagged so that only the
+ * benchmarks profile runs it.
+ */
+@Tag("footprint")
+class HistoryStoreFootprintTest {
+
+    private static final int ENTRIES = 50_000;
+    // Fixed bytes per entry beyond its text, including array growth slack
+    private static final long MAX_COLUMN_OVERHEAD = 160;
+    private static final long MAX_TEXT_INDEX = 560;
+
+    private static HistoryStore store;
+    private static long textBytes;
+
+    @BeforeAll
+    static void fill() {
+        // Hidden lambda classes need this to have their field offsets read
+        System.setProperty("jol.magicFieldOffset", "true");
+        store = new HistoryStore(ENTRIES);
+        List<HistoryWriter.Visit> visits = new ArrayList<>(ENTRIES);
+        for (int i = 0; i < ENTRIES; i++) {
+            String title = "Article number " + i + " - Example News";
+            String path = "/articles/2024/" + i + "?ref=home";
+            textBytes += title.getBytes(StandardCharsets.UTF_8).length + path.length();
+            visits.add(new HistoryWriter.Visit(title, "https://site" + (i % 500) + ".example.com" + path,
+                1_700_000_000_000L + i));
+        }
+        store.recordVisits(visits);
+    }
+
+    private static Object field(Object owner, String name) throws ReflectiveOperationException {
+        Field field = owner.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        return field.get(owner);
+    }
+
+    private static long textIndexSize() throws ReflectiveOperationException {
+        // Its field source points back at the store, so only its own structures are walked
+        Object index = field(store, "textIndex");
+        return GraphLayout.parseInstance(field(index, "ids"), field(index, "docs"), field(index, "postings")).totalSize();
+    }
+
+    @Test
+    void columnsCostAFixedOverheadPerEntry() throws ReflectiveOperationException {
+        long columns = GraphLayout.parseInstance(store).totalSize() - textIndexSize();
+        long overhead = (columns - textBytes) / ENTRIES;
+
+        assertTrue(overhead <= MAX_COLUMN_OVERHEAD, overhead + " bytes/entry");
+    }
+
+    @Test
+    void textIndexStaysWithinItsBudget() throws ReflectiveOperationException {
+        long index = textIndexSize() / ENTRIES;
+
+        assertTrue(index <= MAX_TEXT_INDEX, index + " bytes/entry");
+    }
+}
@@ -0,0 +1,190 @@
+package it.r2u.animar2u.core.navigation;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import it.r2u.animar2u.core.storage.HistoryEntry;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class HistoryStoreTest {
+
+    private static final long START = 1_700_000_000_000L;
+
+    private final HistoryStore store = new HistoryStore(100);
+
+    private void visit(String title, String url, long millis) {
+        store.recordVisits(List.of(new HistoryWriter.Visit(title, url, millis)));
+    }
+
+    private static List<String> urls(List<HistoryEntry> entries) {
+        List<String> urls = new ArrayList<>();
+        for (HistoryEntry entry : entries) {
+            urls.add(entry.getUrl());
+        }
+        return urls;
+    }
+
+    @Test
+    void addCreatesEntry() {
+        visit("Example", "https://example.com/", START);
+
+        HistoryEntry entry = store.get("https://example.com/");
+        assertEquals("Example", entry.getTitle());
+        assertEquals(1, entry.getVisitCount());
+        assertEquals(START, HistoryStore.toMillis(entry.getVisitTime()));
+        assertEquals(1, store.size());
+    }
+
+    @Test
+    void revisitCountsAndMovesToNewest() {
+        visit("A", "https://a.example/", START);
+        visit("B", "https://b.example/", START + 1);
+        visit("A again", "https://a.example/", START + 2);
+
+        assertEquals(List.of("https://a.example/", "https://b.example/"), urls(store.newest(10)));
+        HistoryEntry entry = store.get("https://a.example/");
+        assertEquals(2, entry.getVisitCount());
+        assertEquals("A again", entry.getTitle());
+        assertEquals(START + 2, HistoryStore.toMillis(entry.getVisitTime()));
+        assertEquals(2, store.size());
+    }
+
+    @Test
+    void revisitUnderAnotherSpellingSharesTheEntry() {
+        visit("A", "http://a.example/page", START);
+        visit("A", "https://a.example/page/", START + 1);
+
+        assertEquals(1, store.size());
+        assertEquals(2, store.visitCount("http://a.example/page"));
+        assertEquals("https://a.example/page/", store.get("https://a.example/page").getUrl());
+    }
+
+    @Test
+    void visitsInTheSameMillisecondKeepTheirOrder() {
+        visit("A", "https://a.example/", START);
+        visit("B", "https://b.example/", START);
+        visit("C", "https://c.example/", START);
+
+        assertEquals(List.of("https://c.example/", "https://b.example/", "https://a.example/"),
+            urls(store.newest(10)));
+    }
+
+    @Test
+    void removeDropsOnlyThatEntry() {
+        visit("A", "https://a.example/", START);
+        visit("B", "https://b.example/", START + 1);
+
+        assertEquals("https://a.example/", store.remove("https://a.example/").getUrl());
+        assertNull(store.remove("https://a.example/"));
+        assertFalse(store.contains("https://a.example/"));
+        assertTrue(store.contains("https://b.example/"));
+        assertEquals(List.of("https://b.example/"), urls(store.oldestFirst()));
+        assertEquals(1, store.size());
+        assertTrue(store.search("a.example", 10).isEmpty());
+        assertEquals(List.of("https://b.example/"), urls(store.mostVisited(10)));
+    }
+
+    @Test
+    void revisitAfterRemoveStartsOver() {
+        visit("A", "https://a.example/", START);
+        visit("A", "https://a.example/", START + 1);
+        store.remove("https://a.example/");
+        visit("A", "https://a.example/", START + 2);
+
+        assertEquals(1, store.visitCount("https://a.example/"));
+    }
+
+    @Test
+    void oldestEntryIsEvictedAtCapacity() {
+        HistoryStore small = new HistoryStore(3);
+        for (int i = 0; i < 4; i++) {
+            small.recordVisits(List.of(new HistoryWriter.Visit("P" + i, "https://example.com/" + i, START + i)));
+        }
+
+        assertEquals(3, small.size());
+        assertFalse(small.contains("https://example.com/0"));
+        assertEquals(List.of("https://example.com/1", "https://example.com/2", "https://example.com/3"),
+            urls(small.oldestFirst()));
+    }
+
+    @Test
+    void revisitProtectsFromEviction() {
+        HistoryStore small = new HistoryStore(2);
+        small.recordVisits(List.of(
+            new HistoryWriter.Visit("A", "https://a.example/", START),
+            new HistoryWriter.Visit("B", "https://b.example/", START + 1),
+            new HistoryWriter.Visit("A", "https://a.example/", START + 2),
+            new HistoryWriter.Visit("C", "https://c.example/", START + 3)));
+
+        assertTrue(small.contains("https://a.example/"));
+        assertFalse(small.contains("https://b.example/"));
+    }
+
+    @Test
+    void removeBetweenDropsEntriesLastVisitedStrictlyInside() {
+        for (int i = 0; i < 10; i++) {
+            visit("P" + i, "https://example.com/" + i, START + i * 10);
+        }
+        store.removeBetween(HistoryStore.toLocalDateTime(START + 20), HistoryStore.toLocalDateTime(START + 60));
+
+        assertEquals(List.of("https://example.com/0", "https://example.com/1", "https://example.com/2",
+                "https://example.com/6", "https://example.com/7", "https://example.com/8", "https://example.com/9"),
+            urls(store.oldestFirst()));
+        assertEquals(7, store.size());
+        assertTrue(store.search("example.com/4", 10).isEmpty());
+        assertTrue(store.between(HistoryStore.toLocalDateTime(START + 20),
+            HistoryStore.toLocalDateTime(START + 60), 10).isEmpty());
+    }
+
+    @Test
+    void removeBetweenRoundsBoundsToWholeMilliseconds() {
+        visit("A", "https://a.example/", START);
+        visit("B", "https://b.example/", START + 1);
+        visit("C", "https://c.example/", START + 2);
+        LocalDateTime from = HistoryStore.toLocalDateTime(START).plusNanos(500_000);
+        LocalDateTime to = HistoryStore.toLocalDateTime(START + 1).plusNanos(500_000);
+        store.removeBetween(from, to);
+
+        // The visit at START + 1 lies inside; START and START + 2 lie outside
+        assertEquals(List.of("https://a.example/", "https://c.example/"), urls(store.oldestFirst()));
+    }
+
+    @Test
+    void removeBetweenUsesTheLastVisit() {
+        visit("A", "https://a.example/", START);
+        visit("B", "https://b.example/", START + 10);
+        visit("A", "https://a.example/", START + 20);
+        store.removeBetween(null, HistoryStore.toLocalDateTime(START + 15));
+
+        assertEquals(List.of("https://a.example/"), urls(store.oldestFirst()));
+        assertEquals(2, store.visitCount("https://a.example/"));
+    }
+
+    @Test
+    void removeBetweenWithOpenBoundsClearsEverything() {
+        for (int i = 0; i < 5; i++) {
+            visit("P" + i, "https://example.com/" + i, START + i);
+        }
+        store.removeBetween(null, null);
+
+        assertEquals(0, store.size());
+        assertTrue(store.newest(10).isEmpty());
+        visit("P", "https://example.com/new", START + 10);
+        assertEquals(List.of("https://example.com/new"), urls(store.newest(10)));
+    }
+
+    @Test
+    void mostVisitedAndSearchFollowVisits() {
+        visit("Alpha news", "https://a.example/", START);
+        visit("Beta", "https://b.example/", START + 1);
+        visit("Beta", "https://b.example/", START + 2);
+
+        assertEquals(List.of("https://b.example/", "https://a.example/"), urls(store.mostVisited(10)));
+        assertEquals(List.of("https://a.example/"), urls(store.search("NEWS", 10)));
+    }
+}
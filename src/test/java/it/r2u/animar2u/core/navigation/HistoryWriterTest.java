@@ -0,0 +1,102 @@
+package it.r2u.animar2u.core.navigation;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import org.junit.jupiter.api.Test;
+
+class HistoryWriterTest {
+
+    private static final String URL = "https://a.example/";
+
+    private final HistoryStore store = new HistoryStore(1000);
+    private final HistoryWriter writer = new HistoryWriter(store, null);
+
+    @Test
+    void workAfterQueuedSeesEarlierVisitsAndNoLaterOnes() {
+        for (int i = 0; i < 2000; i++) {
+            writer.submit("Before", URL, 1_000 + i);
+        }
+        CompletableFuture<Integer> seen = writer.afterQueued(() -> {
+            int count = store.visitCount(URL);
+            store.remove(URL);
+            return count;
+        });
+        writer.submit("After", URL, 5_000);
+
+        assertEquals(2000, seen.join());
+        writer.flush();
+        assertEquals(1, store.visitCount(URL));
+        assertEquals("After", store.get(URL).getTitle());
+        writer.close();
+    }
+
+    @Test
+    void workAfterQueuedRunsOnTheWriterAndReportsFailures() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        writer.execute(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        List<Thread> threads = new ArrayList<>();
+        CompletableFuture<Void> failed = writer.afterQueued(() -> {
+            threads.add(Thread.currentThread());
+            throw new IOException("disk full");
+        });
+
+        // The caller is not held up by the busy writer
+        assertFalse(failed.isDone());
+        release.countDown();
+        CompletionException error = assertThrows(CompletionException.class, failed::join);
+        assertEquals("disk full", error.getCause().getMessage());
+        assertEquals("anima-history-writer", threads.get(0).getName());
+        writer.close();
+    }
+
+    @Test
+    void flushAfterCloseCompletesAtOnce() {
+        writer.close();
+        assertSame(null, writer.flushAsync().join());
+        writer.submit("Late", URL, 1_000);
+        assertEquals(1, store.visitCount(URL));
+    }
+
+    @Test
+    void noVisitIsLostWhileClosing() throws InterruptedException {
+        int producers = 4;
+        int visits = 20_000;
+        CountDownLatch started = new CountDownLatch(producers);
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            String url = "https://p" + p + ".example/";
+            Thread thread = new Thread(() -> {
+                started.countDown();
+                for (int i = 0; i < visits; i++) {
+                    writer.submit("Page", url, 1_000 + i);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        started.await();
+        writer.close();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        for (int p = 0; p < producers; p++) {
+            assertEquals(visits, store.visitCount("https://p" + p + ".example/"));
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package it.r2u.animar2u.core.navigation;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+class VisitRankingTest {
+
+    private final VisitRanking ranking = new VisitRanking();
+
+    @Test
+    void topIsOrderedByCount() {
+        ranking.add(1, 1);
+        ranking.add(2, 3);
+        ranking.add(3, 2);
+
+        assertArrayEquals(new int[] {2, 3, 1}, ranking.top(10));
+        assertArrayEquals(new int[] {2, 3}, ranking.top(2));
+        assertEquals(3, ranking.size());
+    }
+
+    @Test
+    void tiesPutTheMostRecentChangeFirst() {
+        ranking.add(1, 1);
+        ranking.add(2, 1);
+        ranking.add(3, 1);
+        ranking.add(1, 1);
+        ranking.add(3, 1);
+
+        assertArrayEquals(new int[] {3, 1, 2}, ranking.top(10));
+    }
+
+    @Test
+    void incrementsMoveKeysPastEachOther() {
+        for (int key = 0; key < 5; key++) {
+            ranking.add(key, 1);
+        }
+        for (int i = 0; i < 3; i++) {
+            ranking.add(0, 1);
+        }
+
+        assertEquals(4, ranking.count(0));
+        assertEquals(0, ranking.top(1)[0]);
+    }
+
+    @Test
+    void largeJumpsAndDecrementsFindTheirPlace() {
+        ranking.add(1, 10);
+        ranking.add(2, 5);
+        ranking.add(3, 1);
+        ranking.add(3, 7);
+        ranking.add(1, -9);
+
+        assertArrayEquals(new int[] {3, 2, 1}, ranking.top(10));
+        assertEquals(8, ranking.count(3));
+        assertEquals(1, ranking.count(1));
+    }
+
+    @Test
+    void keysDroppingToZeroAreRemoved() {
+        ranking.add(1, 2);
+        ranking.add(2, 1);
+        ranking.add(1, -2);
+
+        assertEquals(0, ranking.count(1));
+        assertArrayEquals(new int[] {2}, ranking.top(10));
+        assertEquals(1, ranking.size());
+    }
+
+    @Test
+    void removeAndClear() {
+        ranking.add(1, 1);
+        ranking.add(2, 2);
+        ranking.remove(2);
+        ranking.remove(7);
+
+        assertArrayEquals(new int[] {1}, ranking.top(10));
+
+        ranking.clear();
+        assertEquals(0, ranking.size());
+        assertArrayEquals(new int[0], ranking.top(10));
+        ranking.add(2, 1);
+        assertArrayEquals(new int[] {2}, ranking.top(10));
+    }
+
+    @Test
+    void freedBucketsAreReused() {
+        for (int round = 0; round < 100; round++) {
+            ranking.add(round, round + 1);
+            ranking.remove(round);
+        }
+        ranking.add(0, 3);
+        ranking.add(1, 2);
+
+        assertArrayEquals(new int[] {0, 1}, ranking.top(10));
+    }
+}
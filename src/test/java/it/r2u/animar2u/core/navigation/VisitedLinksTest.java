@@ -0,0 +1,128 @@
+package it.r2u.animar2u.core.navigation;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import it.r2u.animar2u.core.storage.HistoryEntry;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class VisitedLinksTest {
+
+    @TempDir
+    Path directory;
+
+    private HistoryManager open() {
+        HistoryManager history = new HistoryManager(directory);
+        history.load();
+        history.flush();
+        return history;
+    }
+
+    private void deleteSegments() throws IOException {
+        try (var files = Files.list(directory)) {
+            for (Path file : files.filter(path -> path.toString().endsWith(".seg")).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Test
+    void savedFilterIsLoadedWithoutReadingOldSegments() throws IOException {
+        HistoryManager history = open();
+        history.addToHistory("A", "https://a.example/");
+        history.close();
+        // Only the saved filter still knows the page
+        deleteSegments();
+
+        history = open();
+        assertTrue(history.isVisited("https://a.example/"));
+        assertFalse(history.isVisited("https://b.example/"));
+        history.close();
+    }
+
+    @Test
+    void missingFilterIsRebuiltFromSegments() throws IOException {
+        HistoryManager history = open();
+        history.addToHistory("A", "https://a.example/");
+        history.close();
+        Files.delete(directory.resolve("visited.bloom"));
+
+        history = open();
+        assertTrue(history.isVisited("http://a.example"));
+        history.close();
+        assertTrue(Files.exists(directory.resolve("visited.bloom")));
+    }
+
+    @Test
+    void damagedFilterIsRebuiltFromSegments() throws IOException {
+        HistoryManager history = open();
+        history.addToHistory("A", "https://a.example/");
+        history.close();
+        Path file = directory.resolve("visited.bloom");
+        Files.write(file, new byte[] {1, 2, 3});
+
+        history = open();
+        assertTrue(history.isVisited("https://a.example/"));
+        history.close();
+    }
+
+    @Test
+    void removedPagesStayVisitedUntilHistoryIsCleared() throws IOException {
+        HistoryManager history = open();
+        history.addToHistory("A", "https://a.example/");
+        history.addToHistory("B", "https://b.example/");
+        history.removeFromHistory("https://a.example/").join();
+
+        // Filters cannot forget; a false positive is the accepted cost of not rescanning
+        assertTrue(history.isVisited("https://a.example/"));
+        assertTrue(history.isVisited("https://b.example/"));
+
+        history.clearHistory().join();
+        assertFalse(history.isVisited("https://a.example/"));
+        assertFalse(history.isVisited("https://b.example/"));
+        history.addToHistory("C", "https://c.example/");
+        history.close();
+
+        history = open();
+        assertFalse(history.isVisited("https://b.example/"));
+        assertTrue(history.isVisited("https://c.example/"));
+        history.close();
+    }
+
+    @Test
+    void removalsWithoutHistoryFilesRebuildFromMemory() {
+        HistoryManager history = new HistoryManager();
+        history.addToHistory("A", "https://a.example/");
+        history.addToHistory("B", "https://b.example/");
+        history.removeFromHistory("https://a.example/").join();
+
+        assertFalse(history.isVisited("https://a.example/"));
+        assertTrue(history.isVisited("https://b.example/"));
+        history.close();
+    }
+
+    @Test
+    void filtersGrowWithoutLosingPages() {
+        VisitedLinks links = new VisitedLinks(new HistoryStore(100), null, null);
+        LocalDateTime now = LocalDateTime.now();
+        for (int i = 0; i < 100_000; i++) {
+            links.entryVisited(new HistoryEntry("Page", "https://a.example/" + i, now, 1));
+        }
+
+        for (int i = 0; i < 100_000; i++) {
+            assertTrue(links.isVisited("https://a.example/" + i));
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < 100_000; i++) {
+            if (links.isVisited("https://b.example/" + i)) {
+                falsePositives++;
+            }
+        }
+        assertTrue(falsePositives < 2_000, falsePositives + " false positives");
+    }
+}
@@ -0,0 +1,139 @@
+package it.r2u.animar2u.core.search;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import it.r2u.animar2u.core.storage.Bookmark;
+import it.r2u.animar2u.core.storage.HistoryEntry;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class AutocompleteEngineTest {
+
+    private static final LocalDateTime NOW = LocalDateTime.of(2024, 6, 1, 12, 0);
+
+    private final AutocompleteEngine engine = new AutocompleteEngine();
+
+    private void visit(String url, int count, LocalDateTime time) {
+        engine.entryVisited(new HistoryEntry(url, url, time, count));
+    }
+
+    private List<String> suggest(String typed) {
+        List<String> urls = new ArrayList<>();
+        for (AutocompleteEngine.Suggestion suggestion : engine.suggest(typed, 10)) {
+            urls.add(suggestion.getUrl());
+        }
+        return urls;
+    }
+
+    @Test
+    void keysIgnoreSchemeWwwCaseAndTrailingSlash() {
+        assertEquals("example.com/a", AutocompleteEngine.normalizeKey(" HTTPS://www.Example.com/a/ "));
+        visit("https://www.example.com/", 1, NOW);
+
+        assertEquals(List.of("https://www.example.com/"), suggest("exa"));
+        assertEquals(List.of("https://www.example.com/"), suggest("http://www.EXAMPLE"));
+        assertEquals(List.of(), suggest("www.other"));
+        assertEquals(List.of(), suggest(""));
+    }
+
+    @Test
+    void moreVisitsRankFirstAtTheSameTime() {
+        visit("https://a.example/one", 1, NOW);
+        visit("https://a.example/three", 3, NOW);
+        visit("https://a.example/two", 2, NOW);
+
+        assertEquals(List.of("https://a.example/three", "https://a.example/two", "https://a.example/one"),
+            suggest("a.example/"));
+    }
+
+    @Test
+    void visitsLoseHalfTheirWeightEachWeek() {
+        // Four visits count as two after a week and as a half after three
+        visit("https://a.example/often", 4, NOW.minusWeeks(1));
+        visit("https://a.example/once", 1, NOW);
+        assertEquals(List.of("https://a.example/often", "https://a.example/once"), suggest("a.example"));
+
+        visit("https://a.example/often", 4, NOW.minusWeeks(3));
+        assertEquals(List.of("https://a.example/once", "https://a.example/often"), suggest("a.example"));
+    }
+
+    @Test
+    void bookmarksGetABonus() {
+        visit("https://a.example/visited", 3, NOW);
+        engine.bookmarkChanged(new Bookmark("Saved", "https://a.example/saved", "Bookmarks", NOW));
+
+        List<AutocompleteEngine.Suggestion> suggestions = engine.suggest("a.example", 10);
+        assertEquals("https://a.example/saved", suggestions.get(0).getUrl());
+        assertTrue(suggestions.get(0).isBookmarked());
+        assertFalse(suggestions.get(1).isBookmarked());
+    }
+
+    @Test
+    void bestSuggestionsComeFirstFromADeepTrie() {
+        // Every page gets a different visit count, from 1 to 200
+        String[] byCount = new String[201];
+        for (int i = 0; i < 200; i++) {
+            int count = 1 + i * 37 % 200;
+            byCount[count] = "https://site.example/page/" + i;
+            visit(byCount[count], count, NOW);
+        }
+
+        List<AutocompleteEngine.Suggestion> suggestions = engine.suggest("site.example/page/", 3);
+        assertEquals(3, suggestions.size());
+        assertEquals(byCount[200], suggestions.get(0).getUrl());
+        assertEquals(byCount[199], suggestions.get(1).getUrl());
+        assertEquals(byCount[198], suggestions.get(2).getUrl());
+        assertEquals(List.of("https://site.example/page/149"), suggest("site.example/page/149"));
+    }
+
+    @Test
+    void prefixEndingInsideAnEdgeMatches() {
+        visit("https://example.com/abcdef", 1, NOW);
+        visit("https://example.com/abcxyz", 1, NOW);
+
+        assertEquals(2, suggest("example.com/ab").size());
+        assertEquals(List.of("https://example.com/abcdef"), suggest("example.com/abcd"));
+        assertEquals(List.of(), suggest("example.com/abx"));
+    }
+
+    @Test
+    void removedPagesStopMatchingAndTheirSiblingsStay() {
+        visit("https://example.com/abcdef", 1, NOW);
+        visit("https://example.com/abcxyz", 1, NOW);
+        engine.entryRemoved(new HistoryEntry("x", "https://example.com/abcdef", NOW, 1));
+
+        assertEquals(List.of("https://example.com/abcxyz"), suggest("example.com/abc"));
+        assertEquals(List.of(), suggest("example.com/abcd"));
+    }
+
+    @Test
+    void clearingHistoryKeepsBookmarksAndTheOtherWayAround() {
+        visit("https://a.example/visited", 1, NOW);
+        visit("https://a.example/both", 1, NOW);
+        engine.bookmarksAdded(List.of(new Bookmark("Both", "https://a.example/both", "Bookmarks", NOW)));
+
+        engine.historyCleared();
+        assertEquals(List.of("https://a.example/both"), suggest("a.example"));
+
+        visit("https://a.example/visited", 1, NOW);
+        engine.bookmarksCleared();
+        assertEquals(List.of("https://a.example/visited"), suggest("a.example"));
+    }
+
+    @Test
+    void removingABookmarkKeepsTheVisitedPage() {
+        visit("https://a.example/page", 1, NOW);
+        Bookmark bookmark = new Bookmark("Page", "https://a.example/page", "Bookmarks", NOW);
+        engine.bookmarkChanged(bookmark);
+        assertTrue(engine.suggest("a.example", 1).get(0).isBookmarked());
+
+        engine.bookmarkRemoved(bookmark);
+        List<AutocompleteEngine.Suggestion> suggestions = engine.suggest("a.example", 10);
+        assertEquals(1, suggestions.size());
+        assertFalse(suggestions.get(0).isBookmarked());
+    }
+}
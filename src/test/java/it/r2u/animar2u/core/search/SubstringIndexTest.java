@@ -0,0 +1,101 @@
+package it.r2u.animar2u.core.search;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+class SubstringIndexTest {
+
+    private final SubstringIndex<String> index = new SubstringIndex<>();
+
+    @Test
+    void findsSubstringsIgnoringCase() {
+        index.put("a", "Java Streams", "https://a.example/java");
+        index.put("b", "Kotlin", "https://b.example/");
+
+        assertEquals(List.of("a"), index.search("STREAM", 10, Comparator.naturalOrder()));
+        assertEquals(List.of("a", "b"), index.search("example", 10, Comparator.naturalOrder()));
+        assertTrue(index.search("python", 10, Comparator.naturalOrder()).isEmpty());
+    }
+
+    @Test
+    void shortQueriesMatchAnyPosition() {
+        index.put("a", "abc");
+        index.put("b", "xyz");
+
+        assertEquals(List.of("a"), index.search("c", 10, Comparator.naturalOrder()));
+        assertEquals(List.of("b"), index.search("yz", 10, Comparator.naturalOrder()));
+    }
+
+    @Test
+    void gramsOutOfOrderAreNotAMatch() {
+        // Holds every gram of "abcab" but not the string itself
+        index.put("a", "cabcab");
+        index.put("b", "abcxbcab");
+
+        assertEquals(List.of("a"), index.search("abcab", 10, Comparator.naturalOrder()));
+    }
+
+    @Test
+    void matchesDoNotSpanFields() {
+        index.put("a", "foo", "bar");
+
+        assertTrue(index.search("oob", 10, Comparator.naturalOrder()).isEmpty());
+    }
+
+    @Test
+    void putReplacesAndRemoveDrops() {
+        index.put("a", "first title");
+        index.put("a", "second title");
+
+        assertTrue(index.search("first", 10, Comparator.naturalOrder()).isEmpty());
+        assertEquals(List.of("a"), index.search("second", 10, Comparator.naturalOrder()));
+        assertTrue(index.remove("a"));
+        assertFalse(index.remove("a"));
+        assertTrue(index.search("title", 10, Comparator.naturalOrder()).isEmpty());
+        assertEquals(0, index.size());
+    }
+
+    @Test
+    void resultsAreTheBestByOrderAndPageAfterTheLast() {
+        for (int i = 0; i < 10; i++) {
+            index.put("doc" + i, "page " + i);
+        }
+
+        List<String> first = index.search("page", 3, Comparator.reverseOrder());
+        assertEquals(List.of("doc9", "doc8", "doc7"), first);
+        assertEquals(List.of("doc6", "doc5", "doc4"),
+            index.search("page", first.get(2), 3, Comparator.reverseOrder()));
+    }
+
+    @Test
+    void compactionKeepsLiveDocuments() {
+        for (int i = 0; i < 3000; i++) {
+            index.put("doc" + i, "entry " + i);
+        }
+        for (int i = 0; i < 2990; i++) {
+            index.remove("doc" + i);
+        }
+
+        assertEquals(10, index.size());
+        assertEquals(List.of("doc2995"), index.search("entry 2995", 10, Comparator.naturalOrder()));
+    }
+
+    @Test
+    void fieldSourceModeReadsTextFromTheOwner() {
+        Map<Integer, String[]> owner = new HashMap<>();
+        SubstringIndex<Integer> sourced = new SubstringIndex<>(owner::get);
+        owner.put(1, new String[] {"cabcab"});
+        sourced.put(1, owner.get(1));
+        owner.put(2, new String[] {"abcxbcab"});
+        sourced.put(2, owner.get(2));
+
+        assertEquals(List.of(1), sourced.search("abcab", 10, Comparator.naturalOrder()));
+    }
+}
@@ -0,0 +1,220 @@
+package it.r2u.animar2u.core.storage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class BookmarkManagerTest {
+
+    @TempDir
+    Path directory;
+
+    private final BookmarkManager manager = new BookmarkManager();
+
+    private void fileNews(BookmarkManager bookmarks) {
+        bookmarks.addBookmark("Front page", "https://news.example/", "Bookmarks Bar/News");
+        bookmarks.addBookmark("Gadgets", "https://news.example/tech", "Bookmarks Bar/News/Tech");
+        bookmarks.addBookmark("Phones", "https://news.example/tech/phones", "Bookmarks Bar/News/Tech");
+    }
+
+    @Test
+    void folderPathsAreCreatedAndCountedPerSubtree() {
+        fileNews(manager);
+
+        assertEquals(List.of("Default", "Bookmarks Bar", "Other Bookmarks"), manager.getSubfolders(""));
+        assertEquals(List.of("Bookmarks Bar/News/Tech"), manager.getSubfolders("Bookmarks Bar/News"));
+        assertEquals(List.of("Default", "Bookmarks Bar", "Bookmarks Bar/News", "Bookmarks Bar/News/Tech",
+            "Other Bookmarks"), List.copyOf(manager.getAllFolders()));
+        assertEquals(0, manager.getFolderBookmarkCount("Bookmarks Bar"));
+        assertEquals(3, manager.getFolderTotalBookmarkCount("Bookmarks Bar"));
+        assertEquals(1, manager.getFolderBookmarkCount(" Bookmarks Bar / News "));
+        assertEquals(2, manager.getFolderTotalBookmarkCount("Bookmarks Bar/News/Tech"));
+        assertEquals(0, manager.getFolderTotalBookmarkCount("Bookmarks Bar/Missing"));
+        assertEquals("Bookmarks Bar/News/Tech", manager.getBookmark("https://news.example/tech").getFolder());
+    }
+
+    @Test
+    void movingAFolderTakesItsSubtreeAlong() {
+        fileNews(manager);
+
+        assertTrue(manager.moveFolder("Bookmarks Bar/News", "Other Bookmarks"));
+        assertEquals(List.of(), manager.getSubfolders("Bookmarks Bar"));
+        assertEquals(0, manager.getFolderTotalBookmarkCount("Bookmarks Bar"));
+        assertEquals(3, manager.getFolderTotalBookmarkCount("Other Bookmarks"));
+        assertEquals(2, manager.getFolderBookmarkCount("Other Bookmarks/News/Tech"));
+        assertEquals("Other Bookmarks/News/Tech", manager.getBookmark("https://news.example/tech/phones").getFolder());
+
+        assertTrue(manager.moveFolder("Other Bookmarks/News/Tech", ""));
+        assertEquals(List.of("Default", "Bookmarks Bar", "Other Bookmarks", "Tech"), manager.getSubfolders(""));
+        assertEquals(1, manager.getFolderTotalBookmarkCount("Other Bookmarks"));
+        assertEquals("Tech", manager.getBookmark("https://news.example/tech").getFolder());
+    }
+
+    @Test
+    void foldersCannotMoveIntoThemselvesOrOntoASibling() {
+        fileNews(manager);
+        manager.createFolder("Other Bookmarks/News");
+
+        assertFalse(manager.moveFolder("Bookmarks Bar/News", "Bookmarks Bar/News"));
+        assertFalse(manager.moveFolder("Bookmarks Bar/News", "Bookmarks Bar/News/Tech"));
+        assertFalse(manager.moveFolder("Bookmarks Bar/News", "Other Bookmarks"));
+        assertFalse(manager.moveFolder("Bookmarks Bar/Missing", "Other Bookmarks"));
+        assertFalse(manager.moveFolder("Bookmarks Bar/News", "Missing"));
+        assertFalse(manager.moveFolder("", "Other Bookmarks"));
+        assertEquals(3, manager.getFolderTotalBookmarkCount("Bookmarks Bar"));
+    }
+
+    @Test
+    void renamingAFolderKeepsItsPlaceAndRenamesPathsBelow() {
+        fileNews(manager);
+        manager.createFolder("Bookmarks Bar/Sports");
+
+        assertTrue(manager.renameFolder("Bookmarks Bar/News", " Press "));
+        assertEquals(List.of("Bookmarks Bar/Press", "Bookmarks Bar/Sports"), manager.getSubfolders("Bookmarks Bar"));
+        assertEquals(2, manager.getFolderBookmarkCount("Bookmarks Bar/Press/Tech"));
+        assertEquals("Bookmarks Bar/Press/Tech", manager.getBookmark("https://news.example/tech").getFolder());
+
+        assertFalse(manager.renameFolder("Bookmarks Bar/Press", "Sports"));
+        assertFalse(manager.renameFolder("Bookmarks Bar/Press", "A/B"));
+        assertFalse(manager.renameFolder("Bookmarks Bar/Press", " "));
+        assertFalse(manager.renameFolder("", "Top"));
+        assertFalse(manager.renameFolder("Bookmarks Bar/News", "Old"));
+    }
+
+    @Test
+    void removingAFolderRemovesTheBookmarksBelowIt() {
+        fileNews(manager);
+        manager.addBookmark("Kept", "https://kept.example/", "Bookmarks Bar");
+        List<String> removed = new ArrayList<>();
+        manager.addBookmarkListener(new BookmarkListener() {
+            @Override
+            public void bookmarkChanged(Bookmark bookmark) {
+            }
+
+            @Override
+            public void bookmarkRemoved(Bookmark bookmark) {
+                removed.add(bookmark.getUrl());
+            }
+
+            @Override
+            public void bookmarksCleared() {
+            }
+        });
+
+        assertTrue(manager.removeFolder("Bookmarks Bar/News"));
+        assertEquals(3, removed.size());
+        assertEquals(1, manager.getBookmarkCount());
+        assertEquals(1, manager.getFolderTotalBookmarkCount("Bookmarks Bar"));
+        assertFalse(manager.isBookmarked("https://news.example/tech"));
+        assertFalse(manager.getAllFolders().contains("Bookmarks Bar/News/Tech"));
+        assertFalse(manager.removeFolder(""));
+    }
+
+    @Test
+    void movingABookmarkUpdatesBothFolders() {
+        fileNews(manager);
+
+        assertTrue(manager.moveBookmark("https://news.example/tech", "Other Bookmarks/Later"));
+        assertEquals(1, manager.getFolderBookmarkCount("Bookmarks Bar/News/Tech"));
+        assertEquals(2, manager.getFolderTotalBookmarkCount("Bookmarks Bar"));
+        assertEquals(1, manager.getFolderTotalBookmarkCount("Other Bookmarks"));
+        assertEquals("Other Bookmarks/Later", manager.getBookmark("https://news.example/tech").getFolder());
+        assertFalse(manager.moveBookmark("https://missing.example/", "Other Bookmarks"));
+    }
+
+    @Test
+    void clearingBookmarksKeepsTheFolders() {
+        fileNews(manager);
+
+        manager.clearAllBookmarks();
+        assertEquals(0, manager.getBookmarkCount());
+        assertEquals(0, manager.getFolderTotalBookmarkCount("Bookmarks Bar"));
+        assertTrue(manager.getAllFolders().contains("Bookmarks Bar/News/Tech"));
+        manager.addBookmark("Again", "https://news.example/", "Bookmarks Bar/News");
+        assertEquals(1, manager.getFolderTotalBookmarkCount("Bookmarks Bar"));
+    }
+
+    @Test
+    void movedAndRenamedFoldersSurviveReopening() throws IOException {
+        try (ProfileStore store = ProfileStore.open(directory)) {
+            BookmarkManager saved = new BookmarkManager(store);
+            saved.load();
+            fileNews(saved);
+            saved.moveFolder("Bookmarks Bar/News/Tech", "Other Bookmarks");
+            saved.renameFolder("Other Bookmarks/Tech", "Technology");
+            saved.createFolder("Bookmarks Bar/Empty");
+        }
+
+        try (ProfileStore store = ProfileStore.open(directory)) {
+            BookmarkManager loaded = new BookmarkManager(store);
+            loaded.load();
+            assertEquals(3, loaded.getBookmarkCount());
+            assertEquals(List.of("Bookmarks Bar/News", "Bookmarks Bar/Empty"), loaded.getSubfolders("Bookmarks Bar"));
+            assertEquals(2, loaded.getFolderBookmarkCount("Other Bookmarks/Technology"));
+            assertEquals(1, loaded.getFolderTotalBookmarkCount("Bookmarks Bar"));
+            assertEquals("Other Bookmarks/Technology", loaded.getBookmark("https://news.example/tech").getFolder());
+        }
+    }
+
+    private static List<String> pageThrough(BookmarkManager bookmarks, String query, int limit) {
+        List<String> urls = new ArrayList<>();
+        Bookmark after = null;
+        while (true) {
+            List<Bookmark> page = bookmarks.searchBookmarks(query, after, limit);
+            for (Bookmark bookmark : page) {
+                urls.add(bookmark.getUrl());
+            }
+            if (page.size() < limit) {
+                return urls;
+            }
+            after = page.get(page.size() - 1);
+        }
+    }
+
+    @Test
+    void keysetPagesCoverEveryMatchOnceInTitleOrder() {
+        // Repeated titles in mixed case, so the URL breaks ties
+        for (int i = 0; i < 250; i++) {
+            String title = (i % 2 == 0 ? "page " : "Page ") + (i % 17);
+            manager.addBookmark(title, "https://site" + (i % 5) + ".example/" + i);
+        }
+
+        List<String> all = new ArrayList<>();
+        for (Bookmark bookmark : manager.searchBookmarks("", Integer.MAX_VALUE)) {
+            all.add(bookmark.getUrl());
+        }
+        assertEquals(250, all.size());
+        assertEquals(all, pageThrough(manager, "", 30));
+        assertEquals(all, pageThrough(manager, "", 1));
+
+        List<String> matches = new ArrayList<>();
+        for (Bookmark bookmark : manager.searchBookmarks("site3", Integer.MAX_VALUE)) {
+            matches.add(bookmark.getUrl());
+        }
+        assertEquals(50, matches.size());
+        assertEquals(matches, pageThrough(manager, "site3", 7));
+    }
+
+    @Test
+    void aCursorStillWorksAfterItsBookmarkIsGone() {
+        for (int i = 0; i < 10; i++) {
+            manager.addBookmark("Page " + i, "https://a.example/" + i);
+        }
+        List<Bookmark> first = manager.searchBookmarks("", null, 4);
+        Bookmark cursor = new Bookmark(first.get(3).getTitle(), first.get(3).getUrl());
+        manager.removeBookmark(cursor.getUrl());
+        manager.addBookmark("Page 0b", "https://a.example/late");
+
+        List<Bookmark> next = manager.searchBookmarks("", cursor, 3);
+        assertEquals(List.of("Page 4", "Page 5", "Page 6"),
+            List.of(next.get(0).getTitle(), next.get(1).getTitle(), next.get(2).getTitle()));
+        assertEquals(List.of(), manager.searchBookmarks("a.example", next.get(2), 0));
+    }
+}
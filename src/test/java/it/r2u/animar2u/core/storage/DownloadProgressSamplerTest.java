@@ -0,0 +1,179 @@
+package it.r2u.animar2u.core.storage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.junit.jupiter.api.Test;
+
+class DownloadProgressSamplerTest {
+
+    private static final long MILLIS = 1_000_000L;
+    private static final long FRAME = 1_000_000_000L / 60;
+
+    private final Map<String, DownloadItem> downloads = new ConcurrentHashMap<>();
+    private final DownloadProgressSampler sampler = new DownloadProgressSampler(downloads);
+    private final Recorder recorder = new Recorder();
+
+    private static final class Recorder implements DownloadProgressListener {
+        final List<List<DownloadProgress>> batches = new ArrayList<>();
+        final List<String> removed = new ArrayList<>();
+
+        @Override
+        public void progressChanged(List<DownloadProgress> changed) {
+            batches.add(changed);
+        }
+
+        @Override
+        public void downloadRemoved(String downloadId) {
+            removed.add(downloadId);
+        }
+
+        DownloadProgress last() {
+            List<DownloadProgress> batch = batches.get(batches.size() - 1);
+            return batch.get(batch.size() - 1);
+        }
+    }
+
+    private DownloadItem running(String id, long size) {
+        DownloadItem item = new DownloadItem(id + ".bin", "https://files.example/" + id, "/tmp/" + id + ".bin");
+        item.setFileSize(size);
+        item.setStatus(DownloadItem.DownloadStatus.IN_PROGRESS);
+        downloads.put(id, item);
+        return item;
+    }
+
+    @Test
+    void samplesCloserThanAFrameAreIgnored() {
+        DownloadItem item = running("a", 1000);
+        sampler.addListener(recorder);
+        sampler.sample(0);
+        assertEquals(1, recorder.batches.size());
+
+        item.addDownloadedSize(10);
+        sampler.sample(FRAME - 1);
+        assertEquals(1, recorder.batches.size());
+
+        // However many chunks arrived, the next frame publishes one snapshot
+        item.addDownloadedSize(10);
+        item.addDownloadedSize(10);
+        sampler.sample(FRAME);
+        assertEquals(2, recorder.batches.size());
+        assertEquals(1, recorder.batches.get(1).size());
+        assertEquals(30, recorder.last().getDownloadedSize());
+
+        // Nothing changed, nothing published
+        sampler.sample(2 * FRAME);
+        assertEquals(2, recorder.batches.size());
+    }
+
+    @Test
+    void onlyChangedDownloadsArePublished() {
+        DownloadItem a = running("a", 1000);
+        running("b", 1000);
+        sampler.addListener(recorder);
+        sampler.sample(0);
+        assertEquals(2, recorder.batches.get(0).size());
+
+        a.addDownloadedSize(100);
+        sampler.sample(FRAME);
+        assertEquals(1, recorder.batches.get(1).size());
+        assertEquals("a", recorder.last().getDownloadId());
+
+        // A new listener gets every download once
+        Recorder late = new Recorder();
+        sampler.addListener(late);
+        sampler.sample(2 * FRAME);
+        assertEquals(2, late.batches.get(0).size());
+        assertEquals(2, recorder.batches.get(2).size());
+
+        downloads.remove("b");
+        sampler.sample(3 * FRAME);
+        assertEquals(List.of("b"), recorder.removed);
+        assertEquals(List.of("b"), late.removed);
+    }
+
+    @Test
+    void rateIsAMovingAverageOverWindows() {
+        DownloadItem item = running("a", 10_000_000);
+        sampler.addListener(recorder);
+        sampler.sample(0);
+        assertEquals(0, recorder.last().getBytesPerSecond());
+        assertEquals(-1, recorder.last().getSecondsRemaining());
+
+        // Time spent connecting does not count as a slow first window
+        sampler.sample(100 * MILLIS);
+        item.addDownloadedSize(100_000);
+        sampler.sample(200 * MILLIS);
+        assertEquals(0, recorder.last().getBytesPerSecond());
+        item.addDownloadedSize(150_000);
+        sampler.sample(350 * MILLIS);
+        assertEquals(1_000_000, recorder.last().getBytesPerSecond(), 1e-6);
+        assertEquals(10, recorder.last().getSecondsRemaining());
+
+        // A window at twice the rate moves the average by 1 - e^(-0.25 / 3) of the difference
+        item.addDownloadedSize(500_000);
+        sampler.sample(600 * MILLIS);
+        double expected = 1_000_000 + (1 - Math.exp(-0.25 / 3)) * 1_000_000;
+        assertEquals(expected, recorder.last().getBytesPerSecond(), 1e-3);
+        assertEquals((long) Math.ceil((10_000_000 - 750_000) / expected), recorder.last().getSecondsRemaining());
+
+        // A burst inside a window shows the bytes but keeps the rate
+        item.addDownloadedSize(1_000_000);
+        sampler.sample(700 * MILLIS);
+        assertEquals(1_750_000, recorder.last().getDownloadedSize());
+        assertEquals(expected, recorder.last().getBytesPerSecond(), 1e-3);
+
+        // The burst counts once its window ends, then windows without bytes pull the rate down slowly
+        for (int window = 1; window <= 12; window++) {
+            sampler.sample((850 + window * 250) * MILLIS);
+        }
+        double rate = recorder.last().getBytesPerSecond();
+        assertTrue(rate > 0 && rate < expected, "rate " + rate);
+    }
+
+    @Test
+    void stoppedDownloadsShowNoRateAndRestartFresh() {
+        DownloadItem item = running("a", 1_000_000);
+        sampler.addListener(recorder);
+        sampler.sample(0);
+        item.addDownloadedSize(100_000);
+        sampler.sample(250 * MILLIS);
+        assertEquals(400_000, recorder.last().getBytesPerSecond(), 1e-6);
+
+        item.setStatus(DownloadItem.DownloadStatus.PAUSED);
+        sampler.sample(300 * MILLIS);
+        assertEquals(DownloadItem.DownloadStatus.PAUSED, recorder.last().getStatus());
+        assertEquals(0, recorder.last().getBytesPerSecond());
+        assertEquals(-1, recorder.last().getSecondsRemaining());
+
+        // Resumed from scratch: the old rate is not carried over
+        item.setDownloadedSize(0);
+        item.setStatus(DownloadItem.DownloadStatus.IN_PROGRESS);
+        sampler.sample(400 * MILLIS);
+        item.addDownloadedSize(50_000);
+        sampler.sample(650 * MILLIS);
+        assertEquals(200_000, recorder.last().getBytesPerSecond(), 1e-6);
+    }
+
+    @Test
+    void nothingIsSampledWithoutListeners() {
+        DownloadItem item = running("a", 1_000_000);
+        sampler.sample(0);
+        item.addDownloadedSize(500_000);
+        sampler.sample(250 * MILLIS);
+
+        // Bytes that came in unobserved do not count towards the first rate
+        sampler.addListener(recorder);
+        sampler.sample(500 * MILLIS);
+        assertEquals(500_000, recorder.last().getDownloadedSize());
+        assertEquals(0, recorder.last().getBytesPerSecond());
+
+        sampler.removeListener(recorder);
+        sampler.sample(750 * MILLIS);
+        assertEquals(1, recorder.batches.size());
+    }
+}
@@ -0,0 +1,230 @@
+package it.r2u.animar2u.core.storage;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Segmented downloads against a local range server: how the missing bytes are
+ * split between connections, taken over from slow or failed ones, and merged
+ * back into the confirmed ranges of the part file.
+ */
+class HttpDownloadTest {
+
+    private static final int MB = 1024 * 1024;
+    private static final int FILE_SIZE = 20 * MB;
+
+    private static byte[] data;
+    private static HttpClient client;
+    private static ExecutorService workers;
+
+    @TempDir
+    Path directory;
+
+    private RangeServer server;
+    private DownloadScheduler scheduler;
+
+    @BeforeAll
+    static void setUpClass() {
+        data = new byte[FILE_SIZE];
+        new Random(18).nextBytes(data);
+        client = HttpClient.newHttpClient();
+        workers = Executors.newVirtualThreadPerTaskExecutor();
+    }
+
+    @AfterAll
+    static void tearDownClass() {
+        workers.shutdownNow();
+        client.shutdownNow();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    /**
+     * A download of the server's file to {@code target}, and a future that
+     * completes when it stops
+     */
+    private final class Running {
+        final DownloadItem item;
+        final HttpDownload download;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        Running(Path target) {
+            item = new DownloadItem(target.getFileName().toString(), server.url(), target.toString());
+            download = new HttpDownload("test", item, client, scheduler, new DownloadHashIndex(null), stopped -> {
+                scheduler.finished(stopped);
+                done.complete(null);
+            });
+            scheduler.submit(download, DownloadManager.Priority.USER);
+        }
+
+        DownloadItem.DownloadStatus await() throws Exception {
+            done.get(60, TimeUnit.SECONDS);
+            return item.getStatus();
+        }
+    }
+
+    private Running start(byte[] file, Path target) throws IOException {
+        if (server == null) {
+            server = new RangeServer(file);
+        }
+        scheduler = new DownloadScheduler(workers);
+        return new Running(target);
+    }
+
+    private Running start(Path target) throws IOException {
+        return start(data, target);
+    }
+
+    private static List<long[]> ranged(List<long[]> requested) {
+        List<long[]> ranges = new ArrayList<>(requested);
+        ranges.sort(Comparator.comparingLong(range -> range[0]));
+        return ranges;
+    }
+
+    @Test
+    void largeFileIsSplitBetweenFourConnections() throws Exception {
+        Path target = directory.resolve("file.bin");
+        Running running = start(target);
+
+        assertEquals(DownloadItem.DownloadStatus.COMPLETED, running.await());
+        assertArrayEquals(data, Files.readAllBytes(target));
+        // The first response is the whole file, of which it reads a quarter; the
+        // other connections start on a quarter each, then may split what is left
+        assertArrayEquals(new long[][] {
+                {0, FILE_SIZE}, {5 * MB, 10 * MB}, {10 * MB, 15 * MB}, {15 * MB, 20 * MB}},
+            ranged(server.getRequested().subList(0, 4)).toArray(new long[0][]));
+        assertFalse(Files.exists(PartFile.partPath(target)));
+        assertFalse(Files.exists(PartFile.sidecarPath(target)));
+    }
+
+    @Test
+    void serverWithoutRangesGetsOneConnection() throws Exception {
+        Path target = directory.resolve("file.bin");
+        server = new RangeServer(data);
+        server.acceptRanges = false;
+        Running running = start(target);
+
+        assertEquals(DownloadItem.DownloadStatus.COMPLETED, running.await());
+        assertArrayEquals(data, Files.readAllBytes(target));
+        assertEquals(1, server.getRequests());
+    }
+
+    @Test
+    void smallFileGetsOneConnection() throws Exception {
+        byte[] small = new byte[4 * MB];
+        new Random(4).nextBytes(small);
+        Path target = directory.resolve("small.bin");
+        Running running = start(small, target);
+
+        assertEquals(DownloadItem.DownloadStatus.COMPLETED, running.await());
+        assertArrayEquals(small, Files.readAllBytes(target));
+        assertEquals(1, server.getRequests());
+    }
+
+    @Test
+    void slowConnectionHasItsWorkTakenOver() throws Exception {
+        Path target = directory.resolve("file.bin");
+        server = new RangeServer(data);
+        server.slowRequest = 2;
+        server.slowBytesPerSecond = 512 * 1024;
+        long started = System.nanoTime();
+        Running running = start(target);
+
+        assertEquals(DownloadItem.DownloadStatus.COMPLETED, running.await());
+        long seconds = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - started);
+        assertArrayEquals(data, Files.readAllBytes(target));
+        // Its 5 MB share alone would take 10 s; the others keep splitting off what it has left
+        assertTrue(seconds < 6, seconds + " s");
+        assertTrue(server.getRequests() > 4, server.getRequests() + " requests");
+    }
+
+    @Test
+    void failedConnectionHandsItsSegmentBack() throws Exception {
+        Path target = directory.resolve("file.bin");
+        server = new RangeServer(data);
+        server.failingRequest = 3;
+        server.failAfterBytes = MB;
+        Running running = start(target);
+
+        assertEquals(DownloadItem.DownloadStatus.COMPLETED, running.await());
+        assertArrayEquals(data, Files.readAllBytes(target));
+        assertTrue(server.getRequests() > 4, server.getRequests() + " requests");
+    }
+
+    @Test
+    void fileChangedDuringTheDownloadIsDiscarded() throws Exception {
+        Path target = directory.resolve("file.bin");
+        server = new RangeServer(data);
+        server.changedFromRequest = 2;
+        Running running = start(target);
+
+        assertEquals(DownloadItem.DownloadStatus.FAILED, running.await());
+        assertFalse(Files.exists(target));
+        assertFalse(Files.exists(PartFile.partPath(target)));
+        assertFalse(Files.exists(PartFile.sidecarPath(target)));
+    }
+
+    @Test
+    void pausedDownloadResumesOnlyTheGaps() throws Exception {
+        Path target = directory.resolve("file.bin");
+        server = new RangeServer(data);
+        server.bytesPerSecond = 2 * MB;
+        Running running = start(target);
+        while (running.item.getDownloadedSize() < 6 * MB) {
+            Thread.sleep(20);
+        }
+        running.download.stop(DownloadItem.DownloadStatus.PAUSED);
+        assertEquals(DownloadItem.DownloadStatus.PAUSED, running.await());
+
+        PartFile paused = PartFile.read(target);
+        assertNotNull(paused);
+        List<long[]> gaps = paused.getGaps();
+        // Every connection confirmed the start of its segment, so the gaps are its rest
+        assertEquals(4, gaps.size());
+        long missing = 0;
+        for (long[] gap : gaps) {
+            missing += gap[1] - gap[0];
+        }
+        assertEquals(FILE_SIZE - paused.getConfirmedSize(), missing);
+
+        server.bytesPerSecond = 0;
+        server.clearRequested();
+        Running resumed = new Running(target);
+
+        assertEquals(DownloadItem.DownloadStatus.COMPLETED, resumed.await());
+        assertArrayEquals(data, Files.readAllBytes(target));
+        // The first gap continues in the open-ended request; each other gap is asked for exactly
+        List<long[]> requested = ranged(server.getRequested());
+        assertEquals(gaps.size(), requested.size());
+        assertArrayEquals(new long[] {gaps.get(0)[0], FILE_SIZE}, requested.get(0));
+        for (int i = 1; i < gaps.size(); i++) {
+            assertArrayEquals(gaps.get(i), requested.get(i));
+        }
+    }
+}
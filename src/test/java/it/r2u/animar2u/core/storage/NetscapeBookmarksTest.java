@@ -0,0 +1,82 @@
+package it.r2u.animar2u.core.storage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class NetscapeBookmarksTest {
+
+    private static final String ESCAPED_TITLE = "Tom & Jerry <1940> \"classic\"";
+    private static final String QUERY_URL = "https://a.example/search?q=tom&year=1940";
+    private static final String NESTED = "Bookmarks Bar/Cartoons & <Comics>/Old";
+
+    private static String export(BookmarkManager manager) throws IOException {
+        StringWriter out = new StringWriter();
+        NetscapeBookmarks.exportTo(manager, out);
+        return out.toString();
+    }
+
+    @Test
+    void exportedBookmarksImportUnchanged() throws IOException {
+        BookmarkManager source = new BookmarkManager();
+        source.addBookmark(ESCAPED_TITLE, QUERY_URL, NESTED);
+        source.addBookmark("Sibling", "https://b.example/", "Bookmarks Bar/Cartoons & <Comics>");
+        source.addBookmark("Unfiled", "https://c.example/", "Other Bookmarks");
+        source.addBookmark("Loose", "https://d.example/");
+
+        String html = export(source);
+        assertTrue(html.contains("Tom &amp; Jerry &lt;1940&gt; &quot;classic&quot;"), html);
+        assertTrue(html.contains("q=tom&amp;year=1940"), html);
+
+        BookmarkManager target = new BookmarkManager();
+        assertEquals(4, NetscapeBookmarks.importFrom(new StringReader(html), target));
+        assertEquals(4, target.getBookmarkCount());
+        for (Bookmark expected : source.getAllBookmarks()) {
+            Bookmark actual = target.getBookmark(expected.getUrl());
+            assertEquals(expected.getUrl(), actual.getUrl());
+            assertEquals(expected.getTitle(), actual.getTitle());
+            assertEquals(expected.getFolder(), actual.getFolder());
+            assertEquals(expected.getDateAdded().truncatedTo(ChronoUnit.SECONDS), actual.getDateAdded());
+        }
+        assertEquals(List.of("Bookmarks Bar/Cartoons & <Comics>/Old"),
+            target.getSubfolders("Bookmarks Bar/Cartoons & <Comics>"));
+        assertEquals(html, export(target));
+    }
+
+    @Test
+    void otherBrowsersSpecialFoldersAndEntitiesAreRead() throws IOException {
+        String html = "<!DOCTYPE NETSCAPE-Bookmark-file-1>\n"
+            + "<!-- <DL> in a comment is not a list -->\n"
+            + "<DL><p>\n"
+            + "  <DT><H3 PERSONAL_TOOLBAR_FOLDER=\"true\">Bookmarks Toolbar</H3>\n"
+            + "  <DL><p>\n"
+            + "    <DT><H3>News/Sport</H3>\n"
+            + "    <DL><p>\n"
+            + "      <DT><A HREF=\"https://e.example/?a=1&amp;b=2\" ADD_DATE=\"1700000000\">It&#39;s  a\n"
+            + "        &#x263A; page&nbsp;</A>\n"
+            + "    </DL><p>\n"
+            + "    <DT><A HREF=\"place:sort=8\">Recent tags</A>\n"
+            + "  </DL><p>\n"
+            + "  <DT><A HREF=\"https://f.example/\"></A>\n"
+            + "</DL><p>\n";
+
+        BookmarkManager target = new BookmarkManager();
+        assertEquals(2, NetscapeBookmarks.importFrom(new StringReader(html), target));
+        Bookmark page = target.getBookmark("https://e.example/?a=1&b=2");
+        assertEquals("It's a ☺ page", page.getTitle().trim());
+        assertEquals("Bookmarks Bar/News∕Sport", page.getFolder());
+        assertEquals(1_700_000_000L, page.getDateAdded().atZone(ZoneId.systemDefault()).toEpochSecond());
+        Bookmark untitled = target.getBookmark("https://f.example/");
+        assertEquals(untitled.getUrl(), untitled.getTitle());
+        assertEquals("Default", untitled.getFolder());
+        assertNull(target.getBookmark("place:sort=8"));
+    }
+}
@@ -0,0 +1,115 @@
+package it.r2u.animar2u.core.storage;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class PartFileTest {
+
+    @TempDir
+    Path directory;
+
+    private static long[][] array(List<long[]> ranges) {
+        return ranges.toArray(new long[0][]);
+    }
+
+    private PartFile part(long length) throws IOException {
+        PartFile part = new PartFile(directory.resolve("file.bin"), "https://example.com/file.bin");
+        part.reset("\"v1\"", null, length);
+        return part;
+    }
+
+    @Test
+    void confirmSortsAndMergesRanges() throws IOException {
+        PartFile part = part(1000);
+        part.confirm(List.of(new long[] {500, 600}, new long[] {0, 100}, new long[] {100, 200},
+            new long[] {550, 700}, new long[] {800, 800}));
+
+        assertArrayEquals(new long[][] {{0, 200}, {500, 700}}, array(part.getConfirmed()));
+        assertEquals(400, part.getConfirmedSize());
+        assertEquals(700, part.getConfirmedEnd());
+        assertFalse(part.isEmpty());
+    }
+
+    @Test
+    void gapsAreTheMissingRanges() throws IOException {
+        PartFile part = part(1000);
+        assertArrayEquals(new long[][] {{0, 1000}}, array(part.getGaps()));
+
+        part.confirm(List.of(new long[] {100, 200}, new long[] {500, 1000}));
+        assertArrayEquals(new long[][] {{0, 100}, {200, 500}}, array(part.getGaps()));
+
+        part.confirm(List.of(new long[] {0, 1000}));
+        assertTrue(part.getGaps().isEmpty());
+    }
+
+    @Test
+    void unknownLengthLeavesAnOpenGap() throws IOException {
+        PartFile part = part(-1);
+        part.confirm(List.of(new long[] {0, 300}));
+
+        assertArrayEquals(new long[][] {{300, Long.MAX_VALUE}}, array(part.getGaps()));
+    }
+
+    @Test
+    void sidecarRoundTrips() throws IOException {
+        PartFile part = part(5000);
+        part.confirm(List.of(new long[] {0, 1024}, new long[] {2048, 4096}));
+
+        PartFile read = PartFile.read(directory.resolve("file.bin"));
+        assertEquals("https://example.com/file.bin", read.getUrl());
+        assertEquals("\"v1\"", read.getValidator());
+        assertEquals(5000, read.getLength());
+        assertArrayEquals(array(part.getConfirmed()), array(read.getConfirmed()));
+    }
+
+    @Test
+    void weakEtagFallsBackToLastModified() {
+        PartFile part = new PartFile(directory.resolve("file.bin"), "https://example.com/file.bin");
+        part.reset("W/\"v1\"", "Tue, 01 Oct 2024 10:00:00 GMT", 10);
+
+        assertEquals("Tue, 01 Oct 2024 10:00:00 GMT", part.getValidator());
+    }
+
+    @Test
+    void resetForgetsConfirmedRanges() throws IOException {
+        PartFile part = part(1000);
+        part.confirm(List.of(new long[] {0, 500}));
+        part.reset(null, null, 2000);
+
+        assertTrue(part.isEmpty());
+        assertNull(part.getValidator());
+        assertArrayEquals(new long[][] {{0, 2000}}, array(part.getGaps()));
+    }
+
+    @Test
+    void missingOrDamagedSidecarReadsAsNone() throws IOException {
+        Path target = directory.resolve("file.bin");
+        assertNull(PartFile.read(target));
+
+        Files.write(PartFile.sidecarPath(target), new byte[] {1, 2, 3});
+        assertNull(PartFile.read(target));
+    }
+
+    @Test
+    void completeMovesThePartIntoPlace() throws IOException {
+        Path target = directory.resolve("file.bin");
+        PartFile part = part(3);
+        Files.write(part.getPartPath(), new byte[] {1, 2, 3});
+        part.confirm(List.of(new long[] {0, 3}));
+        part.complete();
+
+        assertArrayEquals(new byte[] {1, 2, 3}, Files.readAllBytes(target));
+        assertFalse(Files.exists(PartFile.partPath(target)));
+        assertFalse(Files.exists(PartFile.sidecarPath(target)));
+    }
+}
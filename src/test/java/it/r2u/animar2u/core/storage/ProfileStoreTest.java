@@ -0,0 +1,151 @@
+package it.r2u.animar2u.core.storage;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ProfileStoreTest {
+
+    private static final int BIG_VALUES = 80;
+
+    @TempDir
+    Path directory;
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Enough 64 KB values to push the log past the compaction threshold
+     */
+    private static void putBigValues(ProfileStore store) {
+        for (int i = 0; i < BIG_VALUES; i++) {
+            byte[] value = new byte[64 * 1024];
+            Arrays.fill(value, (byte) i);
+            store.put("big", "key" + i, value);
+        }
+    }
+
+    private static void assertBigValues(ProfileStore store) {
+        Map<String, byte[]> values = store.load("big");
+        assertEquals(BIG_VALUES, values.size());
+        for (int i = 0; i < BIG_VALUES; i++) {
+            byte[] value = values.get("key" + i);
+            assertEquals(64 * 1024, value.length);
+            assertEquals((byte) i, value[value.length - 1]);
+        }
+    }
+
+    @Test
+    void changesSurviveReopening() throws IOException {
+        try (ProfileStore store = ProfileStore.open(directory)) {
+            store.put("bookmarks", "a", bytes("one"));
+            store.put("bookmarks", "b", bytes("two"));
+            store.put("bookmarks", "a", bytes("three"));
+            store.put("bookmarks", "c", bytes("four"));
+            store.remove("bookmarks", "b");
+            store.put("downloads", "x", bytes("gone"));
+            store.clear("downloads");
+        }
+
+        try (ProfileStore store = ProfileStore.open(directory)) {
+            Map<String, byte[]> bookmarks = store.load("bookmarks");
+            assertEquals(List.of("a", "c"), List.copyOf(bookmarks.keySet()));
+            assertArrayEquals(bytes("three"), bookmarks.get("a"));
+            assertArrayEquals(bytes("four"), bookmarks.get("c"));
+            assertTrue(store.load("downloads").isEmpty());
+        }
+    }
+
+    @Test
+    void flushMakesChangesDurableWhileOpen() throws IOException {
+        ProfileStore store = ProfileStore.open(directory);
+        store.put("bookmarks", "a", bytes("one"));
+        store.flush();
+        long logSize = Files.size(directory.resolve("profile-0.log"));
+        assertTrue(logSize > 16, "log holds the record after flush");
+        store.close();
+    }
+
+    @Test
+    void tornLogTailIsDropped() throws IOException {
+        try (ProfileStore store = ProfileStore.open(directory)) {
+            store.put("bookmarks", "a", bytes("one"));
+        }
+        Path log = directory.resolve("profile-0.log");
+        long intact = Files.size(log);
+        // Half a record: a frame length promising more bytes than follow
+        Files.write(log, new byte[] {40, 1, 2, 3}, StandardOpenOption.APPEND);
+
+        try (ProfileStore store = ProfileStore.open(directory)) {
+            assertArrayEquals(bytes("one"), store.load("bookmarks").get("a"));
+            assertEquals(intact, Files.size(log));
+            store.put("bookmarks", "b", bytes("two"));
+        }
+
+        try (ProfileStore store = ProfileStore.open(directory)) {
+            assertEquals(List.of("a", "b"), List.copyOf(store.load("bookmarks").keySet()));
+        }
+    }
+
+    @Test
+    void compactionWritesASnapshotAndStartsANewLog() throws IOException {
+        try (ProfileStore store = ProfileStore.open(directory)) {
+            putBigValues(store);
+            store.put("bookmarks", "a", bytes("one"));
+        }
+        assertTrue(Files.exists(directory.resolve("profile.snapshot")));
+        assertFalse(Files.exists(directory.resolve("profile-0.log")));
+        assertTrue(Files.exists(directory.resolve("profile-1.log")));
+
+        try (ProfileStore store = ProfileStore.open(directory)) {
+            assertBigValues(store);
+            store.remove("big", "key0");
+            store.put("bookmarks", "b", bytes("two"));
+        }
+
+        try (ProfileStore store = ProfileStore.open(directory)) {
+            assertEquals(BIG_VALUES - 1, store.load("big").size());
+            assertEquals(List.of("a", "b"), List.copyOf(store.load("bookmarks").keySet()));
+        }
+    }
+
+    @Test
+    void aFailedCompactionKeepsCommittingAndIsRetried() throws IOException {
+        Path temp = directory.resolve("profile.snapshot.tmp");
+        try (ProfileStore store = ProfileStore.open(directory)) {
+            // A directory in the way makes writing the new snapshot fail
+            Files.createDirectory(temp);
+            putBigValues(store);
+            store.flush();
+            store.put("bookmarks", "a", bytes("one"));
+            store.flush();
+        }
+        assertFalse(Files.exists(directory.resolve("profile.snapshot")));
+        Files.delete(temp);
+
+        try (ProfileStore store = ProfileStore.open(directory)) {
+            assertBigValues(store);
+            assertArrayEquals(bytes("one"), store.load("bookmarks").get("a"));
+            store.put("bookmarks", "b", bytes("two"));
+        }
+        assertTrue(Files.exists(directory.resolve("profile.snapshot")));
+
+        try (ProfileStore store = ProfileStore.open(directory)) {
+            assertBigValues(store);
+            assertEquals(List.of("a", "b"), List.copyOf(store.load("bookmarks").keySet()));
+        }
+    }
+}
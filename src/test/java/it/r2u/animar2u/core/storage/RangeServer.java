@@ -0,0 +1,179 @@
+package it.r2u.animar2u.core.storage;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Local HTTP/1.1 server for one file, answering Range and If-Range requests
+ * the way download servers do. Requests are numbered from 1 in the order they
+ * arrive, so a test can slow down, break or change the file for one of them.
+ * Every response closes its connection.
+ */
+final class RangeServer implements Closeable {
+
+    private static final int CHUNK = 16 * 1024;
+
+    private final byte[] data;
+    private final ServerSocket socket;
+    private final Thread acceptor;
+    private final AtomicInteger requests = new AtomicInteger();
+    // {from, to} of each request, to exclusive; the whole file when there was no range
+    private final List<long[]> requested = new ArrayList<>();
+
+    volatile boolean acceptRanges = true;
+    volatile String etag = "\"v1\"";
+    // Per connection, 0 for unlimited
+    volatile long bytesPerSecond;
+    volatile int slowRequest = -1;
+    volatile long slowBytesPerSecond;
+    volatile int failingRequest = -1;
+    volatile long failAfterBytes;
+    // Requests from this one on see a new version of the file
+    volatile int changedFromRequest = -1;
+
+    RangeServer(byte[] data) throws IOException {
+        this.data = data;
+        this.socket = new ServerSocket(0, 64, InetAddress.getLoopbackAddress());
+        this.acceptor = Thread.ofPlatform().daemon().name("range-server").start(this::accept);
+    }
+
+    String url() {
+        return "http://127.0.0.1:" + socket.getLocalPort() + "/file.bin";
+    }
+
+    int getRequests() {
+        return requests.get();
+    }
+
+    List<long[]> getRequested() {
+        synchronized (requested) {
+            return new ArrayList<>(requested);
+        }
+    }
+
+    /**
+     * Forget the requests so far, keeping the numbering
+     */
+    void clearRequested() {
+        synchronized (requested) {
+            requested.clear();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+        try {
+            acceptor.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void accept() {
+        while (!socket.isClosed()) {
+            try {
+                Socket connection = socket.accept();
+                Thread.ofVirtual().start(() -> serve(connection));
+            } catch (IOException e) {
+                // Closed
+            }
+        }
+    }
+
+    private void serve(Socket connection) {
+        try (connection) {
+            BufferedReader in = new BufferedReader(
+                new InputStreamReader(connection.getInputStream(), StandardCharsets.ISO_8859_1));
+            String requestLine = in.readLine();
+            if (requestLine == null) {
+                return;
+            }
+            String range = null;
+            String ifRange = null;
+            for (String line = in.readLine(); line != null && !line.isEmpty(); line = in.readLine()) {
+                int colon = line.indexOf(':');
+                String name = line.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+                String value = line.substring(colon + 1).trim();
+                if (name.equals("range")) {
+                    range = value;
+                } else if (name.equals("if-range")) {
+                    ifRange = value;
+                }
+            }
+            int number = requests.incrementAndGet();
+            respond(connection.getOutputStream(), number, range, ifRange);
+        } catch (IOException e) {
+            // The client went away, e.g. after a segment was taken over
+        }
+    }
+
+    private void respond(OutputStream out, int number, String range, String ifRange) throws IOException {
+        String currentEtag = changedFromRequest > 0 && number >= changedFromRequest ? "\"v2\"" : etag;
+        long from = 0;
+        long to = data.length;
+        boolean partial = false;
+        if (acceptRanges && range != null && range.startsWith("bytes=")
+                && (ifRange == null || ifRange.equals(currentEtag))) {
+            String[] bounds = range.substring(6).split("-", -1);
+            from = Long.parseLong(bounds[0]);
+            if (!bounds[1].isEmpty()) {
+                to = Math.min(to, Long.parseLong(bounds[1]) + 1);
+            }
+            partial = true;
+        }
+        synchronized (requested) {
+            requested.add(new long[] {from, to});
+        }
+
+        StringBuilder head = new StringBuilder();
+        head.append(partial ? "HTTP/1.1 206 Partial Content\r\n" : "HTTP/1.1 200 OK\r\n");
+        head.append("Content-Length: ").append(to - from).append("\r\n");
+        if (partial) {
+            head.append("Content-Range: bytes ").append(from).append('-').append(to - 1)
+                .append('/').append(data.length).append("\r\n");
+        }
+        if (acceptRanges) {
+            head.append("Accept-Ranges: bytes\r\n");
+        }
+        head.append("ETag: ").append(currentEtag).append("\r\n");
+        head.append("Connection: close\r\n\r\n");
+        out.write(head.toString().getBytes(StandardCharsets.ISO_8859_1));
+
+        long rate = number == slowRequest ? slowBytesPerSecond : bytesPerSecond;
+        long limit = number == failingRequest ? from + failAfterBytes : to;
+        long started = System.nanoTime();
+        for (long position = from; position < to; ) {
+            if (position >= limit) {
+                // Cut the connection mid-body
+                return;
+            }
+            int length = (int) Math.min(CHUNK, Math.min(to, limit) - position);
+            out.write(data, (int) position, length);
+            position += length;
+            if (rate > 0) {
+                long due = (long) ((position - from) * 1e9 / rate) - (System.nanoTime() - started);
+                if (due > 0) {
+                    try {
+                        TimeUnit.NANOSECONDS.sleep(due);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        }
+        out.flush();
+    }
+}
@@ -0,0 +1,99 @@
+package it.r2u.animar2u.core.storage;
+
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to download a 32 MB file from a local range server that caps each
+ * connection at 8 MB/s, as a server limiting per-connection bandwidth would.
+ * "single" has no Accept-Ranges, so one connection fetches everything;
+ * "segmented" splits the file between four; "oneSlow" does too, with one of
+ * them capped at 1 MB/s, so the others have to take its work over.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class SegmentedDownloadBenchmark {
+
+    private static final int FILE_SIZE = 32 * 1024 * 1024;
+
+    @Param({"single", "segmented", "oneSlow"})
+    public String server;
+
+    private RangeServer rangeServer;
+    private HttpClient client;
+    private ExecutorService workers;
+    private Path directory;
+    private Path target;
+
+    @Setup
+    public void start() throws IOException {
+        byte[] data = new byte[FILE_SIZE];
+        new Random(18).nextBytes(data);
+        rangeServer = new RangeServer(data);
+        rangeServer.bytesPerSecond = 8 * 1024 * 1024;
+        rangeServer.acceptRanges = !server.equals("single");
+        rangeServer.slowBytesPerSecond = 1024 * 1024;
+        client = HttpClient.newHttpClient();
+        workers = Executors.newVirtualThreadPerTaskExecutor();
+        directory = Files.createTempDirectory("segmented-download");
+        target = directory.resolve("file.bin");
+    }
+
+    @Setup(Level.Iteration)
+    public void clear() throws IOException {
+        Files.deleteIfExists(target);
+        // Request numbers keep counting, so pick the next download's second connection
+        rangeServer.slowRequest = server.equals("oneSlow") ? rangeServer.getRequests() + 2 : -1;
+    }
+
+    @TearDown
+    public void stop() throws IOException {
+        rangeServer.close();
+        workers.shutdownNow();
+        client.shutdownNow();
+        Files.deleteIfExists(target);
+        Files.deleteIfExists(directory);
+    }
+
+    @Benchmark
+    public DownloadItem download() throws Exception {
+        DownloadScheduler scheduler = new DownloadScheduler(workers);
+        DownloadItem item = new DownloadItem("file.bin", rangeServer.url(), target.toString());
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        HttpDownload download = new HttpDownload("benchmark", item, client, scheduler, new DownloadHashIndex(null),
+            stopped -> {
+                scheduler.finished(stopped);
+                done.complete(null);
+            });
+        scheduler.submit(download, DownloadManager.Priority.USER);
+        done.get(5, TimeUnit.MINUTES);
+        if (item.getStatus() != DownloadItem.DownloadStatus.COMPLETED || Files.size(target) != FILE_SIZE) {
+            throw new IllegalStateException("Download ended " + item.getStatus());
+        }
+        return item;
+    }
+}
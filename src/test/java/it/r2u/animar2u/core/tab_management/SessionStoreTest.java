@@ -0,0 +1,138 @@
+package it.r2u.animar2u.core.tab_management;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import it.r2u.animar2u.core.storage.ProfileStore;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SessionStoreTest {
+
+    @TempDir
+    Path directory;
+
+    private static TabState tab(String id, int pages, int index) {
+        List<TabState.Entry> entries = new ArrayList<>();
+        for (int i = 0; i < pages; i++) {
+            entries.add(new TabState.Entry("https://" + id + ".example/" + i, "Page " + i));
+        }
+        return new TabState(id, id + " title", entries, index);
+    }
+
+    private static List<String> ids(List<TabState> tabs) {
+        List<String> ids = new ArrayList<>();
+        for (TabState tab : tabs) {
+            ids.add(tab.getId());
+        }
+        return ids;
+    }
+
+    private void saveThreeTabs() throws IOException {
+        try (ProfileStore store = ProfileStore.open(directory)) {
+            new SessionStore(store).save(List.of(tab("a", 3, 1), tab("b", 1, 0), tab("c", 2, 1)), 1);
+        }
+    }
+
+    @Test
+    void tabsComeBackInOrderWithTheSelection() throws IOException {
+        saveThreeTabs();
+
+        try (ProfileStore store = ProfileStore.open(directory)) {
+            SessionStore session = new SessionStore(store);
+            List<TabState> tabs = session.load();
+            assertEquals(List.of("a", "b", "c"), ids(tabs));
+            assertEquals(1, session.getSelectedIndex());
+            assertEquals("a title", tabs.get(0).getTitle());
+            assertEquals(3, tabs.get(0).getEntries().size());
+            assertEquals("https://a.example/1", tabs.get(0).getUrl());
+            assertEquals("Page 2", tabs.get(0).getEntries().get(2).getTitle());
+
+            // Closed and reordered tabs are saved as such
+            session.save(List.of(tabs.get(2), tabs.get(0)), 0);
+        }
+
+        try (ProfileStore store = ProfileStore.open(directory)) {
+            SessionStore session = new SessionStore(store);
+            assertEquals(List.of("c", "a"), ids(session.load()));
+            assertEquals(0, session.getSelectedIndex());
+            assertFalse(store.load("session-tabs").containsKey("b"));
+        }
+    }
+
+    @Test
+    void longHistoriesKeepTheEntriesAroundTheCurrentPage() {
+        TabState saved = SessionStore.decode("a", SessionStore.encode(tab("a", 120, 100)));
+
+        assertEquals(SessionStore.MAX_ENTRIES, saved.getEntries().size());
+        assertEquals("https://a.example/70", saved.getEntries().get(0).getUrl());
+        assertEquals("https://a.example/100", saved.getUrl());
+
+        TabState early = SessionStore.decode("a", SessionStore.encode(tab("a", 120, 3)));
+        assertEquals("https://a.example/0", early.getEntries().get(0).getUrl());
+        assertEquals("https://a.example/3", early.getUrl());
+
+        TabState empty = SessionStore.decode("a", SessionStore.encode(tab("a", 0, 0)));
+        assertEquals(-1, empty.getIndex());
+        assertEquals("", empty.getUrl());
+    }
+
+    @Test
+    void aDamagedTabIsSkippedAndTheOthersLoad() throws IOException {
+        saveThreeTabs();
+        try (ProfileStore store = ProfileStore.open(directory)) {
+            // An entry count far beyond the record
+            store.put("session-tabs", "a", new byte[] {0, 1, 0x7F});
+        }
+
+        try (ProfileStore store = ProfileStore.open(directory)) {
+            SessionStore session = new SessionStore(store);
+            assertEquals(List.of("b", "c"), ids(session.load()));
+            assertEquals(0, session.getSelectedIndex());
+        }
+    }
+
+    @Test
+    void aDamagedOrderKeepsEveryTabInStoreOrder() throws IOException {
+        saveThreeTabs();
+        try (ProfileStore store = ProfileStore.open(directory)) {
+            // A varint that never ends
+            store.put("session", "order", new byte[] {(byte) 0x85});
+        }
+
+        try (ProfileStore store = ProfileStore.open(directory)) {
+            SessionStore session = new SessionStore(store);
+            List<TabState> tabs = session.load();
+            assertEquals(List.of("a", "b", "c"), ids(tabs));
+            assertEquals(1, session.getSelectedIndex());
+            assertEquals(3, store.load("session-tabs").size());
+
+            // The next save writes a good order again
+            session.save(List.of(tabs.get(1), tabs.get(0), tabs.get(2)), 0);
+        }
+
+        try (ProfileStore store = ProfileStore.open(directory)) {
+            assertEquals(List.of("b", "a", "c"), ids(new SessionStore(store).load()));
+        }
+    }
+
+    @Test
+    void tabsTheOrderNeverListedAreDropped() throws IOException {
+        saveThreeTabs();
+        try (ProfileStore store = ProfileStore.open(directory)) {
+            // Saved just before a crash that came before the order was
+            store.put("session-tabs", "d", SessionStore.encode(tab("d", 1, 0)));
+        }
+
+        try (ProfileStore store = ProfileStore.open(directory)) {
+            assertEquals(List.of("a", "b", "c"), ids(new SessionStore(store).load()));
+            assertFalse(store.load("session-tabs").containsKey("d"));
+            assertTrue(store.load("session-tabs").containsKey("a"));
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package it.r2u.animar2u.core.tab_management;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class TabManagerTest {
+
+    private static final long NOW = 1_000_000;
+    private static final long IDLE_SINCE = NOW - 1000;
+
+    private static final class Tab {
+        final String name;
+        final long lastActive;
+        final boolean busy;
+
+        Tab(String name, long lastActive, boolean busy) {
+            this.name = name;
+            this.lastActive = lastActive;
+            this.busy = busy;
+        }
+    }
+
+    private final List<Tab> live = new ArrayList<>();
+
+    private void add(String name, long lastActive) {
+        live.add(new Tab(name, lastActive, false));
+    }
+
+    private void addBusy(String name, long lastActive) {
+        live.add(new Tab(name, lastActive, true));
+    }
+
+    private List<String> pick(int maxLive, boolean heapFull) {
+        List<String> names = new ArrayList<>();
+        for (Tab tab : TabManager.pickToHibernate(live, t -> t.lastActive, t -> t.busy, IDLE_SINCE, maxLive, heapFull)) {
+            names.add(tab.name);
+        }
+        return names;
+    }
+
+    @Test
+    void idleTabsHibernateOldestFirst() {
+        add("recent", NOW - 10);
+        add("idle", NOW - 5000);
+        add("older", NOW - 9000);
+        add("justIdle", IDLE_SINCE - 1);
+        add("atTheLimit", IDLE_SINCE);
+
+        assertEquals(List.of("older", "idle", "justIdle"), pick(10, false));
+    }
+
+    @Test
+    void tabsOverTheBudgetHibernateLeastRecentlyShownFirst() {
+        for (int i = 0; i < 6; i++) {
+            add("tab" + i, NOW - i);
+        }
+
+        assertEquals(List.of("tab5", "tab4"), pick(4, false));
+        assertEquals(List.of(), pick(6, false));
+        assertEquals(List.of("tab5", "tab4", "tab3", "tab2", "tab1", "tab0"), pick(0, false));
+    }
+
+    @Test
+    void busyTabsAreSkippedButStillCountAsLive() {
+        addBusy("loading", NOW - 9000);
+        add("a", NOW - 30);
+        add("b", NOW - 20);
+        add("c", NOW - 10);
+
+        // Four live with a budget of two: the busy tab stays, so two others go
+        assertEquals(List.of("a", "b"), pick(2, false));
+        // Busy tabs stay even when idle
+        assertEquals(List.of(), pick(10, false));
+    }
+
+    @Test
+    void aFullHeapTakesOneTabPerSweep() {
+        addBusy("playing", NOW - 50);
+        add("a", NOW - 40);
+        add("b", NOW - 30);
+
+        assertEquals(List.of("a"), pick(10, true));
+    }
+
+    @Test
+    void aFullHeapDoesNotAddToIdleOrOverBudgetTabs() {
+        add("idle", NOW - 5000);
+        add("a", NOW - 40);
+        add("b", NOW - 30);
+
+        // The idle tab is the one taken for the heap, not one more
+        assertEquals(List.of("idle"), pick(10, true));
+        assertEquals(List.of("idle", "a"), pick(1, true));
+    }
+}
@@ -0,0 +1,124 @@
+package it.r2u.animar2u.core.tab_management;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class WebViewPoolTest {
+
+    private static final long MILLIS = 1_000_000L;
+    private static final long FRAME = 16 * MILLIS;
+
+    private final List<String> dropped = new ArrayList<>();
+    private boolean busy;
+    private int created;
+
+    private WebViewPool.ReadyQueue<String> queue(int capacity) {
+        return new WebViewPool.ReadyQueue<>(capacity, () -> busy, () -> "view" + created++, dropped::add, 0);
+    }
+
+    /**
+     * Pulse once per frame from {@code from} up to and including {@code to}
+     */
+    private static void frames(WebViewPool.ReadyQueue<String> ready, long from, long to, long frame) {
+        for (long now = from; now <= to; now += frame) {
+            ready.pulse(now);
+        }
+    }
+
+    @Test
+    void refillsWaitAfterATakeThenAddOnePerFrame() {
+        WebViewPool.ReadyQueue<String> ready = queue(2);
+        frames(ready, FRAME, 299 * MILLIS, FRAME);
+        assertEquals(0, ready.items.size());
+
+        assertTrue(ready.pulse(300 * MILLIS));
+        assertEquals(1, ready.items.size());
+        assertTrue(ready.pulse(300 * MILLIS + FRAME));
+        assertEquals(2, ready.items.size());
+        // Full: the timer can stop
+        assertFalse(ready.pulse(300 * MILLIS + 2 * FRAME));
+        assertEquals(2, created);
+    }
+
+    @Test
+    void takesCountHitsAndMisses() {
+        WebViewPool.ReadyQueue<String> ready = queue(2);
+        frames(ready, 300 * MILLIS, 400 * MILLIS, FRAME);
+
+        assertEquals("view0", ready.take(500 * MILLIS));
+        assertEquals("view1", ready.take(501 * MILLIS));
+        assertEquals("view2", ready.take(502 * MILLIS));
+        assertEquals(2, ready.hits);
+        assertEquals(1, ready.misses);
+
+        // The frames right after a take are left to the new tab
+        frames(ready, 502 * MILLIS + FRAME, 801 * MILLIS, FRAME);
+        assertEquals(0, ready.items.size());
+        ready.pulse(802 * MILLIS);
+        assertEquals(1, ready.items.size());
+    }
+
+    @Test
+    void aBusyBrowserPutsRefillsOffUntilTheyAreOverdue() {
+        WebViewPool.ReadyQueue<String> ready = queue(1);
+        busy = true;
+        frames(ready, 0, 2999 * MILLIS, FRAME);
+        assertEquals(0, ready.items.size());
+
+        ready.pulse(3000 * MILLIS);
+        assertEquals(1, ready.items.size());
+    }
+
+    @Test
+    void droppedFramesPutRefillsOffUntilTheyAreOverdue() {
+        WebViewPool.ReadyQueue<String> ready = queue(1);
+        frames(ready, 0, 2999 * MILLIS, 50 * MILLIS);
+        assertEquals(0, ready.items.size());
+
+        ready.pulse(3000 * MILLIS);
+        assertEquals(1, ready.items.size());
+
+        // One late frame only puts the refill off until frames are on time again
+        ready = queue(1);
+        ready.pulse(290 * MILLIS);
+        ready.pulse(400 * MILLIS);
+        assertEquals(0, ready.items.size());
+        ready.pulse(400 * MILLIS + FRAME);
+        assertEquals(1, ready.items.size());
+    }
+
+    @Test
+    void newTabsAreTimedToTheirFirstFrame() {
+        WebViewPool.ReadyQueue<String> ready = queue(0);
+        ready.newTabCreated(100 * MILLIS);
+        ready.pulse(130 * MILLIS);
+        ready.pulse(150 * MILLIS);
+        ready.newTabCreated(200 * MILLIS);
+        ready.pulse(210 * MILLIS);
+
+        assertEquals(2, ready.newTabs);
+        assertEquals(40 * MILLIS, ready.totalNewTabNanos);
+        assertEquals(30 * MILLIS, ready.maxNewTabNanos);
+        assertEquals(10 * MILLIS, ready.lastNewTabNanos);
+    }
+
+    @Test
+    void loweringTheCapacityDropsExtraViews() {
+        WebViewPool.ReadyQueue<String> ready = queue(3);
+        frames(ready, 300 * MILLIS, 400 * MILLIS, FRAME);
+        assertEquals(3, ready.items.size());
+
+        ready.setCapacity(1);
+        assertEquals(List.of("view0", "view1"), dropped);
+        assertEquals(1, ready.items.size());
+
+        ready.setCapacity(0);
+        assertEquals(0, ready.items.size());
+        assertFalse(ready.pulse(500 * MILLIS));
+    }
+}
@@ -0,0 +1,74 @@
+package it.r2u.animar2u.core.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class TokenBucketTest {
+
+    private static long elapsedMillis(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    @Test
+    void zeroRateNeverWaits() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(0);
+        long start = System.nanoTime();
+        bucket.acquire(1L << 40);
+
+        assertTrue(elapsedMillis(start) < 100);
+        assertEquals(0, bucket.getRate());
+    }
+
+    @Test
+    void debtIsPaidOffAtTheRate() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(1_000_000);
+        long start = System.nanoTime();
+        bucket.acquire(200_000);
+
+        long elapsed = elapsedMillis(start);
+        assertTrue(elapsed >= 180, "waited " + elapsed + " ms");
+        assertTrue(elapsed < 1000, "waited " + elapsed + " ms");
+    }
+
+    @Test
+    void concurrentCallersShareTheRate() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(1_000_000);
+        Thread other = new Thread(() -> {
+            try {
+                bucket.acquire(150_000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        long start = System.nanoTime();
+        other.start();
+        bucket.acquire(150_000);
+        other.join();
+
+        long elapsed = elapsedMillis(start);
+        assertTrue(elapsed >= 270, "waited " + elapsed + " ms");
+    }
+
+    @Test
+    void idleTimeBuildsUpABurst() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(1_000_000);
+        Thread.sleep(300);
+        long start = System.nanoTime();
+        bucket.acquire(200_000);
+
+        assertTrue(elapsedMillis(start) < 100);
+    }
+
+    @Test
+    void removingTheLimitStopsWaiting() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(1_000);
+        bucket.setRate(0);
+        long start = System.nanoTime();
+        bucket.acquire(1_000_000);
+
+        assertTrue(elapsedMillis(start) < 100);
+    }
+}
@@ -0,0 +1,60 @@
+package it.r2u.animar2u.core.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class UrlCanonicalizerTest {
+
+    private final UrlCanonicalizer canonicalizer = new UrlCanonicalizer(List.of("utm_*", "fbclid"));
+
+    @Test
+    void keyIgnoresSchemeFragmentAndTrailingSlash() {
+        long key = UrlCanonicalizer.key("https://example.com/page");
+
+        assertEquals(key, UrlCanonicalizer.key("http://example.com/page"));
+        assertEquals(key, UrlCanonicalizer.key("https://example.com/page/"));
+        assertEquals(key, UrlCanonicalizer.key("https://example.com/page#section"));
+        assertEquals(key, UrlCanonicalizer.key("http://example.com/page/#top"));
+    }
+
+    @Test
+    void keySeparatesDifferentResources() {
+        long key = UrlCanonicalizer.key("https://example.com/page");
+
+        assertNotEquals(key, UrlCanonicalizer.key("https://example.com/other"));
+        assertNotEquals(key, UrlCanonicalizer.key("https://example.com/page?id=1"));
+        assertNotEquals(key, UrlCanonicalizer.key("https://example.org/page"));
+        assertNotEquals(key, UrlCanonicalizer.key("ftp://example.com/page"));
+    }
+
+    @Test
+    void keyIsTheHashOfTheIdentity() {
+        String url = "https://example.com/a/?q=1#x";
+
+        assertEquals("//example.com/a?q=1", UrlCanonicalizer.identity(url));
+        assertEquals(Hashing.hash64(UrlCanonicalizer.identity(url)), UrlCanonicalizer.key(url));
+        assertEquals(UrlCanonicalizer.key(url), UrlCanonicalizer.key(UrlCanonicalizer.identity(url)));
+    }
+
+    @Test
+    void keysAgreeAcrossSpellingsAfterCanonicalizing() {
+        String plain = canonicalizer.canonicalize("https://example.com/page?id=1");
+        String tracked = canonicalizer.canonicalize("HTTPS://Example.COM:443/page?utm_source=x&id=1&fbclid=y");
+
+        assertEquals(plain, tracked);
+        assertEquals(UrlCanonicalizer.key(plain), UrlCanonicalizer.key(tracked));
+    }
+
+    @Test
+    void canonicalUrlsComeBackUnchanged() {
+        String url = "https://example.com/page?id=1";
+
+        assertSame(url, canonicalizer.canonicalize(url));
+        assertEquals("https://example.com/", canonicalizer.canonicalize("https://example.com"));
+        assertEquals("about:blank", canonicalizer.canonicalize(" about:blank "));
+    }
+}
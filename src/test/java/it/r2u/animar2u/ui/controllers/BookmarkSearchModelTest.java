@@ -0,0 +1,109 @@
+package it.r2u.animar2u.ui.controllers;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import it.r2u.animar2u.core.storage.Bookmark;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import javafx.collections.FXCollections;
+import javafx.collections.ListChangeListener;
+import javafx.collections.ObservableList;
+import org.junit.jupiter.api.Test;
+
+class BookmarkSearchModelTest {
+
+    private final List<Bookmark> pool = new ArrayList<>();
+
+    BookmarkSearchModelTest() {
+        for (int i = 0; i < 40; i++) {
+            pool.add(new Bookmark("Page " + i, "https://example.com/" + i));
+        }
+    }
+
+    private static List<Bookmark> randomSubset(Random random, List<Bookmark> from) {
+        List<Bookmark> subset = new ArrayList<>();
+        for (Bookmark bookmark : from) {
+            if (random.nextInt(3) > 0) {
+                subset.add(bookmark);
+            }
+        }
+        return subset;
+    }
+
+    private static void assertSameRows(List<Bookmark> expected, List<Bookmark> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertSame(expected.get(i), actual.get(i));
+        }
+    }
+
+    @Test
+    void diffMatchesAnyFreshList() {
+        Random random = new Random(42);
+        for (int round = 0; round < 2000; round++) {
+            List<Bookmark> shuffled = new ArrayList<>(pool);
+            Collections.shuffle(shuffled, random);
+            ObservableList<Bookmark> items = FXCollections.observableArrayList(randomSubset(random, shuffled));
+            Collections.shuffle(shuffled, random);
+            List<Bookmark> fresh = randomSubset(random, shuffled);
+
+            BookmarkSearchModel.applyDiff(items, fresh);
+            assertSameRows(fresh, items);
+        }
+    }
+
+    @Test
+    void rowsThatStayInOrderAreNeverReplaced() {
+        Random random = new Random(7);
+        for (int round = 0; round < 2000; round++) {
+            // Both lists keep the pool's order, like two result pages sorted by title
+            ObservableList<Bookmark> items = FXCollections.observableArrayList(randomSubset(random, pool));
+            List<Bookmark> fresh = randomSubset(random, pool);
+            Set<Bookmark> kept = Collections.newSetFromMap(new IdentityHashMap<>());
+            kept.addAll(fresh);
+            kept.retainAll(items);
+            List<Bookmark> removed = new ArrayList<>();
+            int[] removals = new int[1];
+            items.addListener((ListChangeListener<Bookmark>) change -> {
+                boolean removing = false;
+                while (change.next()) {
+                    if (change.wasRemoved()) {
+                        removed.addAll(change.getRemoved());
+                        removing = true;
+                    }
+                }
+                if (removing) {
+                    removals[0]++;
+                }
+            });
+
+            BookmarkSearchModel.applyDiff(items, fresh);
+            assertSameRows(fresh, items);
+            for (Bookmark bookmark : removed) {
+                assertFalse(kept.contains(bookmark), bookmark + " was removed although it stayed");
+            }
+            assertTrue(removals[0] <= 1, removals[0] + " removal events");
+        }
+    }
+
+    @Test
+    void newRowsArriveInOneChangePerRun() {
+        List<Bookmark> start = List.of(pool.get(1), pool.get(5));
+        ObservableList<Bookmark> items = FXCollections.observableArrayList(start);
+        List<Bookmark> fresh = List.of(pool.get(0), pool.get(1), pool.get(2), pool.get(3), pool.get(5), pool.get(6));
+        int[] changes = new int[1];
+        items.addListener((ListChangeListener<Bookmark>) change -> changes[0]++);
+
+        BookmarkSearchModel.applyDiff(items, fresh);
+        assertSameRows(fresh, items);
+        // Runs [0], [2, 3] and [6]
+        assertEquals(3, changes[0]);
+    }
+}
@@ -0,0 +1,164 @@
+package it.r2u.animar2u.ui.controllers;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import it.r2u.animar2u.core.navigation.HistoryJson;
+import it.r2u.animar2u.core.navigation.HistoryManager;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import javafx.collections.ListChangeListener;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class HistoryBrowserModelTest {
+
+    private static final LocalDate TODAY = LocalDate.now();
+    // Visits per day, newest day first
+    private static final int[] VISITS = {250, 5, 2000};
+
+    @TempDir
+    Path directory;
+
+    // Stands in for the FX thread: the test runs what the model posts to it
+    private final BlockingQueue<Runnable> fxThread = new LinkedBlockingQueue<>();
+    private HistoryManager history;
+    private HistoryBrowserModel model;
+
+    private static LocalDate day(int section) {
+        return TODAY.minusDays(section + 1);
+    }
+
+    /**
+     * Visit {@code i} of a day is made {@code i} seconds after noon
+     */
+    private static String title(int section, int visit) {
+        return "Day " + section + " visit " + visit;
+    }
+
+    @BeforeEach
+    void setUp() throws IOException {
+        history = new HistoryManager(directory);
+        history.load();
+        StringBuilder dump = new StringBuilder("[");
+        for (int section = 0; section < VISITS.length; section++) {
+            long noon = day(section).atTime(LocalTime.NOON).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            for (int i = 0; i < VISITS[section]; i++) {
+                dump.append(dump.length() > 1 ? "," : "")
+                    .append("{\"url\": \"https://day").append(section).append(".example/").append(i)
+                    .append("\", \"title\": \"").append(title(section, i))
+                    .append("\", \"visitTime\": ").append(noon + i * 1000L).append('}');
+            }
+        }
+        HistoryJson.importFrom(new StringReader(dump.append(']').toString()), history);
+        model = new HistoryBrowserModel(history, fxThread::add);
+    }
+
+    @AfterEach
+    void tearDown() {
+        model.close();
+        history.close();
+    }
+
+    private void pumpUntil(BooleanSupplier done) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!done.getAsBoolean()) {
+            Runnable task = fxThread.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            assertNotNull(task, "timed out");
+            task.run();
+        }
+    }
+
+    private int total() {
+        int total = 0;
+        for (int count : VISITS) {
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * Row of a visit: after the headings and visits of the newer days and its own heading
+     */
+    private static int rowOf(int section, int offset) {
+        int row = 0;
+        for (int i = 0; i < section; i++) {
+            row += 1 + VISITS[i];
+        }
+        return row + 1 + offset;
+    }
+
+    private String loadedTitle(int row) throws InterruptedException {
+        pumpUntil(() -> !model.getRows().get(row).isLoading());
+        return model.getRows().get(row).getEntry().getTitle();
+    }
+
+    @Test
+    void daysGetAHeadingFollowedByTheirVisitsNewestFirst() throws InterruptedException {
+        model.refresh();
+        pumpUntil(() -> model.visitCountProperty().get() == total());
+
+        assertEquals(VISITS.length + total(), model.getRows().size());
+        for (int section = 0; section < VISITS.length; section++) {
+            HistoryBrowserModel.Row heading = model.getRows().get(rowOf(section, -1));
+            assertTrue(heading.isHeader());
+            assertEquals(day(section), heading.getDate());
+        }
+        assertTrue(model.getRows().get(1).isLoading());
+        assertEquals(title(0, 249), loadedTitle(rowOf(0, 0)));
+        assertEquals(title(0, 0), loadedTitle(rowOf(0, 249)));
+        assertEquals(title(1, 4), loadedTitle(rowOf(1, 0)));
+        // Pages past the first of a day start at their offset
+        assertEquals(title(2, 2000 - 1 - 1234), loadedTitle(rowOf(2, 1234)));
+        assertEquals(title(2, 0), loadedTitle(rowOf(2, 1999)));
+    }
+
+    @Test
+    void onlyTheMostRecentlyShownPagesAreKept() throws InterruptedException {
+        model.refresh();
+        pumpUntil(() -> model.visitCountProperty().get() == total());
+        int[] replaced = new int[1];
+        model.getRows().addListener((ListChangeListener<HistoryBrowserModel.Row>) change -> {
+            while (change.next()) {
+                if (change.wasReplaced()) {
+                    replaced[0]++;
+                }
+            }
+        });
+
+        // Scroll through all ten pages of the oldest day
+        for (int page = 0; page < 10; page++) {
+            loadedTitle(rowOf(2, page * 200 + 150));
+        }
+        int loads = replaced[0];
+        assertTrue(loads >= 10, loads + " pages loaded");
+
+        // The last pages shown are still there, the first ones were dropped
+        assertEquals(title(2, 2000 - 1 - 1850), model.getRows().get(rowOf(2, 1850)).getEntry().getTitle());
+        assertTrue(model.getRows().get(rowOf(2, 10)).isLoading());
+        assertEquals(title(2, 2000 - 1 - 10), loadedTitle(rowOf(2, 10)));
+        assertTrue(replaced[0] > loads);
+    }
+
+    @Test
+    void searchCountsOnlyMatchingVisits() throws InterruptedException {
+        model.search("day1.example");
+        pumpUntil(() -> model.visitCountProperty().get() == VISITS[1]);
+
+        assertEquals(1 + VISITS[1], model.getRows().size());
+        assertEquals(day(1), model.getRows().get(0).getDate());
+        assertEquals(title(1, 4), loadedTitle(1));
+        assertEquals(title(1, 0), loadedTitle(5));
+    }
+}